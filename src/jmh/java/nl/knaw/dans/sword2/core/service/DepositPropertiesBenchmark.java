@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import nl.knaw.dans.sword2.core.Deposit;
+import nl.knaw.dans.sword2.core.DepositState;
+import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.FileBasedConfiguration;
+import org.apache.commons.configuration2.PropertiesConfiguration;
+import org.apache.commons.configuration2.builder.FileBasedConfigurationBuilder;
+import org.apache.commons.configuration2.builder.fluent.Parameters;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading and writing deposit.properties with {@link DepositPropertiesFile} to the commons-configuration based implementation it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DepositPropertiesBenchmark {
+    private Path dir;
+    private Path propertiesFile;
+    private Deposit deposit;
+    private DepositPropertiesManagerImpl uncachedManager;
+    private DepositPropertiesManagerImpl cachedManager;
+
+    @Setup
+    public void setUp() throws Exception, InvalidDepositException {
+        dir = Files.createTempDirectory("deposit-properties-benchmark");
+        propertiesFile = dir.resolve("deposit.properties");
+
+        deposit = new Deposit();
+        deposit.setId(UUID.randomUUID().toString());
+        deposit.setCreated(OffsetDateTime.now());
+        deposit.setDepositor("user001");
+        deposit.setState(DepositState.SUBMITTED);
+        deposit.setStateDescription("Deposit is valid and ready for post-submission processing");
+        deposit.setBagName("bag");
+        deposit.setSwordToken("sword:" + deposit.getId());
+        deposit.setOtherId("other-id");
+
+        uncachedManager = new DepositPropertiesManagerImpl(0);
+        cachedManager = new DepositPropertiesManagerImpl();
+        uncachedManager.saveProperties(dir, deposit);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    public FileBasedConfiguration commonsConfigurationRead() throws Exception {
+        return createBuilder().getConfiguration();
+    }
+
+    @Benchmark
+    public void commonsConfigurationSave() throws Exception {
+        var builder = createBuilder();
+        mapToConfiguration(builder.getConfiguration(), deposit);
+        builder.save();
+    }
+
+    @Benchmark
+    public DepositPropertiesFile codecRead() throws Exception {
+        return DepositPropertiesFile.read(propertiesFile);
+    }
+
+    /**
+     * Note that, unlike the commons-configuration implementation, this includes flushing the file to disk.
+     */
+    @Benchmark
+    public void codecSave() throws InvalidDepositException {
+        uncachedManager.saveProperties(dir, deposit);
+    }
+
+    @Benchmark
+    public Deposit managerReadCached() throws InvalidDepositException {
+        return cachedManager.getProperties(dir);
+    }
+
+    // the mapping as it was done before DepositPropertiesFile was introduced
+    private static void mapToConfiguration(Configuration config, Deposit deposit) {
+        config.setProperty("bag-store.bag-id", deposit.getId());
+        config.setProperty("dataverse.bag-id", String.format("urn:uuid:%s", deposit.getId()));
+        config.setProperty("creation.timestamp", deposit.getCreated());
+        config.setProperty("deposit.origin", "SWORD2");
+        config.setProperty("depositor.userId", deposit.getDepositor());
+        config.setProperty("state.label", deposit.getState().toString());
+        config.setProperty("state.description", deposit.getStateDescription());
+        config.setProperty("bag-store.bag-name", deposit.getBagName());
+        config.setProperty("dataverse.sword-token", deposit.getSwordToken());
+        config.setProperty("dataverse.other-id", deposit.getOtherId());
+        config.clearProperty("easy-sword2.client-message.content-type");
+    }
+
+    private FileBasedConfigurationBuilder<FileBasedConfiguration> createBuilder() {
+        var paramConfig = new Parameters().properties()
+            .setFileName(propertiesFile.toString());
+
+        return new FileBasedConfigurationBuilder<FileBasedConfiguration>(PropertiesConfiguration.class, null, true).configure(paramConfig);
+    }
+}
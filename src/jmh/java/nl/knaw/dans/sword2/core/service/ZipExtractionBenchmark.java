@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures how the extraction of a zip file with {@link ZipServiceImpl} scales with the number of entries and the number of extraction threads. The entries
+ * are 16 KiB of text-like data, so inflating them takes about as much time as writing them. To see the effect of the number of cores, run with different
+ * values of -Djmh.args="ZipExtractionBenchmark -jvmArgs -XX:ActiveProcessorCount=N".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipExtractionBenchmark {
+    private static final int ENTRY_SIZE = 16 * 1024;
+
+    @Param({ "1000", "10000", "50000" })
+    private int entryCount;
+
+    @Param({ "1", "2", "4", "8" })
+    private int threads;
+
+    private Path dir;
+    private Path zipFile;
+    private Path target;
+    private ExecutorService executor;
+    private ZipServiceImpl zipService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("zip-extraction-benchmark");
+        zipFile = dir.resolve("bag.zip");
+        target = dir.resolve("target");
+        createZipFile();
+
+        executor = Executors.newFixedThreadPool(threads);
+        zipService = new ZipServiceImpl(new FileServiceImpl(), executor, threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteTarget() throws IOException {
+        FileUtils.deleteDirectory(target.toFile());
+    }
+
+    @Benchmark
+    public void extract() throws IOException {
+        try (var archive = zipService.openZipFile(zipFile)) {
+            zipService.extractZipFileWithFileMapping(archive, target, Map.of(), 0, size -> {
+            });
+        }
+    }
+
+    private void createZipFile() throws IOException {
+        var random = new Random(42);
+        var words = new String[] { "bag", "data", "deposit", "file", "manifest", "metadata", "payload", "sword", "version", "zip" };
+        var content = new StringBuilder();
+
+        while (content.length() < ENTRY_SIZE) {
+            content.append(words[random.nextInt(words.length)]).append(random.nextInt(1000)).append(' ');
+        }
+
+        var bytes = content.substring(0, ENTRY_SIZE).getBytes();
+
+        try (var out = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            for (var i = 0; i < entryCount; ++i) {
+                // a hundred files per directory, as in a bag with a deep data directory
+                out.putNextEntry(new ZipEntry(String.format("bag/data/dir%d/file%d.txt", i / 100, i)));
+                out.write(bytes);
+                out.closeEntry();
+            }
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package nl.knaw.dans.sword2;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import io.dropwizard.Application;
 import io.dropwizard.auth.AuthDynamicFeature;
 import io.dropwizard.auth.AuthValueFactoryProvider;
@@ -28,8 +30,23 @@ import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import nl.knaw.dans.sword2.core.auth.Depositor;
 import nl.knaw.dans.sword2.core.auth.SwordAuthenticator;
-import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerEvent;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizationPipeline;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizationStage;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerAdmission;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerConcurrencyController;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerDispatcher;
 import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerManager;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerQueue;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerRescheduler;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerScheduler;
+import nl.knaw.dans.sword2.core.finalizer.DepositRecovery;
+import nl.knaw.dans.sword2.core.finalizer.DepositWorkLog;
+import nl.knaw.dans.sword2.core.finalizer.DepositWorkLogImpl;
+import nl.knaw.dans.sword2.core.finalizer.DepositWorkloadEstimatorImpl;
+import nl.knaw.dans.sword2.core.finalizer.NoOpDepositWorkLog;
+import nl.knaw.dans.sword2.core.index.DepositIndex;
+import nl.knaw.dans.sword2.core.index.DepositIndexImpl;
+import nl.knaw.dans.sword2.core.index.DepositTrackingPathWatcher;
 import nl.knaw.dans.sword2.core.service.BagExtractorImpl;
 import nl.knaw.dans.sword2.core.service.BagItManagerImpl;
 import nl.knaw.dans.sword2.core.service.ChecksumCalculatorImpl;
@@ -37,6 +54,8 @@ import nl.knaw.dans.sword2.core.service.CollectionManagerImpl;
 import nl.knaw.dans.sword2.core.service.DepositHandlerImpl;
 import nl.knaw.dans.sword2.core.service.DepositPropertiesManagerImpl;
 import nl.knaw.dans.sword2.core.service.DepositReceiptFactoryImpl;
+import nl.knaw.dans.sword2.core.service.DepositStateNotifier;
+import nl.knaw.dans.sword2.core.service.DepositStateNotifierImpl;
 import nl.knaw.dans.sword2.core.service.ErrorResponseFactoryImpl;
 import nl.knaw.dans.sword2.core.service.FileServiceImpl;
 import nl.knaw.dans.sword2.core.service.FilesystemSpaceVerifierImpl;
@@ -47,14 +66,15 @@ import nl.knaw.dans.sword2.health.ExecutorQueueHealthCheck;
 import nl.knaw.dans.sword2.health.FileSystemPermissionHealthCheck;
 import nl.knaw.dans.sword2.health.QueueHealthCheck;
 import nl.knaw.dans.sword2.health.UploadDepositOnSameFileSystemHealthCheck;
+import nl.knaw.dans.sword2.health.WorkLogHealthCheck;
 import nl.knaw.dans.sword2.resources.CollectionResourceImpl;
 import nl.knaw.dans.sword2.resources.ContainerResourceImpl;
 import nl.knaw.dans.sword2.resources.HashHeaderInterceptor;
 import nl.knaw.dans.sword2.resources.ServiceDocumentResourceImpl;
+import nl.knaw.dans.sword2.resources.StatementBatchResourceImpl;
 import nl.knaw.dans.sword2.resources.StatementResourceImpl;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
 
-import java.util.concurrent.ArrayBlockingQueue;
 
 public class DdSword2Application extends Application<DdSword2Configuration> {
 
@@ -77,7 +97,7 @@ public class DdSword2Application extends Application<DdSword2Configuration> {
     @Override
     public void run(final DdSword2Configuration configuration, final Environment environment) throws Exception {
         var fileService = new FileServiceImpl();
-        var depositPropertiesManager = new DepositPropertiesManagerImpl();
+        var depositPropertiesManager = new DepositPropertiesManagerImpl(configuration.getSword2().getDepositPropertiesCacheSize());
         var checksumCalculator = new ChecksumCalculatorImpl();
         var filesystemSpaceVerifier = new FilesystemSpaceVerifierImpl(fileService);
 
@@ -86,22 +106,67 @@ public class DdSword2Application extends Application<DdSword2Configuration> {
         var bagItManager = new BagItManagerImpl(fileService, checksumCalculator);
         var userManager = new UserManagerImpl(configuration.getUsers());
 
-        var finalizingExecutor = configuration.getSword2().getFinalizingQueue().build(environment);
-        var rescheduleExecutor = configuration.getSword2().getRescheduleQueue().build(environment);
+        // the finalizer scheduler never hands more deposits to this executor than it has threads, so all of them are started up front; collections with a
+        // finalizer concurrency of their own get threads on top of the shared ones, and with adaptive concurrency there must be threads for the ceiling
+        var finalizingQueueConfig = configuration.getSword2().getFinalizingQueue();
+        var finalizerConcurrencyConfig = configuration.getSword2().getFinalizerConcurrency();
+        var sharedThreads = finalizerConcurrencyConfig.isAdaptive()
+            ? Math.max(finalizingQueueConfig.getMaxThreads(), finalizerConcurrencyConfig.getMaxConcurrency())
+            : finalizingQueueConfig.getMaxThreads();
+        var finalizingThreads = DepositFinalizerScheduler.getRequiredThreads(sharedThreads, configuration.getSword2().getCollections());
+        var finalizingExecutor = environment.lifecycle().executorService(finalizingQueueConfig.getNameFormat())
+            .minThreads(finalizingThreads)
+            .maxThreads(finalizingThreads)
+            .build();
 
-        var queue = new ArrayBlockingQueue<DepositFinalizerEvent>(configuration.getSword2().getFinalizingQueue().getMaxQueueSize());
+        var queue = new DepositFinalizerQueue(configuration.getSword2().getFinalizingQueue().getMaxQueueSize());
 
         var collectionManager = new CollectionManagerImpl(configuration.getSword2().getCollections());
 
-        var zipService = new ZipServiceImpl(fileService);
+        // the files of a zip file are extracted in parallel by these threads, which are shared by all deposits that are being extracted
+        var extractionThreads = configuration.getSword2().getExtractionThreads();
+        var extractionExecutor = environment.lifecycle().executorService("zip-extraction-worker-%d")
+            .minThreads(extractionThreads)
+            .maxThreads(extractionThreads)
+            .build();
+        var zipService = new ZipServiceImpl(fileService, extractionExecutor, extractionThreads);
 
-        var bagExtractor = new BagExtractorImpl(zipService, fileService, bagItManager, filesystemSpaceVerifier);
-        var depositHandler = new DepositHandlerImpl(bagExtractor, fileService, depositPropertiesManager, collectionManager, userManager, queue, bagItManager,
-            filesystemSpaceVerifier, configuration.getSword2().getEmailAddress());
+        var depositIndex = new DepositIndexImpl(collectionManager, fileService, configuration.getSword2().isDepositIndexNegativeLookups());
+        var depositTrackingPathWatcher = new DepositTrackingPathWatcher(collectionManager, fileService, depositIndex,
+            configuration.getSword2().getDepositIndexReconciliationInterval());
+
+        var depositStateNotifier = new DepositStateNotifierImpl();
+
+        DepositWorkLog depositWorkLog = configuration.getSword2().getWorkLogDirectory() == null
+            ? new NoOpDepositWorkLog()
+            : new DepositWorkLogImpl(configuration.getSword2().getWorkLogDirectory(), configuration.getSword2().getWorkLogMaxSegmentSize());
+        var depositFinalizerRescheduler = new DepositFinalizerRescheduler(queue, configuration.getSword2().getRescheduleDelay(), depositWorkLog);
+        var depositFinalizerAdmission = new DepositFinalizerAdmission(queue, depositFinalizerRescheduler, depositWorkLog, configuration.getSword2().getFinalizerAdmission());
+
+        var finalizationPipeline = new DepositFinalizationPipeline(configuration.getSword2().getFinalizationStageThreads(),
+            configuration.getSword2().getFinalizationStageMaxQueueSize());
+
+        var bagExtractor = new BagExtractorImpl(zipService, fileService, bagItManager, filesystemSpaceVerifier, configuration.getSword2().isAppendPartsOnArrival());
+        var depositHandler = new DepositHandlerImpl(bagExtractor, fileService, depositPropertiesManager, depositIndex, collectionManager, userManager, depositFinalizerAdmission, bagItManager,
+            filesystemSpaceVerifier, configuration.getSword2().getEmailAddress(), configuration.getSword2().getDeferredStates(), depositStateNotifier,
+            finalizationPipeline, configuration.getSword2().getFinalizationProgress());
 
         var depositReceiptFactory = new DepositReceiptFactoryImpl(configuration.getSword2().getBaseUrl());
 
-        var depositFinalizerManager = new DepositFinalizerManager(finalizingExecutor, depositHandler, queue, rescheduleExecutor, configuration.getSword2().getRescheduleDelay());
+        var depositRecovery = new DepositRecovery(collectionManager, fileService, depositPropertiesManager, queue, depositWorkLog, configuration.getSword2().getRecoveryThreads());
+        var depositWorkloadEstimator = new DepositWorkloadEstimatorImpl(depositHandler, fileService, zipService);
+        // the workloads are estimated by these threads, so that reading the deposits does not hold up the finalizer queue
+        var estimatorThreads = configuration.getSword2().getFinalizerScheduling().getEstimatorThreads();
+        var estimationExecutor = environment.lifecycle().executorService("deposit-workload-estimator-%d")
+            .minThreads(estimatorThreads)
+            .maxThreads(estimatorThreads)
+            .build();
+        var depositFinalizerScheduler = new DepositFinalizerScheduler(finalizingExecutor, estimationExecutor, depositWorkloadEstimator,
+            configuration.getSword2().getFinalizerScheduling(), finalizingQueueConfig.getMaxThreads(), configuration.getSword2().getCollections());
+        var depositFinalizerManager = new DepositFinalizerManager(depositFinalizerScheduler, depositHandler, queue, depositFinalizerRescheduler,
+            depositRecovery, depositWorkLog);
+        var depositFinalizerConcurrencyController = new DepositFinalizerConcurrencyController(depositFinalizerScheduler, finalizationPipeline,
+            finalizerConcurrencyConfig);
 
         var httpClient = new HttpClientBuilder(environment).using(configuration.getHttpClientConfiguration())
             .build(getName());
@@ -118,15 +183,29 @@ public class DdSword2Application extends Application<DdSword2Configuration> {
         // For @Auth
         environment.jersey().register(new AuthValueFactoryProvider.Binder<>(Depositor.class));
 
-        // Managed classes
+        // Managed classes; the index must be filled before the finalizer manager starts looking up open deposits
+        environment.lifecycle().manage(depositIndex);
+        environment.lifecycle().manage(depositTrackingPathWatcher);
+        environment.lifecycle().manage(finalizationPipeline);
         environment.lifecycle().manage(depositFinalizerManager);
 
+        if (finalizerConcurrencyConfig.isAdaptive()) {
+            environment.lifecycle().manage(depositFinalizerConcurrencyController);
+        }
+
         // Resources
-        environment.jersey().register(new CollectionResourceImpl(depositHandler, depositReceiptFactory, errorResponseFactory));
+        environment.jersey().register(new CollectionResourceImpl(configuration.getSword2().getBaseUrl(), depositHandler, depositReceiptFactory,
+            configuration.getSword2().getCollectionMaxPageSize(), errorResponseFactory));
 
         environment.jersey().register(new ContainerResourceImpl(depositReceiptFactory, depositHandler, errorResponseFactory));
 
-        environment.jersey().register(new StatementResourceImpl(configuration.getSword2().getBaseUrl(), depositHandler, errorResponseFactory));
+        // Statement requests that wait for a change are suspended; these threads only build the response once the wait is over
+        var statementExecutor = environment.lifecycle().executorService("statement-waiter-%d").minThreads(2).maxThreads(2).build();
+        environment.jersey().register(new StatementResourceImpl(configuration.getSword2().getBaseUrl(), depositHandler, depositStateNotifier,
+            configuration.getSword2().getStatementMaxWait(), statementExecutor, errorResponseFactory));
+
+        environment.jersey().register(new StatementBatchResourceImpl(configuration.getSword2().getBaseUrl(), depositHandler,
+            configuration.getSword2().getStatementBatchMaxSize(), errorResponseFactory));
 
         environment.jersey().register(new ServiceDocumentResourceImpl(configuration.getSword2().getCollections(), configuration.getSword2().getBaseUrl()));
 
@@ -137,6 +216,59 @@ public class DdSword2Application extends Application<DdSword2Configuration> {
         environment.healthChecks().register("FileSystemPermissions", new FileSystemPermissionHealthCheck(collections, fileService));
         environment.healthChecks().register("FinalizerQueue", new QueueHealthCheck(queue));
         environment.healthChecks().register("FinalizingExecutor", new ExecutorQueueHealthCheck(finalizingExecutor));
-        environment.healthChecks().register("RescheduleExecutor", new ExecutorQueueHealthCheck(rescheduleExecutor));
+        environment.healthChecks().register("WorkLog", new WorkLogHealthCheck(depositWorkLog));
+
+        // Metrics
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerRescheduler.class, "pending"),
+            (Gauge<Integer>) depositFinalizerRescheduler::getPendingCount);
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerQueue.class, "merged"), (Gauge<Long>) queue::getMergedCount);
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerScheduler.class, "pending"), (Gauge<Integer>) depositFinalizerScheduler::getPendingCount);
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerScheduler.class, "running"), (Gauge<Integer>) depositFinalizerScheduler::getRunningCount);
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerScheduler.class, "oldestWaitTime"),
+            (Gauge<Long>) depositFinalizerScheduler::getOldestWaitTime);
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerScheduler.class, "sharedConcurrency"),
+            (Gauge<Integer>) depositFinalizerScheduler::getSharedConcurrency);
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerConcurrencyController.class, "throughput"),
+            (Gauge<Double>) depositFinalizerConcurrencyController::getThroughput);
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerConcurrencyController.class, "latency"),
+            (Gauge<Double>) depositFinalizerConcurrencyController::getLatency);
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerDispatcher.class, "active"),
+            (Gauge<Integer>) depositFinalizerManager.getDispatcher()::getActiveCount);
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerDispatcher.class, "coalesced"),
+            (Gauge<Long>) depositFinalizerManager.getDispatcher()::getCoalescedCount);
+
+        for (var collection : collections) {
+            var name = collection.getName();
+            environment.metrics().register(MetricRegistry.name(DepositFinalizerScheduler.class, name, "pending"),
+                (Gauge<Integer>) () -> depositFinalizerScheduler.getPendingCount(name));
+            environment.metrics().register(MetricRegistry.name(DepositFinalizerScheduler.class, name, "running"),
+                (Gauge<Integer>) () -> depositFinalizerScheduler.getRunningCount(name));
+            environment.metrics().register(MetricRegistry.name(DepositFinalizerScheduler.class, name, "oldestWaitTime"),
+                (Gauge<Long>) () -> depositFinalizerScheduler.getOldestWaitTime(name));
+        }
+
+        for (var stage : DepositFinalizationStage.values()) {
+            var stageName = stage.name().toLowerCase();
+            environment.metrics().register(MetricRegistry.name(DepositFinalizationPipeline.class, stageName, "queued"),
+                (Gauge<Integer>) () -> finalizationPipeline.getQueueDepth(stage));
+            environment.metrics().register(MetricRegistry.name(DepositFinalizationPipeline.class, stageName, "active"),
+                (Gauge<Integer>) () -> finalizationPipeline.getActiveCount(stage));
+            environment.metrics().register(MetricRegistry.name(DepositFinalizationPipeline.class, stageName, "completed"),
+                (Gauge<Long>) () -> finalizationPipeline.getCompletedCount(stage));
+        }
+
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerAdmission.class, "saturation"), (Gauge<Double>) depositFinalizerAdmission::getSaturation);
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerAdmission.class, "rejected"), (Gauge<Long>) depositFinalizerAdmission::getRejectedCount);
+        environment.metrics().register(MetricRegistry.name(DepositFinalizerAdmission.class, "overflow"), (Gauge<Long>) depositFinalizerAdmission::getOverflowCount);
+        environment.metrics().register(MetricRegistry.name(DepositRecovery.class, "running"), (Gauge<Boolean>) depositRecovery::isRunning);
+        environment.metrics().register(MetricRegistry.name(DepositRecovery.class, "scanned"), (Gauge<Integer>) depositRecovery::getScannedCount);
+        environment.metrics().register(MetricRegistry.name(DepositRecovery.class, "queued"), (Gauge<Integer>) depositRecovery::getQueuedCount);
+        environment.metrics().register(MetricRegistry.name(DepositRecovery.class, "failed"), (Gauge<Integer>) depositRecovery::getFailedCount);
+        environment.metrics().register(MetricRegistry.name(DepositWorkLog.class, "outstanding"), (Gauge<Integer>) depositWorkLog::getOutstandingCount);
+        environment.metrics().register(MetricRegistry.name(DepositStateNotifier.class, "waiting"), (Gauge<Integer>) depositStateNotifier::getWaitingCount);
+        environment.metrics().register(MetricRegistry.name(DepositIndex.class, "size"), (Gauge<Integer>) depositIndex::size);
+        environment.metrics().register(MetricRegistry.name(DepositIndex.class, "negative-lookups"), depositIndex.getNegativeLookupMeter());
+        environment.metrics().register(MetricRegistry.name(DepositIndex.class, "contradicted-negative-lookups"), depositIndex.getContradictedNegativeLookupMeter());
+        environment.metrics().register(MetricRegistry.name(DepositIndex.class, "stale-entries"), depositIndex.getStaleEntryMeter());
     }
 }
@@ -15,10 +15,14 @@
  */
 package nl.knaw.dans.sword2.api.statement;
 
+import nl.knaw.dans.sword2.api.entry.Link;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.List;
 
 @XmlRootElement(name = "entry")
 @XmlAccessorType(XmlAccessType.FIELD)
@@ -31,7 +35,13 @@ public class FeedEntry {
     @XmlElement(name = "summary")
     private TextElement summary;
     @XmlElement
+    private String updated;
+    @XmlElement(name = "link")
+    private List<Link> links = new ArrayList<>();
+    @XmlElement
     private FeedContent content;
+    @XmlElement
+    private FeedCategory category;
 
     public FeedEntry() {
 
@@ -68,6 +78,26 @@ public class FeedEntry {
         this.summary = summary;
     }
 
+    public String getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(String updated) {
+        this.updated = updated;
+    }
+
+    public List<Link> getLinks() {
+        return links;
+    }
+
+    public void setLinks(List<Link> links) {
+        this.links = links;
+    }
+
+    public void addLink(Link link) {
+        this.links.add(link);
+    }
+
     public FeedContent getContent() {
         return content;
     }
@@ -76,8 +106,16 @@ public class FeedEntry {
         this.content = content;
     }
 
+    public FeedCategory getCategory() {
+        return category;
+    }
+
+    public void setCategory(FeedCategory category) {
+        this.category = category;
+    }
+
     @Override
     public String toString() {
-        return "FeedEntry{" + "id='" + id + '\'' + ", title=" + title + ", summary=" + summary + ", content=" + content + '}';
+        return "FeedEntry{" + "id='" + id + '\'' + ", title=" + title + ", summary=" + summary + ", updated='" + updated + '\'' + ", links=" + links + ", content=" + content + ", category=" + category + '}';
     }
 }
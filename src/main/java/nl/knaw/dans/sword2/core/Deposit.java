@@ -15,7 +15,10 @@
  */
 package nl.knaw.dans.sword2.core;
 
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizationStage;
+
 import java.nio.file.Path;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 
 public class Deposit {
@@ -38,6 +41,12 @@ public class Deposit {
     private boolean inProgress = false;
     private boolean metadataRelevant = true;
     private long contentLength = -1L;
+    // progress of an unfinished finalization: the last stage that was completed, and the number of files extracted so far
+    private DepositFinalizationStage completedStage;
+    private long extractedEntries = 0;
+    // modification time and version of the deposit.properties file this deposit was read from or last written to
+    private Instant lastModified;
+    private String version;
 
     public String getOtherId() {
         return otherId;
@@ -199,6 +208,45 @@ public class Deposit {
         this.contentLength = contentLength;
     }
 
+    public DepositFinalizationStage getCompletedStage() {
+        return completedStage;
+    }
+
+    public void setCompletedStage(DepositFinalizationStage completedStage) {
+        this.completedStage = completedStage;
+    }
+
+    /**
+     * @return true if the given stage was completed by an earlier finalization attempt
+     */
+    public boolean isCompleted(DepositFinalizationStage stage) {
+        return completedStage != null && completedStage.compareTo(stage) >= 0;
+    }
+
+    public long getExtractedEntries() {
+        return extractedEntries;
+    }
+
+    public void setExtractedEntries(long extractedEntries) {
+        this.extractedEntries = extractedEntries;
+    }
+
+    public Instant getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(Instant lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "Deposit{" +
@@ -218,6 +266,10 @@ public class Deposit {
             ", inProgress=" + inProgress +
             ", metadataRelevant=" + metadataRelevant +
             ", contentLength=" + contentLength +
+            ", completedStage=" + completedStage +
+            ", extractedEntries=" + extractedEntries +
+            ", lastModified=" + lastModified +
+            ", version='" + version + '\'' +
             '}';
     }
 }
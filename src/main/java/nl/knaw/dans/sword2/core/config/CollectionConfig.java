@@ -20,6 +20,7 @@ import nl.knaw.dans.sword2.core.DepositState;
 import nl.knaw.dans.sword2.core.config.converter.StringByteSizeConverter;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import java.nio.file.Path;
@@ -41,6 +42,10 @@ public class CollectionConfig {
     private long diskSpaceMargin;
     private List<Path> depositTrackingPath = new ArrayList<>();
     private List<DepositState> autoClean = new ArrayList<>();
+    @Min(1)
+    private Integer finalizerConcurrency;
+    @Min(1)
+    private int finalizerWeight = 1;
 
     public CollectionConfig() {
 
@@ -111,6 +116,22 @@ public class CollectionConfig {
         this.autoClean = autoClean;
     }
 
+    public Integer getFinalizerConcurrency() {
+        return finalizerConcurrency;
+    }
+
+    public void setFinalizerConcurrency(Integer finalizerConcurrency) {
+        this.finalizerConcurrency = finalizerConcurrency;
+    }
+
+    public int getFinalizerWeight() {
+        return finalizerWeight;
+    }
+
+    public void setFinalizerWeight(int finalizerWeight) {
+        this.finalizerWeight = finalizerWeight;
+    }
+
     @Override
     public String toString() {
         return "CollectionConfig{" +
@@ -121,6 +142,8 @@ public class CollectionConfig {
             ", diskSpaceMargin=" + diskSpaceMargin +
             ", depositTrackingPath=" + depositTrackingPath +
             ", autoClean=" + autoClean +
+            ", finalizerConcurrency=" + finalizerConcurrency +
+            ", finalizerWeight=" + finalizerWeight +
             '}';
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.config;
+
+import javax.validation.constraints.Min;
+
+public class FinalizationProgressConfig {
+    private boolean enabled = true;
+    @Min(0)
+    private long extractedEntries = 1000;
+    @Min(0)
+    private long extractedBytes = 1024L * 1024 * 1024;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getExtractedEntries() {
+        return extractedEntries;
+    }
+
+    public void setExtractedEntries(long extractedEntries) {
+        this.extractedEntries = extractedEntries;
+    }
+
+    public long getExtractedBytes() {
+        return extractedBytes;
+    }
+
+    public void setExtractedBytes(long extractedBytes) {
+        this.extractedBytes = extractedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "FinalizationProgressConfig{" +
+            "enabled=" + enabled +
+            ", extractedEntries=" + extractedEntries +
+            ", extractedBytes=" + extractedBytes +
+            '}';
+    }
+}
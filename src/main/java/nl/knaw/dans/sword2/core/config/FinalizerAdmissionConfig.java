@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.config;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+
+public class FinalizerAdmissionConfig {
+    @NotNull
+    private Duration offerTimeout = Duration.ofMillis(500);
+    @Min(1)
+    @Max(100)
+    private int rejectThresholdPercentage = 90;
+    private boolean overflow = false;
+    @NotNull
+    private Duration maxRetryAfter = Duration.ofMinutes(5);
+
+    public Duration getOfferTimeout() {
+        return offerTimeout;
+    }
+
+    public void setOfferTimeout(Duration offerTimeout) {
+        this.offerTimeout = offerTimeout;
+    }
+
+    public int getRejectThresholdPercentage() {
+        return rejectThresholdPercentage;
+    }
+
+    public void setRejectThresholdPercentage(int rejectThresholdPercentage) {
+        this.rejectThresholdPercentage = rejectThresholdPercentage;
+    }
+
+    public boolean isOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow(boolean overflow) {
+        this.overflow = overflow;
+    }
+
+    public Duration getMaxRetryAfter() {
+        return maxRetryAfter;
+    }
+
+    public void setMaxRetryAfter(Duration maxRetryAfter) {
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    @Override
+    public String toString() {
+        return "FinalizerAdmissionConfig{" +
+            "offerTimeout=" + offerTimeout +
+            ", rejectThresholdPercentage=" + rejectThresholdPercentage +
+            ", overflow=" + overflow +
+            ", maxRetryAfter=" + maxRetryAfter +
+            '}';
+    }
+}
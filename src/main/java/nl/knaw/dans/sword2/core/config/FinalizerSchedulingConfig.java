@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.config;
+
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerSchedulingPolicy;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+
+public class FinalizerSchedulingConfig {
+    @NotNull
+    private DepositFinalizerSchedulingPolicy policy = DepositFinalizerSchedulingPolicy.SHORTEST_FIRST;
+    @NotNull
+    private Duration agingHalfLife = Duration.ofMinutes(10);
+    @Min(0)
+    private long heavyThreshold = 10L * 1024 * 1024 * 1024;
+    @Min(0)
+    private int reservedLightWorkers = 1;
+    @Min(1)
+    private int estimatorThreads = 2;
+
+    public DepositFinalizerSchedulingPolicy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(DepositFinalizerSchedulingPolicy policy) {
+        this.policy = policy;
+    }
+
+    public Duration getAgingHalfLife() {
+        return agingHalfLife;
+    }
+
+    public void setAgingHalfLife(Duration agingHalfLife) {
+        this.agingHalfLife = agingHalfLife;
+    }
+
+    public long getHeavyThreshold() {
+        return heavyThreshold;
+    }
+
+    public void setHeavyThreshold(long heavyThreshold) {
+        this.heavyThreshold = heavyThreshold;
+    }
+
+    public int getReservedLightWorkers() {
+        return reservedLightWorkers;
+    }
+
+    public void setReservedLightWorkers(int reservedLightWorkers) {
+        this.reservedLightWorkers = reservedLightWorkers;
+    }
+
+    public int getEstimatorThreads() {
+        return estimatorThreads;
+    }
+
+    public void setEstimatorThreads(int estimatorThreads) {
+        this.estimatorThreads = estimatorThreads;
+    }
+
+    @Override
+    public String toString() {
+        return "FinalizerSchedulingConfig{" +
+            "policy=" + policy +
+            ", agingHalfLife=" + agingHalfLife +
+            ", heavyThreshold=" + heavyThreshold +
+            ", reservedLightWorkers=" + reservedLightWorkers +
+            ", estimatorThreads=" + estimatorThreads +
+            '}';
+    }
+}
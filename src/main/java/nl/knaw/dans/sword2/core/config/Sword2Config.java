@@ -16,16 +16,27 @@
 package nl.knaw.dans.sword2.core.config;
 
 import nl.knaw.dans.lib.util.ExecutorServiceFactory;
+import nl.knaw.dans.sword2.core.DepositState;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizationStage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.validation.Valid;
 import javax.validation.constraints.Email;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import java.net.URI;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class Sword2Config {
+    private static final Logger log = LoggerFactory.getLogger(Sword2Config.class);
 
     @Valid
     @NotNull
@@ -38,12 +49,51 @@ public class Sword2Config {
     @Valid
     @NotNull
     private Duration rescheduleDelay;
+    @NotNull
+    private Duration depositIndexReconciliationInterval = Duration.ofHours(1);
+    private boolean depositIndexNegativeLookups = false;
+    @Min(0)
+    private int depositPropertiesCacheSize = 1000;
+    @NotNull
+    private Set<DepositState> deferredStates = EnumSet.noneOf(DepositState.class);
+    @Valid
+    @NotNull
+    private FinalizationProgressConfig finalizationProgress = new FinalizationProgressConfig();
+    @NotNull
+    private Duration statementMaxWait = Duration.ofMinutes(1);
+    @Min(1)
+    private int statementBatchMaxSize = 1000;
+    @Min(1)
+    private int collectionMaxPageSize = 1000;
+    @Min(1)
+    private int recoveryThreads = 4;
+    @Min(1)
+    private int extractionThreads = 4;
+    private boolean appendPartsOnArrival = false;
+    private Path workLogDirectory;
+    @Min(1024)
+    private long workLogMaxSegmentSize = 16 * 1024 * 1024;
     @Valid
     @NotNull
     private ExecutorServiceFactory finalizingQueue;
     @Valid
     @NotNull
-    private ExecutorServiceFactory rescheduleQueue;
+    private FinalizerAdmissionConfig finalizerAdmission = new FinalizerAdmissionConfig();
+    @Valid
+    @NotNull
+    private FinalizerSchedulingConfig finalizerScheduling = new FinalizerSchedulingConfig();
+    @Valid
+    @NotNull
+    private FinalizerConcurrencyConfig finalizerConcurrency = new FinalizerConcurrencyConfig();
+    @NotNull
+    private Map<DepositFinalizationStage, Integer> finalizationStageThreads = new EnumMap<>(Map.of(
+        DepositFinalizationStage.MERGE, 2,
+        DepositFinalizationStage.EXTRACT, 2,
+        DepositFinalizationStage.REWRITE_MANIFESTS, 1,
+        DepositFinalizationStage.VERIFY, 4,
+        DepositFinalizationStage.HANDOVER, 2));
+    @Min(1)
+    private int finalizationStageMaxQueueSize = 100;
 
     public String getEmailAddress() {
         return emailAddress;
@@ -53,14 +103,6 @@ public class Sword2Config {
         this.emailAddress = emailAddress;
     }
 
-    public ExecutorServiceFactory getRescheduleQueue() {
-        return rescheduleQueue;
-    }
-
-    public void setRescheduleQueue(ExecutorServiceFactory rescheduleQueue) {
-        this.rescheduleQueue = rescheduleQueue;
-    }
-
     public URI getBaseUrl() {
         return baseUrl;
     }
@@ -85,6 +127,46 @@ public class Sword2Config {
         this.rescheduleDelay = rescheduleDelay;
     }
 
+    public Duration getDepositIndexReconciliationInterval() {
+        return depositIndexReconciliationInterval;
+    }
+
+    public void setDepositIndexReconciliationInterval(Duration depositIndexReconciliationInterval) {
+        this.depositIndexReconciliationInterval = depositIndexReconciliationInterval;
+    }
+
+    public boolean isDepositIndexNegativeLookups() {
+        return depositIndexNegativeLookups;
+    }
+
+    public void setDepositIndexNegativeLookups(boolean depositIndexNegativeLookups) {
+        this.depositIndexNegativeLookups = depositIndexNegativeLookups;
+    }
+
+    public int getDepositPropertiesCacheSize() {
+        return depositPropertiesCacheSize;
+    }
+
+    public void setDepositPropertiesCacheSize(int depositPropertiesCacheSize) {
+        this.depositPropertiesCacheSize = depositPropertiesCacheSize;
+    }
+
+    public Set<DepositState> getDeferredStates() {
+        return deferredStates;
+    }
+
+    public void setDeferredStates(Set<DepositState> deferredStates) {
+        this.deferredStates = deferredStates;
+    }
+
+    public FinalizationProgressConfig getFinalizationProgress() {
+        return finalizationProgress;
+    }
+
+    public void setFinalizationProgress(FinalizationProgressConfig finalizationProgress) {
+        this.finalizationProgress = finalizationProgress;
+    }
+
     public ExecutorServiceFactory getFinalizingQueue() {
         return finalizingQueue;
     }
@@ -93,13 +175,145 @@ public class Sword2Config {
         this.finalizingQueue = finalizingQueue;
     }
 
+    /**
+     * Accepted so that existing configuration files still load. Retries are held by a single scheduler thread now, so the executor is not created.
+     *
+     * @deprecated the setting is ignored and can be removed from the configuration
+     */
+    @Deprecated
+    public void setRescheduleQueue(ExecutorServiceFactory rescheduleQueue) {
+        log.warn("The setting sword2.rescheduleQueue is no longer used and is ignored; it can be removed from the configuration");
+    }
+
+    public Duration getStatementMaxWait() {
+        return statementMaxWait;
+    }
+
+    public void setStatementMaxWait(Duration statementMaxWait) {
+        this.statementMaxWait = statementMaxWait;
+    }
+
+    public int getStatementBatchMaxSize() {
+        return statementBatchMaxSize;
+    }
+
+    public void setStatementBatchMaxSize(int statementBatchMaxSize) {
+        this.statementBatchMaxSize = statementBatchMaxSize;
+    }
+
+    public int getCollectionMaxPageSize() {
+        return collectionMaxPageSize;
+    }
+
+    public void setCollectionMaxPageSize(int collectionMaxPageSize) {
+        this.collectionMaxPageSize = collectionMaxPageSize;
+    }
+
+    public int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    public void setRecoveryThreads(int recoveryThreads) {
+        this.recoveryThreads = recoveryThreads;
+    }
+
+    public int getExtractionThreads() {
+        return extractionThreads;
+    }
+
+    public void setExtractionThreads(int extractionThreads) {
+        this.extractionThreads = extractionThreads;
+    }
+
+    public boolean isAppendPartsOnArrival() {
+        return appendPartsOnArrival;
+    }
+
+    public void setAppendPartsOnArrival(boolean appendPartsOnArrival) {
+        this.appendPartsOnArrival = appendPartsOnArrival;
+    }
+
+    public FinalizerAdmissionConfig getFinalizerAdmission() {
+        return finalizerAdmission;
+    }
+
+    public void setFinalizerAdmission(FinalizerAdmissionConfig finalizerAdmission) {
+        this.finalizerAdmission = finalizerAdmission;
+    }
+
+    public FinalizerSchedulingConfig getFinalizerScheduling() {
+        return finalizerScheduling;
+    }
+
+    public void setFinalizerScheduling(FinalizerSchedulingConfig finalizerScheduling) {
+        this.finalizerScheduling = finalizerScheduling;
+    }
+
+    public FinalizerConcurrencyConfig getFinalizerConcurrency() {
+        return finalizerConcurrency;
+    }
+
+    public void setFinalizerConcurrency(FinalizerConcurrencyConfig finalizerConcurrency) {
+        this.finalizerConcurrency = finalizerConcurrency;
+    }
+
+    public Map<DepositFinalizationStage, Integer> getFinalizationStageThreads() {
+        return finalizationStageThreads;
+    }
+
+    public void setFinalizationStageThreads(Map<DepositFinalizationStage, Integer> finalizationStageThreads) {
+        this.finalizationStageThreads = finalizationStageThreads;
+    }
+
+    public int getFinalizationStageMaxQueueSize() {
+        return finalizationStageMaxQueueSize;
+    }
+
+    public void setFinalizationStageMaxQueueSize(int finalizationStageMaxQueueSize) {
+        this.finalizationStageMaxQueueSize = finalizationStageMaxQueueSize;
+    }
+
+    public Path getWorkLogDirectory() {
+        return workLogDirectory;
+    }
+
+    public void setWorkLogDirectory(Path workLogDirectory) {
+        this.workLogDirectory = workLogDirectory;
+    }
+
+    public long getWorkLogMaxSegmentSize() {
+        return workLogMaxSegmentSize;
+    }
+
+    public void setWorkLogMaxSegmentSize(long workLogMaxSegmentSize) {
+        this.workLogMaxSegmentSize = workLogMaxSegmentSize;
+    }
+
     @Override
     public String toString() {
         return "Sword2Config{" +
             "baseUrl=" + baseUrl +
             ", collections=" + collections +
             ", rescheduleDelay=" + rescheduleDelay +
+            ", depositIndexReconciliationInterval=" + depositIndexReconciliationInterval +
+            ", depositIndexNegativeLookups=" + depositIndexNegativeLookups +
+            ", depositPropertiesCacheSize=" + depositPropertiesCacheSize +
+            ", deferredStates=" + deferredStates +
+            ", finalizationProgress=" + finalizationProgress +
+            ", statementMaxWait=" + statementMaxWait +
+            ", statementBatchMaxSize=" + statementBatchMaxSize +
+            ", collectionMaxPageSize=" + collectionMaxPageSize +
+            ", recoveryThreads=" + recoveryThreads +
+            ", extractionThreads=" + extractionThreads +
+            ", appendPartsOnArrival=" + appendPartsOnArrival +
+            ", workLogDirectory=" + workLogDirectory +
+            ", workLogMaxSegmentSize=" + workLogMaxSegmentSize +
             ", finalizingQueue=" + finalizingQueue +
+            ", finalizerAdmission=" + finalizerAdmission +
+            ", finalizerScheduling=" + finalizerScheduling +
+            ", finalizerConcurrency=" + finalizerConcurrency +
+            ", finalizationStageThreads=" + finalizationStageThreads +
+            ", finalizationStageMaxQueueSize=" + finalizationStageMaxQueueSize +
             '}';
     }
 }
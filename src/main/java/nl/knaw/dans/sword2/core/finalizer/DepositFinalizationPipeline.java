@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Runs the stages of finalizing a deposit, each on its own bounded pool of threads. A finalization worker hands each stage of its deposit to the pool of
+ * that stage and waits for it, so that deposits of different workers overlap in different stages, while the number of threads doing disk-bound and
+ * CPU-bound work can be sized separately. A stage without a pool runs on the calling thread.
+ *
+ * <p>For every stage, the number of bytes processed and the time spent processing them are counted, so that the throughput of the stages can be
+ * observed. A task reports its bytes while it runs, and the time of running tasks is included up to the moment the counters are read, so that a deposit
+ * that takes longer than the sample interval of an observer is seen in every interval, not only in the one in which it ends.</p>
+ */
+public class DepositFinalizationPipeline implements Managed {
+    private static final Logger log = LoggerFactory.getLogger(DepositFinalizationPipeline.class);
+
+    private final Map<DepositFinalizationStage, ThreadPoolExecutor> executors = new EnumMap<>(DepositFinalizationStage.class);
+    private final Map<DepositFinalizationStage, StageMeter> meters = new EnumMap<>(DepositFinalizationStage.class);
+
+    @FunctionalInterface
+    public interface StageTask<T> {
+        T call() throws Throwable;
+    }
+
+    @FunctionalInterface
+    public interface MeteredStageTask<T> {
+        /**
+         * @param processed to be called with the number of bytes processed, as the task makes progress
+         */
+        T call(LongConsumer processed) throws Throwable;
+    }
+
+    private static class StageMeter {
+        // start time of each running task
+        private final Map<Object, Long> running = new HashMap<>();
+        private long bytes = 0;
+        private long nanos = 0;
+
+        synchronized Object start() {
+            var task = new Object();
+            running.put(task, System.nanoTime());
+            return task;
+        }
+
+        synchronized void stop(Object task) {
+            nanos += System.nanoTime() - running.remove(task);
+        }
+
+        synchronized void processed(long bytes) {
+            this.bytes += bytes;
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+
+        synchronized long getNanos() {
+            var now = System.nanoTime();
+            return nanos + running.values().stream().mapToLong(start -> now - start).sum();
+        }
+    }
+
+    /**
+     * Creates a pipeline that runs all stages on the calling thread.
+     */
+    public DepositFinalizationPipeline() {
+        for (var stage : DepositFinalizationStage.values()) {
+            meters.put(stage, new StageMeter());
+        }
+    }
+
+    /**
+     * @param threads      the number of threads per stage; stages that are not in the map get one thread
+     * @param maxQueueSize the maximum number of tasks waiting for each stage; when a stage queue is full, the caller waits for room
+     */
+    public DepositFinalizationPipeline(Map<DepositFinalizationStage, Integer> threads, int maxQueueSize) {
+        this();
+
+        for (var stage : DepositFinalizationStage.values()) {
+            var count = threads.getOrDefault(stage, 1);
+            var name = "finalization-" + stage.name().toLowerCase().replace('_', '-') + "-";
+            var counter = new AtomicInteger();
+
+            var executor = new ThreadPoolExecutor(count, count, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxQueueSize), runnable -> {
+                var thread = new Thread(runnable, name + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }, (runnable, pool) -> {
+                if (pool.isShutdown()) {
+                    throw new RejectedExecutionException("Finalization stage " + stage + " has been stopped");
+                }
+
+                try {
+                    pool.getQueue().put(runnable);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+            });
+
+            executors.put(stage, executor);
+        }
+    }
+
+    /**
+     * Runs a task on the pool of the given stage and waits for its result.
+     *
+     * @param stage the stage
+     * @param task  the task
+     * @param <T>   the type of the result
+     * @return the result of the task
+     * @throws Throwable whatever the task throws, or an IOException if the caller is interrupted while waiting
+     */
+    public <T> T run(DepositFinalizationStage stage, StageTask<T> task) throws Throwable {
+        return runMetered(stage, processed -> task.call());
+    }
+
+    /**
+     * Runs a task on the pool of the given stage and waits for its result. The task reports the bytes it processes as it goes.
+     *
+     * @param stage the stage
+     * @param task  the task
+     * @param <T>   the type of the result
+     * @return the result of the task
+     * @throws Throwable whatever the task throws, or an IOException if the caller is interrupted while waiting
+     */
+    public <T> T runMetered(DepositFinalizationStage stage, MeteredStageTask<T> task) throws Throwable {
+        var executor = executors.get(stage);
+
+        if (executor == null) {
+            return measure(stage, task);
+        }
+
+        var result = new CompletableFuture<T>();
+
+        executor.execute(() -> {
+            try {
+                result.complete(measure(stage, task));
+            }
+            catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        try {
+            return result.get();
+        }
+        catch (ExecutionException e) {
+            throw e.getCause();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(String.format("Interrupted while waiting for finalization stage %s", stage), e);
+        }
+    }
+
+    private <T> T measure(DepositFinalizationStage stage, MeteredStageTask<T> task) throws Throwable {
+        var meter = meters.get(stage);
+        var running = meter.start();
+
+        try {
+            return task.call(meter::processed);
+        }
+        finally {
+            meter.stop(running);
+        }
+    }
+
+    public int getQueueDepth(DepositFinalizationStage stage) {
+        var executor = executors.get(stage);
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    public int getActiveCount(DepositFinalizationStage stage) {
+        var executor = executors.get(stage);
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    public long getCompletedCount(DepositFinalizationStage stage) {
+        var executor = executors.get(stage);
+        return executor == null ? 0 : executor.getCompletedTaskCount();
+    }
+
+    /**
+     * @return the total number of bytes reported by the tasks of the stage since the pipeline was created
+     */
+    public long getProcessedBytes(DepositFinalizationStage stage) {
+        return meters.get(stage).getBytes();
+    }
+
+    /**
+     * @return the total time spent by the stage since the pipeline was created, including the time of the tasks that are still running, in nanoseconds
+     */
+    public long getProcessingTime(DepositFinalizationStage stage) {
+        return meters.get(stage).getNanos();
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        for (var executor : executors.values()) {
+            executor.shutdown();
+        }
+
+        for (var entry : executors.entrySet()) {
+            if (!entry.getValue().awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Finalization stage {} did not stop in time", entry.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+/**
+ * The stages of finalizing a deposit, in the order in which they are run.
+ */
+public enum DepositFinalizationStage {
+    // merge the partial files of a continued deposit into one zip file (I/O bound)
+    MERGE,
+    // extract the zip files into the deposit directory (I/O bound)
+    EXTRACT,
+    // rewrite the manifests for the mapped file paths (CPU bound)
+    REWRITE_MANIFESTS,
+    // verify the checksums of the bag (CPU bound)
+    VERIFY,
+    // move the deposit to the deposits directory (I/O bound)
+    HANDOVER
+}
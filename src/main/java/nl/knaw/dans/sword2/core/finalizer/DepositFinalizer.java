@@ -31,18 +31,35 @@ public class DepositFinalizer implements Runnable {
     private final DepositHandler depositHandler;
     private final String depositId;
     private final BlockingQueue<DepositFinalizerEvent> taskQueue;
+    private final DepositWorkLog workLog;
 
     public DepositFinalizer(String depositId,
         DepositHandler depositHandler,
-        BlockingQueue<DepositFinalizerEvent> taskQueue
+        BlockingQueue<DepositFinalizerEvent> taskQueue,
+        DepositWorkLog workLog
     ) {
         this.depositId = depositId;
         this.depositHandler = depositHandler;
         this.taskQueue = taskQueue;
+        this.workLog = workLog;
     }
 
     @Override
     public void run() {
+        workLog.started(depositId);
+
+        if (finalizeDeposit()) {
+            workLog.completed(depositId);
+        }
+    }
+
+    /**
+     * Only a deposit that ended in a final state, or that no longer exists, is completed in the work log. A deposit that is rescheduled, or that failed for
+     * another reason (e.g. an I/O error), stays outstanding, so that it is tried again after a restart; the replay skips it if it is no longer waiting.
+     *
+     * @return true if the deposit reached a final state, false otherwise
+     */
+    private boolean finalizeDeposit() {
         try {
             var deposit = depositHandler.finalizeDeposit(depositId);
             log.info("Finalized deposit {}", deposit);
@@ -66,12 +83,17 @@ public class DepositFinalizer implements Runnable {
             }
             catch (InterruptedException ex) {
                 log.error("Unable to add deposit with ID {} to reschedule queue", depositId, ex);
+                Thread.currentThread().interrupt();
             }
+            return false;
         }
         // in all other cases, we should try again
         catch (Exception e) {
             log.error("Unknown error while finalizing deposit", e);
+            return false;
         }
+
+        return true;
     }
 
 }
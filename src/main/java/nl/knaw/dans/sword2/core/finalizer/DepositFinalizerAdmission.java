@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import nl.knaw.dans.sword2.core.config.FinalizerAdmissionConfig;
+import nl.knaw.dans.sword2.core.exceptions.FinalizerQueueFullException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether deposits can be handed to the finalizer without blocking the request thread. Uploads that would complete a deposit are refused up front
+ * when the finalizer queue is nearly full, and deposits that do not fit on the queue after all are handed to the rescheduler, which puts them on the queue
+ * from its own thread once there is room.
+ */
+public class DepositFinalizerAdmission {
+    private static final Logger log = LoggerFactory.getLogger(DepositFinalizerAdmission.class);
+    private static final Duration MIN_RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final DepositFinalizerQueue taskQueue;
+    private final DepositFinalizerRescheduler rescheduler;
+    private final DepositWorkLog workLog;
+    private final FinalizerAdmissionConfig config;
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    public DepositFinalizerAdmission(DepositFinalizerQueue taskQueue, DepositFinalizerRescheduler rescheduler, DepositWorkLog workLog,
+        FinalizerAdmissionConfig config) {
+        this.taskQueue = taskQueue;
+        this.rescheduler = rescheduler;
+        this.workLog = workLog;
+        this.config = config;
+    }
+
+    /**
+     * Checks if a deposit that is about to be completed can be accepted. This should be called before the payload is read, so that a refusal is cheap.
+     *
+     * @throws FinalizerQueueFullException if the finalizer queue is above the configured threshold and overflow is disabled
+     */
+    public void checkCapacity() throws FinalizerQueueFullException {
+        if (config.isOverflow()) {
+            return;
+        }
+
+        var saturation = taskQueue.getSaturation();
+
+        if (saturation * 100 >= config.getRejectThresholdPercentage()) {
+            rejectedCount.incrementAndGet();
+            var retryAfter = getRetryAfter();
+            log.warn("Finalizer queue is at {}%, refusing deposit; retry after {}", Math.round(saturation * 100), retryAfter);
+            throw new FinalizerQueueFullException(String.format("Finalizer queue is full, retry after %s seconds", retryAfter.toSeconds()), retryAfter);
+        }
+    }
+
+    /**
+     * Records in the work log that the deposit is about to be handed to the finalizer, so that it is replayed if the service stops before the deposit is
+     * finalized. This must be done before the deposit is marked UPLOADED on disk: a deposit that is UPLOADED but not in the log would not be found after a
+     * restart, while a record of a deposit that did not become UPLOADED is skipped when the log is replayed.
+     *
+     * @param depositId the deposit that is going to be finalized
+     */
+    public void record(String depositId) {
+        workLog.enqueued(depositId);
+    }
+
+    /**
+     * Hands the deposit to the finalizer. Waits at most the configured offer timeout for room on the queue; if there is none, the deposit is handed to the
+     * rescheduler instead, as its payload has already been accepted. The deposit must have been recorded with {@link #record(String)} first.
+     *
+     * @param depositId the deposit to finalize
+     */
+    public void submit(String depositId) {
+        try {
+            if (taskQueue.offer(new DepositFinalizerEvent(depositId), config.getOfferTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+                return;
+            }
+        }
+        catch (InterruptedException e) {
+            log.error("Interrupted while putting deposit {} on the finalizer queue", depositId, e);
+            Thread.currentThread().interrupt();
+        }
+
+        overflowCount.incrementAndGet();
+        var delay = getRetryAfter();
+        log.warn("Finalizer queue is full, deposit {} will be put on the queue in {}", depositId, delay);
+        rescheduler.schedule(depositId, delay);
+    }
+
+    Duration getRetryAfter() {
+        var estimate = taskQueue.estimateDrainTime();
+
+        if (estimate == null || estimate.compareTo(config.getMaxRetryAfter()) > 0) {
+            return config.getMaxRetryAfter();
+        }
+
+        return estimate.compareTo(MIN_RETRY_AFTER) < 0 ? MIN_RETRY_AFTER : estimate;
+    }
+
+    public double getSaturation() {
+        return taskQueue.getSaturation();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import io.dropwizard.lifecycle.Managed;
+import nl.knaw.dans.sword2.core.config.FinalizerConcurrencyConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Adjusts the number of deposits that are finalized at the same time on the shared workers of the {@link DepositFinalizerScheduler}, based on the
+ * throughput of the extract and verify stages of the {@link DepositFinalizationPipeline}.
+ *
+ * <p>At every sample interval, the bytes processed by those stages and the time they took are measured, including the deposits that are still in those
+ * stages. The extract stage counts the bytes of the files it writes, and the verify stage only the bytes of the files it reads, which are few when the
+ * checksums were computed during the extraction. The time per byte is compared with the best time
+ * per byte seen so far (the baseline, which slowly follows the measurements upward). The limit is adjusted with additive increase, multiplicative
+ * decrease (AIMD):</p>
+ * <ul>
+ *     <li>if the time per byte is more than latencyTolerance above the baseline and the throughput did not grow, the storage is saturated and the limit is
+ *     multiplied by backoffRatio;</li>
+ *     <li>otherwise, if all shared workers are busy, the limit is raised by one.</li>
+ * </ul>
+ * <p>The limit stays between minConcurrency and maxConcurrency. An interval in which nothing was extracted or verified leaves the limit as it is, and is
+ * measured together with the next one.</p>
+ */
+public class DepositFinalizerConcurrencyController implements Managed, Runnable {
+    private static final Logger log = LoggerFactory.getLogger(DepositFinalizerConcurrencyController.class);
+
+    private static final List<DepositFinalizationStage> MEASURED_STAGES = List.of(DepositFinalizationStage.EXTRACT, DepositFinalizationStage.VERIFY);
+    // the fraction by which the baseline moves toward a higher time per byte at every sample
+    private static final double BASELINE_SMOOTHING = 0.1;
+
+    private final DepositFinalizerScheduler scheduler;
+    private final DepositFinalizationPipeline pipeline;
+    private final FinalizerConcurrencyConfig config;
+    private final Thread thread;
+    private long lastBytes;
+    private long lastNanos;
+    private long lastSampleNanos;
+    private double baselineLatency = 0;
+    private double throughput = 0;
+    private double latency = 0;
+
+    public DepositFinalizerConcurrencyController(DepositFinalizerScheduler scheduler, DepositFinalizationPipeline pipeline, FinalizerConcurrencyConfig config) {
+        this.scheduler = scheduler;
+        this.pipeline = pipeline;
+        this.config = config;
+        this.thread = new Thread(this, "deposit-finalizer-concurrency-controller");
+        this.thread.setDaemon(true);
+    }
+
+    @Override
+    public void start() {
+        scheduler.setSharedConcurrency(clamp(scheduler.getSharedConcurrency()));
+        lastBytes = getProcessedBytes();
+        lastNanos = getProcessingTime();
+        lastSampleNanos = System.nanoTime();
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(config.getSampleInterval().toMillis());
+                sample();
+            }
+            catch (InterruptedException e) {
+                log.debug("Concurrency controller was interrupted");
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void sample() {
+        var bytes = getProcessedBytes();
+        var nanos = getProcessingTime();
+        var now = System.nanoTime();
+
+        // while no bytes are counted (e.g. while a large file is written) the interval is extended, so that the time spent is measured with the bytes
+        if (bytes == lastBytes) {
+            return;
+        }
+
+        adjust(bytes - lastBytes, nanos - lastNanos, (now - lastSampleNanos) / 1e9);
+
+        lastBytes = bytes;
+        lastNanos = nanos;
+        lastSampleNanos = now;
+    }
+
+    /**
+     * @param bytes   the number of bytes processed in the interval
+     * @param nanos   the time spent processing them, in nanoseconds
+     * @param seconds the length of the interval
+     */
+    synchronized void adjust(long bytes, long nanos, double seconds) {
+        if (bytes == 0 || seconds <= 0) {
+            return;
+        }
+
+        var currentThroughput = bytes / seconds;
+        var currentLatency = (double) nanos / bytes;
+        var growing = currentThroughput > throughput;
+
+        baselineLatency = baselineLatency == 0 || currentLatency < baselineLatency
+            ? currentLatency
+            : baselineLatency + (currentLatency - baselineLatency) * BASELINE_SMOOTHING;
+
+        var limit = scheduler.getSharedConcurrency();
+        var newLimit = limit;
+
+        if (currentLatency > baselineLatency * (1 + config.getLatencyTolerance()) && !growing) {
+            newLimit = clamp((int) (limit * config.getBackoffRatio()));
+        }
+        else if (scheduler.getSharedRunningCount() >= limit) {
+            newLimit = clamp(limit + 1);
+        }
+
+        if (newLimit != limit) {
+            log.info("Changing finalizer concurrency from {} to {}; throughput {} bytes/s, {} ns/byte (baseline {} ns/byte)", limit, newLimit,
+                Math.round(currentThroughput), currentLatency, baselineLatency);
+            scheduler.setSharedConcurrency(newLimit);
+        }
+
+        throughput = currentThroughput;
+        latency = currentLatency;
+    }
+
+    private int clamp(int limit) {
+        return Math.max(config.getMinConcurrency(), Math.min(config.getMaxConcurrency(), limit));
+    }
+
+    private long getProcessedBytes() {
+        return MEASURED_STAGES.stream().mapToLong(pipeline::getProcessedBytes).sum();
+    }
+
+    private long getProcessingTime() {
+        return MEASURED_STAGES.stream().mapToLong(pipeline::getProcessingTime).sum();
+    }
+
+    /**
+     * @return the bytes per second processed by the extract and verify stages in the last interval in which they processed anything
+     */
+    public synchronized double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * @return the time per byte of the extract and verify stages in the last interval in which they processed anything, in nanoseconds
+     */
+    public synchronized double getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A finalization event for a deposit that may not be put on the task queue before its due time has passed.
+ */
+class DepositFinalizerDelayedEvent implements Delayed {
+
+    private final String depositId;
+    private final long dueTimeNanos;
+
+    DepositFinalizerDelayedEvent(String depositId, long dueTimeNanos) {
+        this.depositId = depositId;
+        this.dueTimeNanos = dueTimeNanos;
+    }
+
+    public String getDepositId() {
+        return depositId;
+    }
+
+    long getDueTimeNanos() {
+        return dueTimeNanos;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(dueTimeNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+        if (other instanceof DepositFinalizerDelayedEvent) {
+            // compare the difference, not the values, because nanoTime may overflow
+            var diff = dueTimeNanos - ((DepositFinalizerDelayedEvent) other).dueTimeNanos;
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+
+        return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public String toString() {
+        return "DepositFinalizerDelayedEvent{" +
+            "depositId='" + depositId + '\'' +
+            ", delay=" + getDelay(TimeUnit.MILLISECONDS) + "ms" +
+            '}';
+    }
+}
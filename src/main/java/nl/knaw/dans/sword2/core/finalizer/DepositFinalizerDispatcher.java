@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands finalization tasks to the scheduler, at most one at a time per deposit. A task that is dispatched while another task for the same deposit
+ * is running is not submitted; instead, the running task is repeated once when it is done, so that changes made in the meantime are still picked up.
+ */
+public class DepositFinalizerDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(DepositFinalizerDispatcher.class);
+
+    private final DepositFinalizerScheduler scheduler;
+    // deposit id -> true if the task must be repeated when the running one is done
+    private final ConcurrentHashMap<String, Boolean> active = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public DepositFinalizerDispatcher(DepositFinalizerScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void dispatch(String depositId, Runnable task) {
+        var alreadyActive = active.compute(depositId, (id, repeat) -> repeat != null);
+
+        if (alreadyActive) {
+            log.debug("Deposit {} is already being finalized, it will be finalized again when done", depositId);
+            coalescedCount.incrementAndGet();
+            return;
+        }
+
+        scheduler.submit(depositId, () -> runWhileRequested(depositId, task));
+    }
+
+    private void runWhileRequested(String depositId, Runnable task) {
+        boolean repeat;
+
+        do {
+            try {
+                task.run();
+            }
+            finally {
+                repeat = active.compute(depositId, (id, requested) -> requested ? Boolean.FALSE : null) != null;
+            }
+        }
+        while (repeat);
+    }
+
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+}
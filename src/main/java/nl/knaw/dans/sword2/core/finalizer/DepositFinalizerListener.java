@@ -20,26 +20,24 @@ import nl.knaw.dans.sword2.core.service.DepositHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.Duration;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
 
 public class DepositFinalizerListener implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(DepositFinalizerListener.class);
 
     private final BlockingQueue<DepositFinalizerEvent> taskQueue;
-    private final ExecutorService finalizerQueue;
-    private final ExecutorService rescheduleQueue;
+    private final DepositFinalizerDispatcher dispatcher;
+    private final DepositFinalizerRescheduler rescheduler;
     private final DepositHandler depositHandler;
-    private final Duration rescheduleDelay;
+    private final DepositWorkLog workLog;
 
-    public DepositFinalizerListener(BlockingQueue<DepositFinalizerEvent> taskQueue, ExecutorService finalizerQueue, DepositHandler depositHandler, ExecutorService rescheduleQueue,
-        Duration rescheduleDelay) {
+    public DepositFinalizerListener(BlockingQueue<DepositFinalizerEvent> taskQueue, DepositFinalizerDispatcher dispatcher, DepositHandler depositHandler, DepositFinalizerRescheduler rescheduler,
+        DepositWorkLog workLog) {
         this.taskQueue = taskQueue;
-        this.finalizerQueue = finalizerQueue;
+        this.dispatcher = dispatcher;
         this.depositHandler = depositHandler;
-        this.rescheduleQueue = rescheduleQueue;
-        this.rescheduleDelay = rescheduleDelay;
+        this.rescheduler = rescheduler;
+        this.workLog = workLog;
     }
 
     @Override
@@ -56,11 +54,11 @@ public class DepositFinalizerListener implements Runnable {
                         return;
 
                     case FINALIZE:
-                        finalizerQueue.submit(new DepositFinalizer(depositTask.getDepositId(), depositHandler, taskQueue));
+                        dispatcher.dispatch(depositTask.getDepositId(), new DepositFinalizer(depositTask.getDepositId(), depositHandler, taskQueue, workLog));
                         break;
 
                     case RESCHEDULE:
-                        rescheduleQueue.submit(new DepositFinalizerDelayedTask(depositTask.getDepositId(), rescheduleDelay, taskQueue));
+                        rescheduler.schedule(depositTask.getDepositId());
                         break;
 
                 }
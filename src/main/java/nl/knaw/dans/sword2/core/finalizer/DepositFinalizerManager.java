@@ -16,51 +16,132 @@
 package nl.knaw.dans.sword2.core.finalizer;
 
 import io.dropwizard.lifecycle.Managed;
+import nl.knaw.dans.sword2.core.DepositState;
+import nl.knaw.dans.sword2.core.exceptions.DepositNotFoundException;
+import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
 import nl.knaw.dans.sword2.core.service.DepositHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
 
 public class DepositFinalizerManager implements Managed {
     private static final Logger log = LoggerFactory.getLogger(DepositFinalizerManager.class);
 
-    private final DepositHandler depositHandler;
     private final Thread depositFinalizerListenerThread;
+    private final DepositHandler depositHandler;
     private final BlockingQueue<DepositFinalizerEvent> taskQueue;
-    private final ExecutorService finalizerQueue;
-    private final ExecutorService rescheduleQueue;
+    private final DepositFinalizerScheduler scheduler;
+    private final DepositFinalizerRescheduler rescheduler;
+    private final DepositFinalizerDispatcher dispatcher;
+    private final DepositRecovery recovery;
+    private final DepositWorkLog workLog;
+    private Thread replayThread;
 
-    public DepositFinalizerManager(ExecutorService finalizerQueue, DepositHandler depositHandler,
-        BlockingQueue<DepositFinalizerEvent> taskQueue, ExecutorService rescheduleQueue,
-        Duration rescheduleDelay) {
+    public DepositFinalizerManager(DepositFinalizerScheduler scheduler, DepositHandler depositHandler,
+        BlockingQueue<DepositFinalizerEvent> taskQueue, DepositFinalizerRescheduler rescheduler, DepositRecovery recovery, DepositWorkLog workLog) {
         this.depositHandler = depositHandler;
-        this.depositFinalizerListenerThread = new Thread(new DepositFinalizerListener(taskQueue, finalizerQueue, depositHandler, rescheduleQueue, rescheduleDelay));
+        this.recovery = recovery;
+        this.workLog = workLog;
+        this.rescheduler = rescheduler;
+        this.dispatcher = new DepositFinalizerDispatcher(scheduler);
+        this.depositFinalizerListenerThread = new Thread(new DepositFinalizerListener(taskQueue, dispatcher, depositHandler, rescheduler, workLog));
         this.taskQueue = taskQueue;
-        this.finalizerQueue = finalizerQueue;
-        this.rescheduleQueue = rescheduleQueue;
+        this.scheduler = scheduler;
+    }
+
+    public DepositFinalizerDispatcher getDispatcher() {
+        return dispatcher;
     }
 
     @Override
     public void start() throws Exception {
+        this.rescheduler.start();
         this.depositFinalizerListenerThread.start();
 
-        // scan all items in the uploads folder and add them to the queue
-        var deposits = this.depositHandler.getOpenDeposits();
-        log.info("Found {} deposits that need to be checked", deposits.size());
+        var outstanding = this.workLog.open();
+
+        if (outstanding.isPresent()) {
+            // every deposit is read and put on the queue, which may block while it is full; this continues in the background while the service starts
+            this.replayThread = new Thread(() -> replayInBackground(outstanding.get()), "deposit-work-log-replay");
+            this.replayThread.setDaemon(true);
+            this.replayThread.start();
+        }
+        else {
+            // scan all items in the uploads folder and add them to the queue; this continues in the background while the service starts
+            log.info("Starting recovery of deposits that were not finalized");
+            this.recovery.start();
+        }
+    }
+
+    private void replayInBackground(List<DepositWorkLogEntry> entries) {
+        try {
+            replay(entries);
+        }
+        catch (InterruptedException e) {
+            log.warn("Replay of the work log was interrupted");
+            Thread.currentThread().interrupt();
+        }
+        catch (RuntimeException e) {
+            log.error("Unable to replay the work log", e);
+        }
+    }
+
+    void replay(List<DepositWorkLogEntry> entries) throws InterruptedException {
+        log.info("Replaying {} deposits from the work log", entries.size());
+        var now = Instant.now();
+
+        for (var entry : entries) {
+            if (!isWaitingForFinalization(entry.getDepositId())) {
+                this.workLog.completed(entry.getDepositId());
+            }
+            else if (entry.isRescheduled()) {
+                var delay = entry.getDueTime().isAfter(now) ? Duration.between(now, entry.getDueTime()) : Duration.ZERO;
+                this.rescheduler.restore(entry.getDepositId(), delay);
+            }
+            else {
+                this.taskQueue.put(new DepositFinalizerEvent(entry.getDepositId()));
+            }
+        }
+    }
+
+    /**
+     * The log may contain deposits that are not waiting for finalization: the enqueue record is written before a deposit is marked UPLOADED, and a deposit
+     * may have been finalized after its last record was written.
+     */
+    private boolean isWaitingForFinalization(String depositId) {
+        try {
+            var state = this.depositHandler.getDeposit(depositId).getState();
 
-        for (var deposit: deposits) {
-            log.info("Adding finalizing event for deposit {} to the queue", deposit.getId());
-            this.taskQueue.put(new DepositFinalizerEvent(deposit.getId()));
+            if (DepositState.UPLOADED.equals(state) || DepositState.FINALIZING.equals(state)) {
+                return true;
+            }
+
+            log.info("Deposit {} from the work log has state {}, not replaying it", depositId, state);
+        }
+        catch (DepositNotFoundException e) {
+            log.warn("Deposit {} from the work log could not be found, not replaying it", depositId);
+        }
+        catch (InvalidDepositException e) {
+            log.error("Unable to read deposit {} from the work log, not replaying it", depositId, e);
         }
+
+        return false;
     }
 
     @Override
     public void stop() throws Exception {
+        if (this.replayThread != null) {
+            this.replayThread.interrupt();
+        }
+
+        this.recovery.stop();
         this.taskQueue.put(new DepositFinalizerStopEvent());
-        this.finalizerQueue.shutdown();
-        this.rescheduleQueue.shutdownNow();
+        this.scheduler.stop();
+        this.rescheduler.stop();
+        this.workLog.close();
     }
 }
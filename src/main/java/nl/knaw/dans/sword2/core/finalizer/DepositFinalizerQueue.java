@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * The queue of finalizer events. It is keyed on the deposit id: a finalize event for a deposit that is already waiting on the queue is merged with the
+ * waiting event instead of being added, because one finalization covers both. It also keeps track of how fast events are taken off the queue while it is
+ * busy, so that the time needed to drain it can be estimated.
+ *
+ * <p>The events and the ids of the waiting deposits are guarded by a single lock, so they are always changed together. Operations that are not implemented
+ * here are implemented by {@link AbstractQueue} in terms of these.</p>
+ */
+public class DepositFinalizerQueue extends AbstractQueue<DepositFinalizerEvent> implements BlockingQueue<DepositFinalizerEvent> {
+    private static final Logger log = LoggerFactory.getLogger(DepositFinalizerQueue.class);
+
+    // weight of the most recent interval in the moving average
+    private static final double ALPHA = 0.2;
+
+    private final int capacity;
+    private final ArrayDeque<DepositFinalizerEvent> events;
+    private final Set<String> pendingDepositIds = new HashSet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private long mergedCount = 0;
+    private long lastTakeNanos = 0;
+    private double averageTakeIntervalNanos = 0;
+
+    public DepositFinalizerQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.events = new ArrayDeque<>(capacity);
+    }
+
+    @Override
+    public boolean offer(DepositFinalizerEvent event) {
+        checkNotNull(event);
+        lock.lock();
+
+        try {
+            return merge(event) || enqueue(event);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(DepositFinalizerEvent event, long timeout, TimeUnit unit) throws InterruptedException {
+        checkNotNull(event);
+        var nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+
+        try {
+            if (merge(event)) {
+                return true;
+            }
+
+            while (events.size() == capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+
+                nanos = notFull.awaitNanos(nanos);
+
+                // the deposit may have been put on the queue by another thread while this one was waiting; the free slot is passed on
+                if (merge(event)) {
+                    notFull.signal();
+                    return true;
+                }
+            }
+
+            return enqueue(event);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(DepositFinalizerEvent event) throws InterruptedException {
+        checkNotNull(event);
+        lock.lockInterruptibly();
+
+        try {
+            if (merge(event)) {
+                return;
+            }
+
+            while (events.size() == capacity) {
+                notFull.await();
+
+                if (merge(event)) {
+                    notFull.signal();
+                    return;
+                }
+            }
+
+            enqueue(event);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public DepositFinalizerEvent take() throws InterruptedException {
+        lock.lockInterruptibly();
+
+        try {
+            while (events.isEmpty()) {
+                notEmpty.await();
+            }
+
+            var event = dequeue();
+            recordTake();
+            return event;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public DepositFinalizerEvent poll() {
+        lock.lock();
+
+        try {
+            return events.isEmpty() ? null : dequeue();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public DepositFinalizerEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        var nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+
+        try {
+            while (events.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+
+            return dequeue();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public DepositFinalizerEvent peek() {
+        lock.lock();
+
+        try {
+            return events.peek();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+
+        try {
+            return events.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+
+        try {
+            return capacity - events.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return removeIf(event -> event.equals(o), true);
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super DepositFinalizerEvent> filter) {
+        return removeIf(filter, false);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        return removeIf(c::contains, false);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        return removeIf(event -> !c.contains(event), false);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        lock.lock();
+
+        try {
+            return events.contains(o);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        removeIf(event -> true, false);
+    }
+
+    @Override
+    public int drainTo(Collection<? super DepositFinalizerEvent> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super DepositFinalizerEvent> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+
+        var drained = new ArrayList<DepositFinalizerEvent>();
+        lock.lock();
+
+        try {
+            while (drained.size() < maxElements && !events.isEmpty()) {
+                drained.add(dequeue());
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        c.addAll(drained);
+        return drained.size();
+    }
+
+    /**
+     * Iterates over a snapshot of the events. Removing an event through the iterator removes it from the queue, if it is still waiting.
+     */
+    @Override
+    public Iterator<DepositFinalizerEvent> iterator() {
+        Iterator<DepositFinalizerEvent> snapshot;
+        lock.lock();
+
+        try {
+            snapshot = new ArrayList<>(events).iterator();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        return new Iterator<>() {
+            private DepositFinalizerEvent last;
+
+            @Override
+            public boolean hasNext() {
+                return snapshot.hasNext();
+            }
+
+            @Override
+            public DepositFinalizerEvent next() {
+                last = snapshot.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+
+                removeIf(event -> event == last, true);
+                last = null;
+            }
+        };
+    }
+
+    private boolean removeIf(Predicate<? super DepositFinalizerEvent> filter, boolean firstOnly) {
+        lock.lock();
+
+        try {
+            var removed = false;
+            var iterator = events.iterator();
+
+            while (iterator.hasNext()) {
+                var event = iterator.next();
+
+                if (filter.test(event)) {
+                    iterator.remove();
+                    release(event);
+                    removed = true;
+
+                    if (firstOnly) {
+                        break;
+                    }
+                }
+            }
+
+            if (removed) {
+                notFull.signalAll();
+            }
+
+            return removed;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private static void checkNotNull(DepositFinalizerEvent event) {
+        if (event == null) {
+            throw new NullPointerException();
+        }
+    }
+
+    /**
+     * Must be called while holding the lock.
+     *
+     * @return true if a finalize event for the same deposit is already waiting on the queue
+     */
+    private boolean merge(DepositFinalizerEvent event) {
+        if (!DepositFinalizerEventType.FINALIZE.equals(event.getEventType()) || !pendingDepositIds.contains(event.getDepositId())) {
+            return false;
+        }
+
+        log.debug("Deposit {} is already waiting on the finalizer queue, merging the events", event.getDepositId());
+        mergedCount++;
+        return true;
+    }
+
+    /**
+     * Must be called while holding the lock.
+     *
+     * @return false if the queue is full
+     */
+    private boolean enqueue(DepositFinalizerEvent event) {
+        if (events.size() == capacity) {
+            return false;
+        }
+
+        events.add(event);
+
+        if (DepositFinalizerEventType.FINALIZE.equals(event.getEventType())) {
+            pendingDepositIds.add(event.getDepositId());
+        }
+
+        notEmpty.signal();
+        return true;
+    }
+
+    /**
+     * Must be called while holding the lock, with at least one event on the queue.
+     */
+    private DepositFinalizerEvent dequeue() {
+        var event = events.remove();
+        release(event);
+        notFull.signal();
+        return event;
+    }
+
+    private void release(DepositFinalizerEvent event) {
+        if (DepositFinalizerEventType.FINALIZE.equals(event.getEventType())) {
+            pendingDepositIds.remove(event.getDepositId());
+        }
+    }
+
+    /**
+     * Must be called while holding the lock.
+     */
+    private void recordTake() {
+        var now = System.nanoTime();
+
+        // intervals in which the queue was empty say nothing about the speed of the consumer
+        if (lastTakeNanos != 0) {
+            var interval = now - lastTakeNanos;
+            averageTakeIntervalNanos = averageTakeIntervalNanos == 0 ? interval : averageTakeIntervalNanos + ALPHA * (interval - averageTakeIntervalNanos);
+        }
+
+        lastTakeNanos = events.isEmpty() ? 0 : now;
+    }
+
+    public long getMergedCount() {
+        lock.lock();
+
+        try {
+            return mergedCount;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the fraction of the capacity that is in use, between 0 and 1
+     */
+    public double getSaturation() {
+        return size() / (double) capacity;
+    }
+
+    /**
+     * @return the estimated time until all events currently on the queue have been taken, or null if there is not enough information yet
+     */
+    public Duration estimateDrainTime() {
+        lock.lock();
+
+        try {
+            if (averageTakeIntervalNanos == 0) {
+                return null;
+            }
+
+            return Duration.ofNanos((long) (averageTakeIntervalNanos * events.size()));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
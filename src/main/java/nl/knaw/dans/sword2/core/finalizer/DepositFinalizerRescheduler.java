@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+
+/**
+ * Holds deposits that must be finalized again after a delay (e.g. because there was not enough disk space) and puts them back on the task queue when they
+ * become due. All pending retries are kept in a single {@link DelayQueue} that is drained by one thread, so the number of waiting deposits does not affect
+ * the number of threads used.
+ */
+public class DepositFinalizerRescheduler implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(DepositFinalizerRescheduler.class);
+
+    private final BlockingQueue<DepositFinalizerEvent> taskQueue;
+    private final Duration rescheduleDelay;
+    private final DepositWorkLog workLog;
+    private final DelayQueue<DepositFinalizerDelayedEvent> delayQueue = new DelayQueue<>();
+    private final Thread thread;
+
+    public DepositFinalizerRescheduler(BlockingQueue<DepositFinalizerEvent> taskQueue, Duration rescheduleDelay) {
+        this(taskQueue, rescheduleDelay, new NoOpDepositWorkLog());
+    }
+
+    public DepositFinalizerRescheduler(BlockingQueue<DepositFinalizerEvent> taskQueue, Duration rescheduleDelay, DepositWorkLog workLog) {
+        this.taskQueue = taskQueue;
+        this.rescheduleDelay = rescheduleDelay;
+        this.workLog = workLog;
+        this.thread = new Thread(this, "deposit-finalizer-rescheduler");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        thread.interrupt();
+    }
+
+    public void schedule(String depositId) {
+        schedule(depositId, rescheduleDelay);
+    }
+
+    public void schedule(String depositId, Duration delay) {
+        workLog.rescheduled(depositId, Instant.now().plus(delay));
+        restore(depositId, delay);
+    }
+
+    /**
+     * Schedules a deposit that was already recorded as rescheduled in the work log, e.g. when replaying the log at startup.
+     */
+    void restore(String depositId, Duration delay) {
+        var event = new DepositFinalizerDelayedEvent(depositId, System.nanoTime() + delay.toNanos());
+        log.debug("Scheduling deposit {} to be finalized again in {}", depositId, delay);
+        delayQueue.put(event);
+    }
+
+    public int getPendingCount() {
+        return delayQueue.size();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                var event = delayQueue.take();
+                log.debug("Deposit {} is due for finalization", event.getDepositId());
+                workLog.enqueued(event.getDepositId());
+                taskQueue.put(new DepositFinalizerEvent(event.getDepositId()));
+            }
+            catch (InterruptedException e) {
+                log.info("Rescheduler was interrupted, {} deposits are still pending", delayQueue.size());
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
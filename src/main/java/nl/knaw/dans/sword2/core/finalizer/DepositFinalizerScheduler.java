@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import nl.knaw.dans.sword2.core.config.CollectionConfig;
+import nl.knaw.dans.sword2.core.config.FinalizerSchedulingConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which deposit is finalized next. Deposits are held here until a worker is free, so the executor never queues work itself and the order can be
+ * chosen when a worker becomes available.
+ *
+ * <p>Each collection has its own queue. A collection with a finalizer concurrency of its own is isolated: it has that many workers for itself and does
+ * not use the shared workers. The other collections share the shared workers in proportion to their finalizer weight (weighted fair queuing), so a burst
+ * of deposits in one collection does not hold up the others. Within a collection, the next deposit is chosen according to the configured
+ * {@link DepositFinalizerSchedulingPolicy}.</p>
+ *
+ * <p>The workload of a deposit is estimated on the estimation executor, because it reads the deposit from disk, so that the thread that submits deposits
+ * is not held up. A deposit keeps its place in the order of arrival, even if its estimate is ready after that of a deposit submitted later.</p>
+ */
+public class DepositFinalizerScheduler {
+    private static final Logger log = LoggerFactory.getLogger(DepositFinalizerScheduler.class);
+
+    // deposits of which the collection could not be determined
+    static final String UNKNOWN_COLLECTION = "";
+
+    private final ExecutorService executor;
+    private final Executor estimationExecutor;
+    private final DepositWorkloadEstimator workloadEstimator;
+    private final FinalizerSchedulingConfig config;
+    private int sharedConcurrency;
+    private final Map<String, CollectionQueue> queues = new LinkedHashMap<>();
+    private int sharedRunning = 0;
+    private int sharedRunningHeavy = 0;
+    // deposits that were submitted, but of which the workload is still being estimated
+    private int estimating = 0;
+    // the virtual time of the last deposit started on the shared workers; a collection that becomes busy again starts from here
+    private double virtualTime = 0;
+
+    static class Job {
+        private final String depositId;
+        private final String collectionId;
+        private final long size;
+        private final long submittedNanos;
+        private final Runnable task;
+
+        Job(String depositId, String collectionId, long size, long submittedNanos, Runnable task) {
+            this.depositId = depositId;
+            this.collectionId = collectionId;
+            this.size = size;
+            this.submittedNanos = submittedNanos;
+            this.task = task;
+        }
+    }
+
+    static class CollectionQueue {
+        private final int dedicatedConcurrency;
+        private final int weight;
+        private final List<Job> pending = new ArrayList<>();
+        private int running = 0;
+        private double virtualTime = 0;
+
+        CollectionQueue(int dedicatedConcurrency, int weight) {
+            this.dedicatedConcurrency = dedicatedConcurrency;
+            this.weight = weight;
+        }
+
+        boolean isDedicated() {
+            return dedicatedConcurrency > 0;
+        }
+    }
+
+    public DepositFinalizerScheduler(ExecutorService executor, DepositWorkloadEstimator workloadEstimator, FinalizerSchedulingConfig config, int sharedConcurrency,
+        List<CollectionConfig> collections) {
+        // estimates on the thread that submits the deposit
+        this(executor, Runnable::run, workloadEstimator, config, sharedConcurrency, collections);
+    }
+
+    public DepositFinalizerScheduler(ExecutorService executor, Executor estimationExecutor, DepositWorkloadEstimator workloadEstimator,
+        FinalizerSchedulingConfig config, int sharedConcurrency, List<CollectionConfig> collections) {
+        this.executor = executor;
+        this.estimationExecutor = estimationExecutor;
+        this.workloadEstimator = workloadEstimator;
+        this.config = config;
+        this.sharedConcurrency = sharedConcurrency;
+
+        for (var collection : collections) {
+            var concurrency = collection.getFinalizerConcurrency() == null ? 0 : collection.getFinalizerConcurrency();
+            queues.put(collection.getName(), new CollectionQueue(concurrency, collection.getFinalizerWeight()));
+        }
+    }
+
+    /**
+     * @return the number of threads the executor needs: the shared workers plus the workers of the collections with a concurrency of their own
+     */
+    public static int getRequiredThreads(int sharedConcurrency, List<CollectionConfig> collections) {
+        return sharedConcurrency + collections.stream()
+            .filter(collection -> collection.getFinalizerConcurrency() != null)
+            .mapToInt(CollectionConfig::getFinalizerConcurrency)
+            .sum();
+    }
+
+    public void submit(String depositId, Runnable task) {
+        var submittedNanos = System.nanoTime();
+
+        synchronized (this) {
+            estimating++;
+        }
+
+        try {
+            estimationExecutor.execute(() -> schedule(depositId, task, submittedNanos));
+        }
+        catch (RejectedExecutionException e) {
+            // it is finalized after a restart (work log or recovery)
+            log.warn("Estimation executor does not accept deposit {}, it is shut down", depositId);
+
+            synchronized (this) {
+                estimating--;
+            }
+        }
+    }
+
+    private void schedule(String depositId, Runnable task, long submittedNanos) {
+        DepositWorkload workload;
+
+        try {
+            workload = workloadEstimator.estimate(depositId);
+        }
+        catch (RuntimeException e) {
+            log.warn("Unable to estimate the workload of deposit {}", depositId, e);
+            workload = new DepositWorkload(null, DepositWorkload.UNKNOWN_SIZE);
+        }
+
+        var collectionId = workload.getCollectionId() == null ? UNKNOWN_COLLECTION : workload.getCollectionId();
+        log.debug("Scheduling deposit {} with {}", depositId, workload);
+
+        synchronized (this) {
+            estimating--;
+            var queue = queues.computeIfAbsent(collectionId, id -> new CollectionQueue(0, 1));
+
+            // a collection that was idle does not get credit for the time it did not use its share
+            if (queue.pending.isEmpty() && queue.running == 0) {
+                queue.virtualTime = Math.max(queue.virtualTime, virtualTime);
+            }
+
+            // the estimates may be ready in another order than the deposits were submitted in
+            var index = queue.pending.size();
+
+            while (index > 0 && queue.pending.get(index - 1).submittedNanos > submittedNanos) {
+                index--;
+            }
+
+            queue.pending.add(index, new Job(depositId, collectionId, workload.getSize(), submittedNanos, task));
+            dispatchAvailable();
+        }
+    }
+
+    public void stop() {
+        executor.shutdown();
+    }
+
+    private synchronized void dispatchAvailable() {
+        Job job;
+
+        while ((job = selectNext(System.nanoTime())) != null) {
+            var pending = queues.get(job.collectionId).pending;
+            var index = pending.indexOf(job);
+            pending.remove(index);
+
+            if (!start(job)) {
+                // keep the deposit, so that it is not lost if the executor accepts work again; otherwise it is finalized after a restart (work log or recovery)
+                pending.add(index, job);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return false if the executor did not accept the job
+     */
+    private boolean start(Job job) {
+        var queue = queues.get(job.collectionId);
+        var heavy = !queue.isDedicated() && isHeavy(job);
+        startedOn(queue, heavy);
+
+        try {
+            executor.execute(() -> {
+                try {
+                    job.task.run();
+                }
+                finally {
+                    finished(queue, heavy);
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            log.warn("Finalizer executor does not accept deposit {}, it is shut down", job.depositId);
+            stoppedOn(queue, heavy);
+            return false;
+        }
+    }
+
+    private void startedOn(CollectionQueue queue, boolean heavy) {
+        queue.running++;
+
+        if (!queue.isDedicated()) {
+            sharedRunning++;
+            sharedRunningHeavy += heavy ? 1 : 0;
+            virtualTime = queue.virtualTime;
+            queue.virtualTime += 1.0 / queue.weight;
+        }
+    }
+
+    private void stoppedOn(CollectionQueue queue, boolean heavy) {
+        queue.running--;
+
+        if (!queue.isDedicated()) {
+            sharedRunning--;
+            sharedRunningHeavy -= heavy ? 1 : 0;
+        }
+    }
+
+    private synchronized void finished(CollectionQueue queue, boolean heavy) {
+        stoppedOn(queue, heavy);
+        dispatchAvailable();
+    }
+
+    Job selectNext(long now) {
+        // collections with workers of their own do not compete with the others
+        for (var queue : queues.values()) {
+            if (queue.isDedicated() && queue.running < queue.dedicatedConcurrency && !queue.pending.isEmpty()) {
+                return selectWithin(queue, now, true);
+            }
+        }
+
+        if (sharedRunning >= sharedConcurrency) {
+            return null;
+        }
+
+        var heavyAllowed = sharedRunningHeavy < sharedConcurrency - config.getReservedLightWorkers();
+        var candidates = queues.values().stream()
+            .filter(queue -> !queue.isDedicated() && !queue.pending.isEmpty())
+            .sorted(Comparator.comparingDouble(queue -> queue.virtualTime))
+            .collect(Collectors.toList());
+
+        for (var queue : candidates) {
+            var job = selectWithin(queue, now, heavyAllowed);
+
+            if (job != null) {
+                return job;
+            }
+        }
+
+        return null;
+    }
+
+    private Job selectWithin(CollectionQueue queue, long now, boolean heavyAllowed) {
+        switch (config.getPolicy()) {
+            case SHORTEST_FIRST:
+                return selectShortest(queue.pending, now);
+
+            case LANES:
+                // only heavy deposits are waiting if nothing is returned, and all workers they may use are busy
+                return queue.pending.stream().filter(job -> heavyAllowed || !isHeavy(job)).findFirst().orElse(null);
+
+            default:
+                return queue.pending.get(0);
+        }
+    }
+
+    private Job selectShortest(List<Job> jobs, long now) {
+        Job best = null;
+        var bestSize = 0.0;
+
+        for (var job : jobs) {
+            var size = getAgedSize(job, now);
+
+            if (best == null || size < bestSize) {
+                best = job;
+                bestSize = size;
+            }
+        }
+
+        return best;
+    }
+
+    double getAgedSize(Job job, long now) {
+        var halfLives = (now - job.submittedNanos) / (double) config.getAgingHalfLife().toNanos();
+        return getSize(job) / Math.pow(2, halfLives);
+    }
+
+    private boolean isHeavy(Job job) {
+        return DepositFinalizerSchedulingPolicy.LANES.equals(config.getPolicy()) && (job.size == DepositWorkload.UNKNOWN_SIZE || job.size > config.getHeavyThreshold());
+    }
+
+    /**
+     * A deposit of which the size is unknown may be of any size, so it is taken to be as large as a heavy deposit; it is still aged like the others.
+     */
+    private long getSize(Job job) {
+        return job.size == DepositWorkload.UNKNOWN_SIZE ? config.getHeavyThreshold() : job.size;
+    }
+
+    /**
+     * Changes the number of shared workers. When it is lowered, running deposits are not interrupted; no new deposits are started on the shared workers
+     * until fewer than the new number are running.
+     *
+     * @param sharedConcurrency the new number of shared workers; the executor must have enough threads for it
+     */
+    public synchronized void setSharedConcurrency(int sharedConcurrency) {
+        this.sharedConcurrency = sharedConcurrency;
+        dispatchAvailable();
+    }
+
+    public synchronized int getSharedConcurrency() {
+        return sharedConcurrency;
+    }
+
+    /**
+     * @return the number of deposits running on the shared workers
+     */
+    public synchronized int getSharedRunningCount() {
+        return sharedRunning;
+    }
+
+    /**
+     * @return the number of deposits waiting for a worker, including those of which the workload is still being estimated
+     */
+    public synchronized int getPendingCount() {
+        return estimating + queues.values().stream().mapToInt(queue -> queue.pending.size()).sum();
+    }
+
+    public synchronized int getRunningCount() {
+        return queues.values().stream().mapToInt(queue -> queue.running).sum();
+    }
+
+    /**
+     * @return the time the longest waiting deposit has been waiting, in milliseconds
+     */
+    public synchronized long getOldestWaitTime() {
+        return queues.values().stream().mapToLong(this::getOldestWaitTime).max().orElse(0);
+    }
+
+    public synchronized int getPendingCount(String collectionId) {
+        var queue = queues.get(collectionId);
+        return queue == null ? 0 : queue.pending.size();
+    }
+
+    public synchronized int getRunningCount(String collectionId) {
+        var queue = queues.get(collectionId);
+        return queue == null ? 0 : queue.running;
+    }
+
+    /**
+     * @return the time the longest waiting deposit of the collection has been waiting, in milliseconds
+     */
+    public synchronized long getOldestWaitTime(String collectionId) {
+        var queue = queues.get(collectionId);
+        return queue == null ? 0 : getOldestWaitTime(queue);
+    }
+
+    private long getOldestWaitTime(CollectionQueue queue) {
+        var now = System.nanoTime();
+        return queue.pending.stream().mapToLong(job -> TimeUnit.NANOSECONDS.toMillis(now - job.submittedNanos)).max().orElse(0);
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+public enum DepositFinalizerSchedulingPolicy {
+    // in order of arrival
+    FIFO,
+    // smallest deposit first; the size that is taken into account halves with every agingHalfLife a deposit waits, so large deposits are not starved
+    SHORTEST_FIRST,
+    // in order of arrival, but deposits above heavyThreshold may not use the workers that are reserved for light deposits
+    LANES
+}
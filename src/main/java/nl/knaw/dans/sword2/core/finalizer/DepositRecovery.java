@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import nl.knaw.dans.sword2.core.DepositState;
+import nl.knaw.dans.sword2.core.config.CollectionConfig;
+import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
+import nl.knaw.dans.sword2.core.service.CollectionManager;
+import nl.knaw.dans.sword2.core.service.DepositPropertiesManager;
+import nl.knaw.dans.sword2.core.service.FileService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the deposits that were uploaded but not finalized when the service was stopped, and puts them on the finalizer queue. This runs in the background,
+ * so that the service accepts requests while a large backlog is still being scanned. The uploads directories of the collections are listed in parallel, and
+ * the state of each deposit is read on a pool of threads. Only the state is read; each deposit is put on the queue as soon as it is found to be open.
+ *
+ * <p>A deposit that is completed by its client while the recovery runs may be put on the queue by both. This is harmless: the queue merges the events while
+ * they are waiting, and the finalizer skips a deposit that is already finalized. No timestamps are compared, because the clock of the file system that holds
+ * the uploads need not agree with the clock of this host.</p>
+ */
+public class DepositRecovery {
+    private static final Logger log = LoggerFactory.getLogger(DepositRecovery.class);
+
+    private final CollectionManager collectionManager;
+    private final FileService fileService;
+    private final DepositPropertiesManager depositPropertiesManager;
+    private final BlockingQueue<DepositFinalizerEvent> taskQueue;
+    private final DepositWorkLog workLog;
+    private final int threads;
+    private final AtomicInteger scannedCount = new AtomicInteger();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private volatile boolean running = false;
+    private ExecutorService executor;
+
+    public DepositRecovery(CollectionManager collectionManager, FileService fileService, DepositPropertiesManager depositPropertiesManager,
+        BlockingQueue<DepositFinalizerEvent> taskQueue, DepositWorkLog workLog, int threads) {
+        this.collectionManager = collectionManager;
+        this.fileService = fileService;
+        this.depositPropertiesManager = depositPropertiesManager;
+        this.taskQueue = taskQueue;
+        this.workLog = workLog;
+        this.threads = threads;
+    }
+
+    /**
+     * Starts scanning the uploads directories and returns immediately.
+     *
+     * @return a future that is completed when all deposits have been scanned
+     */
+    public CompletableFuture<Void> start() {
+        var counter = new AtomicInteger();
+
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "deposit-recovery-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+
+        var collections = collectionManager.getCollections().stream()
+            .map(collection -> CompletableFuture.supplyAsync(() -> listDeposits(collection), executor)
+                .thenCompose(this::recoverAll))
+            .collect(Collectors.toList());
+
+        return CompletableFuture.allOf(collections.toArray(new CompletableFuture[0]))
+            .whenComplete((result, e) -> {
+                running = false;
+                executor.shutdown();
+                log.info("Recovery finished: scanned {} deposits, put {} on the finalizer queue, {} could not be read", scannedCount.get(), queuedCount.get(),
+                    failedCount.get());
+            });
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    List<Path> listDeposits(CollectionConfig collection) {
+        try {
+            var paths = fileService.listDirectories(collection.getUploads());
+            log.info("Found {} deposits in uploads directory of collection {}", paths.size(), collection.getName());
+            return paths;
+        }
+        catch (IOException e) {
+            log.error("Unable to list directories in path {}", collection.getUploads(), e);
+            return List.of();
+        }
+    }
+
+    private CompletableFuture<Void> recoverAll(List<Path> paths) {
+        var futures = paths.stream()
+            .map(path -> CompletableFuture.runAsync(() -> recover(path), executor))
+            .collect(Collectors.toList());
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    void recover(Path path) {
+        try {
+            var state = depositPropertiesManager.getState(path);
+            scannedCount.incrementAndGet();
+
+            if (DepositState.UPLOADED.equals(state) || DepositState.FINALIZING.equals(state)) {
+                var depositId = path.getFileName().toString();
+                log.info("Adding finalizing event for deposit {} to the queue", depositId);
+                workLog.enqueued(depositId);
+                taskQueue.put(new DepositFinalizerEvent(depositId));
+                queuedCount.incrementAndGet();
+            }
+        }
+        catch (InvalidDepositException e) {
+            log.error("Unable to open deposit from path {}", path, e);
+            failedCount.incrementAndGet();
+        }
+        catch (InterruptedException e) {
+            log.warn("Recovery was interrupted before deposit {} could be put on the queue", path);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getScannedCount() {
+        return scannedCount.get();
+    }
+
+    public int getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Durable record of the work handed to the deposit finalizer. Every deposit that is put on the finalizer queue, picked up, finished or rescheduled is
+ * recorded, so that after a restart the outstanding work can be put back on the queue in the original order without scanning the uploads directories.
+ */
+public interface DepositWorkLog {
+
+    /**
+     * Opens the log and returns the work that was not completed before the service stopped, in the order in which it was enqueued.
+     *
+     * @return the outstanding work, or an empty optional if there is no log to replay (e.g. on first start or when the log is disabled)
+     * @throws IOException if the log cannot be read or a new segment cannot be started
+     */
+    Optional<List<DepositWorkLogEntry>> open() throws IOException;
+
+    void enqueued(String depositId);
+
+    void started(String depositId);
+
+    void completed(String depositId);
+
+    void rescheduled(String depositId, Instant dueTime);
+
+    /**
+     * @return the number of deposits for which finalization has not completed yet
+     */
+    int getOutstandingCount();
+
+    /**
+     * @return false if the last change could not be recorded and the log could not be reopened since
+     */
+    boolean isHealthy();
+
+    void close();
+}
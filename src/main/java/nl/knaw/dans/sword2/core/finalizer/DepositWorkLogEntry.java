@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import java.time.Instant;
+
+/**
+ * A deposit for which finalization was not completed yet, as recorded in the {@link DepositWorkLog}.
+ */
+public class DepositWorkLogEntry {
+
+    private final String depositId;
+    private final Instant dueTime;
+    private final int attempts;
+
+    public DepositWorkLogEntry(String depositId, Instant dueTime, int attempts) {
+        this.depositId = depositId;
+        this.dueTime = dueTime;
+        this.attempts = attempts;
+    }
+
+    public String getDepositId() {
+        return depositId;
+    }
+
+    /**
+     * @return the time at which the deposit should be finalized again, or null if it can be finalized right away
+     */
+    public Instant getDueTime() {
+        return dueTime;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public boolean isRescheduled() {
+        return dueTime != null;
+    }
+
+    @Override
+    public String toString() {
+        return "DepositWorkLogEntry{" +
+            "depositId='" + depositId + '\'' +
+            ", dueTime=" + dueTime +
+            ", attempts=" + attempts +
+            '}';
+    }
+}
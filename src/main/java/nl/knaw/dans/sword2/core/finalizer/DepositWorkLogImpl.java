@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Append-only work log on disk. Each change is written as a single line to the current segment and flushed to disk before the call returns, so a record
+ * is either complete or is the last, torn line of the segment, which is ignored on replay. When a segment grows beyond the maximum size, a new segment is
+ * started with a snapshot of the outstanding work and the older segments are deleted. The same happens every time the log is opened.
+ *
+ * <p>The flush happens outside the lock that guards the segment, and one flush covers all records written before it (group commit). So concurrent callers
+ * do not wait for each other's flushes one by one. If a record cannot be written or flushed, a new segment is started; if that fails too, the log is
+ * reopened on the next change, and {@link #isHealthy()} returns false in the meantime.</p>
+ */
+public class DepositWorkLogImpl implements DepositWorkLog {
+    private static final Logger log = LoggerFactory.getLogger(DepositWorkLogImpl.class);
+
+    static final String ENQUEUE = "ENQUEUE";
+    static final String START = "START";
+    static final String COMPLETE = "COMPLETE";
+    static final String RESCHEDULE = "RESCHEDULE";
+
+    private static final String SEGMENT_PREFIX = "worklog-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final long maxSegmentSize;
+    private final Map<String, DepositWorkLogEntry> outstanding = new LinkedHashMap<>();
+    private final Object syncLock = new Object();
+    // the number of bytes written to and flushed in all segments since the log was opened
+    private final AtomicLong syncedPosition = new AtomicLong();
+    private long writtenPosition = 0;
+    private FileChannel channel;
+    private long segmentNumber = 0;
+    private long segmentSize = 0;
+
+    public DepositWorkLogImpl(Path directory, long maxSegmentSize) {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    @Override
+    public synchronized Optional<List<DepositWorkLogEntry>> open() throws IOException {
+        Files.createDirectories(directory);
+
+        var segments = listSegments();
+
+        for (var segment : segments) {
+            replay(segment);
+        }
+
+        if (!segments.isEmpty()) {
+            segmentNumber = getSegmentNumber(segments.get(segments.size() - 1));
+        }
+
+        startSegment(segments);
+
+        log.info("Opened work log in {}, {} deposits are outstanding", directory, outstanding.size());
+        return segments.isEmpty() ? Optional.empty() : Optional.of(new ArrayList<>(outstanding.values()));
+    }
+
+    @Override
+    public void enqueued(String depositId) {
+        record(ENQUEUE, depositId, 0, null);
+    }
+
+    @Override
+    public void started(String depositId) {
+        record(START, depositId, 0, null);
+    }
+
+    @Override
+    public void completed(String depositId) {
+        record(COMPLETE, depositId, 0, null);
+    }
+
+    @Override
+    public void rescheduled(String depositId, Instant dueTime) {
+        record(RESCHEDULE, depositId, 1, dueTime);
+    }
+
+    @Override
+    public synchronized int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    @Override
+    public synchronized boolean isHealthy() {
+        return channel != null;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.force(false);
+                syncedPosition.accumulateAndGet(writtenPosition, Math::max);
+                channel.close();
+            }
+            catch (IOException e) {
+                log.warn("Unable to close work log segment", e);
+            }
+            channel = null;
+        }
+    }
+
+    private void record(String type, String depositId, int addedAttempts, Instant dueTime) {
+        var position = append(type, depositId, addedAttempts, dueTime);
+
+        if (position > 0) {
+            sync(position);
+        }
+    }
+
+    private int getAttempts(String depositId) {
+        var entry = outstanding.get(depositId);
+        return entry == null ? 0 : entry.getAttempts();
+    }
+
+    /**
+     * Applies the change and writes it to the current segment, without flushing it.
+     *
+     * @return the position up to which the log must be flushed to make the change durable, or 0 if it could not be written
+     */
+    private synchronized long append(String type, String depositId, int addedAttempts, Instant dueTime) {
+        var attempts = getAttempts(depositId) + addedAttempts;
+        apply(type, depositId, attempts, dueTime);
+
+        // the deposit properties remain the source of truth, so a failing log must not stop the deposit from being processed
+        if (channel == null) {
+            // the new segment starts with a snapshot that already contains this change
+            log.warn("Work log is not open, reopening it to record {} of deposit {}", type, depositId);
+            return restartSegment() ? writtenPosition : 0;
+        }
+
+        try {
+            write(formatRecord(type, depositId, attempts, dueTime));
+
+            if (segmentSize >= maxSegmentSize) {
+                startSegment(listSegments());
+            }
+
+            return writtenPosition;
+        }
+        catch (IOException e) {
+            // the record may be torn, so it is not followed by other records; the new segment contains this change in its snapshot
+            log.error("Unable to record {} of deposit {} in the work log, starting a new segment", type, depositId, e);
+            return restartSegment() ? writtenPosition : 0;
+        }
+    }
+
+    /**
+     * Flushes the log at least up to the given position. Only one thread flushes at a time; the others wait, and find that their records were flushed along
+     * with those of the thread before them.
+     */
+    private void sync(long position) {
+        synchronized (syncLock) {
+            if (syncedPosition.get() >= position) {
+                return;
+            }
+
+            FileChannel current;
+            long written;
+
+            synchronized (this) {
+                current = channel;
+                written = writtenPosition;
+            }
+
+            if (current == null) {
+                // the failure to write has been logged already
+                return;
+            }
+
+            try {
+                current.force(false);
+                syncedPosition.accumulateAndGet(written, Math::max);
+            }
+            catch (ClosedChannelException e) {
+                // a new segment was started with a snapshot that was flushed, or the log was flushed and closed
+                log.debug("Work log segment was closed before it could be flushed");
+            }
+            catch (IOException e) {
+                log.error("Unable to flush the work log to disk, starting a new segment", e);
+
+                synchronized (this) {
+                    if (channel == current) {
+                        restartSegment();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if a new segment was started, false if the log remains closed until the next change
+     */
+    private boolean restartSegment() {
+        close();
+
+        try {
+            startSegment(listSegments());
+            return true;
+        }
+        catch (IOException e) {
+            log.error("Unable to start a new work log segment in {}", directory, e);
+            close();
+            return false;
+        }
+    }
+
+    private void apply(String type, String depositId, int attempts, Instant dueTime) {
+        switch (type) {
+            case ENQUEUE:
+                outstanding.remove(depositId);
+                outstanding.put(depositId, new DepositWorkLogEntry(depositId, null, attempts));
+                break;
+
+            case START:
+                outstanding.putIfAbsent(depositId, new DepositWorkLogEntry(depositId, null, attempts));
+                break;
+
+            case COMPLETE:
+                outstanding.remove(depositId);
+                break;
+
+            case RESCHEDULE:
+                outstanding.remove(depositId);
+                outstanding.put(depositId, new DepositWorkLogEntry(depositId, dueTime, attempts));
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown work log record type: " + type);
+        }
+    }
+
+    String formatRecord(String type, String depositId, int attempts, Instant dueTime) {
+        var record = type + " " + depositId + " " + attempts;
+
+        if (dueTime != null) {
+            record += " " + dueTime.toEpochMilli();
+        }
+
+        return record + "\n";
+    }
+
+    private void replay(Path segment) throws IOException {
+        var content = Files.readString(segment, StandardCharsets.UTF_8);
+        var lines = content.split("\n", -1);
+
+        // the last element is either empty (the file ends with a newline) or a record that was not completely written
+        if (!lines[lines.length - 1].isEmpty()) {
+            log.warn("Ignoring incomplete last record in work log segment {}", segment);
+        }
+
+        for (var i = 0; i < lines.length - 1; ++i) {
+            var fields = lines[i].split(" ");
+
+            try {
+                var dueTime = fields.length > 3 ? Instant.ofEpochMilli(Long.parseLong(fields[3])) : null;
+                apply(fields[0], fields[1], Integer.parseInt(fields[2]), dueTime);
+            }
+            catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                log.warn("Ignoring invalid record '{}' in work log segment {}", lines[i], segment);
+            }
+        }
+    }
+
+    /**
+     * Starts a new segment that begins with a snapshot of the outstanding work, and deletes the given (older) segments once the snapshot is on disk.
+     */
+    private void startSegment(List<Path> oldSegments) throws IOException {
+        close();
+
+        segmentNumber += 1;
+        var segment = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX));
+
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentSize = 0;
+
+        var snapshot = outstanding.values().stream()
+            .map(entry -> formatRecord(entry.isRescheduled() ? RESCHEDULE : ENQUEUE, entry.getDepositId(), entry.getAttempts(), entry.getDueTime()))
+            .collect(Collectors.joining());
+
+        write(snapshot);
+        channel.force(false);
+        syncedPosition.accumulateAndGet(writtenPosition, Math::max);
+
+        for (var oldSegment : oldSegments) {
+            Files.deleteIfExists(oldSegment);
+        }
+
+        log.debug("Started work log segment {} with {} outstanding deposits", segment, outstanding.size());
+    }
+
+    private void write(String data) throws IOException {
+        var buffer = ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+
+        while (buffer.hasRemaining()) {
+            var written = channel.write(buffer);
+            segmentSize += written;
+            writtenPosition += written;
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files
+                .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX) && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted(Comparator.comparing(this::getSegmentNumber))
+                .collect(Collectors.toList());
+        }
+    }
+
+    private long getSegmentNumber(Path segment) {
+        var name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
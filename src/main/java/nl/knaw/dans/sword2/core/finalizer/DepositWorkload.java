@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+/**
+ * What the finalizer scheduler needs to know about a deposit before finalizing it.
+ */
+public class DepositWorkload {
+    /**
+     * The size of a deposit that could not be estimated. The scheduler treats it as a heavy deposit, so that it does not jump the queue.
+     */
+    public static final long UNKNOWN_SIZE = -1;
+
+    private final String collectionId;
+    private final long size;
+
+    public DepositWorkload(String collectionId, long size) {
+        this.collectionId = collectionId;
+        this.size = size;
+    }
+
+    /**
+     * @return the name of the collection of the deposit, or null if it is unknown
+     */
+    public String getCollectionId() {
+        return collectionId;
+    }
+
+    /**
+     * @return the estimated number of bytes to process, or {@link #UNKNOWN_SIZE} if it is unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "DepositWorkload{" +
+            "collectionId='" + collectionId + '\'' +
+            ", size=" + size +
+            '}';
+    }
+}
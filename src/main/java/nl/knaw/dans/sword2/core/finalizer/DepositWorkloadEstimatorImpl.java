@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import nl.knaw.dans.sword2.core.Deposit;
+import nl.knaw.dans.sword2.core.exceptions.DepositNotFoundException;
+import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
+import nl.knaw.dans.sword2.core.service.DepositHandler;
+import nl.knaw.dans.sword2.core.service.FileService;
+import nl.knaw.dans.sword2.core.service.ZipService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+
+/**
+ * Looks up the collection of a deposit and estimates its size as the size of its uploaded files plus, for zip deposits, the size of their extracted
+ * contents, which is read from the central directory of the zip files without extracting them. The parts of an octet-stream deposit are not opened: they
+ * can be read as one zip file, but only in the order and with the partly assembled merged.zip that the extractor works out, so for those the extracted size
+ * is assumed to be equal to the uploaded size. If the size cannot be determined, it is {@link DepositWorkload#UNKNOWN_SIZE}.
+ */
+public class DepositWorkloadEstimatorImpl implements DepositWorkloadEstimator {
+    private static final Logger log = LoggerFactory.getLogger(DepositWorkloadEstimatorImpl.class);
+
+    private final DepositHandler depositHandler;
+    private final FileService fileService;
+    private final ZipService zipService;
+
+    public DepositWorkloadEstimatorImpl(DepositHandler depositHandler, FileService fileService, ZipService zipService) {
+        this.depositHandler = depositHandler;
+        this.fileService = fileService;
+        this.zipService = zipService;
+    }
+
+    @Override
+    public DepositWorkload estimate(String depositId) {
+        try {
+            var deposit = depositHandler.getDeposit(depositId);
+            return new DepositWorkload(deposit.getCollectionId(), estimateSize(deposit));
+        }
+        catch (DepositNotFoundException | InvalidDepositException e) {
+            log.debug("Unable to find deposit {}", depositId, e);
+            return new DepositWorkload(null, DepositWorkload.UNKNOWN_SIZE);
+        }
+    }
+
+    long estimateSize(Deposit deposit) {
+        try {
+            var zip = "application/zip".equals(deposit.getMimeType());
+            var files = fileService.listFiles(deposit.getPath())
+                .filter(f -> !f.getFileName().equals(Path.of("deposit.properties")))
+                .collect(Collectors.toList());
+
+            var size = 0L;
+
+            for (var file : files) {
+                var uploadedSize = fileService.getSize(file);
+                size += uploadedSize + (zip ? zipService.getExtractedSize(file) : uploadedSize);
+            }
+
+            return size;
+        }
+        catch (IOException e) {
+            log.debug("Unable to estimate the size of deposit {}", deposit.getId(), e);
+            return DepositWorkload.UNKNOWN_SIZE;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Used when no work log directory is configured; nothing is recorded and the uploads directories are scanned at startup instead.
+ */
+public class NoOpDepositWorkLog implements DepositWorkLog {
+
+    @Override
+    public Optional<List<DepositWorkLogEntry>> open() {
+        return Optional.empty();
+    }
+
+    @Override
+    public void enqueued(String depositId) {
+    }
+
+    @Override
+    public void started(String depositId) {
+    }
+
+    @Override
+    public void completed(String depositId) {
+    }
+
+    @Override
+    public void rescheduled(String depositId, Instant dueTime) {
+    }
+
+    @Override
+    public int getOutstandingCount() {
+        return 0;
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
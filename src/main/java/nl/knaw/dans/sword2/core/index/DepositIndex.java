@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.index;
+
+import nl.knaw.dans.sword2.core.Deposit;
+
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+public interface DepositIndex {
+
+    Optional<DepositIndexEntry> get(String depositId);
+
+    /**
+     * Returns the entries of a collection in order of deposit id. Deposits that are added or removed while the stream is consumed may or may not be included.
+     *
+     * @param collectionId   the name of the collection
+     * @param afterDepositId only return deposits with a larger id; <code>null</code> to start at the first deposit
+     * @return the entries
+     */
+    Stream<DepositIndexEntry> list(String collectionId, String afterDepositId);
+
+    void put(DepositIndexEntry entry);
+
+    void put(Deposit deposit);
+
+    /**
+     * Records that a deposit was found at the given path, e.g. after it was moved. An existing entry keeps its state and depositor, because these are not
+     * known from the location alone. An entry without them is only added if the deposit is not indexed yet.
+     *
+     * @param depositId    the id of the deposit
+     * @param collectionId the name of the collection
+     * @param path         the location of the deposit
+     */
+    void relocate(String depositId, String collectionId, Path path);
+
+    void remove(String depositId);
+
+    /**
+     * Removes the entry for the deposit, but only if it is still indexed at the given path. This way a late notification about the removal of the old
+     * location of a moved deposit does not remove the entry for the new location.
+     *
+     * @param depositId the id of the deposit
+     * @param path      the location that no longer contains the deposit
+     */
+    void remove(String depositId, Path path);
+
+    /**
+     * Removes an entry that turned out to be stale: the deposit is neither at the indexed location nor anywhere else.
+     *
+     * @param entry the stale entry
+     */
+    void invalidate(DepositIndexEntry entry);
+
+    /**
+     * Tells whether it is certain that a deposit does not exist, without looking at the file system. This is only the case if negative lookups are enabled,
+     * the index has been filled and it has never contained the deposit, or its entry was removed before the last reconciliation.
+     *
+     * @param depositId the id of the deposit
+     * @return true if the deposit does not exist, false if it may exist
+     */
+    boolean isKnownToBeAbsent(String depositId);
+
+    void rebuild();
+
+    /**
+     * Removes entries whose directory no longer exists and adds deposits that are not indexed yet.
+     */
+    void reconcile();
+
+    int size();
+}
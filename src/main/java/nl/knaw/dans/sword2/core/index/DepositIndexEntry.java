@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.index;
+
+import nl.knaw.dans.sword2.core.DepositState;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * The location of a deposit as known by the {@link DepositIndex}. The state, depositor and modification time of the deposit.properties file are only known if
+ * the file has been read or written by this service, otherwise they are <code>null</code>. The state is only current as long as the file still has the
+ * recorded modification time, because other processes may change it.
+ */
+public class DepositIndexEntry {
+    private final String depositId;
+    private final String collectionId;
+    private final Path path;
+    private final DepositState state;
+    private final String depositor;
+    private final Instant lastModified;
+
+    public DepositIndexEntry(String depositId, String collectionId, Path path, DepositState state, String depositor, Instant lastModified) {
+        this.depositId = depositId;
+        this.collectionId = collectionId;
+        this.path = path;
+        this.state = state;
+        this.depositor = depositor;
+        this.lastModified = lastModified;
+    }
+
+    public DepositIndexEntry(String depositId, String collectionId, Path path, DepositState state, String depositor) {
+        this(depositId, collectionId, path, state, depositor, null);
+    }
+
+    public DepositIndexEntry(String depositId, String collectionId, Path path) {
+        this(depositId, collectionId, path, null, null);
+    }
+
+    public String getDepositId() {
+        return depositId;
+    }
+
+    public String getCollectionId() {
+        return collectionId;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public DepositState getState() {
+        return state;
+    }
+
+    public String getDepositor() {
+        return depositor;
+    }
+
+    public Instant getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String toString() {
+        return "DepositIndexEntry{" +
+            "depositId='" + depositId + '\'' +
+            ", collectionId='" + collectionId + '\'' +
+            ", path=" + path +
+            ", state=" + state +
+            ", depositor='" + depositor + '\'' +
+            ", lastModified=" + lastModified +
+            '}';
+    }
+}
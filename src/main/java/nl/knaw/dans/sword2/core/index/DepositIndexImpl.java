@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.index;
+
+import com.codahale.metrics.Meter;
+import io.dropwizard.lifecycle.Managed;
+import nl.knaw.dans.sword2.core.Deposit;
+import nl.knaw.dans.sword2.core.config.CollectionConfig;
+import nl.knaw.dans.sword2.core.service.CollectionManager;
+import nl.knaw.dans.sword2.core.service.FileService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Keeps track of the directory each deposit currently lives in, so that a deposit can be found without probing all the uploads, deposits and deposit
+ * tracking directories of all collections. The index is a cache: callers must verify that the deposit is still at the indexed location and fall back to a
+ * full search if it is not.
+ *
+ * <p>Because the index is filled with every deposit directory at startup, and kept up to date with deposits created by this service and moves observed by
+ * the {@link DepositTrackingPathWatcher}, it can optionally also be used to answer lookups for unknown ids (e.g. from misconfigured clients) without probing
+ * the file system.</p>
+ *
+ * <p>A negative answer is only given for ids that were never indexed. Ids that were removed, e.g. because the watcher saw a deposit leave a directory before it
+ * saw it arrive in another one, are remembered until the next reconciliation has checked the file system; until then a lookup of such an id still searches
+ * the file system. So a negative answer can only be wrong for a deposit with a new id that was created by another process and that the watcher has not
+ * reported yet.</p>
+ *
+ * <p>The ids of the most recent negative answers are remembered. If such a deposit is later found on disk by the watcher or by a reconciliation, the answer
+ * was wrong, and this is counted in the contradicted-negative-lookups meter. A count above zero means that negative lookups are not safe for this
+ * installation.</p>
+ */
+public class DepositIndexImpl implements DepositIndex, Managed {
+    private static final Logger log = LoggerFactory.getLogger(DepositIndexImpl.class);
+    private static final int MAX_REMEMBERED_NEGATIVE_LOOKUPS = 10000;
+
+    private final CollectionManager collectionManager;
+    private final FileService fileService;
+    private final boolean negativeLookups;
+    // sorted, so that collections can be listed in pages without sorting all their deposits for every page
+    private final ConcurrentNavigableMap<String, DepositIndexEntry> entries = new ConcurrentSkipListMap<>();
+    private final Meter negativeLookupMeter = new Meter();
+    private final Meter contradictedNegativeLookupMeter = new Meter();
+    private final Meter staleEntryMeter = new Meter();
+    // ids answered as not found, most recent last
+    private final Map<String, Boolean> recentNegativeLookups = new LinkedHashMap<>() {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_REMEMBERED_NEGATIVE_LOOKUPS;
+        }
+    };
+    // ids whose entry was removed since the last reconciliation; these may still exist somewhere the index does not know about yet
+    private final Set<String> removedIds = ConcurrentHashMap.newKeySet();
+    private volatile boolean complete = false;
+
+    public DepositIndexImpl(CollectionManager collectionManager, FileService fileService) {
+        this(collectionManager, fileService, false);
+    }
+
+    public DepositIndexImpl(CollectionManager collectionManager, FileService fileService, boolean negativeLookups) {
+        this.collectionManager = collectionManager;
+        this.fileService = fileService;
+        this.negativeLookups = negativeLookups;
+    }
+
+    @Override
+    public Optional<DepositIndexEntry> get(String depositId) {
+        return Optional.ofNullable(entries.get(depositId));
+    }
+
+    @Override
+    public Stream<DepositIndexEntry> list(String collectionId, String afterDepositId) {
+        var view = afterDepositId == null ? entries : entries.tailMap(afterDepositId, false);
+        return view.values().stream().filter(entry -> collectionId.equals(entry.getCollectionId()));
+    }
+
+    @Override
+    public void put(DepositIndexEntry entry) {
+        log.trace("Indexing deposit {}", entry);
+        entries.put(entry.getDepositId(), entry);
+    }
+
+    @Override
+    public void put(Deposit deposit) {
+        put(new DepositIndexEntry(deposit.getId(), deposit.getCollectionId(), deposit.getPath(), deposit.getState(), deposit.getDepositor(),
+            deposit.getLastModified()));
+    }
+
+    @Override
+    public void relocate(String depositId, String collectionId, Path path) {
+        log.trace("Indexing deposit {} at {}", depositId, path);
+        var entry = new DepositIndexEntry(depositId, collectionId, path);
+
+        if (entries.merge(depositId, entry, (existing, found) -> relocate(existing, found)) == entry) {
+            found(depositId);
+        }
+    }
+
+    private DepositIndexEntry relocate(DepositIndexEntry existing, DepositIndexEntry found) {
+        if (existing.getPath().equals(found.getPath())) {
+            return existing;
+        }
+
+        // a move keeps the modification time of the files, so the recorded state is still current as long as that is unchanged
+        return new DepositIndexEntry(existing.getDepositId(), found.getCollectionId(), found.getPath(), existing.getState(), existing.getDepositor(),
+            existing.getLastModified());
+    }
+
+    @Override
+    public void remove(String depositId) {
+        if (entries.remove(depositId) != null) {
+            removedIds.add(depositId);
+        }
+    }
+
+    @Override
+    public void remove(String depositId, Path path) {
+        entries.computeIfPresent(depositId, (id, entry) -> {
+            if (!entry.getPath().equals(path)) {
+                return entry;
+            }
+
+            removedIds.add(id);
+            return null;
+        });
+    }
+
+    @Override
+    public void invalidate(DepositIndexEntry entry) {
+        log.debug("Removing stale entry {} from the deposit index", entry);
+        staleEntryMeter.mark();
+        remove(entry.getDepositId(), entry.getPath());
+    }
+
+    @Override
+    public boolean isKnownToBeAbsent(String depositId) {
+        if (!negativeLookups || !complete || entries.containsKey(depositId) || removedIds.contains(depositId)) {
+            return false;
+        }
+
+        negativeLookupMeter.mark();
+
+        synchronized (recentNegativeLookups) {
+            recentNegativeLookups.put(depositId, Boolean.TRUE);
+        }
+
+        return true;
+    }
+
+    /**
+     * Counts a deposit that was found on disk but not in the index as a contradicted negative lookup, if the index answered that it did not exist.
+     */
+    private void found(String depositId) {
+        if (!negativeLookups) {
+            return;
+        }
+
+        synchronized (recentNegativeLookups) {
+            if (recentNegativeLookups.remove(depositId) == null) {
+                return;
+            }
+        }
+
+        log.warn("Deposit {} was reported as not found, but it exists", depositId);
+        contradictedNegativeLookupMeter.mark();
+    }
+
+    @Override
+    public void rebuild() {
+        for (var collection : collectionManager.getCollections()) {
+            // same order as the search in DepositHandlerImpl, so the first location found wins
+            for (var basePath : getBasePaths(collection)) {
+                indexDirectory(collection, basePath);
+            }
+        }
+
+        complete = true;
+        log.info("Deposit index contains {} deposits", entries.size());
+    }
+
+    @Override
+    public void reconcile() {
+        // the ids removed before this point are either found again by the rebuild, or are not on disk
+        var checkedRemovedIds = Set.copyOf(removedIds);
+
+        // add and relocate first, so that a deposit that still exists is never missing from the index
+        rebuild();
+
+        // removeIf on the entry set only removes an entry if it was not replaced in the meantime
+        var before = entries.size();
+        entries.entrySet().removeIf(entry -> {
+            if (fileService.exists(entry.getValue().getPath())) {
+                return false;
+            }
+
+            removedIds.add(entry.getKey());
+            return true;
+        });
+        removedIds.removeAll(checkedRemovedIds);
+        log.debug("Removed {} stale entries from the deposit index", before - entries.size());
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    void indexDirectory(CollectionConfig collection, Path basePath) {
+        if (!fileService.exists(basePath)) {
+            log.debug("Directory {} does not exist, not indexing it", basePath);
+            return;
+        }
+
+        try {
+            for (var path : fileService.listDirectories(basePath)) {
+                var depositId = path.getFileName().toString();
+                var entry = new DepositIndexEntry(depositId, collection.getName(), path);
+
+                // replace entries that point to a location the deposit was moved away from
+                if (entries.merge(depositId, entry, (existing, found) -> isCurrent(existing, found) ? existing : relocate(existing, found)) == entry) {
+                    found(depositId);
+                }
+            }
+        }
+        catch (IOException e) {
+            log.error("Unable to index deposits in directory {}", basePath, e);
+        }
+    }
+
+    private boolean isCurrent(DepositIndexEntry existing, DepositIndexEntry found) {
+        return existing.getPath().equals(found.getPath()) || fileService.exists(existing.getPath());
+    }
+
+    public Meter getNegativeLookupMeter() {
+        return negativeLookupMeter;
+    }
+
+    public Meter getContradictedNegativeLookupMeter() {
+        return contradictedNegativeLookupMeter;
+    }
+
+    public Meter getStaleEntryMeter() {
+        return staleEntryMeter;
+    }
+
+    List<Path> getBasePaths(CollectionConfig collection) {
+        var basePaths = new ArrayList<Path>();
+        basePaths.add(collection.getUploads());
+        basePaths.add(collection.getDeposits());
+
+        if (collection.getDepositTrackingPath() != null) {
+            basePaths.addAll(collection.getDepositTrackingPath());
+        }
+
+        return basePaths;
+    }
+
+    @Override
+    public void start() {
+        rebuild();
+    }
+
+    @Override
+    public void stop() {
+    }
+}
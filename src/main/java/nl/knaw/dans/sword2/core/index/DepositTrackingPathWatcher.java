@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.index;
+
+import io.dropwizard.lifecycle.Managed;
+import nl.knaw.dans.sword2.core.service.CollectionManager;
+import nl.knaw.dans.sword2.core.service.FileService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link DepositIndex} up to date with deposits that are moved by other processes, such as the post-submission processor moving deposits from the
+ * deposits directory to one of the depositTrackingPath directories. The directories are watched for created and deleted entries. Because watch events may be
+ * lost (e.g. on overflow or on file systems that do not support them), the index is also reconciled with the file system at a fixed interval.
+ */
+public class DepositTrackingPathWatcher implements Managed, Runnable {
+    private static final Logger log = LoggerFactory.getLogger(DepositTrackingPathWatcher.class);
+
+    private final CollectionManager collectionManager;
+    private final FileService fileService;
+    private final DepositIndex depositIndex;
+    private final Duration reconciliationInterval;
+    private final Map<WatchKey, WatchedDirectory> watchedDirectories = new HashMap<>();
+    private final Thread thread;
+    private WatchService watchService;
+
+    public DepositTrackingPathWatcher(CollectionManager collectionManager, FileService fileService, DepositIndex depositIndex, Duration reconciliationInterval) {
+        this.collectionManager = collectionManager;
+        this.fileService = fileService;
+        this.depositIndex = depositIndex;
+        this.reconciliationInterval = reconciliationInterval;
+        this.thread = new Thread(this, "deposit-tracking-path-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    @Override
+    public void start() throws Exception {
+        watchService = FileSystems.getDefault().newWatchService();
+
+        for (var collection : collectionManager.getCollections()) {
+            register(collection.getName(), collection.getDeposits());
+
+            if (collection.getDepositTrackingPath() != null) {
+                for (var path : collection.getDepositTrackingPath()) {
+                    register(collection.getName(), path);
+                }
+            }
+        }
+
+        thread.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        thread.interrupt();
+
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    void register(String collectionId, Path directory) throws IOException {
+        if (!fileService.exists(directory)) {
+            log.warn("Directory {} does not exist, not watching it", directory);
+            return;
+        }
+
+        log.debug("Watching directory {} for deposits of collection {}", directory, collectionId);
+        var key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirectories.put(key, new WatchedDirectory(collectionId, directory));
+    }
+
+    @Override
+    public void run() {
+        var nextReconciliation = System.nanoTime() + reconciliationInterval.toNanos();
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                var key = watchService.poll(Math.max(0, nextReconciliation - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+                if (key == null) {
+                    reconcile();
+                    nextReconciliation = System.nanoTime() + reconciliationInterval.toNanos();
+                    continue;
+                }
+
+                var watchedDirectory = watchedDirectories.get(key);
+                var overflow = false;
+
+                for (var event : key.pollEvents()) {
+                    if (StandardWatchEventKinds.OVERFLOW.equals(event.kind())) {
+                        overflow = true;
+                    }
+                    else if (watchedDirectory != null) {
+                        handleEvent(watchedDirectory, event);
+                    }
+                }
+
+                if (!key.reset()) {
+                    log.warn("Directory {} can no longer be watched", watchedDirectory != null ? watchedDirectory.getPath() : null);
+                    watchedDirectories.remove(key);
+                }
+
+                if (overflow) {
+                    log.warn("Watch events were lost, reconciling the deposit index");
+                    reconcile();
+                    nextReconciliation = System.nanoTime() + reconciliationInterval.toNanos();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            log.info("Deposit tracking path watcher was interrupted");
+            Thread.currentThread().interrupt();
+        }
+        catch (ClosedWatchServiceException e) {
+            log.info("Deposit tracking path watcher was closed");
+        }
+    }
+
+    void handleEvent(WatchedDirectory watchedDirectory, WatchEvent<?> event) {
+        var name = (Path) event.context();
+        var depositId = name.toString();
+        var path = watchedDirectory.getPath().resolve(name);
+
+        if (StandardWatchEventKinds.ENTRY_CREATE.equals(event.kind())) {
+            log.trace("Deposit {} appeared in {}", depositId, path);
+            depositIndex.relocate(depositId, watchedDirectory.getCollectionId(), path);
+        }
+        else if (StandardWatchEventKinds.ENTRY_DELETE.equals(event.kind())) {
+            log.trace("Deposit {} disappeared from {}", depositId, path);
+
+            // on a move the deposit already exists at its new location, even if that event has not been handled yet
+            var newPath = findInWatchedDirectories(watchedDirectory.getCollectionId(), depositId);
+
+            if (newPath != null) {
+                depositIndex.relocate(depositId, watchedDirectory.getCollectionId(), newPath);
+            }
+            else {
+                depositIndex.remove(depositId, path);
+            }
+        }
+    }
+
+    private Path findInWatchedDirectories(String collectionId, String depositId) {
+        for (var watchedDirectory : watchedDirectories.values()) {
+            if (watchedDirectory.getCollectionId().equals(collectionId)) {
+                var path = watchedDirectory.getPath().resolve(depositId);
+
+                if (fileService.exists(path)) {
+                    return path;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    void reconcile() {
+        try {
+            depositIndex.reconcile();
+        }
+        catch (RuntimeException e) {
+            log.error("Unable to reconcile the deposit index", e);
+        }
+    }
+
+    static class WatchedDirectory {
+        private final String collectionId;
+        private final Path path;
+
+        WatchedDirectory(String collectionId, Path path) {
+            this.collectionId = collectionId;
+            this.path = path;
+        }
+
+        public String getCollectionId() {
+            return collectionId;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+    }
+}
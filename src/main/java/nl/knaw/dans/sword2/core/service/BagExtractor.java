@@ -21,9 +21,59 @@ import nl.knaw.dans.sword2.core.exceptions.NotEnoughDiskSpaceException;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.LongConsumer;
 
 public interface BagExtractor {
     void extractBag(Path path, long diskSpaceMargin, String mimeType, boolean filePathMapping) throws InvalidDepositException, InvalidPartialFileException, IOException, NotEnoughDiskSpaceException;
 
+    /**
+     * If enabled, appends the partial files of an octet-stream deposit that arrived in sequence to its zip file and removes them, so that the zip file is
+     * complete when the last part has arrived. Parts that arrive out of order are kept until the parts before them have arrived; mergeParts appends the
+     * parts that are left.
+     */
+    void appendParts(Path path, String mimeType) throws IOException;
+
+    /**
+     * Checks the sequence numbers of the partial files of an octet-stream deposit, which extractPayload reads as one zip file. Together with extractPayload,
+     * updateManifests and verifyBag, this does the same as extractBag in separate steps.
+     */
+    void mergeParts(Path path, String mimeType) throws InvalidDepositException, InvalidPartialFileException, IOException;
+
+    /**
+     * Extracts all zip files in the deposit directory, or, for an octet-stream deposit, the zip file that consists of its partial files.
+     *
+     * @return the mapping from original to new file paths of all extracted files, empty if no file path mapping is done
+     */
+    Map<String, String> extractPayload(Path path, String mimeType, long diskSpaceMargin, boolean filePathMapping)
+        throws InvalidDepositException, InvalidPartialFileException, IOException, NotEnoughDiskSpaceException;
+
+    /**
+     * Extracts all zip files in the deposit directory, skipping the files that were extracted by an earlier attempt according to the progress, and
+     * reporting every extracted file to it. The checksums of the extracted files are computed for the algorithms of the payload manifests in the same zip
+     * file and added to checksums, for verifyBag.
+     *
+     * @return the mapping from original to new file paths of all extracted files, empty if no file path mapping is done
+     */
+    Map<String, String> extractPayload(Path path, String mimeType, long diskSpaceMargin, boolean filePathMapping, ExtractionProgress progress,
+        ExtractedChecksums checksums) throws InvalidDepositException, InvalidPartialFileException, IOException, NotEnoughDiskSpaceException;
+
+    /**
+     * @return the mapping from original to new file paths that extractPayload uses for the zip files in the deposit directory, empty if no file path mapping
+     * is done
+     */
+    Map<String, String> getFilePathMapping(Path path, String mimeType, boolean filePathMapping) throws InvalidDepositException, InvalidPartialFileException, IOException;
+
+    void updateManifests(Path path, Map<String, String> filePathMapping) throws InvalidDepositException, IOException;
+
+    void verifyBag(Path path) throws InvalidDepositException;
+
+    /**
+     * Verifies the bag, using the checksums computed by extractPayload instead of reading the payload files again.
+     *
+     * @param bytesRead called with the size of every file that is read after all
+     */
+    void verifyBag(Path path, ExtractedChecksums checksums, LongConsumer bytesRead) throws InvalidDepositException;
+
     Path getBagDir(Path path) throws IOException, InvalidDepositException;
 }
@@ -22,30 +22,56 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.zip.ZipException;
 
 public class BagExtractorImpl implements BagExtractor {
 
     private static final Logger log = LoggerFactory.getLogger(BagExtractorImpl.class);
+    // the name under which the parts of an octet-stream deposit are read as one zip file; earlier versions merged the parts into this file
+    private static final String MERGED_FILE = "merged.zip";
+    // earlier versions merged the parts into this file first, so that merged.zip only existed once it was complete
+    private static final String MERGING_FILE = "merged.zip.tmp";
+    // while this file exists, merged.zip is being assembled from the parts that arrived in sequence
+    private static final String ASSEMBLY_FILE = "merged.zip.parts";
+    // left behind if replacing the assembly file is interrupted
+    private static final String ASSEMBLY_TEMP_FILE = ASSEMBLY_FILE + ".tmp";
+    private static final int ASSEMBLY_LOCKS = 64;
     private final Pattern defaultPrefixPattern = Pattern.compile("^[^/]+/data/");
     private final ZipService zipService;
     private final FileService fileService;
     private final BagItManager bagItManager;
     private final FilesystemSpaceVerifier filesystemSpaceVerifier;
+    private final boolean appendPartsOnArrival;
+    // the parts of one deposit are appended by one request at a time
+    private final Object[] assemblyLocks = new Object[ASSEMBLY_LOCKS];
 
     public BagExtractorImpl(ZipService zipService, FileService fileService, BagItManager bagItManager, FilesystemSpaceVerifier filesystemSpaceVerifier) {
+        this(zipService, fileService, bagItManager, filesystemSpaceVerifier, false);
+    }
+
+    public BagExtractorImpl(ZipService zipService, FileService fileService, BagItManager bagItManager, FilesystemSpaceVerifier filesystemSpaceVerifier,
+        boolean appendPartsOnArrival) {
         this.zipService = zipService;
         this.fileService = fileService;
         this.bagItManager = bagItManager;
         this.filesystemSpaceVerifier = filesystemSpaceVerifier;
+        this.appendPartsOnArrival = appendPartsOnArrival;
+        Arrays.setAll(assemblyLocks, i -> new Object());
     }
 
     @Override
@@ -67,8 +93,304 @@ public class BagExtractorImpl implements BagExtractor {
         }
     }
 
+    @Override
+    public void mergeParts(Path path, String mimeType) throws InvalidDepositException, InvalidPartialFileException, IOException {
+        switch (mimeType) {
+            case "application/zip":
+                break;
+
+            case "application/octet-stream":
+                checkOctetStreamParts(path);
+                break;
+
+            default:
+                throw new InvalidDepositException(String.format("Unknown mime-type %s", mimeType));
+        }
+    }
+
+    @Override
+    public void appendParts(Path path, String mimeType) throws IOException {
+        if (!appendPartsOnArrival || !"application/octet-stream".equals(mimeType)) {
+            return;
+        }
+
+        synchronized (getAssemblyLock(path)) {
+            if (fileService.exists(path.resolve(MERGED_FILE)) && !fileService.exists(path.resolve(ASSEMBLY_FILE))) {
+                log.debug("Parts in {} were already merged", path);
+                return;
+            }
+
+            var assembly = readAssembly(path);
+            deleteAppendedParts(path, assembly);
+
+            if (!assembly.isLastSequenceNumberKnown()) {
+                log.debug("Not appending parts of {} on arrival, they are appended when the deposit is finalized", path);
+                return;
+            }
+
+            var parts = new HashMap<Integer, Path>();
+
+            for (var part : getParts(path)) {
+                try {
+                    parts.putIfAbsent(getSequenceNumber(part), part);
+                }
+                catch (InvalidPartialFileException e) {
+                    // rejected when the deposit is finalized
+                    log.debug("Not appending {}: {}", part, e.getMessage());
+                }
+            }
+
+            var sequenceNumber = assembly.getLastSequenceNumber();
+            var appending = new ArrayList<Path>();
+
+            while (parts.containsKey(sequenceNumber + 1)) {
+                appending.add(parts.get(++sequenceNumber));
+            }
+
+            if (appending.isEmpty()) {
+                log.debug("Waiting for part {} of {}, holding {} parts", sequenceNumber + 1, path, parts.size());
+                return;
+            }
+
+            appendToMergedFile(path, assembly, appending, sequenceNumber);
+        }
+    }
+
+    @Override
+    public Map<String, String> extractPayload(Path path, String mimeType, long diskSpaceMargin, boolean filePathMapping)
+        throws InvalidDepositException, InvalidPartialFileException, IOException, NotEnoughDiskSpaceException {
+        return extractPayload(path, mimeType, diskSpaceMargin, filePathMapping, ExtractionProgress.NONE, new ExtractedChecksums());
+    }
+
+    @Override
+    public Map<String, String> extractPayload(Path path, String mimeType, long diskSpaceMargin, boolean filePathMapping, ExtractionProgress progress,
+        ExtractedChecksums checksums) throws InvalidDepositException, InvalidPartialFileException, IOException, NotEnoughDiskSpaceException {
+        var mapping = new HashMap<String, String>();
+        // the number of files in the zip files before the current one
+        var offset = 0L;
+
+        for (var file : getZipFiles(path, mimeType)) {
+            // the central directory is read once, for the mapping, the disk space check and the extraction
+            try (var zipFile = openZipFile(file)) {
+                var zipMapping = filePathMapping ? generateFilePathMapping(file, zipFile.getFileNames()) : Map.<String, String>of();
+                var fileCount = zipFile.getFiles().size();
+                var skipEntries = Math.max(0, Math.min(fileCount, progress.getExtractedEntries() - offset));
+
+                if (skipEntries < fileCount) {
+                    // a zip file without the payload manifests, e.g. one of several in a continued deposit, is verified by reading the files afterwards
+                    var zipChecksums = new ExtractedChecksums(bagItManager.getPayloadManifestAlgorithms(zipFile.getFileNames()));
+                    extractZipFile(file, zipFile, path, diskSpaceMargin, zipMapping, skipEntries, offset, progress, zipChecksums);
+                    checksums.putAll(zipChecksums);
+                }
+                else {
+                    log.debug("All files of {} were extracted before, skipping it", file);
+                }
+
+                mapping.putAll(zipMapping);
+                offset += fileCount;
+            }
+        }
+
+        return mapping;
+    }
+
+    @Override
+    public Map<String, String> getFilePathMapping(Path path, String mimeType, boolean filePathMapping)
+        throws InvalidDepositException, InvalidPartialFileException, IOException {
+        var mapping = new HashMap<String, String>();
+
+        if (filePathMapping) {
+            for (var file : getZipFiles(path, mimeType)) {
+                try (var zipFile = openZipFile(file)) {
+                    mapping.putAll(generateFilePathMapping(file, zipFile.getFileNames()));
+                }
+            }
+        }
+
+        return mapping;
+    }
+
+    @Override
+    public void updateManifests(Path path, Map<String, String> filePathMapping) throws InvalidDepositException, IOException {
+        log.debug("Updating bag manifests");
+        bagItManager.updateManifests(path, filePathMapping);
+    }
+
+    @Override
+    public void verifyBag(Path path) throws InvalidDepositException {
+        log.debug("Verifying the bag is valid");
+        bagItManager.verifyBagItRepository(path);
+    }
+
+    @Override
+    public void verifyBag(Path path, ExtractedChecksums checksums, LongConsumer bytesRead) throws InvalidDepositException {
+        log.debug("Verifying the bag is valid, with the checksums of {} extracted files", checksums.size());
+        bagItManager.verifyBagItRepository(path, checksums, bytesRead);
+    }
+
     void extractOctetStream(Path path, long diskSpaceMargin, boolean filePathMapping) throws InvalidPartialFileException, InvalidDepositException, IOException, NotEnoughDiskSpaceException {
-        var files = getDepositFiles(path);
+        checkOctetStreamParts(path);
+
+        log.debug("Extracting the parts in path {} as one zip file", path);
+        var filePathMappings = extractPayload(path, "application/octet-stream", diskSpaceMargin, filePathMapping);
+        updateManifests(path, filePathMappings);
+        verifyBag(path);
+    }
+
+    void checkOctetStreamParts(Path path) throws InvalidPartialFileException, IOException {
+        if (fileService.exists(path.resolve(ASSEMBLY_FILE))) {
+            completeAssembly(path);
+        }
+
+        // an earlier version may have merged the parts without removing all of them
+        if (fileService.exists(path.resolve(MERGED_FILE))) {
+            log.debug("Parts in {} were already merged", path);
+            deleteParts(path);
+            return;
+        }
+
+        var temp = path.resolve(MERGING_FILE);
+
+        if (fileService.exists(temp)) {
+            fileService.deleteFile(temp);
+        }
+
+        // the parts are not merged, but read in place by extractPayload; they are removed when the deposit is handed over
+        log.debug("Found {} parts in {}", getOrderedParts(path).size(), path);
+    }
+
+    void completeAssembly(Path path) throws InvalidPartialFileException, IOException {
+        synchronized (getAssemblyLock(path)) {
+            var assembly = readAssembly(path);
+            deleteAppendedParts(path, assembly);
+
+            // e.g. because a sequence number was skipped
+            var parts = getOrderedParts(path);
+
+            if (!parts.isEmpty()) {
+                log.info("Appending {} parts of {} that did not arrive in sequence", parts.size(), path);
+            }
+
+            // with no parts left, this still discards what an interrupted append left behind
+            appendToMergedFile(path, assembly, parts, assembly.getLastSequenceNumber());
+            fileService.deleteFile(path.resolve(ASSEMBLY_FILE));
+        }
+    }
+
+    private void appendToMergedFile(Path path, PartAssembly assembly, List<Path> parts, int lastSequenceNumber) throws IOException {
+        if (!fileService.exists(path.resolve(ASSEMBLY_FILE))) {
+            // written before merged.zip is created, so that an incomplete merged.zip is never taken for the merged.zip of an earlier version
+            writeAssembly(path, assembly);
+        }
+
+        log.debug("Appending {} to the zip file in {}", parts, path);
+        var size = fileService.appendFiles(parts, path.resolve(MERGED_FILE), assembly.getSize());
+        var appended = new PartAssembly(size, lastSequenceNumber, parts.stream().map(p -> p.getFileName().toString()).collect(Collectors.toList()));
+
+        writeAssembly(path, appended);
+        deleteAppendedParts(path, appended);
+    }
+
+    private void deleteAppendedParts(Path path, PartAssembly assembly) throws IOException {
+        // the parts are deleted after the assembly file is updated, so an interrupted request may have left the last appended ones behind
+        for (var part : getParts(path)) {
+            if (assembly.getParts().contains(part.getFileName().toString())) {
+                fileService.deleteFile(part);
+            }
+        }
+    }
+
+    private PartAssembly readAssembly(Path path) throws IOException {
+        var file = path.resolve(ASSEMBLY_FILE);
+
+        if (!fileService.exists(file)) {
+            return new PartAssembly(0, 0, List.of());
+        }
+
+        // the size of merged.zip, the sequence number of the last part appended on arrival and the names of the parts appended last
+        var lines = fileService.readLines(file);
+
+        try {
+            return new PartAssembly(Long.parseLong(lines.get(0)), Integer.parseInt(lines.get(1)), lines.subList(2, lines.size()));
+        }
+        catch (NumberFormatException | IndexOutOfBoundsException e) {
+            // e.g. left empty by a crash, when the file was not yet forced to disk before it replaced the previous one
+            log.warn("Invalid assembly file {}, recovering it from {} and the parts", file, MERGED_FILE, e);
+            var recovered = recoverAssembly(path);
+            writeAssembly(path, recovered);
+            return recovered;
+        }
+    }
+
+    /**
+     * Works out how far merged.zip was assembled if the assembly file cannot be read. merged.zip is forced to disk after every append, so its size is taken
+     * as it is. The parts appended last are deleted after the assembly file is replaced, so they may still be there; they are recognized by comparing them
+     * with the end of merged.zip. The last sequence number cannot be recovered, so the remaining parts are only appended when the deposit is finalized.
+     */
+    private PartAssembly recoverAssembly(Path path) throws IOException {
+        var merged = path.resolve(MERGED_FILE);
+
+        // the assembly file is written before merged.zip is created
+        if (!fileService.exists(merged)) {
+            return new PartAssembly(0, 0, List.of());
+        }
+
+        var parts = new TreeMap<Integer, Path>();
+
+        for (var part : getParts(path)) {
+            try {
+                parts.putIfAbsent(getSequenceNumber(part), part);
+            }
+            catch (InvalidPartialFileException e) {
+                // rejected when the deposit is finalized
+                log.debug("Not recovering {}: {}", part, e.getMessage());
+            }
+        }
+
+        // the parts appended last have consecutive sequence numbers, and are the first ones that are left
+        var appended = List.<Path>of();
+        var candidates = new ArrayList<Path>();
+        Integer previous = null;
+
+        for (var part : parts.entrySet()) {
+            if (previous != null && part.getKey() != previous + 1) {
+                break;
+            }
+
+            candidates.add(part.getValue());
+            previous = part.getKey();
+
+            if (fileService.endsWith(merged, candidates)) {
+                appended = new ArrayList<>(candidates);
+            }
+        }
+
+        log.info("Recovered assembly of {}: {} bytes, of which the parts {} are still there", path, fileService.getSize(merged), appended);
+        return new PartAssembly(fileService.getSize(merged), PartAssembly.UNKNOWN_SEQUENCE_NUMBER,
+            appended.stream().map(p -> p.getFileName().toString()).collect(Collectors.toList()));
+    }
+
+    private void writeAssembly(Path path, PartAssembly assembly) throws IOException {
+        var lines = new ArrayList<String>();
+        lines.add(String.valueOf(assembly.getSize()));
+        lines.add(String.valueOf(assembly.getLastSequenceNumber()));
+        lines.addAll(assembly.getParts());
+
+        fileService.replaceContentOfFile(path.resolve(ASSEMBLY_FILE), String.join("\n", lines) + "\n");
+    }
+
+    private Object getAssemblyLock(Path path) {
+        return assemblyLocks[Math.floorMod(path.toAbsolutePath().normalize().hashCode(), assemblyLocks.length)];
+    }
+
+    List<Path> getParts(Path path) throws IOException {
+        return getDepositFiles(path).stream()
+            .filter(f -> !f.getFileName().toString().equals(MERGED_FILE))
+            .collect(Collectors.toList());
+    }
+
+    List<Path> getOrderedParts(Path path) throws InvalidPartialFileException, IOException {
+        var files = getParts(path);
         var sorting = new HashMap<Path, Integer>();
 
         for (var file : files) {
@@ -78,12 +400,38 @@ public class BagExtractorImpl implements BagExtractor {
         }
 
         files.sort(Comparator.comparing(sorting::get));
+        return files;
+    }
 
-        var output = path.resolve("merged.zip");
-        fileService.mergeFiles(files, output);
+    List<Path> getZipFiles(Path path, String mimeType) throws InvalidDepositException, IOException {
+        switch (mimeType) {
+            case "application/zip":
+                return getDepositFiles(path);
+
+            case "application/octet-stream":
+                // one zip file, which consists of the parts
+                return List.of(path.resolve(MERGED_FILE));
+
+            default:
+                throw new InvalidDepositException(String.format("Unknown mime-type %s", mimeType));
+        }
+    }
+
+    ZipArchive openZipFile(Path zipFile) throws InvalidPartialFileException, IOException {
+        // the name of the zip file is kept for the parts, so that the files are mapped to the same names as when earlier versions merged the parts
+        if (zipFile.getFileName().toString().equals(MERGED_FILE) && !fileService.exists(zipFile)) {
+            return zipService.openZipFile(getOrderedParts(zipFile.getParent()));
+        }
 
-        log.debug("Extracting merged zip in path {}", path);
-        extractZips(path, diskSpaceMargin, filePathMapping);
+        return zipService.openZipFile(zipFile);
+    }
+
+    void deleteParts(Path path) throws IOException {
+        for (var file : getDepositFiles(path)) {
+            if (!file.getFileName().toString().equals(MERGED_FILE)) {
+                fileService.deleteFile(file);
+            }
+        }
     }
 
     int getSequenceNumber(Path path) throws InvalidPartialFileException {
@@ -117,7 +465,12 @@ public class BagExtractorImpl implements BagExtractor {
     }
 
     List<Path> getDepositFiles(Path path) throws IOException {
-        return fileService.listFiles(path).filter(f -> !f.getFileName().equals(Path.of("deposit.properties"))).collect(Collectors.toList());
+        // sorted, so that the files are always extracted in the same order and the extraction progress can be resumed
+        return fileService.listFiles(path)
+            .filter(f -> !f.getFileName().equals(Path.of("deposit.properties")) && !f.getFileName().equals(Path.of(MERGING_FILE)))
+            .filter(f -> !f.getFileName().equals(Path.of(ASSEMBLY_FILE)) && !f.getFileName().equals(Path.of(ASSEMBLY_TEMP_FILE)))
+            .sorted()
+            .collect(Collectors.toList());
     }
 
     void extract(Path zipFile, Path target, long diskSpaceMargin, boolean filePathMapping) throws IOException, InvalidDepositException, NotEnoughDiskSpaceException {
@@ -131,20 +484,37 @@ public class BagExtractorImpl implements BagExtractor {
     }
 
     void extractWithFilePathMapping(Path zipFile, Path target, long diskSpaceMargin, Map<String, String> filePathMapping) throws IOException, InvalidDepositException, NotEnoughDiskSpaceException {
+        extractZipFile(zipFile, target, diskSpaceMargin, filePathMapping);
+        updateManifests(target, filePathMapping);
+        verifyBag(target);
+    }
+
+    void extractZipFile(Path zipFile, Path target, long diskSpaceMargin, Map<String, String> filePathMapping)
+        throws IOException, NotEnoughDiskSpaceException, InvalidDepositException {
+        try (var archive = zipService.openZipFile(zipFile)) {
+            extractZipFile(zipFile, archive, target, diskSpaceMargin, filePathMapping, 0, 0, ExtractionProgress.NONE, new ExtractedChecksums());
+        }
+    }
+
+    void extractZipFile(Path zipFile, ZipArchive archive, Path target, long diskSpaceMargin, Map<String, String> filePathMapping, long skipEntries, long offset,
+        ExtractionProgress progress, ExtractedChecksums checksums) throws IOException, NotEnoughDiskSpaceException, InvalidDepositException {
         fileService.ensureDirectoriesExist(target);
 
         log.debug("Checking if adequate diskspace is available");
-        var extractedSize = zipService.getExtractedSize(zipFile);
+        var extractedSize = archive.getExtractedSize(skipEntries);
         filesystemSpaceVerifier.assertDirHasEnoughDiskspaceMarginForFile(zipFile.getParent(), diskSpaceMargin, extractedSize);
 
-        log.debug("Extracting file {} to target {} with file path mapping set to {}", zipFile, target, filePathMapping);
-        zipService.extractZipFileWithFileMapping(zipFile, target, filePathMapping);
-
-        log.debug("Updating bag manifests");
-        bagItManager.updateManifests(target, filePathMapping);
+        log.debug("Extracting file {} to target {} with file path mapping set to {}, skipping {} files", zipFile, target, filePathMapping, skipEntries);
+        var extracted = new AtomicLong(offset + skipEntries);
 
-        log.debug("Verifying the bag is valid");
-        bagItManager.verifyBagItRepository(target);
+        try {
+            zipService.extractZipFileWithFileMapping(archive, target, filePathMapping, skipEntries, checksums,
+                size -> progress.extracted(extracted.incrementAndGet(), size));
+        }
+        catch (ZipException e) {
+            // a corrupt, encrypted or unsupported entry is a problem of the deposit, not of the service
+            throw new InvalidDepositException(String.format("Unable to extract %s: %s", zipFile.getFileName(), e.getMessage()), e);
+        }
     }
 
     Map<String, String> generateFilePathMapping(Path zipFile) throws IOException {
@@ -152,14 +522,22 @@ public class BagExtractorImpl implements BagExtractor {
     }
 
     Map<String, String> generateFilePathMapping(Path zipFile, Pattern prefixPattern) throws IOException {
-        var fileNames = zipService.getFilesInZip(zipFile);
+        return generateFilePathMapping(zipFile, zipService.getFilesInZip(zipFile), prefixPattern);
+    }
 
+    Map<String, String> generateFilePathMapping(Path zipFile, List<String> fileNames) {
+        return generateFilePathMapping(zipFile, fileNames, defaultPrefixPattern);
+    }
+
+    Map<String, String> generateFilePathMapping(Path zipFile, List<String> fileNames, Pattern prefixPattern) {
         return fileNames.stream().map(fileName -> {
             var matcher = prefixPattern.matcher(fileName);
 
             if (matcher.find()) {
                 var prefix = matcher.group();
-                var newPath = Path.of(prefix, UUID.randomUUID().toString()).toString();
+                // derived from the deposit, zip file and entry, so that a resumed finalization maps the files to the same names
+                var name = String.join("/", String.valueOf(zipFile.getParent().getFileName()), zipFile.getFileName().toString(), fileName);
+                var newPath = Path.of(prefix, UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString()).toString();
 
                 return Map.entry(fileName, newPath);
             }
@@ -178,4 +556,34 @@ public class BagExtractorImpl implements BagExtractor {
 
         return files.get(0);
     }
+
+    private static class PartAssembly {
+        static final int UNKNOWN_SEQUENCE_NUMBER = -1;
+
+        private final long size;
+        private final int lastSequenceNumber;
+        private final List<String> parts;
+
+        PartAssembly(long size, int lastSequenceNumber, List<String> parts) {
+            this.size = size;
+            this.lastSequenceNumber = lastSequenceNumber;
+            this.parts = parts;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        int getLastSequenceNumber() {
+            return lastSequenceNumber;
+        }
+
+        boolean isLastSequenceNumberKnown() {
+            return lastSequenceNumber != UNKNOWN_SEQUENCE_NUMBER;
+        }
+
+        List<String> getParts() {
+            return parts;
+        }
+    }
 }
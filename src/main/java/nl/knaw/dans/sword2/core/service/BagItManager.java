@@ -19,7 +19,10 @@ import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
 
 public interface BagItManager {
 
@@ -29,5 +32,19 @@ public interface BagItManager {
 
     void verifyBagItRepository(Path path) throws InvalidDepositException;
 
+    /**
+     * Verifies the bag, using the checksums that were computed during the extraction for the payload files. Payload files without such a checksum, and tag
+     * files, are read to compute their checksums.
+     *
+     * @param bytesRead called with the size of every file that is read to compute its checksum
+     */
+    void verifyBagItRepository(Path path, ExtractedChecksums checksums, LongConsumer bytesRead) throws InvalidDepositException;
+
+    /**
+     * @param fileNames the names of the files in a zip file, starting with the bag directory
+     * @return the message digest names of the algorithms of the payload manifests among the files, e.g. SHA-1
+     */
+    Set<String> getPayloadManifestAlgorithms(List<String> fileNames);
+
     Path getBagDir(Path path) throws IOException, InvalidDepositException;
 }
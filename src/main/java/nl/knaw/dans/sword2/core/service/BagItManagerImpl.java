@@ -16,10 +16,14 @@
 package nl.knaw.dans.sword2.core.service;
 
 import gov.loc.repository.bagit.domain.Bag;
+import gov.loc.repository.bagit.domain.Manifest;
+import gov.loc.repository.bagit.exceptions.CorruptChecksumException;
 import gov.loc.repository.bagit.exceptions.InvalidBagitFileFormatException;
 import gov.loc.repository.bagit.exceptions.MaliciousPathException;
 import gov.loc.repository.bagit.exceptions.UnparsableVersionException;
 import gov.loc.repository.bagit.exceptions.UnsupportedAlgorithmException;
+import gov.loc.repository.bagit.hash.BagitAlgorithmNameToSupportedAlgorithmMapping;
+import gov.loc.repository.bagit.hash.StandardBagitAlgorithmNameToSupportedAlgorithmMapping;
 import gov.loc.repository.bagit.reader.BagReader;
 import gov.loc.repository.bagit.verify.BagVerifier;
 import gov.loc.repository.bagit.writer.ManifestWriter;
@@ -31,16 +35,23 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class BagItManagerImpl implements BagItManager {
     private static final Logger log = LoggerFactory.getLogger(BagItManagerImpl.class);
+    private final Pattern payloadManifestPattern = Pattern.compile("^[^/]+/manifest-([^/]+)\\.txt$");
 
     private final FileService fileService;
     private final ChecksumCalculator checksumCalculator;
+    private final BagitAlgorithmNameToSupportedAlgorithmMapping algorithmMapping = new StandardBagitAlgorithmNameToSupportedAlgorithmMapping();
 
     public BagItManagerImpl(FileService fileService, ChecksumCalculator checksumCalculator) {
         this.fileService = fileService;
@@ -148,6 +159,11 @@ public class BagItManagerImpl implements BagItManager {
 
     @Override
     public void verifyBagItRepository(Path path) throws InvalidDepositException {
+        verifyBagItRepository(path, new ExtractedChecksums(), bytes -> {});
+    }
+
+    @Override
+    public void verifyBagItRepository(Path path, ExtractedChecksums checksums, LongConsumer bytesRead) throws InvalidDepositException {
         try {
             var bagDir = getBagDir(path);
             var bag = getBag(bagDir);
@@ -157,8 +173,23 @@ public class BagItManagerImpl implements BagItManager {
             log.trace("Verifying bag is complete on path {}", bagDir);
             verifier.isComplete(bag, ignoreHiddenFiles);
 
-            log.trace("Verifying bag is valid on path {}", bagDir);
-            verifier.isValid(bag, ignoreHiddenFiles);
+            if (checksums.size() == 0) {
+                log.trace("Verifying bag is valid on path {}", bagDir);
+                verifier.isValid(bag, ignoreHiddenFiles);
+                reportManifestedFiles(bag, bytesRead);
+                return;
+            }
+
+            log.trace("Verifying bag is valid on path {}, with the checksums of {} extracted files", bagDir, checksums.size());
+
+            for (var manifest : bag.getPayLoadManifests()) {
+                verifyChecksums(manifest, checksums, bytesRead);
+            }
+
+            // the manifests are tag files themselves and may have been rewritten after the extraction
+            for (var manifest : bag.getTagManifests()) {
+                verifyChecksums(manifest, new ExtractedChecksums(), bytesRead);
+            }
         }
         catch (Exception e) {
             // not only the exception message (e.g. a file path) but also the exception class (e.g. FileNotFoundException)
@@ -166,6 +197,64 @@ public class BagItManagerImpl implements BagItManager {
         }
     }
 
+    void verifyChecksums(Manifest manifest, ExtractedChecksums checksums, LongConsumer bytesRead) throws IOException, NoSuchAlgorithmException,
+        CorruptChecksumException {
+        var algorithm = manifest.getAlgorithm().getMessageDigestName();
+
+        for (var entry : manifest.getFileToChecksumMap().entrySet()) {
+            var file = entry.getKey();
+            var expected = entry.getValue();
+            var actual = checksums.get(file, algorithm).orElse(null);
+
+            if (actual == null) {
+                actual = checksumCalculator.calculateChecksum(file, algorithm);
+                bytesRead.accept(fileService.getSize(file));
+            }
+
+            if (!actual.equalsIgnoreCase(expected)) {
+                // the same message as BagVerifier
+                throw new CorruptChecksumException(String.format("File [%s] is suppose to have a [%s] hash of [%s] but was computed [%s].", file, algorithm, expected, actual));
+            }
+        }
+    }
+
+    // the verifier reads every file in the manifests once, for all algorithms at the same time
+    private void reportManifestedFiles(Bag bag, LongConsumer bytesRead) throws IOException {
+        var files = new HashSet<Path>();
+
+        for (var manifest : bag.getPayLoadManifests()) {
+            files.addAll(manifest.getFileToChecksumMap().keySet());
+        }
+
+        for (var manifest : bag.getTagManifests()) {
+            files.addAll(manifest.getFileToChecksumMap().keySet());
+        }
+
+        for (var file : files) {
+            bytesRead.accept(fileService.getSize(file));
+        }
+    }
+
+    @Override
+    public Set<String> getPayloadManifestAlgorithms(List<String> fileNames) {
+        var algorithms = new HashSet<String>();
+
+        for (var fileName : fileNames) {
+            var matcher = payloadManifestPattern.matcher(fileName);
+
+            if (matcher.matches()) {
+                try {
+                    algorithms.add(algorithmMapping.getSupportedAlgorithm(matcher.group(1)).getMessageDigestName());
+                }
+                catch (UnsupportedAlgorithmException e) {
+                    log.debug("Not computing checksums for unsupported manifest algorithm {}", matcher.group(1));
+                }
+            }
+        }
+
+        return algorithms;
+    }
+
     void writePayloadManifestFiles(Path bagDir, Map<String, String> filePathMapping) throws IOException {
         var files = getManifestFiles(bagDir);
 
@@ -31,13 +31,14 @@ public class ChecksumCalculatorImpl implements
         throws NoSuchAlgorithmException, IOException {
 
         var md = MessageDigest.getInstance(algorithm);
-        var is = Files.newInputStream(path);
         var buf = new byte[1024 * 8];
 
-        var bytesRead = 0;
+        try (var is = Files.newInputStream(path)) {
+            var bytesRead = 0;
 
-        while ((bytesRead = is.read(buf)) != -1) {
-            md.update(buf, 0, bytesRead);
+            while ((bytesRead = is.read(buf)) != -1) {
+                md.update(buf, 0, bytesRead);
+            }
         }
 
         return DatatypeConverter.printHexBinary(md.digest())
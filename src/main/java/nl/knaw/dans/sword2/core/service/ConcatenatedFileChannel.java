@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read-only channel that presents a sequence of files as one, so that a zip file that was uploaded in parts can be read without merging the parts first.
+ * Besides the reads of {@link SeekableByteChannel}, which use and advance the position of the channel, it supports positional reads, which leave the
+ * position alone and may be done concurrently, like those of {@link FileChannel}.
+ */
+public class ConcatenatedFileChannel implements SeekableByteChannel {
+    private final FileChannel[] channels;
+    // offsets[i] is the position of the first byte of file i; offsets[channels.length] is the size
+    private final long[] offsets;
+    private long position = 0;
+    private volatile boolean open = true;
+
+    private ConcatenatedFileChannel(List<FileChannel> channels) throws IOException {
+        this.channels = channels.toArray(new FileChannel[0]);
+        this.offsets = new long[this.channels.length + 1];
+
+        for (var i = 0; i < this.channels.length; ++i) {
+            offsets[i + 1] = offsets[i] + this.channels[i].size();
+        }
+    }
+
+    /**
+     * Opens the files for reading.
+     *
+     * @param files the files, in the order in which they are concatenated
+     * @return the channel
+     * @throws IOException if a file could not be opened
+     */
+    public static ConcatenatedFileChannel open(List<Path> files) throws IOException {
+        var channels = new ArrayList<FileChannel>(files.size());
+
+        try {
+            for (var file : files) {
+                channels.add(FileChannel.open(file, StandardOpenOption.READ));
+            }
+
+            return new ConcatenatedFileChannel(channels);
+        }
+        catch (IOException | RuntimeException e) {
+            closeAll(channels, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads bytes starting at the given position, without changing the position of this channel. Only bytes from one file are read at a time, so fewer
+     * bytes than there is room for in the buffer may be read, even if the end of the channel is not reached.
+     *
+     * @param dst      the buffer to read into
+     * @param position the position to read from
+     * @return the number of bytes read, or -1 if the position is at or beyond the end of the channel
+     * @throws IOException if a file could not be read
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        ensureOpen();
+
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+
+        if (position >= size()) {
+            return -1;
+        }
+
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+
+        var file = findFile(position);
+        var filePosition = position - offsets[file];
+        var fileRemaining = offsets[file + 1] - position;
+
+        if (dst.remaining() <= fileRemaining) {
+            return channels[file].read(dst, filePosition);
+        }
+
+        var slice = dst.duplicate();
+        slice.limit(slice.position() + (int) fileRemaining);
+        var n = channels[file].read(slice, filePosition);
+
+        if (n > 0) {
+            dst.position(dst.position() + n);
+        }
+
+        return n;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        var n = read(dst, position);
+
+        if (n > 0) {
+            position += n;
+        }
+
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return offsets[channels.length];
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+
+            var e = new IOException("Unable to close all files");
+            closeAll(Arrays.asList(channels), e);
+
+            if (e.getSuppressed().length > 0) {
+                throw e;
+            }
+        }
+    }
+
+    private int findFile(long position) {
+        var index = Arrays.binarySearch(offsets, position);
+        var file = index >= 0 ? index : -index - 2;
+
+        // empty files start at the same position as the next one
+        while (offsets[file + 1] <= position) {
+            file++;
+        }
+
+        return file;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private static void closeAll(List<FileChannel> channels, Exception e) {
+        for (var channel : channels) {
+            try {
+                channel.close();
+            }
+            catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+        }
+    }
+}
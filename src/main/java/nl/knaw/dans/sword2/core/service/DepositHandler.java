@@ -16,10 +16,12 @@
 package nl.knaw.dans.sword2.core.service;
 
 import nl.knaw.dans.sword2.core.Deposit;
+import nl.knaw.dans.sword2.core.DepositState;
 import nl.knaw.dans.sword2.core.auth.Depositor;
 import nl.knaw.dans.sword2.core.exceptions.CollectionNotFoundException;
 import nl.knaw.dans.sword2.core.exceptions.DepositNotFoundException;
 import nl.knaw.dans.sword2.core.exceptions.DepositReadOnlyException;
+import nl.knaw.dans.sword2.core.exceptions.FinalizerQueueFullException;
 import nl.knaw.dans.sword2.core.exceptions.HashMismatchException;
 import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
 import nl.knaw.dans.sword2.core.exceptions.InvalidPartialFileException;
@@ -28,7 +30,9 @@ import nl.knaw.dans.sword2.core.exceptions.NotEnoughDiskSpaceException;
 import javax.ws.rs.core.MediaType;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.List;
+import java.time.Instant;
+import java.util.Set;
+import java.util.stream.Stream;
 
 public interface DepositHandler {
 
@@ -36,15 +40,29 @@ public interface DepositHandler {
 
     Deposit getDeposit(String depositId) throws DepositNotFoundException, InvalidDepositException;
 
-    List<Deposit> getOpenDeposits();
+    /**
+     * Lists the deposits of a depositor in a collection, in order of deposit id. The deposits are read while the stream is consumed; deposits that the deposit
+     * index knows not to match the filters are skipped without reading them.
+     *
+     * @param collectionId   the path of the collection, as used in its URL
+     * @param depositor      the depositor
+     * @param afterDepositId only return deposits with a larger id; <code>null</code> to start at the first deposit
+     * @param states         only return deposits in one of these states; empty for all states
+     * @param updatedSince   only return deposits that were changed at or after this time; <code>null</code> for all deposits
+     * @return the deposits
+     * @throws CollectionNotFoundException if the collection does not exist or the depositor has no access to it
+     */
+    Stream<Deposit> getDeposits(String collectionId, Depositor depositor, String afterDepositId, Set<DepositState> states, Instant updatedSince)
+        throws CollectionNotFoundException;
 
     Deposit createDepositWithPayload(String collectionId, Depositor depositor, boolean inProgress, MediaType contentType, String hash, String packaging, String filename, long filesize,
         InputStream inputStream)
-        throws CollectionNotFoundException, IOException, NotEnoughDiskSpaceException, HashMismatchException, InvalidDepositException;
+        throws CollectionNotFoundException, IOException, NotEnoughDiskSpaceException, HashMismatchException, InvalidDepositException, FinalizerQueueFullException;
 
     Deposit addPayloadToDeposit(String depositId, Depositor depositor, boolean inProgress, MediaType contentType, String hash, String packaging, String filename, long filesize,
         InputStream inputStream)
-        throws CollectionNotFoundException, IOException, NotEnoughDiskSpaceException, HashMismatchException, DepositNotFoundException, DepositReadOnlyException, InvalidDepositException;
+        throws CollectionNotFoundException, IOException, NotEnoughDiskSpaceException, HashMismatchException, DepositNotFoundException, DepositReadOnlyException, InvalidDepositException,
+        FinalizerQueueFullException;
 
     Deposit finalizeDeposit(String depositId)
         throws DepositNotFoundException, InvalidDepositException, InvalidPartialFileException, CollectionNotFoundException, IOException, NotEnoughDiskSpaceException;
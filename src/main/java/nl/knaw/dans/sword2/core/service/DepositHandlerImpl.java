@@ -19,14 +19,20 @@ import nl.knaw.dans.sword2.core.Deposit;
 import nl.knaw.dans.sword2.core.DepositState;
 import nl.knaw.dans.sword2.core.auth.Depositor;
 import nl.knaw.dans.sword2.core.config.CollectionConfig;
+import nl.knaw.dans.sword2.core.config.FinalizationProgressConfig;
 import nl.knaw.dans.sword2.core.exceptions.CollectionNotFoundException;
 import nl.knaw.dans.sword2.core.exceptions.DepositNotFoundException;
 import nl.knaw.dans.sword2.core.exceptions.DepositReadOnlyException;
+import nl.knaw.dans.sword2.core.exceptions.FinalizerQueueFullException;
 import nl.knaw.dans.sword2.core.exceptions.HashMismatchException;
 import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
 import nl.knaw.dans.sword2.core.exceptions.InvalidPartialFileException;
 import nl.knaw.dans.sword2.core.exceptions.NotEnoughDiskSpaceException;
-import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerEvent;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizationPipeline;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizationStage;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerAdmission;
+import nl.knaw.dans.sword2.core.index.DepositIndex;
+import nl.knaw.dans.sword2.core.index.DepositIndexEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,46 +40,69 @@ import javax.ws.rs.core.MediaType;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class DepositHandlerImpl implements DepositHandler {
 
     private static final Logger log = LoggerFactory.getLogger(DepositHandlerImpl.class);
+    private static final Set<DepositState> FINALIZED_STATES = EnumSet.of(DepositState.SUBMITTED, DepositState.INVALID, DepositState.REJECTED, DepositState.PUBLISHED);
 
     private final BagExtractor bagExtractor;
     private final FileService fileService;
     private final DepositPropertiesManager depositPropertiesManager;
+    private final DepositIndex depositIndex;
     private final CollectionManager collectionManager;
     private final UserManager userManager;
-    private final BlockingQueue<DepositFinalizerEvent> depositFinalizerQueue;
+    private final DepositFinalizerAdmission depositFinalizerAdmission;
     private final BagItManager bagItManager;
     private final FilesystemSpaceVerifier filesystemSpaceVerifier;
     private final String emailAddress;
+    private final Set<DepositState> deferredStates;
+    private final DepositStateNotifier depositStateNotifier;
+    private final DepositFinalizationPipeline finalizationPipeline;
+    private final FinalizationProgressConfig finalizationProgress;
+
+    public DepositHandlerImpl(BagExtractor bagExtractor, FileService fileService, DepositPropertiesManager depositPropertiesManager, DepositIndex depositIndex,
+        CollectionManager collectionManager, UserManager userManager, DepositFinalizerAdmission depositFinalizerAdmission, BagItManager bagItManager, FilesystemSpaceVerifier filesystemSpaceVerifier, String emailAddress,
+        Set<DepositState> deferredStates, DepositStateNotifier depositStateNotifier, DepositFinalizationPipeline finalizationPipeline) {
+        this(bagExtractor, fileService, depositPropertiesManager, depositIndex, collectionManager, userManager, depositFinalizerAdmission, bagItManager, filesystemSpaceVerifier,
+            emailAddress, deferredStates, depositStateNotifier, finalizationPipeline, new FinalizationProgressConfig());
+    }
 
-    public DepositHandlerImpl(BagExtractor bagExtractor, FileService fileService, DepositPropertiesManager depositPropertiesManager, CollectionManager collectionManager,
-        UserManager userManager, BlockingQueue<DepositFinalizerEvent> depositFinalizerQueue, BagItManager bagItManager, FilesystemSpaceVerifier filesystemSpaceVerifier, String emailAddress) {
+    public DepositHandlerImpl(BagExtractor bagExtractor, FileService fileService, DepositPropertiesManager depositPropertiesManager, DepositIndex depositIndex,
+        CollectionManager collectionManager, UserManager userManager, DepositFinalizerAdmission depositFinalizerAdmission, BagItManager bagItManager, FilesystemSpaceVerifier filesystemSpaceVerifier, String emailAddress,
+        Set<DepositState> deferredStates, DepositStateNotifier depositStateNotifier, DepositFinalizationPipeline finalizationPipeline,
+        FinalizationProgressConfig finalizationProgress) {
         this.bagExtractor = bagExtractor;
         this.fileService = fileService;
         this.depositPropertiesManager = depositPropertiesManager;
+        this.depositIndex = depositIndex;
         this.collectionManager = collectionManager;
         this.userManager = userManager;
-        this.depositFinalizerQueue = depositFinalizerQueue;
+        this.depositFinalizerAdmission = depositFinalizerAdmission;
         this.bagItManager = bagItManager;
         this.filesystemSpaceVerifier = filesystemSpaceVerifier;
         this.emailAddress = emailAddress;
+        this.deferredStates = deferredStates;
+        this.depositStateNotifier = depositStateNotifier;
+        this.finalizationPipeline = finalizationPipeline;
+        this.finalizationProgress = finalizationProgress;
     }
 
     @Override
     public Deposit createDepositWithPayload(String collectionId, Depositor depositor, boolean inProgress, MediaType contentType, String hash, String packaging, String filename, long filesize,
-        InputStream inputStream) throws CollectionNotFoundException, IOException, NotEnoughDiskSpaceException, HashMismatchException, InvalidDepositException {
+        InputStream inputStream) throws CollectionNotFoundException, IOException, NotEnoughDiskSpaceException, HashMismatchException, InvalidDepositException, FinalizerQueueFullException {
 
         var id = UUID.randomUUID().toString();
         var collection = collectionManager.getCollectionByPath(collectionId, depositor);
@@ -85,6 +114,10 @@ public class DepositHandlerImpl implements DepositHandler {
             fileService.ensureDirectoriesExist(collection.getUploads());
             filesystemSpaceVerifier.assertDirHasEnoughDiskspaceMarginForFile(collection.getUploads(), collection.getDiskSpaceMargin(), filesize);
 
+            if (!inProgress) {
+                depositFinalizerAdmission.checkCapacity();
+            }
+
             // check if the hash matches the one provided by the user
             var calculatedHash = fileService.copyFileWithMD5Hash(inputStream, path);
 
@@ -92,6 +125,8 @@ public class DepositHandlerImpl implements DepositHandler {
                 throw new HashMismatchException(String.format("Hash %s does not match expected hash %s", calculatedHash, hash));
             }
 
+            appendParts(depositFolder, contentType.toString());
+
             var deposit = new Deposit();
             deposit.setId(id);
             deposit.setCollectionId(collection.getName());
@@ -105,12 +140,14 @@ public class DepositHandlerImpl implements DepositHandler {
             deposit.setStateDescription("Deposit is open for additional data");
             deposit.setCreated(OffsetDateTime.now());
             deposit.setMimeType(contentType.toString());
+            deposit.setPath(depositFolder);
 
-            // now store these properties
-            // set state to draft
-            depositPropertiesManager.saveProperties(depositFolder, deposit);
+            // the DRAFT state is only written if the deposit is not finalized right away
+            var unitOfWork = createUnitOfWork(deposit);
+            unitOfWork.markChanged();
 
-            startFinalizingDeposit(deposit);
+            startFinalizingDeposit(unitOfWork);
+            unitOfWork.checkpoint();
 
             return deposit;
         }
@@ -121,6 +158,16 @@ public class DepositHandlerImpl implements DepositHandler {
         }
     }
 
+    private void appendParts(Path path, String mimeType) {
+        try {
+            bagExtractor.appendParts(path, mimeType);
+        }
+        catch (IOException e) {
+            // the parts that were not appended are appended when the deposit is finalized
+            log.warn("Unable to append the parts of deposit {}", path, e);
+        }
+    }
+
     void cleanupFile(Path path) {
         log.info("Cleaning up file {}", path);
 
@@ -135,7 +182,8 @@ public class DepositHandlerImpl implements DepositHandler {
     @Override
     public Deposit addPayloadToDeposit(String depositId, Depositor depositor, boolean inProgress, MediaType contentType, String hash, String packaging, String filename, long filesize,
         InputStream inputStream)
-        throws IOException, NotEnoughDiskSpaceException, HashMismatchException, DepositNotFoundException, DepositReadOnlyException, CollectionNotFoundException, InvalidDepositException {
+        throws IOException, NotEnoughDiskSpaceException, HashMismatchException, DepositNotFoundException, DepositReadOnlyException, CollectionNotFoundException, InvalidDepositException,
+        FinalizerQueueFullException {
 
         var deposit = getDeposit(depositId, depositor);
         var path = deposit.getPath().resolve(filename);
@@ -147,6 +195,10 @@ public class DepositHandlerImpl implements DepositHandler {
             throw new DepositReadOnlyException(String.format("Deposit id %s is not in DRAFT state.", deposit.getId()));
         }
 
+        if (!inProgress) {
+            depositFinalizerAdmission.checkCapacity();
+        }
+
         // check if the hash matches the one provided by the user
         var calculatedHash = fileService.copyFileWithMD5Hash(inputStream, path);
 
@@ -154,15 +206,27 @@ public class DepositHandlerImpl implements DepositHandler {
             throw new HashMismatchException(String.format("Hash %s does not match expected hash %s", calculatedHash, hash));
         }
 
+        appendParts(deposit.getPath(), deposit.getMimeType());
         deposit.setInProgress(inProgress);
-        depositPropertiesManager.saveProperties(path.getParent(), deposit);
 
-        startFinalizingDeposit(deposit);
+        var unitOfWork = createUnitOfWork(deposit);
+        unitOfWork.markChanged();
+
+        startFinalizingDeposit(unitOfWork);
+        unitOfWork.checkpoint();
+
         return deposit;
     }
 
     @Override
     public Deposit getDeposit(String depositId, Depositor depositor) throws DepositNotFoundException, InvalidDepositException {
+        // the depositor of a deposit never changes, so a deposit of someone else does not have to be read
+        var entry = depositIndex.get(depositId);
+
+        if (entry.isPresent() && entry.get().getDepositor() != null && !depositor.getName().equals(entry.get().getDepositor())) {
+            throw new DepositNotFoundException(String.format("Deposit with id %s could not be found", depositId));
+        }
+
         var deposit = getDeposit(depositId);
 
         if (depositor.getName().equals(deposit.getDepositor())) {
@@ -174,6 +238,30 @@ public class DepositHandlerImpl implements DepositHandler {
 
     @Override
     public Deposit getDeposit(String depositId) throws DepositNotFoundException, InvalidDepositException {
+        // the id is resolved against the deposit directories, so it must not point anywhere else
+        if (!isValidDepositId(depositId)) {
+            throw new DepositNotFoundException(String.format("Deposit with id %s could not be found", depositId));
+        }
+
+        var entry = depositIndex.get(depositId);
+
+        if (entry.isPresent()) {
+            var depositPath = entry.get().getPath();
+            // read right away, so that a hit costs one file system access
+            var deposit = depositPropertiesManager.findProperties(depositPath);
+
+            if (deposit.isPresent()) {
+                log.trace("Found deposit {} at indexed location {}", depositId, depositPath);
+                return indexDeposit(deposit.get(), depositPath, entry.get().getCollectionId());
+            }
+
+            // it was moved or removed by another process, so the index is out of date
+            log.debug("Deposit {} is no longer at indexed location {}, searching all locations", depositId, depositPath);
+        }
+        else if (depositIndex.isKnownToBeAbsent(depositId)) {
+            throw new DepositNotFoundException(String.format("Deposit with id %s could not be found", depositId));
+        }
+
         var collections = collectionManager.getCollections();
 
         for (var collection : collections) {
@@ -192,50 +280,85 @@ public class DepositHandlerImpl implements DepositHandler {
                 log.trace("Checking if {} exists (answer: {})", depositPath, exists);
 
                 if (exists) {
-                    var deposit = depositPropertiesManager.getProperties(depositPath);
-                    deposit.setPath(depositPath);
-                    deposit.setCollectionId(collection.getName());
-
-                    return deposit;
+                    return readDeposit(depositPath, collection.getName());
                 }
             }
         }
 
+        entry.ifPresent(depositIndex::invalidate);
         throw new DepositNotFoundException(String.format("Deposit with id %s could not be found", depositId));
     }
 
+    Deposit readDeposit(Path depositPath, String collectionId) throws InvalidDepositException {
+        return indexDeposit(depositPropertiesManager.getProperties(depositPath), depositPath, collectionId);
+    }
+
+    private Deposit indexDeposit(Deposit deposit, Path depositPath, String collectionId) {
+        deposit.setPath(depositPath);
+        deposit.setCollectionId(collectionId);
+        depositIndex.put(deposit);
+
+        return deposit;
+    }
+
     @Override
-    public List<Deposit> getOpenDeposits() {
-        return collectionManager.getCollections().stream().map(collection -> {
-                try {
-                    return fileService.listDirectories(collection.getUploads()).stream().map(path -> {
-                        try {
-                            var deposit = depositPropertiesManager.getProperties(path);
-                            deposit.setPath(path);
-                            deposit.setCollectionId(collection.getName());
-
-                            return deposit;
-                        }
-                        catch (Exception | InvalidDepositException e) {
-                            log.error("Unable to open deposit from path {}", path, e);
-                        }
-
-                        return null;
-                    }).filter(Objects::nonNull);
-                }
-                catch (IOException e) {
-                    log.error("Unable to list directories in path {}", collection.getUploads());
-                }
+    public Stream<Deposit> getDeposits(String collectionId, Depositor depositor, String afterDepositId, Set<DepositState> states, Instant updatedSince)
+        throws CollectionNotFoundException {
+        var collection = collectionManager.getCollectionByPath(collectionId, depositor);
 
-                return null;
-            })
-            .filter(Objects::nonNull)
-            .flatMap(s -> s)
-            .filter(deposit -> DepositState.UPLOADED.equals(deposit.getState()) || DepositState.FINALIZING.equals(deposit.getState()))
-            .collect(Collectors.toList());
+        return depositIndex.list(collection.getName(), afterDepositId)
+            // entries that were only found on disk do not know their depositor yet, so these must be read to find out
+            .filter(entry -> entry.getDepositor() == null || depositor.getName().equals(entry.getDepositor()))
+            .map(entry -> readIfMatching(entry, collection.getName(), states, updatedSince))
+            .filter(deposit -> deposit != null && depositor.getName().equals(deposit.getDepositor()) && matches(deposit.getState(), deposit.getLastModified(),
+                states, updatedSince));
+    }
+
+    /**
+     * Reads a listed deposit, unless it does not match the filters. This is decided without reading the deposit if possible: the modification time is
+     * checked on disk, and the state in the index is used if the file has not changed since the index recorded it. Reading a deposit updates its entry, so
+     * that the next listing does not have to read it again.
+     */
+    private Deposit readIfMatching(DepositIndexEntry entry, String collectionId, Set<DepositState> states, Instant updatedSince) {
+        var lastModified = depositPropertiesManager.getLastModified(entry.getPath());
+
+        if (lastModified.isEmpty()) {
+            log.debug("Deposit {} is no longer at indexed location {}, skipping it", entry.getDepositId(), entry.getPath());
+            return null;
+        }
+
+        var state = lastModified.get().equals(entry.getLastModified()) ? entry.getState() : null;
+
+        if (!matches(state, lastModified.get(), states, updatedSince)) {
+            log.trace("Deposit {} does not match the filters, not reading it", entry.getDepositId());
+            return null;
+        }
+
+        try {
+            return readDeposit(entry.getPath(), collectionId);
+        }
+        catch (Exception | InvalidDepositException e) {
+            log.error("Unable to open deposit from path {}", entry.getPath(), e);
+            return null;
+        }
     }
 
-    void startFinalizingDeposit(Deposit deposit) throws CollectionNotFoundException, InvalidDepositException {
+    // an unknown state or modification time may match
+    private boolean matches(DepositState state, Instant lastModified, Set<DepositState> states, Instant updatedSince) {
+        if (state != null && !states.isEmpty() && !states.contains(state)) {
+            return false;
+        }
+
+        return lastModified == null || updatedSince == null || !lastModified.isBefore(updatedSince);
+    }
+
+    DepositUnitOfWork createUnitOfWork(Deposit deposit) {
+        return new DepositUnitOfWork(depositPropertiesManager, depositIndex, depositStateNotifier, deferredStates, deposit);
+    }
+
+    void startFinalizingDeposit(DepositUnitOfWork unitOfWork) throws CollectionNotFoundException, InvalidDepositException {
+        var deposit = unitOfWork.getDeposit();
+
         // if deposit is not in progress
         if (deposit.isInProgress()) {
             log.info("Deposit is still in progress, not finalizing");
@@ -244,77 +367,256 @@ public class DepositHandlerImpl implements DepositHandler {
 
         log.info("Finalizing deposit with id {}", deposit.getId());
 
-        var collection = collectionManager.getCollectionByName(deposit.getCollectionId());
-        var path = getUploadPath(collection, deposit.getId());
+        depositFinalizerAdmission.record(deposit.getId());
 
-        // set state to UPLOADED
-        deposit.setState(DepositState.UPLOADED);
-        depositPropertiesManager.saveProperties(path, deposit);
+        // set state to UPLOADED; this must be on disk before the finalizer may pick it up
+        unitOfWork.transition(DepositState.UPLOADED, deposit.getStateDescription());
+        unitOfWork.checkpoint();
 
-        try {
-            depositFinalizerQueue.put(new DepositFinalizerEvent(deposit.getId()));
-        }
-        catch (InterruptedException e) {
-            log.error("Interrupted while putting task on queue", e);
-        }
+        depositFinalizerAdmission.submit(deposit.getId());
     }
 
     @Override
     public Deposit finalizeDeposit(String depositId)
         throws DepositNotFoundException, IOException, NotEnoughDiskSpaceException, InvalidDepositException, InvalidPartialFileException, CollectionNotFoundException {
 
+        DepositUnitOfWork unitOfWork = null;
+
         try {
-            var deposit = getDeposit(depositId);
+            var current = getDeposit(depositId);
+
+            // the finalizer may be asked more than once for the same deposit, e.g. when the work log is replayed after a crash
+            if (FINALIZED_STATES.contains(current.getState())) {
+                log.info("Deposit with id {} is already finalized with state {}, skipping it", depositId, current.getState());
+                return current;
+            }
+
+            unitOfWork = createUnitOfWork(current);
+
+            var deposit = unitOfWork.getDeposit();
             var path = deposit.getPath();
             var depositor = userManager.getDepositorById(deposit.getDepositor());
 
             log.info("Finalizing deposit with id {}", depositId);
-            deposit.setState(DepositState.FINALIZING);
-            deposit.setStateDescription("Finalizing deposit");
-            depositPropertiesManager.saveProperties(path, deposit);
+            unitOfWork.transition(DepositState.FINALIZING, "Finalizing deposit");
 
             var collection = collectionManager.getCollectionByName(deposit.getCollectionId());
 
+            var mimeType = deposit.getMimeType();
+
+            if (deposit.getCompletedStage() != null) {
+                log.info("Resuming finalization of deposit {} after stage {}", depositId, deposit.getCompletedStage());
+            }
+
             log.info("Extracting files for deposit {}", depositId);
-            bagExtractor.extractBag(path,
-                collection.getDiskSpaceMargin(),
-                deposit.getMimeType(),
-                depositor.getFilepathMapping());
+
+            if (!deposit.isCompleted(DepositFinalizationStage.MERGE)) {
+                runStage(DepositFinalizationStage.MERGE, () -> {
+                    bagExtractor.mergeParts(path, mimeType);
+                    return null;
+                });
+
+                completeStage(unitOfWork, DepositFinalizationStage.MERGE);
+            }
+
+            Map<String, String> filePathMapping;
+            // computed while extracting, so that the payload is not read again to verify it; files extracted by an earlier attempt are read after all
+            var checksums = new ExtractedChecksums();
+
+            if (!deposit.isCompleted(DepositFinalizationStage.EXTRACT)) {
+                var progress = new CheckpointedExtractionProgress(unitOfWork, finalizationProgress);
+                filePathMapping = runStage(DepositFinalizationStage.EXTRACT, processed -> bagExtractor.extractPayload(path, mimeType, collection.getDiskSpaceMargin(),
+                    depositor.getFilepathMapping(), reportingSizes(progress, processed), checksums));
+
+                completeStage(unitOfWork, DepositFinalizationStage.EXTRACT);
+            }
+            else {
+                filePathMapping = bagExtractor.getFilePathMapping(path, mimeType, depositor.getFilepathMapping());
+            }
+
+            if (!deposit.isCompleted(DepositFinalizationStage.REWRITE_MANIFESTS)) {
+                runStage(DepositFinalizationStage.REWRITE_MANIFESTS, () -> {
+                    bagExtractor.updateManifests(path, filePathMapping);
+                    return null;
+                });
+
+                completeStage(unitOfWork, DepositFinalizationStage.REWRITE_MANIFESTS);
+            }
+
+            if (!deposit.isCompleted(DepositFinalizationStage.VERIFY)) {
+                runStage(DepositFinalizationStage.VERIFY, processed -> {
+                    bagExtractor.verifyBag(path, checksums, processed);
+                    return null;
+                });
+
+                completeStage(unitOfWork, DepositFinalizationStage.VERIFY);
+            }
 
             var bagDir = bagExtractor.getBagDir(path);
             log.info("Bag dir found, it is named {}", bagDir);
 
-            deposit.setState(DepositState.SUBMITTED);
-            deposit.setStateDescription("Deposit is valid and ready for post-submission processing");
-            deposit.setBagName(bagDir.getFileName().toString());
-            deposit.setMimeType(null);
+            // read the metadata before changing the deposit, so that a failure leaves the in-memory deposit as it was
+            var bagName = bagDir.getFileName().toString();
+            var metadata = bagItManager.getBagItMetaData(path.resolve(bagName), depositId);
 
-            var metadata = bagItManager.getBagItMetaData(path.resolve(deposit.getBagName()), depositId);
+            deposit.setBagName(bagName);
+            deposit.setMimeType(null);
             deposit.setSwordToken(metadata.getSwordToken());
             deposit.setOtherId(metadata.getOtherId());
             deposit.setOtherIdVersion(metadata.getOtherIdVersion());
+            deposit.setCompletedStage(null);
+            deposit.setExtractedEntries(0);
 
-            depositPropertiesManager.saveProperties(path, deposit);
-
-            removeZipFiles(path);
+            unitOfWork.transition(DepositState.SUBMITTED, "Deposit is valid and ready for post-submission processing");
+            // the properties must be complete before the deposit is handed over
+            unitOfWork.checkpoint();
 
             var targetPath = getDepositPath(collection, depositId);
-            fileService.move(path, targetPath);
+
+            runStage(DepositFinalizationStage.HANDOVER, () -> {
+                removeZipFiles(path);
+                fileService.move(path, targetPath);
+                return null;
+            });
+
+            deposit.setPath(targetPath);
+            depositIndex.put(deposit);
 
             return deposit;
         }
         catch (InvalidDepositException | InvalidPartialFileException e) {
-            setDepositToInvalid(depositId, e.getMessage());
+            setDepositToInvalid(getUnitOfWork(unitOfWork, depositId), e.getMessage());
             throw e;
         }
         catch (CollectionNotFoundException e) {
-            setDepositToFailed(depositId, getGenericErrorMessage(depositId));
+            setDepositToFailed(getUnitOfWork(unitOfWork, depositId), getGenericErrorMessage(depositId));
             throw e;
         }
         catch (NotEnoughDiskSpaceException e) {
-            setDepositToRetrying(depositId);
+            setDepositToRetrying(getUnitOfWork(unitOfWork, depositId));
+            throw e;
+        }
+    }
+
+    /**
+     * Checks that the deposit id is a single path segment, i.e. a directory name directly below the uploads or deposits directory.
+     */
+    private boolean isValidDepositId(String depositId) {
+        if (depositId == null || depositId.isEmpty() || depositId.equals(".") || depositId.equals("..")) {
+            return false;
+        }
+
+        return depositId.chars().noneMatch(c -> c == '/' || c == '\\' || c == 0);
+    }
+
+    /**
+     * Records that a stage is completed, so that a retried or restarted finalization continues after it. Unless progress is not saved, in which case a
+     * restarted finalization starts over.
+     */
+    private void completeStage(DepositUnitOfWork unitOfWork, DepositFinalizationStage stage) throws InvalidDepositException {
+        unitOfWork.getDeposit().setCompletedStage(stage);
+
+        if (finalizationProgress.isEnabled()) {
+            unitOfWork.saveProgress();
+        }
+    }
+
+    /**
+     * Reports the size of every extracted file to the pipeline, so that the throughput of the extract stage is measured while it runs.
+     */
+    private static ExtractionProgress reportingSizes(ExtractionProgress progress, LongConsumer processed) {
+        return new ExtractionProgress() {
+
+            @Override
+            public long getExtractedEntries() {
+                return progress.getExtractedEntries();
+            }
+
+            @Override
+            public void extracted(long extractedEntries, long size) throws IOException {
+                processed.accept(Math.max(0, size));
+                progress.extracted(extractedEntries, size);
+            }
+        };
+    }
+
+    /**
+     * Records the number of extracted files in deposit.properties after every configured number of files or bytes, whichever comes first.
+     */
+    private static class CheckpointedExtractionProgress implements ExtractionProgress {
+        private final DepositUnitOfWork unitOfWork;
+        private final FinalizationProgressConfig config;
+        private long uncheckedEntries = 0;
+        private long uncheckedBytes = 0;
+
+        CheckpointedExtractionProgress(DepositUnitOfWork unitOfWork, FinalizationProgressConfig config) {
+            this.unitOfWork = unitOfWork;
+            this.config = config;
+        }
+
+        @Override
+        public long getExtractedEntries() {
+            return unitOfWork.getDeposit().getExtractedEntries();
+        }
+
+        @Override
+        public void extracted(long extractedEntries, long size) throws IOException {
+            uncheckedEntries++;
+            uncheckedBytes += Math.max(0, size);
+
+            if (isCheckpointDue()) {
+                unitOfWork.getDeposit().setExtractedEntries(extractedEntries);
+
+                try {
+                    unitOfWork.saveProgress();
+                }
+                catch (InvalidDepositException e) {
+                    throw new IOException(String.format("Unable to record extraction progress of deposit %s", unitOfWork.getDeposit().getId()), e);
+                }
+
+                uncheckedEntries = 0;
+                uncheckedBytes = 0;
+            }
+        }
+
+        // a limit of 0 never triggers a checkpoint
+        private boolean isCheckpointDue() {
+            if (!config.isEnabled()) {
+                return false;
+            }
+
+            return (config.getExtractedEntries() > 0 && uncheckedEntries >= config.getExtractedEntries())
+                || (config.getExtractedBytes() > 0 && uncheckedBytes >= config.getExtractedBytes());
+        }
+    }
+
+    /**
+     * Runs one stage of the finalization on the pool of that stage and waits for it.
+     */
+    private <T> T runStage(DepositFinalizationStage stage, DepositFinalizationPipeline.StageTask<T> task)
+        throws IOException, NotEnoughDiskSpaceException, InvalidDepositException, InvalidPartialFileException {
+        return runStage(stage, processed -> task.call());
+    }
+
+    /**
+     * Runs a stage that reports the bytes it processes while it runs, so that the throughput of the stage can be measured.
+     */
+    private <T> T runStage(DepositFinalizationStage stage, DepositFinalizationPipeline.MeteredStageTask<T> task)
+        throws IOException, NotEnoughDiskSpaceException, InvalidDepositException, InvalidPartialFileException {
+        try {
+            return finalizationPipeline.runMetered(stage, task);
+        }
+        catch (IOException | NotEnoughDiskSpaceException | InvalidDepositException | InvalidPartialFileException | RuntimeException | Error e) {
             throw e;
         }
+        catch (Throwable e) {
+            throw new IllegalStateException(String.format("Unexpected error in finalization stage %s", stage), e);
+        }
+    }
+
+    // the error handlers continue with the deposit as it is in memory, if there is one; otherwise it is read from disk
+    private DepositUnitOfWork getUnitOfWork(DepositUnitOfWork unitOfWork, String depositId) throws InvalidDepositException, DepositNotFoundException {
+        return unitOfWork != null ? unitOfWork : createUnitOfWork(getDeposit(depositId));
     }
 
     void cleanupDepositFiles(Deposit deposit, DepositState state) throws CollectionNotFoundException {
@@ -356,48 +658,46 @@ public class DepositHandlerImpl implements DepositHandler {
             + "The error occured at timestamp %s. Your 'DepositID' is %s", this.emailAddress, timestamp, depositId);
     }
 
-    void setDepositToInvalid(String depositId, String message) throws InvalidDepositException, DepositNotFoundException, CollectionNotFoundException {
-        var deposit = getDeposit(depositId);
+    void setDepositToInvalid(DepositUnitOfWork unitOfWork, String message) throws InvalidDepositException, CollectionNotFoundException {
+        var deposit = unitOfWork.getDeposit();
 
         try {
-            var path = deposit.getPath();
-
-            log.info("Marking deposit with id {} as INVALID; reason: {}", depositId, message);
-            deposit.setState(DepositState.INVALID);
-            deposit.setStateDescription(message);
-            depositPropertiesManager.saveProperties(path, deposit);
+            log.info("Marking deposit with id {} as INVALID; reason: {}", deposit.getId(), message);
+            unitOfWork.transition(DepositState.INVALID, message);
+            unitOfWork.checkpoint();
         }
         finally {
             cleanupDepositFiles(deposit, DepositState.INVALID);
         }
     }
 
-    void setDepositToRetrying(String depositId) throws InvalidDepositException, DepositNotFoundException, CollectionNotFoundException {
-        var deposit = getDeposit(depositId);
+    void setDepositToRetrying(DepositUnitOfWork unitOfWork) throws InvalidDepositException, CollectionNotFoundException {
+        var deposit = unitOfWork.getDeposit();
 
         try {
-            var path = deposit.getPath();
+            log.info("Rescheduling deposit with id {}", deposit.getId());
+
+            // the work done so far is kept, so the retry continues where this attempt stopped; unless it is about to be cleaned up
+            if (collectionManager.getCollectionByName(deposit.getCollectionId()).getAutoClean().contains(DepositState.UPLOADED)) {
+                deposit.setCompletedStage(null);
+                deposit.setExtractedEntries(0);
+            }
 
-            log.info("Rescheduling deposit with id {}", depositId);
-            deposit.setState(DepositState.UPLOADED);
-            deposit.setStateDescription("Rescheduled, waiting for more disk space");
-            depositPropertiesManager.saveProperties(path, deposit);
+            unitOfWork.transition(DepositState.UPLOADED, "Rescheduled, waiting for more disk space");
+            unitOfWork.checkpoint();
         }
         finally {
             cleanupDepositFiles(deposit, DepositState.UPLOADED);
         }
     }
 
-    void setDepositToFailed(String depositId, String message) throws InvalidDepositException, DepositNotFoundException, CollectionNotFoundException {
-        var deposit = getDeposit(depositId);
+    void setDepositToFailed(DepositUnitOfWork unitOfWork, String message) throws InvalidDepositException, CollectionNotFoundException {
+        var deposit = unitOfWork.getDeposit();
 
         try {
-            var path = deposit.getPath();
-
-            log.info("Marking deposit with id {} as FAILED; reason: {}", depositId, message);
-            deposit.setState(DepositState.FAILED);
-            deposit.setStateDescription(message);
-            depositPropertiesManager.saveProperties(path, deposit);
+            log.info("Marking deposit with id {} as FAILED; reason: {}", deposit.getId(), message);
+            unitOfWork.transition(DepositState.FAILED, message);
+            unitOfWork.checkpoint();
         }
         finally {
             cleanupDepositFiles(deposit, DepositState.FAILED);
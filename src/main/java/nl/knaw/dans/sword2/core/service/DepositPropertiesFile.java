@@ -0,0 +1,551 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Reader and writer for deposit.properties files. It understands the Java properties format and writes properties the same way commons-configuration's
+ * <code>PropertiesConfiguration</code> does (<code>key = value</code>, ISO-8859-1, non-ASCII characters as unicode escapes), so that files written by
+ * either can be read by the other and by the tools downstream.
+ *
+ * <p>Lines of properties that are not changed, and the comments and blank lines preceding them, are written back exactly as they were read. Files are
+ * replaced atomically: the new content is written to a temporary file in the same directory, which is then renamed. The content is only flushed to disk
+ * when the caller asks for it.</p>
+ */
+public class DepositPropertiesFile {
+    private static final String SEPARATOR = " = ";
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final List<Entry> entries;
+    // comments and blank lines after the last property
+    private String trailer;
+    // checksum of the file content as last read or written, -1 if unknown
+    private long checksum = -1;
+
+    public DepositPropertiesFile() {
+        this(new ArrayList<>(), "");
+    }
+
+    private DepositPropertiesFile(List<Entry> entries, String trailer) {
+        this.entries = entries;
+        this.trailer = trailer;
+    }
+
+    public static DepositPropertiesFile read(Path file) throws IOException {
+        var bytes = Files.readAllBytes(file);
+        var properties = parse(new String(bytes, StandardCharsets.ISO_8859_1));
+        properties.checksum = checksum(bytes);
+
+        return properties;
+    }
+
+    /**
+     * Reads the value of a single property, without parsing the properties after it. This is meant for scanning many files for one property, e.g. the state
+     * of every deposit at startup.
+     *
+     * @param file the file to read
+     * @param key  the key of the property
+     * @return the value of the first property with the key, or <code>null</code> if there is none
+     * @throws IOException if the file could not be read
+     */
+    public static String readValue(Path file, String key) throws IOException {
+        var content = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+        var length = content.length();
+        var pos = 0;
+
+        while (pos < length) {
+            var lineEnd = findLineEnd(content, pos);
+            var next = skipLineSeparator(content, lineEnd);
+
+            if (isBlankOrComment(content, pos, lineEnd)) {
+                pos = next;
+                continue;
+            }
+
+            var logicalLine = new StringBuilder();
+            logicalLine.append(content, skipWhitespace(content, pos, lineEnd), lineEnd);
+
+            while (isContinued(logicalLine) && next < length) {
+                logicalLine.setLength(logicalLine.length() - 1);
+                pos = next;
+                lineEnd = findLineEnd(content, pos);
+                next = skipLineSeparator(content, lineEnd);
+                logicalLine.append(content, skipWhitespace(content, pos, lineEnd), lineEnd);
+            }
+
+            var entry = parseEntry(logicalLine, "", null);
+
+            if (entry.key.equals(key)) {
+                return entry.value;
+            }
+
+            pos = next;
+        }
+
+        return null;
+    }
+
+    public static DepositPropertiesFile parse(String content) {
+        var entries = new ArrayList<Entry>();
+        var leading = new StringBuilder();
+        var length = content.length();
+        var pos = 0;
+
+        while (pos < length) {
+            var lineEnd = findLineEnd(content, pos);
+            var next = skipLineSeparator(content, lineEnd);
+
+            if (isBlankOrComment(content, pos, lineEnd)) {
+                leading.append(content, pos, next);
+                pos = next;
+                continue;
+            }
+
+            var start = pos;
+            var logicalLine = new StringBuilder();
+            logicalLine.append(content, skipWhitespace(content, pos, lineEnd), lineEnd);
+
+            // a line ending in an odd number of backslashes continues on the next line
+            while (isContinued(logicalLine) && next < length) {
+                logicalLine.setLength(logicalLine.length() - 1);
+                pos = next;
+                lineEnd = findLineEnd(content, pos);
+                next = skipLineSeparator(content, lineEnd);
+                logicalLine.append(content, skipWhitespace(content, pos, lineEnd), lineEnd);
+            }
+
+            entries.add(parseEntry(logicalLine, leading.toString(), content.substring(start, next)));
+            leading.setLength(0);
+            pos = next;
+        }
+
+        return new DepositPropertiesFile(entries, leading.toString());
+    }
+
+    public String getString(String key) {
+        var entry = findEntry(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public boolean containsKey(String key) {
+        return findEntry(key) != null;
+    }
+
+    /**
+     * Sets the value of a property. An existing property keeps its position in the file, a new property is added at the end.
+     *
+     * @param key   the key
+     * @param value the value; <code>null</code> removes the property
+     */
+    public void setProperty(String key, Object value) {
+        if (value == null) {
+            clearProperty(key);
+            return;
+        }
+
+        var stringValue = value.toString();
+        var found = false;
+        var iterator = entries.iterator();
+
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+
+            if (entry.key.equals(key)) {
+                if (found) {
+                    // duplicate keys are collapsed into the first one
+                    iterator.remove();
+                }
+                else if (!stringValue.equals(entry.value)) {
+                    entry.value = stringValue;
+                    entry.line = null;
+                }
+
+                found = true;
+            }
+        }
+
+        if (!found) {
+            entries.add(new Entry(key, stringValue, "", null));
+        }
+    }
+
+    public void clearProperty(String key) {
+        entries.removeIf(entry -> entry.key.equals(key));
+    }
+
+    /**
+     * Returns the CRC-32 of the file content as it was last read or written, or -1 if this instance has not been read from or written to a file.
+     *
+     * @return the checksum
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public DepositPropertiesFile copy() {
+        var copies = new ArrayList<Entry>(entries.size());
+
+        for (var entry : entries) {
+            copies.add(new Entry(entry.key, entry.value, entry.leading, entry.line));
+        }
+
+        return new DepositPropertiesFile(copies, trailer);
+    }
+
+    public String format() {
+        var builder = new StringBuilder(entries.size() * 64 + trailer.length());
+
+        for (var entry : entries) {
+            builder.append(entry.leading);
+
+            if (entry.line != null) {
+                builder.append(entry.line);
+            }
+            else {
+                // the previous line may have been the last one of a file without a final line separator
+                if (builder.length() > 0 && !endsWithLineSeparator(builder)) {
+                    builder.append(LINE_SEPARATOR);
+                }
+
+                escapeKey(builder, entry.key);
+                builder.append(SEPARATOR);
+                escapeValue(builder, entry.value);
+                builder.append(LINE_SEPARATOR);
+            }
+        }
+
+        return builder.append(trailer).toString();
+    }
+
+    /**
+     * Replaces the file with the current properties, without flushing them to disk. Readers never see a partially written file, but after a crash the file
+     * may be empty or hold the previous content.
+     *
+     * @param file the file to write
+     * @throws IOException if the file could not be written
+     * @see #write(Path, boolean)
+     */
+    public void write(Path file) throws IOException {
+        write(file, false);
+    }
+
+    /**
+     * Replaces the file with the current properties. If <code>sync</code> is set, the content is flushed to disk before the temporary file is renamed, so
+     * that a crash cannot leave an empty or partially written file behind; the rename itself is not synced, as losing it only means the previous state is
+     * read back. Flushing is expensive, especially on network file systems, so it is only meant for changes that must survive a crash.
+     *
+     * @param file the file to write
+     * @param sync whether to flush the content to disk
+     * @throws IOException if the file could not be written
+     */
+    public void write(Path file, boolean sync) throws IOException {
+        var tempFile = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        var bytes = format().getBytes(StandardCharsets.ISO_8859_1);
+        var buffer = ByteBuffer.wrap(bytes);
+
+        try {
+            try (var channel = openNewFile(tempFile)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+
+                if (sync) {
+                    channel.force(false);
+                }
+            }
+
+            copyPermissions(file, tempFile);
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            checksum = checksum(bytes);
+        }
+        catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    private static FileChannel openNewFile(Path file) throws IOException {
+        try {
+            return FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+        catch (NoSuchFileException e) {
+            // like commons-configuration, create the deposit directory if it does not exist yet
+            Files.createDirectories(file.getParent());
+            return FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+    }
+
+    private static long checksum(byte[] bytes) {
+        var crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static void copyPermissions(Path source, Path target) throws IOException {
+        try {
+            Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+        }
+        catch (NoSuchFileException | UnsupportedOperationException e) {
+            // new file, or a file system without POSIX permissions; keep the defaults
+        }
+    }
+
+    private Entry findEntry(String key) {
+        for (var entry : entries) {
+            if (entry.key.equals(key)) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    private static Entry parseEntry(CharSequence line, String leading, String raw) {
+        var length = line.length();
+        var i = 0;
+
+        // the key ends at the first unescaped separator or whitespace
+        while (i < length) {
+            var c = line.charAt(i);
+
+            if (c == '\\') {
+                i += 2;
+            }
+            else if (c == '=' || c == ':' || isWhitespace(c)) {
+                break;
+            }
+            else {
+                i++;
+            }
+        }
+
+        var keyEnd = Math.min(i, length);
+
+        while (i < length && isWhitespace(line.charAt(i))) {
+            i++;
+        }
+
+        if (i < length && (line.charAt(i) == '=' || line.charAt(i) == ':')) {
+            i++;
+        }
+
+        while (i < length && isWhitespace(line.charAt(i))) {
+            i++;
+        }
+
+        return new Entry(unescape(line, 0, keyEnd), unescape(line, i, length), leading, raw);
+    }
+
+    static String unescape(CharSequence s, int start, int end) {
+        var builder = new StringBuilder(end - start);
+        var i = start;
+
+        while (i < end) {
+            var c = s.charAt(i++);
+
+            if (c != '\\' || i == end) {
+                builder.append(c);
+                continue;
+            }
+
+            c = s.charAt(i++);
+
+            switch (c) {
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'u':
+                    var codePoint = i + 4 <= end ? parseHex(s, i) : -1;
+
+                    if (codePoint >= 0) {
+                        builder.append((char) codePoint);
+                        i += 4;
+                    }
+                    else {
+                        builder.append(c);
+                    }
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private static int parseHex(CharSequence s, int start) {
+        var result = 0;
+
+        for (var i = start; i < start + 4; i++) {
+            var digit = Character.digit(s.charAt(i), 16);
+
+            if (digit < 0) {
+                return -1;
+            }
+
+            result = (result << 4) | digit;
+        }
+
+        return result;
+    }
+
+    static void escapeKey(StringBuilder builder, String key) {
+        for (var i = 0; i < key.length(); i++) {
+            var c = key.charAt(i);
+
+            if (c == '=' || c == ':' || c == '\\' || isWhitespace(c)) {
+                builder.append('\\');
+            }
+
+            builder.append(c);
+        }
+    }
+
+    static void escapeValue(StringBuilder builder, String value) {
+        for (var i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+
+            switch (c) {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\f':
+                    builder.append("\\f");
+                    break;
+                case '\b':
+                    builder.append("\\b");
+                    break;
+                default:
+                    if (c < 32 || c > 0x7f) {
+                        builder.append("\\u")
+                            .append(HEX_DIGITS[(c >> 12) & 0xf])
+                            .append(HEX_DIGITS[(c >> 8) & 0xf])
+                            .append(HEX_DIGITS[(c >> 4) & 0xf])
+                            .append(HEX_DIGITS[c & 0xf]);
+                    }
+                    else {
+                        builder.append(c);
+                    }
+            }
+        }
+    }
+
+    private static boolean isContinued(CharSequence line) {
+        var backslashes = 0;
+
+        for (var i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+
+        return backslashes % 2 == 1;
+    }
+
+    private static boolean isBlankOrComment(String content, int start, int end) {
+        var first = skipWhitespace(content, start, end);
+        return first == end || content.charAt(first) == '#' || content.charAt(first) == '!';
+    }
+
+    private static int skipWhitespace(String content, int start, int end) {
+        var i = start;
+
+        while (i < end && isWhitespace(content.charAt(i))) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+    private static int findLineEnd(String content, int start) {
+        var i = start;
+
+        while (i < content.length() && content.charAt(i) != '\n' && content.charAt(i) != '\r') {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static int skipLineSeparator(String content, int lineEnd) {
+        if (lineEnd < content.length() && content.charAt(lineEnd) == '\r') {
+            lineEnd++;
+        }
+
+        if (lineEnd < content.length() && content.charAt(lineEnd) == '\n') {
+            lineEnd++;
+        }
+
+        return lineEnd;
+    }
+
+    private static boolean endsWithLineSeparator(StringBuilder builder) {
+        var last = builder.charAt(builder.length() - 1);
+        return last == '\n' || last == '\r';
+    }
+
+    private static class Entry {
+        private final String key;
+        private final String leading;
+        private String value;
+        // the line(s) as read from the file, or null if the value was changed
+        private String line;
+
+        Entry(String key, String value, String leading, String line) {
+            this.key = key;
+            this.value = value;
+            this.leading = leading;
+            this.line = line;
+        }
+    }
+}
@@ -16,13 +16,54 @@
 package nl.knaw.dans.sword2.core.service;
 
 import nl.knaw.dans.sword2.core.Deposit;
+import nl.knaw.dans.sword2.core.DepositState;
 import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
 
 import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
 
 public interface DepositPropertiesManager {
 
     Deposit getProperties(Path path) throws InvalidDepositException;
 
+    /**
+     * Like getProperties, but returns an empty result if the deposit has no properties file, e.g. because it was moved, instead of checking for that first.
+     *
+     * @param path the deposit directory
+     * @return the deposit, or empty if the directory or its properties file does not exist
+     * @throws InvalidDepositException if the properties are invalid
+     */
+    Optional<Deposit> findProperties(Path path) throws InvalidDepositException;
+
+    /**
+     * Reads only the state of a deposit, which is cheaper than reading all its properties.
+     *
+     * @param path the deposit directory
+     * @return the state
+     * @throws InvalidDepositException if the properties could not be read or do not contain a valid state
+     */
+    DepositState getState(Path path) throws InvalidDepositException;
+
+    /**
+     * Returns the modification time of the properties file, which is cheaper than reading it. It is the same as the last modified time of a {@link Deposit}
+     * read from the file.
+     *
+     * @param path the deposit directory
+     * @return the modification time, or empty if the directory or its properties file does not exist
+     */
+    Optional<Instant> getLastModified(Path path);
+
     void saveProperties(Path path, Deposit deposit) throws InvalidDepositException;
+
+    /**
+     * Writes the properties of a deposit.
+     *
+     * @param path    the deposit directory
+     * @param deposit the deposit
+     * @param sync    whether the properties must be flushed to disk before this returns, so that they survive a crash; without it, a crash may lose the
+     *                change
+     * @throws InvalidDepositException if the properties could not be written
+     */
+    void saveProperties(Path path, Deposit deposit, boolean sync) throws InvalidDepositException;
 }
@@ -18,22 +18,44 @@ package nl.knaw.dans.sword2.core.service;
 import nl.knaw.dans.sword2.core.Deposit;
 import nl.knaw.dans.sword2.core.DepositState;
 import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
-import org.apache.commons.configuration2.Configuration;
-import org.apache.commons.configuration2.FileBasedConfiguration;
-import org.apache.commons.configuration2.PropertiesConfiguration;
-import org.apache.commons.configuration2.builder.FileBasedConfigurationBuilder;
-import org.apache.commons.configuration2.builder.fluent.Parameters;
-import org.apache.commons.configuration2.ex.ConfigurationException;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizationStage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
 
 @Singleton
 public class DepositPropertiesManagerImpl implements DepositPropertiesManager {
+    private static final Logger log = LoggerFactory.getLogger(DepositPropertiesManagerImpl.class);
     private static final String FILENAME = "deposit.properties";
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
+    // parsed deposit.properties files, in least recently used order; an entry is only used while the file's modification time and size are unchanged
+    private final Map<Path, CachedProperties> cache;
 
     public DepositPropertiesManagerImpl() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    public DepositPropertiesManagerImpl(int cacheSize) {
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, CachedProperties> eldest) {
+                return size() > cacheSize;
+            }
+        };
     }
 
     private Path getDepositPath(Path path) {
@@ -42,81 +64,249 @@ public class DepositPropertiesManagerImpl implements DepositPropertiesManager {
 
     @Override
     public void saveProperties(Path path, Deposit deposit) throws InvalidDepositException {
+        saveProperties(path, deposit, false);
+    }
+
+    @Override
+    public void saveProperties(Path path, Deposit deposit, boolean sync) throws InvalidDepositException {
         var propertiesFile = getDepositPath(path);
 
-        var params = new Parameters();
-        var paramConfig = params.properties()
-            .setFileName(propertiesFile.toString());
+        try {
+            var properties = readForUpdate(propertiesFile);
+            mapToConfig(properties, deposit);
+            properties.write(propertiesFile, sync);
 
-        var builder = new FileBasedConfigurationBuilder<FileBasedConfiguration>(PropertiesConfiguration.class, null, true).configure(
-            paramConfig);
+            var attributes = putInCache(propertiesFile, properties);
+            setVersion(deposit, properties, attributes);
+        }
+        catch (IOException e) {
+            throw new InvalidDepositException("Unable to save deposit properties", e);
+        }
+    }
 
+    @Override
+    public Deposit getProperties(Path path) throws InvalidDepositException {
         try {
-            var config = builder.getConfiguration();
-            mapToConfig(config, deposit);
-            builder.save();
+            return readProperties(getDepositPath(path));
         }
-        catch (ConfigurationException cex) {
-            throw new InvalidDepositException("Unable to save deposit properties", cex);
+        catch (IOException e) {
+            throw new IllegalStateException("Could not load properties file", e);
         }
     }
 
     @Override
-    public Deposit getProperties(Path path) throws InvalidDepositException {
+    public Optional<Deposit> findProperties(Path path) throws InvalidDepositException {
+        try {
+            return Optional.of(readProperties(getDepositPath(path)));
+        }
+        catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not load properties file", e);
+        }
+    }
+
+    private Deposit readProperties(Path propertiesFile) throws IOException, InvalidDepositException {
+        var attributes = readAttributes(propertiesFile);
+
+        if (attributes != null) {
+            var cached = getFromCache(propertiesFile);
+
+            if (cached != null && cached.isValidFor(attributes)) {
+                log.trace("Using cached properties for {}", propertiesFile);
+                return setVersion(mapToDeposit(cached.getProperties()), cached.getProperties(), attributes);
+            }
+        }
+
+        var properties = DepositPropertiesFile.read(propertiesFile);
+
+        // the attributes were read before the file, so if it changed in between the entry will simply be invalid on the next read
+        if (attributes != null) {
+            putInCache(propertiesFile, properties, attributes);
+        }
+
+        return setVersion(mapToDeposit(properties), properties, attributes);
+    }
+
+    @Override
+    public DepositState getState(Path path) throws InvalidDepositException {
         var propertiesFile = getDepositPath(path);
-        var params = new Parameters();
-        var paramConfig = params.properties()
-            .setFileName(propertiesFile.toString());
+        var cached = getFromCache(propertiesFile);
+        String state;
 
-        var builder = new FileBasedConfigurationBuilder<FileBasedConfiguration>(PropertiesConfiguration.class, null, true).configure(
-            paramConfig);
+        try {
+            if (cached != null && cached.isValidFor(Files.readAttributes(propertiesFile, BasicFileAttributes.class))) {
+                state = cached.getProperties().getString("state.label");
+            }
+            else {
+                state = DepositPropertiesFile.readValue(propertiesFile, "state.label");
+            }
+        }
+        catch (IOException e) {
+            throw new InvalidDepositException(String.format("Unable to read state from %s", propertiesFile), e);
+        }
+
+        if (state == null) {
+            throw new InvalidDepositException(String.format("No state in %s", propertiesFile));
+        }
 
         try {
-            var config = builder.getConfiguration();
-            return mapToDeposit(config);
-        } catch (ConfigurationException e) {
-            throw new IllegalStateException("Could not load properties file", e);
+            return DepositState.valueOf(state);
+        }
+        catch (IllegalArgumentException e) {
+            throw new InvalidDepositException(String.format("Invalid state '%s' in %s", state, propertiesFile), e);
         }
     }
 
-    Deposit mapToDeposit(Configuration config) {
+    @Override
+    public Optional<Instant> getLastModified(Path path) {
+        var attributes = readAttributes(getDepositPath(path));
+        return attributes == null ? Optional.empty() : Optional.of(attributes.lastModifiedTime().toInstant());
+    }
+
+    DepositPropertiesFile readForUpdate(Path propertiesFile) throws IOException {
+        var attributes = readAttributes(propertiesFile);
+
+        if (attributes == null) {
+            return new DepositPropertiesFile();
+        }
+
+        var cached = getFromCache(propertiesFile);
+
+        if (cached != null && cached.isValidFor(attributes)) {
+            // cached instances are shared with readers, so never modify them
+            return cached.getProperties().copy();
+        }
+
+        return DepositPropertiesFile.read(propertiesFile);
+    }
+
+    BasicFileAttributes readAttributes(Path propertiesFile) {
+        try {
+            return Files.readAttributes(propertiesFile, BasicFileAttributes.class);
+        }
+        catch (IOException e) {
+            log.trace("Unable to read attributes of {}, not using cache", propertiesFile, e);
+            return null;
+        }
+    }
+
+    CachedProperties getFromCache(Path propertiesFile) {
+        synchronized (cache) {
+            return cache.get(propertiesFile);
+        }
+    }
+
+    BasicFileAttributes putInCache(Path propertiesFile, DepositPropertiesFile properties) {
+        var attributes = readAttributes(propertiesFile);
+
+        if (attributes != null) {
+            putInCache(propertiesFile, properties, attributes);
+        }
+        else {
+            synchronized (cache) {
+                cache.remove(propertiesFile);
+            }
+        }
+
+        return attributes;
+    }
+
+    void putInCache(Path propertiesFile, DepositPropertiesFile properties, BasicFileAttributes attributes) {
+        synchronized (cache) {
+            cache.put(propertiesFile, new CachedProperties(properties, attributes.lastModifiedTime(), attributes.size()));
+        }
+    }
+
+    /**
+     * Sets the modification time of the properties file and a version derived from its content on the deposit. The version only changes if the content
+     * changes, so it can be used to tell whether a representation of the deposit is still current, even on file systems with a coarse modification time.
+     */
+    Deposit setVersion(Deposit deposit, DepositPropertiesFile properties, BasicFileAttributes attributes) {
+        deposit.setLastModified(attributes != null ? attributes.lastModifiedTime().toInstant() : null);
+        deposit.setVersion(properties.getChecksum() >= 0 ? Long.toHexString(properties.getChecksum()) : null);
+
+        return deposit;
+    }
+
+    int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    Deposit mapToDeposit(DepositPropertiesFile properties) {
         var deposit = new Deposit();
-        deposit.setId(config.getString("bag-store.bag-id"));
-        deposit.setCreated(OffsetDateTime.parse(config.getString("creation.timestamp")));
-        deposit.setDepositor(config.getString("depositor.userId"));
-        deposit.setState(DepositState.valueOf(config.getString("state.label")));
-        deposit.setStateDescription(config.getString("state.description"));
-        deposit.setBagName(config.getString("bag-store.bag-name"));
-        deposit.setSwordToken(config.getString("dataverse.sword-token"));
-        deposit.setMimeType(config.getString("easy-sword2.client-message.content-type"));
+        deposit.setId(properties.getString("bag-store.bag-id"));
+        deposit.setCreated(OffsetDateTime.parse(properties.getString("creation.timestamp")));
+        deposit.setDepositor(properties.getString("depositor.userId"));
+        deposit.setState(DepositState.valueOf(properties.getString("state.label")));
+        deposit.setStateDescription(properties.getString("state.description"));
+        deposit.setBagName(properties.getString("bag-store.bag-name"));
+        deposit.setSwordToken(properties.getString("dataverse.sword-token"));
+        deposit.setMimeType(properties.getString("easy-sword2.client-message.content-type"));
+
+        var completedStage = properties.getString("easy-sword2.finalization.completed-stage");
+        var extractedEntries = properties.getString("easy-sword2.finalization.extracted-entries");
+        deposit.setCompletedStage(completedStage != null ? DepositFinalizationStage.valueOf(completedStage) : null);
+        deposit.setExtractedEntries(extractedEntries != null ? Long.parseLong(extractedEntries) : 0);
 
         return deposit;
     }
 
-    void mapToConfig(Configuration config, Deposit deposit) {
-        config.setProperty("bag-store.bag-id", deposit.getId());
-        config.setProperty("dataverse.bag-id", String.format("urn:uuid:%s", deposit.getId()));
-        config.setProperty("creation.timestamp", deposit.getCreated());
-        config.setProperty("deposit.origin", "SWORD2");
-        config.setProperty("depositor.userId", deposit.getDepositor());
-        config.setProperty("state.label", deposit.getState().toString());
-        config.setProperty("state.description", deposit.getStateDescription());
-        config.setProperty("bag-store.bag-name", deposit.getBagName());
-        config.setProperty("dataverse.sword-token", deposit.getSwordToken());
+    void mapToConfig(DepositPropertiesFile properties, Deposit deposit) {
+        properties.setProperty("bag-store.bag-id", deposit.getId());
+        properties.setProperty("dataverse.bag-id", String.format("urn:uuid:%s", deposit.getId()));
+        properties.setProperty("creation.timestamp", deposit.getCreated());
+        properties.setProperty("deposit.origin", "SWORD2");
+        properties.setProperty("depositor.userId", deposit.getDepositor());
+        properties.setProperty("state.label", deposit.getState().toString());
+        properties.setProperty("state.description", deposit.getStateDescription());
+        properties.setProperty("bag-store.bag-name", deposit.getBagName());
+        properties.setProperty("dataverse.sword-token", deposit.getSwordToken());
 
         if (deposit.getOtherId() != null && !deposit.getOtherId().isEmpty()) {
-            config.setProperty("dataverse.other-id", deposit.getOtherId());
+            properties.setProperty("dataverse.other-id", deposit.getOtherId());
         }
 
         if (deposit.getOtherIdVersion() != null && !deposit.getOtherIdVersion().isEmpty()) {
-            config.setProperty("dataverse.other-id-version", deposit.getOtherIdVersion());
+            properties.setProperty("dataverse.other-id-version", deposit.getOtherIdVersion());
         }
 
         if (deposit.getMimeType() != null) {
-            config.setProperty("easy-sword2.client-message.content-type", deposit.getMimeType());
+            properties.setProperty("easy-sword2.client-message.content-type", deposit.getMimeType());
         }
         else {
-            config.clearProperty("easy-sword2.client-message.content-type");
+            properties.clearProperty("easy-sword2.client-message.content-type");
+        }
+
+        // the progress of the finalization is only kept while it is unfinished
+        properties.setProperty("easy-sword2.finalization.completed-stage", deposit.getCompletedStage());
+        properties.setProperty("easy-sword2.finalization.extracted-entries", deposit.getExtractedEntries() > 0 ? deposit.getExtractedEntries() : null);
+    }
+
+    /**
+     * A parsed deposit.properties file. It is never modified after it has been put in the cache; each read maps it to a new {@link Deposit},
+     * so callers cannot change the cached state.
+     */
+    static class CachedProperties {
+        private final DepositPropertiesFile properties;
+        private final FileTime lastModified;
+        private final long size;
+
+        CachedProperties(DepositPropertiesFile properties, FileTime lastModified, long size) {
+            this.properties = properties;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        DepositPropertiesFile getProperties() {
+            return properties;
+        }
+
+        boolean isValidFor(BasicFileAttributes attributes) {
+            return lastModified.equals(attributes.lastModifiedTime()) && size == attributes.size();
         }
     }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import nl.knaw.dans.sword2.core.Deposit;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Lets clients wait for the next change of a deposit instead of polling for it.
+ */
+public interface DepositStateNotifier {
+
+    /**
+     * Wakes up everyone waiting for a change of this deposit. Called after the change has been written to deposit.properties.
+     *
+     * @param deposit the deposit that was changed
+     */
+    void notifyChanged(Deposit deposit);
+
+    /**
+     * Returns a future that is completed with the changed deposit at its next change. Callers that are no longer interested must cancel the future (or let it
+     * time out), so that it is no longer held by the notifier.
+     *
+     * @param depositId the id of the deposit
+     * @return the future
+     */
+    CompletableFuture<Deposit> awaitChange(String depositId);
+
+    int getWaitingCount();
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import nl.knaw.dans.sword2.core.Deposit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class DepositStateNotifierImpl implements DepositStateNotifier {
+    private static final Logger log = LoggerFactory.getLogger(DepositStateNotifierImpl.class);
+
+    private final Map<String, Set<CompletableFuture<Deposit>>> waiters = new ConcurrentHashMap<>();
+
+    @Override
+    public void notifyChanged(Deposit deposit) {
+        var futures = waiters.remove(deposit.getId());
+
+        if (futures == null) {
+            return;
+        }
+
+        log.debug("Notifying {} waiters of a change of deposit {}", futures.size(), deposit.getId());
+
+        for (var future : futures) {
+            future.complete(deposit);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Deposit> awaitChange(String depositId) {
+        var future = new CompletableFuture<Deposit>();
+        waiters.compute(depositId, (id, futures) -> {
+            var result = futures == null ? ConcurrentHashMap.<CompletableFuture<Deposit>>newKeySet() : futures;
+            result.add(future);
+            return result;
+        });
+
+        // cancelled and timed out futures must not be kept until the next change of the deposit, which may never come
+        future.whenComplete((deposit, e) -> {
+            if (e != null) {
+                waiters.computeIfPresent(depositId, (id, futures) -> {
+                    futures.remove(future);
+                    return futures.isEmpty() ? null : futures;
+                });
+            }
+        });
+
+        return future;
+    }
+
+    @Override
+    public int getWaitingCount() {
+        return waiters.values().stream().mapToInt(Set::size).sum();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import nl.knaw.dans.sword2.core.Deposit;
+import nl.knaw.dans.sword2.core.DepositState;
+import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
+import nl.knaw.dans.sword2.core.index.DepositIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+
+/**
+ * Collects the changes made to a deposit during one operation and writes them to deposit.properties only at checkpoints. A transition to a state that is not
+ * deferred is a checkpoint; a transition to a deferred state is only kept in memory and written together with the next checkpoint. The handler also creates
+ * checkpoints before other components may act on the deposit, e.g. before it is put on the finalizer queue or moved to the deposits directory. Progress that
+ * is only needed to resume an interrupted operation is written with {@link #saveProgress()}, which leaves a deferred state unwritten.
+ */
+public class DepositUnitOfWork {
+    private static final Logger log = LoggerFactory.getLogger(DepositUnitOfWork.class);
+
+    private final DepositPropertiesManager depositPropertiesManager;
+    private final DepositIndex depositIndex;
+    private final DepositStateNotifier depositStateNotifier;
+    private final Set<DepositState> deferredStates;
+    private final Deposit deposit;
+    private boolean dirty;
+    // the state as last written to (or read from) deposit.properties
+    private DepositState writtenState;
+    private String writtenStateDescription;
+
+    public DepositUnitOfWork(DepositPropertiesManager depositPropertiesManager, DepositIndex depositIndex, DepositStateNotifier depositStateNotifier,
+        Set<DepositState> deferredStates, Deposit deposit) {
+        this.depositPropertiesManager = depositPropertiesManager;
+        this.depositIndex = depositIndex;
+        this.depositStateNotifier = depositStateNotifier;
+        this.deferredStates = deferredStates;
+        this.deposit = deposit;
+        this.writtenState = deposit.getState();
+        this.writtenStateDescription = deposit.getStateDescription();
+    }
+
+    public Deposit getDeposit() {
+        return deposit;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Marks the deposit as changed, so that it is written at the next checkpoint.
+     */
+    public void markChanged() {
+        dirty = true;
+    }
+
+    public void transition(DepositState state, String description) throws InvalidDepositException {
+        deposit.setState(state);
+        deposit.setStateDescription(description);
+        dirty = true;
+
+        if (deferredStates.contains(state)) {
+            log.debug("Deferring write of state {} for deposit {}", state, deposit.getId());
+        }
+        else {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Writes the deposit to disk and flushes it if it was changed since the last checkpoint, and notifies the clients that are waiting for a change.
+     *
+     * @throws InvalidDepositException if the properties could not be written
+     */
+    public void checkpoint() throws InvalidDepositException {
+        write(true);
+    }
+
+    /**
+     * Writes the deposit to disk with the progress made so far, without flushing it. If the deposit is in a deferred state, it is written with the state it
+     * had on disk, so that the deferred state is still only written at the next checkpoint; the clients are not notified, because they see no change.
+     *
+     * @throws InvalidDepositException if the properties could not be written
+     */
+    public void saveProgress() throws InvalidDepositException {
+        dirty = true;
+
+        var state = deposit.getState();
+        if (!deferredStates.contains(state) || state == writtenState) {
+            write(false);
+            return;
+        }
+
+        var stateDescription = deposit.getStateDescription();
+        deposit.setState(writtenState);
+        deposit.setStateDescription(writtenStateDescription);
+
+        try {
+            depositPropertiesManager.saveProperties(deposit.getPath(), deposit, false);
+        }
+        finally {
+            deposit.setState(state);
+            deposit.setStateDescription(stateDescription);
+        }
+    }
+
+    private void write(boolean sync) throws InvalidDepositException {
+        if (!dirty) {
+            return;
+        }
+
+        depositPropertiesManager.saveProperties(deposit.getPath(), deposit, sync);
+        depositIndex.put(deposit);
+        dirty = false;
+        writtenState = deposit.getState();
+        writtenStateDescription = deposit.getStateDescription();
+        depositStateNotifier.notifyChanged(deposit);
+    }
+}
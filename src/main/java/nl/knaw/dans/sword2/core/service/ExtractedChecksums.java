@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import javax.xml.bind.DatatypeConverter;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The checksums of extracted files, computed over the bytes as they were written, so that the payload manifests can be verified without reading the files
+ * again. Files are identified by their absolute, normalized path. The checksums may be added by several extraction workers at the same time.
+ */
+public class ExtractedChecksums {
+    private final Set<String> algorithms;
+    private final Map<Path, Map<String, String>> checksums = new ConcurrentHashMap<>();
+
+    public ExtractedChecksums() {
+        this(Set.of());
+    }
+
+    /**
+     * @param algorithms the names of the message digest algorithms to compute, e.g. SHA-1
+     * @throws IllegalArgumentException if an algorithm is not available
+     */
+    public ExtractedChecksums(Collection<String> algorithms) {
+        for (var algorithm : algorithms) {
+            try {
+                MessageDigest.getInstance(algorithm);
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException(String.format("Unknown checksum algorithm %s", algorithm), e);
+            }
+        }
+
+        this.algorithms = Set.copyOf(algorithms);
+    }
+
+    public Set<String> getAlgorithms() {
+        return algorithms;
+    }
+
+    /**
+     * @return a new message digest for every algorithm, to be filled with the bytes of one file and passed to {@link #put(Path, List)}
+     */
+    public List<MessageDigest> createDigests() {
+        var digests = new ArrayList<MessageDigest>(algorithms.size());
+
+        for (var algorithm : algorithms) {
+            try {
+                digests.add(MessageDigest.getInstance(algorithm));
+            }
+            catch (NoSuchAlgorithmException e) {
+                // checked by the constructor
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return digests;
+    }
+
+    /**
+     * Records the checksums of a file.
+     *
+     * @param file    the file
+     * @param digests the digests of the file contents, as created by {@link #createDigests()}
+     */
+    public void put(Path file, List<MessageDigest> digests) {
+        var fileChecksums = new HashMap<String, String>(digests.size());
+
+        for (var digest : digests) {
+            fileChecksums.put(digest.getAlgorithm(), DatatypeConverter.printHexBinary(digest.digest()).toLowerCase(Locale.ROOT));
+        }
+
+        checksums.put(normalize(file), Map.copyOf(fileChecksums));
+    }
+
+    public void putAll(ExtractedChecksums other) {
+        checksums.putAll(other.checksums);
+    }
+
+    /**
+     * @param file      the file
+     * @param algorithm the name of the message digest algorithm
+     * @return the checksum, as lower case hexadecimal, or empty if it was not computed during the extraction
+     */
+    public Optional<String> get(Path file, String algorithm) {
+        return Optional.ofNullable(checksums.get(normalize(file))).map(c -> c.get(algorithm));
+    }
+
+    public int size() {
+        return checksums.size();
+    }
+
+    private static Path normalize(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import java.io.IOException;
+
+/**
+ * Keeps track of the files extracted from the zip files of a deposit, so that an interrupted extraction can be resumed. Files are counted over all zip files
+ * of the deposit, in the order in which they are extracted; directory entries are not counted.
+ */
+public interface ExtractionProgress {
+
+    ExtractionProgress NONE = new ExtractionProgress() {
+
+        @Override
+        public long getExtractedEntries() {
+            return 0;
+        }
+
+        @Override
+        public void extracted(long extractedEntries, long size) {
+        }
+    };
+
+    /**
+     * @return the number of files that were already extracted by an earlier attempt
+     */
+    long getExtractedEntries();
+
+    /**
+     * Called after each extracted file.
+     *
+     * @param extractedEntries the number of files extracted so far, including those of earlier attempts
+     * @param size             the size of the file that was extracted
+     * @throws IOException if the progress could not be recorded
+     */
+    void extracted(long extractedEntries, long size) throws IOException;
+}
@@ -41,12 +41,44 @@ public interface FileService {
 
     void move(Path sourcePath, Path targetPath) throws IOException;
 
+    /**
+     * Concatenates the files into the target file. The files themselves are left in place.
+     */
     Path mergeFiles(List<Path> files, Path target) throws IOException;
 
+    /**
+     * Writes the files into the target file, one after the other, starting at the given position. Anything in the target file after that position is
+     * discarded first. The data is transferred between the files by the file system where possible, without copying it through the JVM. The target file is
+     * forced to disk before returning.
+     *
+     * @param files    the files to append
+     * @param target   the target file, which is created if it does not exist
+     * @param position the position to start writing at; it may not be beyond the end of the target file
+     * @return the size of the target file
+     * @throws IOException if a file could not be read or the target file could not be written
+     */
+    long appendFiles(List<Path> files, Path target, long position) throws IOException;
+
     boolean exists(Path path);
 
+    long getSize(Path path) throws IOException;
+
     Path writeContentToFile(Path path, String content) throws IOException;
 
+    /**
+     * Like writeContentToFile, but the content is first written to a temporary file, which is forced to disk and then replaces the file, so that the file is
+     * never seen partially written, not even after a crash.
+     */
+    Path replaceContentOfFile(Path path, String content) throws IOException;
+
+    /**
+     * @param file  the file to check
+     * @param files the files that the file should end with, one after the other
+     * @return true if the last bytes of the file are the contents of the files
+     * @throws IOException if one of the files could not be read
+     */
+    boolean endsWith(Path file, List<Path> files) throws IOException;
+
     List<String> readLines(Path file) throws IOException;
 
     void deleteDirectory(Path directory) throws IOException;
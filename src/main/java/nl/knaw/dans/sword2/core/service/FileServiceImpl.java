@@ -16,20 +16,21 @@
 package nl.knaw.dans.sword2.core.service;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Singleton;
 import javax.xml.bind.DatatypeConverter;
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -43,6 +44,7 @@ import java.util.stream.Stream;
 @Singleton
 public class FileServiceImpl implements FileService {
     private static final Logger log = LoggerFactory.getLogger(FileServiceImpl.class);
+    private static final int COMPARE_BUFFER_SIZE = 64 * 1024;
 
     @Override
     public void ensureDirectoriesExist(Path directory) throws IOException {
@@ -94,7 +96,9 @@ public class FileServiceImpl implements FileService {
 
     @Override
     public List<Path> listDirectories(Path path) throws IOException {
-        return Files.list(path).filter(Files::isDirectory).collect(Collectors.toList());
+        try (var files = Files.list(path)) {
+            return files.filter(Files::isDirectory).collect(Collectors.toList());
+        }
     }
 
     @Override
@@ -110,18 +114,40 @@ public class FileServiceImpl implements FileService {
 
     @Override
     public Path mergeFiles(List<Path> files, Path target) throws IOException {
-        try (var output = new BufferedOutputStream(new FileOutputStream(target.toFile(), true))) {
-            for (var file : files) {
-                IOUtils.copy(Files.newInputStream(file), output);
+        appendFiles(files, target, 0);
+        return target;
+    }
+
+    @Override
+    public long appendFiles(List<Path> files, Path target, long position) throws IOException {
+        try (var output = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (output.size() < position) {
+                throw new IOException(String.format("File %s is shorter than %d bytes", target, position));
             }
-        }
-        finally {
+
+            output.truncate(position);
+            output.position(position);
+
             for (var file : files) {
-                Files.deleteIfExists(file);
+                try (var input = FileChannel.open(file, StandardOpenOption.READ)) {
+                    var size = input.size();
+                    var transferred = 0L;
+
+                    while (transferred < size) {
+                        var count = input.transferTo(transferred, size - transferred, output);
+
+                        if (count <= 0) {
+                            throw new IOException(String.format("Unable to read %s beyond %d bytes", file, transferred));
+                        }
+
+                        transferred += count;
+                    }
+                }
             }
-        }
 
-        return target;
+            output.force(true);
+            return output.size();
+        }
     }
 
     @Override
@@ -129,11 +155,88 @@ public class FileServiceImpl implements FileService {
         return Files.exists(path);
     }
 
+    @Override
+    public long getSize(Path path) throws IOException {
+        return Files.size(path);
+    }
+
     @Override
     public Path writeContentToFile(Path path, String content) throws IOException {
         return Files.write(path, content.getBytes(StandardCharsets.UTF_8));
     }
 
+    @Override
+    public Path replaceContentOfFile(Path path, String content) throws IOException {
+        var temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (var output = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+
+            while (buffer.hasRemaining()) {
+                output.write(buffer);
+            }
+
+            // otherwise the file may be empty after a crash, while the move that replaced the old file is on disk
+            output.force(true);
+        }
+
+        return Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public boolean endsWith(Path file, List<Path> files) throws IOException {
+        var suffixSize = 0L;
+
+        for (var suffixFile : files) {
+            suffixSize += Files.size(suffixFile);
+        }
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var position = channel.size() - suffixSize;
+
+            if (position < 0) {
+                return false;
+            }
+
+            var expected = ByteBuffer.allocate(COMPARE_BUFFER_SIZE);
+            var actual = ByteBuffer.allocate(COMPARE_BUFFER_SIZE);
+
+            for (var suffixFile : files) {
+                try (var input = FileChannel.open(suffixFile, StandardOpenOption.READ)) {
+                    var size = input.size();
+
+                    for (var offset = 0L; offset < size; offset += expected.limit()) {
+                        var length = (int) Math.min(COMPARE_BUFFER_SIZE, size - offset);
+
+                        if (!readFully(input, expected, offset, length) || !readFully(channel, actual, position + offset, length) || !expected.equals(actual)) {
+                            return false;
+                        }
+                    }
+
+                    position += size;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * @return false if the channel ends before the given number of bytes were read
+     */
+    private boolean readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear().limit(length);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+
+        buffer.flip();
+        return true;
+    }
+
     @Override
     public List<String> readLines(Path file) throws IOException {
         return Files.readAllLines(file);
@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A zip file of which the central directory is read once, when it is opened. The entries, with their names, sizes, compression methods, CRCs and offsets, are
+ * kept in memory, so that the file path mapping, the disk space check and the extraction of a deposit all use the same model. The archive owns the channel it
+ * reads from and closes it when it is closed. Entries may be read concurrently. Zip64 archives are supported; encrypted entries and compression methods other
+ * than stored and deflated are not.
+ */
+public class ZipArchive implements Closeable {
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int CENTRAL_FILE_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ZIP64_EXTRA_FIELD = 0x0001;
+    private static final int FLAG_ENCRYPTED = 1;
+    // values of 32-bit fields that are stored in the zip64 extra field instead
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String name;
+    private final SeekableByteChannel channel;
+    private final List<ZipArchiveEntry> entries;
+    private final List<ZipArchiveEntry> files;
+
+    /**
+     * Opens a zip file and reads its central directory.
+     *
+     * @param path the zip file
+     * @return the archive
+     * @throws IOException if the file could not be read or is not a zip file
+     */
+    public static ZipArchive open(Path path) throws IOException {
+        var channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            return new ZipArchive(path.toString(), channel);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param name    the name of the archive, used in error messages
+     * @param channel the channel to read the archive from; it is closed when the archive is closed
+     * @throws IOException if the channel could not be read or does not contain a zip file
+     */
+    public ZipArchive(String name, SeekableByteChannel channel) throws IOException {
+        this.name = name;
+        this.channel = channel;
+        this.entries = Collections.unmodifiableList(readCentralDirectory());
+        this.files = entries.stream().filter(e -> !e.isDirectory()).collect(Collectors.toUnmodifiableList());
+    }
+
+    /**
+     * @return all entries, in the order of the central directory
+     */
+    public List<ZipArchiveEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the entries that are not directories, in the order of the central directory
+     */
+    public List<ZipArchiveEntry> getFiles() {
+        return files;
+    }
+
+    public List<String> getFileNames() {
+        return files.stream().map(ZipArchiveEntry::getName).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the total size of the extracted entries
+     */
+    public long getExtractedSize() {
+        return getExtractedSize(0);
+    }
+
+    /**
+     * @param skipFiles the number of files not to count
+     * @return the total size of the extracted files, except for the first skipFiles files
+     */
+    public long getExtractedSize(long skipFiles) {
+        return files.stream().skip(skipFiles).mapToLong(ZipArchiveEntry::getSize).sum();
+    }
+
+    /**
+     * Returns a stream of the uncompressed content of an entry. Streams of different entries may be read at the same time.
+     *
+     * @param entry an entry of this archive
+     * @return the stream
+     * @throws IOException if the entry cannot be read
+     */
+    public InputStream getInputStream(ZipArchiveEntry entry) throws IOException {
+        if (entry.isEncrypted()) {
+            throw new ZipException(String.format("Entry %s of %s is encrypted", entry.getName(), name));
+        }
+
+        var header = read(entry.getLocalHeaderOffset(), LOCAL_FILE_HEADER_SIZE);
+
+        if (header.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+            throw new ZipException(String.format("Entry %s of %s has no local file header at offset %d", entry.getName(), name, entry.getLocalHeaderOffset()));
+        }
+
+        var dataOffset = entry.getLocalHeaderOffset() + LOCAL_FILE_HEADER_SIZE + getUnsignedShort(header, 26) + getUnsignedShort(header, 28);
+        var data = new EntryDataInputStream(dataOffset, entry.getCompressedSize());
+
+        switch (entry.getMethod()) {
+            case ZipArchiveEntry.STORED:
+                return data;
+
+            case ZipArchiveEntry.DEFLATED:
+                return new EntryInflaterInputStream(data);
+
+            default:
+                throw new ZipException(String.format("Entry %s of %s has unsupported compression method %d", entry.getName(), name, entry.getMethod()));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<ZipArchiveEntry> readCentralDirectory() throws IOException {
+        var size = channel.size();
+        var tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        var tail = read(size - tailSize, tailSize);
+        var index = findEndOfCentralDirectory(tail);
+
+        if (index < 0) {
+            throw new ZipException(String.format("%s is not a zip file, it has no end of central directory record", name));
+        }
+
+        var position = size - tailSize + index;
+        long entryCount = getUnsignedShort(tail, index + 10);
+        long directorySize = getUnsignedInt(tail, index + 12);
+        long directoryOffset = getUnsignedInt(tail, index + 16);
+
+        if (position >= ZIP64_LOCATOR_SIZE) {
+            var locator = read(position - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                var zip64 = read(locator.getLong(8), ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+
+                if (zip64.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    throw new ZipException(String.format("%s has an invalid zip64 end of central directory record", name));
+                }
+
+                entryCount = zip64.getLong(32);
+                directorySize = zip64.getLong(40);
+                directoryOffset = zip64.getLong(48);
+            }
+        }
+
+        if (directorySize < 0 || directoryOffset < 0 || directoryOffset + directorySize > size || directorySize > Integer.MAX_VALUE) {
+            throw new ZipException(String.format("%s has an invalid central directory of %d bytes at offset %d", name, directorySize, directoryOffset));
+        }
+
+        return parseCentralDirectory(read(directoryOffset, (int) directorySize), entryCount);
+    }
+
+    private int findEndOfCentralDirectory(ByteBuffer tail) {
+        for (var i = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; --i) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE && i + END_OF_CENTRAL_DIRECTORY_SIZE + getUnsignedShort(tail, i + 20) <= tail.limit()) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private List<ZipArchiveEntry> parseCentralDirectory(ByteBuffer directory, long entryCount) throws ZipException {
+        var result = new ArrayList<ZipArchiveEntry>((int) Math.min(entryCount, 1 << 16));
+        var position = 0;
+
+        for (var i = 0L; i < entryCount; ++i) {
+            if (position + CENTRAL_FILE_HEADER_SIZE > directory.limit() || directory.getInt(position) != CENTRAL_FILE_HEADER_SIGNATURE) {
+                throw new ZipException(String.format("%s has an invalid central directory header for entry %d", name, i));
+            }
+
+            var flags = getUnsignedShort(directory, position + 8);
+            var method = getUnsignedShort(directory, position + 10);
+            var crc = getUnsignedInt(directory, position + 16);
+            var compressedSize = getUnsignedInt(directory, position + 20);
+            var size = getUnsignedInt(directory, position + 24);
+            var nameLength = getUnsignedShort(directory, position + 28);
+            var extraLength = getUnsignedShort(directory, position + 30);
+            var commentLength = getUnsignedShort(directory, position + 32);
+            var offset = getUnsignedInt(directory, position + 42);
+            var nameStart = position + CENTRAL_FILE_HEADER_SIZE;
+            var extraStart = nameStart + nameLength;
+            var next = extraStart + extraLength + commentLength;
+
+            if (next > directory.limit()) {
+                throw new ZipException(String.format("%s has a truncated central directory header for entry %d", name, i));
+            }
+
+            var nameBytes = new byte[nameLength];
+            directory.position(nameStart);
+            directory.get(nameBytes);
+
+            // the sizes and offset that do not fit in 32 bits are in the zip64 extra field, in this order
+            if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || offset == ZIP64_MAGIC) {
+                var field = findExtraField(directory, extraStart, extraStart + extraLength, ZIP64_EXTRA_FIELD);
+
+                if (field >= 0) {
+                    var fieldEnd = field + 4 + getUnsignedShort(directory, field + 2);
+                    var value = field + 4;
+
+                    if (size == ZIP64_MAGIC && value + 8 <= fieldEnd) {
+                        size = directory.getLong(value);
+                        value += 8;
+                    }
+
+                    if (compressedSize == ZIP64_MAGIC && value + 8 <= fieldEnd) {
+                        compressedSize = directory.getLong(value);
+                        value += 8;
+                    }
+
+                    if (offset == ZIP64_MAGIC && value + 8 <= fieldEnd) {
+                        offset = directory.getLong(value);
+                    }
+                }
+            }
+
+            // like java.util.zip.ZipFile, names are read as UTF-8
+            var entryName = new String(nameBytes, StandardCharsets.UTF_8);
+            result.add(new ZipArchiveEntry(entryName, method, crc, compressedSize, size, offset, (flags & FLAG_ENCRYPTED) != 0));
+            position = next;
+        }
+
+        return result;
+    }
+
+    private int findExtraField(ByteBuffer directory, int start, int end, int id) {
+        var position = start;
+
+        while (position + 4 <= end) {
+            var length = getUnsignedShort(directory, position + 2);
+
+            if (position + 4 + length > end) {
+                return -1;
+            }
+
+            if (getUnsignedShort(directory, position) == id) {
+                return position;
+            }
+
+            position += 4 + length;
+        }
+
+        return -1;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            if (read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException(String.format("Unexpected end of %s at offset %d", name, position + buffer.position()));
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    private int read(ByteBuffer buffer, long position) throws IOException {
+        // positional reads do not change the position of the channel, so they can be done concurrently
+        if (channel instanceof FileChannel) {
+            return ((FileChannel) channel).read(buffer, position);
+        }
+
+        if (channel instanceof ConcatenatedFileChannel) {
+            return ((ConcatenatedFileChannel) channel).read(buffer, position);
+        }
+
+        synchronized (channel) {
+            channel.position(position);
+            return channel.read(buffer);
+        }
+    }
+
+    private static int getUnsignedShort(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    private static long getUnsignedInt(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Reads the compressed data of one entry from the channel.
+     */
+    private class EntryDataInputStream extends InputStream {
+        private long position;
+        private long remaining;
+
+        EntryDataInputStream(long position, long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            if (len == 0) {
+                return 0;
+            }
+
+            var n = ZipArchive.this.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+
+            if (n < 0) {
+                throw new EOFException(String.format("Unexpected end of %s at offset %d", name, position));
+            }
+
+            position += n;
+            remaining -= n;
+            return n;
+        }
+    }
+
+    /**
+     * Inflates raw deflate data, and releases the native memory of its inflater when it is closed.
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof = false;
+        private boolean closed = false;
+
+        EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), BUFFER_SIZE);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+
+            len = in.read(buf, 0, buf.length);
+
+            // like java.util.zip.ZipFile, the inflater gets one dummy byte after the data in case it needs it to finish
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                super.close();
+                inf.end();
+            }
+        }
+    }
+}
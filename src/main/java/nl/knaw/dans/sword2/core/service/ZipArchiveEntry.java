@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+/**
+ * An entry from the central directory of a zip file.
+ */
+public class ZipArchiveEntry {
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+    private final boolean encrypted;
+
+    public ZipArchiveEntry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset, boolean encrypted) {
+        this.name = name;
+        this.method = method;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localHeaderOffset = localHeaderOffset;
+        this.encrypted = encrypted;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the position of the local file header of the entry in the zip file
+     */
+    public long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+
+    public boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    @Override
+    public String toString() {
+        return "ZipArchiveEntry{" +
+            "name='" + name + '\'' +
+            ", method=" + method +
+            ", crc=" + crc +
+            ", compressedSize=" + compressedSize +
+            ", size=" + size +
+            ", localHeaderOffset=" + localHeaderOffset +
+            ", encrypted=" + encrypted +
+            '}';
+    }
+}
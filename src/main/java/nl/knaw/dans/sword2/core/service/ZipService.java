@@ -22,9 +22,54 @@ import java.util.Map;
 
 public interface ZipService {
 
+    /**
+     * Opens a zip file and reads its central directory, so that its entries can be inspected and extracted without reading it again.
+     *
+     * @param zipFile the zip file
+     * @return the archive, which must be closed by the caller
+     * @throws IOException if the file could not be read or is not a zip file
+     */
+    ZipArchive openZipFile(Path zipFile) throws IOException;
+
+    /**
+     * Opens a zip file that was uploaded in parts, reading the parts as if they were concatenated, without writing the zip file itself.
+     *
+     * @param parts the parts, in order
+     * @return the archive, which must be closed by the caller
+     * @throws IOException if a part could not be read or the parts together are not a zip file
+     */
+    ZipArchive openZipFile(List<Path> parts) throws IOException;
+
     void extractZipFileWithFileMapping(Path zipFile, Path targetPath, Map<String, String> fileMapping) throws IOException;
 
+    /**
+     * Extracts the files of a zip file, except for the first skipEntries files, which were extracted before. Files that already exist are replaced.
+     *
+     * @param zipFile     the zip file
+     * @param targetPath  the directory to extract to
+     * @param fileMapping the mapping from file names in the zip file to the paths to extract them to
+     * @param skipEntries the number of files to skip
+     * @param onExtracted called with the size of every extracted file
+     * @throws IOException if a file could not be extracted or the progress could not be recorded
+     */
+    void extractZipFileWithFileMapping(ZipArchive zipFile, Path targetPath, Map<String, String> fileMapping, long skipEntries, EntryListener onExtracted)
+        throws IOException;
+
+    /**
+     * Like {@link #extractZipFileWithFileMapping(ZipArchive, Path, Map, long, EntryListener)}, but also computes the checksums of the extracted files for the
+     * algorithms of checksums, while they are written.
+     *
+     * @param checksums the checksums to add the checksums of the extracted files to
+     */
+    void extractZipFileWithFileMapping(ZipArchive zipFile, Path targetPath, Map<String, String> fileMapping, long skipEntries, ExtractedChecksums checksums,
+        EntryListener onExtracted) throws IOException;
+
     List<String> getFilesInZip(Path zipFile) throws IOException;
 
     long getExtractedSize(Path zipFile) throws IOException;
+
+    @FunctionalInterface
+    interface EntryListener {
+        void extracted(long size) throws IOException;
+    }
 }
@@ -21,58 +21,286 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.zip.ZipException;
 
 @Singleton
 public class ZipServiceImpl implements ZipService {
     private static final Logger log = LoggerFactory.getLogger(ZipServiceImpl.class);
 
     private final FileService fileService;
+    private final ExecutorService extractionExecutor;
+    private final int extractionThreads;
 
     @Inject
     public ZipServiceImpl(FileService fileService) {
+        this(fileService, null, 1);
+    }
+
+    /**
+     * @param fileService        the file service
+     * @param extractionExecutor the executor that runs the workers that extract the files of a zip file; may be null if extractionThreads is 1
+     * @param extractionThreads  the number of workers to extract one zip file with; with 1, the files are extracted by the calling thread
+     */
+    public ZipServiceImpl(FileService fileService, ExecutorService extractionExecutor, int extractionThreads) {
         this.fileService = fileService;
+        this.extractionExecutor = extractionExecutor;
+        this.extractionThreads = extractionThreads;
+    }
+
+    @Override
+    public ZipArchive openZipFile(Path zipFile) throws IOException {
+        return ZipArchive.open(zipFile);
+    }
+
+    @Override
+    public ZipArchive openZipFile(List<Path> parts) throws IOException {
+        if (parts.isEmpty()) {
+            throw new ZipException("No parts to read the zip file from");
+        }
+
+        var name = String.format("%s and %d other parts", parts.get(0), parts.size() - 1);
+        var channel = ConcatenatedFileChannel.open(parts);
+
+        try {
+            return new ZipArchive(name, channel);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
     }
 
     @Override
     public void extractZipFileWithFileMapping(Path path, Path targetPath, Map<String, String> fileMapping) throws IOException {
-        var file = new ZipFile(path.toFile());
-        extractZipFileWithFileMapping(file, targetPath, fileMapping);
+        try (var zipFile = openZipFile(path)) {
+            extractZipFileWithFileMapping(zipFile, targetPath, fileMapping, 0, size -> {
+            });
+        }
     }
 
-    void extractZipFileWithFileMapping(ZipFile zipFile, Path targetPath, Map<String, String> fileMapping) {
+    @Override
+    public void extractZipFileWithFileMapping(ZipArchive zipFile, Path targetPath, Map<String, String> fileMapping, long skipEntries, EntryListener onExtracted)
+        throws IOException {
+        extractZipFileWithFileMapping(zipFile, targetPath, fileMapping, skipEntries, new ExtractedChecksums(), onExtracted);
+    }
 
-        zipFile.stream().filter(e -> !e.getName().endsWith("/")).forEach(entry -> {
-            var name = entry.getName();
-            var target = targetPath.resolve(Path.of(fileMapping.getOrDefault(name, name)));
+    @Override
+    public void extractZipFileWithFileMapping(ZipArchive zipFile, Path targetPath, Map<String, String> fileMapping, long skipEntries, ExtractedChecksums checksums,
+        EntryListener onExtracted) throws IOException {
+        var files = zipFile.getFiles().stream().skip(skipEntries).collect(Collectors.toList());
+        var targets = new ArrayList<Path>(files.size());
 
-            try {
-                log.trace("Extracting entry {} to target destination {}", entry.getName(), target);
-                fileService.copyFile(zipFile.getInputStream(entry), target);
+        // all targets are checked before anything is written, so that a zip file with a bad entry leaves nothing behind
+        for (var entry : files) {
+            targets.add(getTarget(targetPath, entry, fileMapping));
+        }
+
+        // created before the workers start, so that they do not race to create the same directories
+        for (var directory : targets.stream().map(Path::getParent).distinct().collect(Collectors.toList())) {
+            fileService.ensureDirectoriesExist(directory);
+        }
+
+        var extraction = new Extraction(zipFile, files, targets, checksums, onExtracted);
+        var workers = Math.min(extractionThreads, files.size());
+
+        if (extractionExecutor == null || workers <= 1) {
+            extraction.run();
+            return;
+        }
+
+        var futures = new ArrayList<Future<Void>>(workers);
+
+        for (var i = 0; i < workers; ++i) {
+            futures.add(extractionExecutor.submit(() -> {
+                extraction.run();
+                return null;
+            }));
+        }
+
+        extraction.await(futures);
+    }
+
+    Path getTarget(Path targetPath, ZipArchiveEntry entry, Map<String, String> fileMapping) throws ZipException {
+        var name = fileMapping.getOrDefault(entry.getName(), entry.getName());
+        var root = targetPath.normalize();
+        Path target;
+
+        try {
+            target = root.resolve(name).normalize();
+        }
+        catch (InvalidPathException e) {
+            throw new ZipException(String.format("Entry %s is not a valid path: %s", entry.getName(), e.getMessage()));
+        }
+
+        // an entry named like ../file or /file would otherwise be written outside the target directory (zip slip)
+        if (!target.startsWith(root) || target.equals(root)) {
+            throw new ZipException(String.format("Entry %s is outside the target directory", entry.getName()));
+        }
+
+        return target;
+    }
+
+    void extractFile(ZipArchive zipFile, ZipArchiveEntry entry, Path target, ExtractedChecksums checksums) throws IOException {
+        try {
+            log.trace("Extracting entry {} to target destination {}", entry.getName(), target);
+
+            // left behind by an attempt that was interrupted before it was recorded as extracted
+            if (fileService.exists(target)) {
+                fileService.deleteFile(target);
+            }
+
+            var digests = checksums.createDigests();
+            InputStream inputStream = zipFile.getInputStream(entry);
+
+            for (var digest : digests) {
+                inputStream = new DigestInputStream(inputStream, digest);
+            }
+
+            try (var digestingInputStream = inputStream) {
+                fileService.copyFile(digestingInputStream, target);
             }
-            catch (IOException e) {
-                log.error("Unable to copy entry {} to {}", entry.getName(), target, e);
+
+            if (!digests.isEmpty()) {
+                checksums.put(target, digests);
             }
-        });
+        }
+        catch (IOException e) {
+            log.error("Unable to copy entry {} to {}", entry.getName(), target, e);
+            throw e;
+        }
     }
 
     @Override
     public List<String> getFilesInZip(Path path) throws IOException {
-        return getFilesInZip(new ZipFile(path.toFile()));
+        try (var zipFile = openZipFile(path)) {
+            return zipFile.getFileNames();
+        }
     }
 
     @Override
-    public long getExtractedSize(Path zipFile) throws IOException {
-        var file = new ZipFile(zipFile.toFile());
-        return file.stream().map(ZipEntry::getSize).reduce(0L, Long::sum);
+    public long getExtractedSize(Path path) throws IOException {
+        try (var zipFile = openZipFile(path)) {
+            return zipFile.getExtractedSize();
+        }
     }
 
-    List<String> getFilesInZip(ZipFile zipFile) {
-        return zipFile.stream().map(ZipEntry::getName).filter(e -> !e.endsWith("/")).collect(Collectors.toList());
+    /**
+     * The extraction of the files of one zip file by one or more workers. The workers take the next file from a shared counter, so a worker that gets the
+     * small files extracts more of them. The listener is told about the extracted files in the order of the zip file, so that the number of reported files
+     * always covers a prefix of the files, even though the workers finish them out of order. After the first failure, the workers stop taking files.
+     */
+    private class Extraction {
+        private final ZipArchive zipFile;
+        private final List<ZipArchiveEntry> files;
+        private final List<Path> targets;
+        private final ExtractedChecksums checksums;
+        private final EntryListener onExtracted;
+        private final AtomicInteger nextFile = new AtomicInteger();
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final boolean[] extracted;
+        private int reported = 0;
+
+        Extraction(ZipArchive zipFile, List<ZipArchiveEntry> files, List<Path> targets, ExtractedChecksums checksums, EntryListener onExtracted) {
+            this.zipFile = zipFile;
+            this.files = files;
+            this.targets = targets;
+            this.checksums = checksums;
+            this.onExtracted = onExtracted;
+            this.extracted = new boolean[files.size()];
+        }
+
+        void run() throws IOException {
+            try {
+                int index;
+
+                while (!failed.get() && (index = nextFile.getAndIncrement()) < files.size()) {
+                    extractFile(zipFile, files.get(index), targets.get(index), checksums);
+                    report(index);
+                }
+            }
+            catch (IOException | RuntimeException | Error e) {
+                failed.set(true);
+                throw e;
+            }
+        }
+
+        private synchronized void report(int index) throws IOException {
+            extracted[index] = true;
+
+            while (reported < extracted.length && extracted[reported]) {
+                onExtracted.extracted(files.get(reported).getSize());
+                reported++;
+            }
+        }
+
+        /**
+         * Waits for all workers to stop and throws the first failure. The workers are not interrupted, because that would close the channel of the zip file;
+         * they stop after the file they are working on. An interrupt of the waiting thread makes them stop as well, but is only rethrown after they have, so
+         * that the caller does not close the zip file or clean up the target directory while they are still extracting into it.
+         */
+        void await(List<Future<Void>> futures) throws IOException {
+            Throwable failure = null;
+            var interrupted = false;
+
+            for (var future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    }
+                    catch (ExecutionException e) {
+                        if (failure == null) {
+                            failure = e.getCause();
+                        }
+                        break;
+                    }
+                    catch (InterruptedException e) {
+                        failed.set(true);
+                        interrupted = true;
+                    }
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+                var exception = new InterruptedIOException("Interrupted while extracting zip file");
+
+                if (failure != null) {
+                    exception.addSuppressed(failure);
+                }
+
+                throw exception;
+            }
+
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+
+            if (failure != null) {
+                throw new IOException("Unable to extract zip file", failure);
+            }
+        }
     }
 }
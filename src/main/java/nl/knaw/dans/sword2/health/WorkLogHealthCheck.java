@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.health;
+
+import com.codahale.metrics.health.HealthCheck;
+import nl.knaw.dans.sword2.core.finalizer.DepositWorkLog;
+
+public class WorkLogHealthCheck extends HealthCheck {
+
+    private final DepositWorkLog workLog;
+
+    public WorkLogHealthCheck(DepositWorkLog workLog) {
+        this.workLog = workLog;
+    }
+
+    @Override
+    protected Result check() throws Exception {
+        if (!workLog.isHealthy()) {
+            return Result.unhealthy("Work log cannot be written; %s outstanding deposits are not recorded on disk", workLog.getOutstandingCount());
+        }
+
+        return Result.healthy("Work log has %s outstanding deposits", workLog.getOutstandingCount());
+    }
+}
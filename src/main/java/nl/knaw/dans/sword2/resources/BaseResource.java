@@ -15,6 +15,7 @@
  */
 package nl.knaw.dans.sword2.resources;
 
+import nl.knaw.dans.sword2.core.Deposit;
 import nl.knaw.dans.sword2.core.config.UriRegistry;
 import nl.knaw.dans.sword2.core.exceptions.InvalidHeaderException;
 import nl.knaw.dans.sword2.core.service.ErrorResponseFactory;
@@ -22,10 +23,16 @@ import org.apache.commons.fileupload.ParameterParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
 
 public class BaseResource {
     private static final Logger log = LoggerFactory.getLogger(BaseResource.class);
@@ -50,6 +57,92 @@ public class BaseResource {
             .build();
     }
 
+    /**
+     * Returns 503 (Service Unavailable) with a Retry-After header, rounded up to whole seconds.
+     *
+     * @param retryAfter the time after which the client may try again
+     * @return the response
+     */
+    Response buildServiceUnavailableResponse(Duration retryAfter) {
+        var seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+            .header("Retry-After", seconds)
+            .build();
+    }
+
+    /**
+     * Returns a strong entity tag for the current version of the deposit, or <code>null</code> if the version is not known.
+     *
+     * @param deposit the deposit
+     * @return the entity tag
+     */
+    EntityTag getEntityTag(Deposit deposit) {
+        if (deposit.getVersion() == null) {
+            return null;
+        }
+
+        return new EntityTag(deposit.getVersion() + "-" + deposit.getState());
+    }
+
+    Date getLastModified(Deposit deposit) {
+        if (deposit.getLastModified() == null) {
+            return null;
+        }
+
+        // HTTP dates have a resolution of one second
+        return Date.from(deposit.getLastModified().truncatedTo(ChronoUnit.SECONDS));
+    }
+
+    /**
+     * Evaluates the conditional request headers against the current version of the deposit.
+     *
+     * @param request the request
+     * @param deposit the deposit
+     * @return a response builder for 304 (Not Modified) or 412 (Precondition Failed) if the preconditions are met, <code>null</code> if the representation
+     * must be sent
+     */
+    Response.ResponseBuilder evaluatePreconditions(Request request, Deposit deposit) {
+        var entityTag = getEntityTag(deposit);
+        var lastModified = getLastModified(deposit);
+
+        // If-Modified-Since cannot tell apart changes within the same second, so only trust it for deposits that were not changed in the last second
+        if (lastModified != null && Duration.between(deposit.getLastModified(), Instant.now()).compareTo(Duration.ofSeconds(1)) < 0) {
+            lastModified = null;
+        }
+
+        Response.ResponseBuilder builder = null;
+
+        if (entityTag != null && lastModified != null) {
+            builder = request.evaluatePreconditions(lastModified, entityTag);
+        }
+        else if (entityTag != null) {
+            builder = request.evaluatePreconditions(entityTag);
+        }
+
+        if (builder != null) {
+            log.debug("Representation of deposit {} has not changed", deposit.getId());
+            setValidators(builder, deposit);
+        }
+
+        return builder;
+    }
+
+    Response.ResponseBuilder setValidators(Response.ResponseBuilder builder, Deposit deposit) {
+        var entityTag = getEntityTag(deposit);
+        var lastModified = getLastModified(deposit);
+
+        if (entityTag != null) {
+            builder.tag(entityTag);
+        }
+
+        if (lastModified != null) {
+            return builder.lastModified(lastModified);
+        }
+
+        return builder.header("Last-Modified", formatDateTime(OffsetDateTime.now()));
+    }
+
     String formatDateTime(OffsetDateTime dateTime) {
         return dateTime.format(dateTimeFormatter);
     }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.resources;
+
+import nl.knaw.dans.sword2.api.entry.Link;
+import nl.knaw.dans.sword2.api.error.Generator;
+import nl.knaw.dans.sword2.api.statement.FeedEntry;
+import nl.knaw.dans.sword2.api.statement.TextElement;
+import nl.knaw.dans.sword2.core.Deposit;
+
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * Writes one page of a collection feed while its deposits are being read, so that a large page is never held in memory as a whole. The feed element is written
+ * directly; the elements inside it are marshalled one by one as fragments. If there are more deposits than fit on the page, a link to the next page is added at
+ * the end.
+ */
+class CollectionFeedWriter implements StreamingOutput {
+    private static final String ATOM_NAMESPACE = "http://www.w3.org/2005/Atom";
+    private static final JAXBContext context = createContext();
+
+    private final URI feedUrl;
+    private final String title;
+    private final Iterator<Deposit> deposits;
+    private final int pageSize;
+    private final Function<Deposit, FeedEntry> entryFactory;
+    private final Function<Deposit, URI> nextPageUrlFactory;
+
+    CollectionFeedWriter(URI feedUrl, String title, Iterator<Deposit> deposits, int pageSize, Function<Deposit, FeedEntry> entryFactory,
+        Function<Deposit, URI> nextPageUrlFactory) {
+        this.feedUrl = feedUrl;
+        this.title = title;
+        this.deposits = deposits;
+        this.pageSize = pageSize;
+        this.entryFactory = entryFactory;
+        this.nextPageUrlFactory = nextPageUrlFactory;
+    }
+
+    private static JAXBContext createContext() {
+        try {
+            return JAXBContext.newInstance(FeedEntry.class, Link.class, Generator.class, TextElement.class);
+        }
+        catch (JAXBException e) {
+            throw new IllegalStateException("Unable to create JAXB context for collection feeds", e);
+        }
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        try {
+            var marshaller = context.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+
+            var writer = XMLOutputFactory.newFactory().createXMLStreamWriter(outputStream, StandardCharsets.UTF_8.name());
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            writer.setDefaultNamespace(ATOM_NAMESPACE);
+            writer.writeStartElement(ATOM_NAMESPACE, "feed");
+            writer.writeDefaultNamespace(ATOM_NAMESPACE);
+
+            writer.writeStartElement(ATOM_NAMESPACE, "id");
+            writer.writeCharacters(feedUrl.toString());
+            writer.writeEndElement();
+
+            marshaller.marshal(new TextElement(title, "text"), writer);
+            marshaller.marshal(new Generator(URI.create("http://www.swordapp.org/"), "2.0"), writer);
+            marshaller.marshal(new Link(feedUrl, "self", null), writer);
+
+            Deposit last = null;
+            var count = 0;
+
+            while (count < pageSize && deposits.hasNext()) {
+                last = deposits.next();
+                marshaller.marshal(entryFactory.apply(last), writer);
+                count++;
+            }
+
+            if (last != null && deposits.hasNext()) {
+                marshaller.marshal(new Link(nextPageUrlFactory.apply(last), "next", null), writer);
+            }
+
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+        }
+        catch (XMLStreamException | JAXBException e) {
+            throw new IOException("Unable to write collection feed", e);
+        }
+    }
+}
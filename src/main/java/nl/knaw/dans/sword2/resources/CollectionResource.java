@@ -17,28 +17,36 @@ package nl.knaw.dans.sword2.resources;
 
 import io.dropwizard.auth.Auth;
 import nl.knaw.dans.sword2.core.auth.Depositor;
-import nl.knaw.dans.sword2.api.statement.Feed;
 import org.glassfish.jersey.media.multipart.MultiPart;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.InputStream;
+import java.util.List;
 
 @Path("/collection/{id}")
 public interface CollectionResource {
 
     @GET
     @Produces(MediaType.APPLICATION_XML)
-    Feed getCollection(@Context HttpHeaders headers, @Auth Depositor depositor);
-
+    Response getCollection(@PathParam("id") String collectionId,
+        @QueryParam("state") List<String> states,
+        @QueryParam("updatedSince") String updatedSince,
+        @QueryParam("cursor") String cursor,
+        @QueryParam("pageSize") @DefaultValue("100") int pageSize,
+        @Context HttpHeaders headers,
+        @Auth Depositor depositor
+    );
 
     @POST
     @Consumes("multipart/*")
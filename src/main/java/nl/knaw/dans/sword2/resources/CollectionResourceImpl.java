@@ -15,12 +15,16 @@
  */
 package nl.knaw.dans.sword2.resources;
 
-import nl.knaw.dans.sword2.api.error.Generator;
-import nl.knaw.dans.sword2.api.statement.Feed;
+import nl.knaw.dans.sword2.api.entry.Link;
+import nl.knaw.dans.sword2.api.statement.FeedCategory;
 import nl.knaw.dans.sword2.api.statement.FeedEntry;
+import nl.knaw.dans.sword2.api.statement.TextElement;
+import nl.knaw.dans.sword2.core.Deposit;
+import nl.knaw.dans.sword2.core.DepositState;
 import nl.knaw.dans.sword2.core.auth.Depositor;
 import nl.knaw.dans.sword2.core.config.UriRegistry;
 import nl.knaw.dans.sword2.core.exceptions.CollectionNotFoundException;
+import nl.knaw.dans.sword2.core.exceptions.FinalizerQueueFullException;
 import nl.knaw.dans.sword2.core.exceptions.HashMismatchException;
 import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
 import nl.knaw.dans.sword2.core.exceptions.InvalidHeaderException;
@@ -29,33 +33,121 @@ import nl.knaw.dans.sword2.core.service.DepositHandler;
 import nl.knaw.dans.sword2.core.service.DepositReceiptFactory;
 import nl.knaw.dans.sword2.core.service.ErrorResponseFactory;
 import org.glassfish.jersey.media.multipart.MultiPart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 public class CollectionResourceImpl extends BaseResource implements CollectionResource {
 
+    private static final Logger log = LoggerFactory.getLogger(CollectionResourceImpl.class);
+
+    private final URI baseUrl;
     private final DepositHandler depositHandler;
     private final DepositReceiptFactory depositReceiptFactory;
+    private final int maxPageSize;
 
-    public CollectionResourceImpl(DepositHandler depositHandler, DepositReceiptFactory depositReceiptFactory, ErrorResponseFactory errorResponseFactory) {
+    public CollectionResourceImpl(URI baseUrl, DepositHandler depositHandler, DepositReceiptFactory depositReceiptFactory, int maxPageSize,
+        ErrorResponseFactory errorResponseFactory) {
         super(errorResponseFactory);
+        this.baseUrl = baseUrl;
         this.depositHandler = depositHandler;
         this.depositReceiptFactory = depositReceiptFactory;
+        this.maxPageSize = maxPageSize;
     }
 
     @Override
-    public Feed getCollection(HttpHeaders headers, Depositor depositor) {
-        var feed = new Feed();
-        feed.setGenerator(new Generator(URI.create("http://www.swordapp.org/"), "2.0"));
-        feed.setEntries(List.of(new FeedEntry()));
+    public Response getCollection(String collectionId, List<String> states, String updatedSince, String cursor, int pageSize, HttpHeaders headers,
+        Depositor depositor) {
+        log.info("Received getCollection request for collection {} and user {}", collectionId, depositor.getName());
+
+        try {
+            var stateFilter = parseStates(states);
+            var since = updatedSince == null ? null : OffsetDateTime.parse(updatedSince).toInstant();
+            var limit = Math.max(1, Math.min(pageSize, maxPageSize));
+
+            // the deposits are listed from the deposit index and only read while the feed is written
+            var deposits = depositHandler.getDeposits(collectionId, depositor, cursor, stateFilter, since);
+
+            var collectionUrl = baseUrl.resolve("collection/" + collectionId);
+            var output = new CollectionFeedWriter(collectionUrl, String.format("Collection %s", collectionId), deposits.iterator(), limit,
+                this::createEntry, last -> getNextPageUrl(collectionUrl, states, updatedSince, limit, last.getId()));
+
+            return Response.ok(output, MediaType.APPLICATION_XML_TYPE).build();
+        }
+        catch (IllegalArgumentException | DateTimeParseException e) {
+            return buildSwordErrorResponse(UriRegistry.ERROR_BAD_REQUEST, e.getMessage());
+        }
+        catch (CollectionNotFoundException e) {
+            log.error("Collection {} could not be found", collectionId, e);
+            throw new WebApplicationException(404);
+        }
+    }
+
+    Set<DepositState> parseStates(List<String> states) {
+        var result = EnumSet.noneOf(DepositState.class);
+
+        if (states != null) {
+            for (var state : states) {
+                result.add(DepositState.valueOf(state));
+            }
+        }
+
+        return result;
+    }
+
+    URI getNextPageUrl(URI collectionUrl, List<String> states, String updatedSince, int pageSize, String cursor) {
+        var query = new StringBuilder();
+
+        if (states != null) {
+            for (var state : states) {
+                query.append("state=").append(encode(state)).append('&');
+            }
+        }
+
+        if (updatedSince != null) {
+            query.append("updatedSince=").append(encode(updatedSince)).append('&');
+        }
+
+        query.append("pageSize=").append(pageSize).append("&cursor=").append(encode(cursor));
+        return URI.create(collectionUrl + "?" + query);
+    }
 
-        return feed;
+    private String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private FeedEntry createEntry(Deposit deposit) {
+        var statementUri = baseUrl.resolve("statement/" + deposit.getId());
+        var editUri = baseUrl.resolve("container/" + deposit.getId());
+
+        var entry = new FeedEntry();
+        entry.setId(statementUri.toString());
+        entry.setTitle(new TextElement(String.format("Deposit %s", deposit.getId()), "text"));
+
+        if (deposit.getLastModified() != null) {
+            entry.setUpdated(deposit.getLastModified().toString());
+        }
+
+        entry.addLink(new Link(editUri, "edit", null));
+        entry.addLink(new Link(statementUri, UriRegistry.REL_STATEMENT, "application/atom+xml;type=feed"));
+        entry.setCategory(new FeedCategory("State", "http://purl.org/net/sword/terms/state",
+            deposit.getState() == null ? null : deposit.getState().toString(), deposit.getStateDescription()));
+
+        return entry;
     }
 
     @Override
@@ -109,5 +201,9 @@ public class CollectionResourceImpl extends BaseResource implements CollectionRe
         catch (NotEnoughDiskSpaceException e) {
             throw new WebApplicationException(503);
         }
+        catch (FinalizerQueueFullException e) {
+            log.warn("The deposit could not be accepted because the finalizer queue is full");
+            return buildServiceUnavailableResponse(e.getRetryAfter());
+        }
     }
 }
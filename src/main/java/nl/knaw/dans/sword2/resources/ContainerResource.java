@@ -27,6 +27,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import java.io.InputStream;
 
@@ -34,10 +35,10 @@ import java.io.InputStream;
 public interface ContainerResource {
     @GET
     @Produces(MediaType.APPLICATION_XML)
-    Response getDepositReceipt(@PathParam("id") String depositId, @Context HttpHeaders headers, @Auth Depositor depositor);
+    Response getDepositReceipt(@PathParam("id") String depositId, @Context HttpHeaders headers, @Context Request request, @Auth Depositor depositor);
 
     @HEAD
-    Response getDepositReceiptHead(@PathParam("id") String depositId, @Context HttpHeaders headers, @Auth Depositor depositor);
+    Response getDepositReceiptHead(@PathParam("id") String depositId, @Context HttpHeaders headers, @Context Request request, @Auth Depositor depositor);
 
     @POST
     @Produces(MediaType.APPLICATION_XML)
@@ -20,6 +20,7 @@ import nl.knaw.dans.sword2.core.auth.Depositor;
 import nl.knaw.dans.sword2.core.exceptions.CollectionNotFoundException;
 import nl.knaw.dans.sword2.core.exceptions.DepositNotFoundException;
 import nl.knaw.dans.sword2.core.exceptions.DepositReadOnlyException;
+import nl.knaw.dans.sword2.core.exceptions.FinalizerQueueFullException;
 import nl.knaw.dans.sword2.core.exceptions.HashMismatchException;
 import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
 import nl.knaw.dans.sword2.core.exceptions.InvalidHeaderException;
@@ -32,6 +33,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.io.InputStream;
@@ -52,18 +54,25 @@ public class ContainerResourceImpl extends BaseResource implements ContainerReso
     }
 
     @Override
-    public Response getDepositReceipt(String depositId, HttpHeaders headers, Depositor depositor) {
+    public Response getDepositReceipt(String depositId, HttpHeaders headers, Request request, Depositor depositor) {
         log.info("Received getDepositReceipt request for deposit with ID {} and user {}", depositId, depositor.getName());
 
         try {
             var deposit = depositHandler.getDeposit(depositId, depositor);
-            var entry = depositReceiptFactory.createDepositReceipt(deposit);
             var location = depositReceiptFactory.getDepositLocation(deposit);
+            var notModified = evaluatePreconditions(request, deposit);
 
-            return Response.status(Response.Status.OK)
+            if (notModified != null) {
+                return notModified
+                    .header("Location", location)
+                    .build();
+            }
+
+            var entry = depositReceiptFactory.createDepositReceipt(deposit);
+
+            return setValidators(Response.status(Response.Status.OK), deposit)
                 .header("Location", location)
                 .header("Content-Type", "application/atom+xml;type=entry")
-                .header("Last-Modified", OffsetDateTime.now().format(dateTimeFormatter))
                 .entity(entry)
                 .build();
 
@@ -79,17 +88,23 @@ public class ContainerResourceImpl extends BaseResource implements ContainerReso
     }
 
     @Override
-    public Response getDepositReceiptHead(String depositId, HttpHeaders headers, Depositor depositor) {
+    public Response getDepositReceiptHead(String depositId, HttpHeaders headers, Request request, Depositor depositor) {
         log.info("Received getDepositReceiptHead request for deposit with ID {} and user {}", depositId, depositor.getName());
 
         try {
             var deposit = depositHandler.getDeposit(depositId, depositor);
             var location = depositReceiptFactory.getDepositLocation(deposit);
+            var notModified = evaluatePreconditions(request, deposit);
 
-            return Response.status(Response.Status.OK)
+            if (notModified != null) {
+                return notModified
+                    .header("Location", location)
+                    .build();
+            }
+
+            return setValidators(Response.status(Response.Status.OK), deposit)
                 .header("Location", location)
                 .header("Content-Type", "application/atom+xml;type=entry")
-                .header("Last-Modified", OffsetDateTime.now().format(dateTimeFormatter))
                 .build();
 
         }
@@ -149,6 +164,10 @@ public class ContainerResourceImpl extends BaseResource implements ContainerReso
             log.error("The content could not be stored due to insufficient disk space, for deposit with ID {}", depositId, e);
             throw new WebApplicationException(e, 503);
         }
+        catch (FinalizerQueueFullException e) {
+            log.warn("The deposit could not be accepted because the finalizer queue is full");
+            return buildServiceUnavailableResponse(e.getRetryAfter());
+        }
         catch (DepositNotFoundException e) {
             log.error("Deposit with ID {} could not be found", depositId, e);
             throw new WebApplicationException(e, 404);
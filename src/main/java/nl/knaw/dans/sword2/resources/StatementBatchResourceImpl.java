@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.resources;
+
+import nl.knaw.dans.sword2.api.entry.Link;
+import nl.knaw.dans.sword2.api.statement.Feed;
+import nl.knaw.dans.sword2.api.statement.FeedAuthor;
+import nl.knaw.dans.sword2.api.statement.FeedCategory;
+import nl.knaw.dans.sword2.api.statement.FeedEntry;
+import nl.knaw.dans.sword2.api.statement.TextElement;
+import nl.knaw.dans.sword2.core.DepositState;
+import nl.knaw.dans.sword2.core.auth.Depositor;
+import nl.knaw.dans.sword2.core.config.UriRegistry;
+import nl.knaw.dans.sword2.core.exceptions.DepositNotFoundException;
+import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
+import nl.knaw.dans.sword2.core.service.DepositHandler;
+import nl.knaw.dans.sword2.core.service.ErrorResponseFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.stream.Collectors;
+
+/**
+ * Returns the states of several deposits in one feed, for clients that track many deposits at the same time. The request body contains the deposit ids,
+ * separated by whitespace. The feed has one entry per deposit, with the same state category as the statement of that deposit. Ids of deposits that do not exist
+ * or belong to another depositor are left out, and so are ids that could not be read because of an unexpected error.
+ */
+public class StatementBatchResourceImpl extends BaseResource implements StatementBatchResource {
+    private static final Logger log = LoggerFactory.getLogger(StatementBatchResourceImpl.class);
+
+    private final URI baseUrl;
+    private final DepositHandler depositHandler;
+    private final int maxBatchSize;
+
+    public StatementBatchResourceImpl(URI baseUrl, DepositHandler depositHandler, int maxBatchSize, ErrorResponseFactory errorResponseFactory) {
+        super(errorResponseFactory);
+        this.baseUrl = baseUrl;
+        this.depositHandler = depositHandler;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public Response getStatements(String depositIds, Depositor depositor) {
+        var ids = parseDepositIds(depositIds);
+        log.info("Received getStatements request for {} deposits and user {}", ids.size(), depositor.getName());
+
+        if (ids.size() > maxBatchSize) {
+            log.warn("Request for {} deposits exceeds the maximum of {}", ids.size(), maxBatchSize);
+            return buildSwordErrorResponse(UriRegistry.ERROR_BAD_REQUEST, String.format("At most %d deposit ids are allowed per request", maxBatchSize));
+        }
+
+        var url = baseUrl.resolve("/statements").toString();
+        var feed = new Feed();
+        feed.setId(url);
+        feed.setTitle(new TextElement("Deposits", "text"));
+        feed.addLink(new Link(URI.create(url), "self", null));
+        feed.getAuthors().add(new FeedAuthor("DANS-EASY"));
+
+        for (var depositId : ids) {
+            try {
+                var deposit = depositHandler.getDeposit(depositId, depositor);
+                feed.addEntry(createEntry(depositId, deposit.getState().toString(), deposit.getStateDescription()));
+            }
+            catch (InvalidDepositException e) {
+                log.error("Deposit with id {} is invalid", depositId, e);
+                feed.addEntry(createEntry(depositId, DepositState.INVALID.toString(), e.getMessage()));
+            }
+            catch (DepositNotFoundException e) {
+                log.debug("Deposit with id {} could not be found", depositId);
+            }
+            catch (RuntimeException e) {
+                // one unreadable deposit must not fail the statements of all the others
+                log.error("Unable to get state of deposit with id {}", depositId, e);
+            }
+        }
+
+        return Response.status(Response.Status.OK)
+            .entity(feed)
+            .build();
+    }
+
+    LinkedHashSet<String> parseDepositIds(String depositIds) {
+        if (depositIds == null) {
+            return new LinkedHashSet<>();
+        }
+
+        return Arrays.stream(depositIds.split("\\s+"))
+            .filter(id -> !id.isEmpty())
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    private FeedEntry createEntry(String depositId, String state, String stateDescription) {
+        var entry = new FeedEntry();
+        entry.setId(baseUrl.resolve("/statement/" + depositId).toString());
+        entry.setTitle(new TextElement(String.format("Deposit %s", depositId), "text"));
+        entry.setCategory(new FeedCategory("State", "http://purl.org/net/sword/terms/state", state, stateDescription));
+
+        return entry;
+    }
+}
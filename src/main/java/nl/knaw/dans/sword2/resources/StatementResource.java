@@ -18,20 +18,23 @@ package nl.knaw.dans.sword2.resources;
 import io.dropwizard.auth.Auth;
 import nl.knaw.dans.sword2.core.auth.Depositor;
 
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Request;
 
 @Path("/statement/{id}")
 public interface StatementResource {
     @GET
     @Produces(MediaType.APPLICATION_XML)
-    Response getStatement(@PathParam("id") String depositId, @Context HttpHeaders headers, @Auth Depositor depositor);
-
-
+    void getStatement(@PathParam("id") String depositId, @QueryParam("wait") @DefaultValue("0") int waitSeconds, @Context HttpHeaders headers,
+        @Context Request request, @Auth Depositor depositor, @Suspended AsyncResponse asyncResponse);
 }
@@ -20,67 +20,167 @@ import nl.knaw.dans.sword2.api.statement.Feed;
 import nl.knaw.dans.sword2.api.statement.FeedAuthor;
 import nl.knaw.dans.sword2.api.statement.FeedCategory;
 import nl.knaw.dans.sword2.api.statement.TextElement;
+import nl.knaw.dans.sword2.core.Deposit;
 import nl.knaw.dans.sword2.core.auth.Depositor;
 import nl.knaw.dans.sword2.core.DepositState;
 import nl.knaw.dans.sword2.core.exceptions.DepositNotFoundException;
 import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
 import nl.knaw.dans.sword2.core.service.DepositHandler;
+import nl.knaw.dans.sword2.core.service.DepositStateNotifier;
 import nl.knaw.dans.sword2.core.service.ErrorResponseFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public class StatementResourceImpl extends BaseResource implements StatementResource {
     private static final Logger log = LoggerFactory.getLogger(StatementResourceImpl.class);
 
     private final URI baseUrl;
     private final DepositHandler depositHandler;
+    private final DepositStateNotifier depositStateNotifier;
+    private final Duration maxWait;
+    private final Executor executor;
 
-    public StatementResourceImpl(URI baseUrl, DepositHandler depositHandler, ErrorResponseFactory errorResponseFactory) {
+    public StatementResourceImpl(URI baseUrl, DepositHandler depositHandler, DepositStateNotifier depositStateNotifier, Duration maxWait, Executor executor,
+        ErrorResponseFactory errorResponseFactory) {
         super(errorResponseFactory);
         this.baseUrl = baseUrl;
         this.depositHandler = depositHandler;
+        this.depositStateNotifier = depositStateNotifier;
+        this.maxWait = maxWait;
+        this.executor = executor;
     }
 
     @Override
-    public Response getStatement(String depositId, HttpHeaders headers, Depositor depositor) {
+    public void getStatement(String depositId, int waitSeconds, HttpHeaders headers, Request request, Depositor depositor, AsyncResponse asyncResponse) {
         log.info("Received getStatement request for deposit with ID {} and user {}", depositId, depositor.getName());
 
-        var url = baseUrl.resolve("/statement/" + depositId).toString();
-        var feed = new Feed();
-        feed.setId(url);
-        feed.setTitle(new TextElement(String.format("Deposit %s", depositId), "text"));
-        feed.addLink(new Link(URI.create(url), "self", null));
-        feed.getAuthors().add(new FeedAuthor("DANS-EASY"));
+        var wait = getWait(waitSeconds);
+
+        // start listening before reading the deposit, so that a change in between is not missed
+        var change = wait.isZero() ? null : depositStateNotifier.awaitChange(depositId);
 
         try {
             var deposit = depositHandler.getDeposit(depositId, depositor);
 
-            feed.setUpdated(deposit.getCreated().toString());
-            feed.setCategory(new FeedCategory("State", "http://purl.org/net/sword/terms/state",
-                deposit.getState().toString(), deposit.getStateDescription()));
+            // most clients poll for changes, so answer conditional requests before building the feed
+            var notModified = evaluatePreconditions(request, deposit);
+
+            if (notModified == null) {
+                cancel(change);
+                asyncResponse.resume(buildStatementResponse(deposit));
+                return;
+            }
+
+            var response = notModified.build();
 
-            return Response.status(Response.Status.OK)
-                .entity(feed)
-                .build();
+            if (change == null || response.getStatus() != Response.Status.NOT_MODIFIED.getStatusCode()) {
+                cancel(change);
+                asyncResponse.resume(response);
+                return;
+            }
+
+            // the client already has the current version, so hold the response until the deposit changes or the wait time is over
+            var entityTag = getEntityTag(deposit);
+            log.debug("Waiting at most {} for a change of deposit {}", wait, depositId);
+
+            change.orTimeout(wait.toMillis(), TimeUnit.MILLISECONDS)
+                .whenCompleteAsync((changedDeposit, e) -> resumeAfterWait(asyncResponse, depositId, depositor, entityTag), executor);
         }
         catch (InvalidDepositException e) {
-            feed.setCategory(new FeedCategory("State", "http://purl.org/net/sword/terms/state",
-                DepositState.INVALID.toString(), e.getMessage()));
-
+            cancel(change);
             log.error("Deposit with id {} is invalid", depositId, e);
-
-            return Response.status(Response.Status.OK)
-                .entity(feed)
-                .build();
+            asyncResponse.resume(buildInvalidResponse(depositId, e));
         }
         catch (DepositNotFoundException e) {
+            cancel(change);
             log.error("Deposit with id {} could not be found", depositId, e);
             throw new WebApplicationException(404);
         }
     }
+
+    void resumeAfterWait(AsyncResponse asyncResponse, String depositId, Depositor depositor, EntityTag entityTag) {
+        try {
+            // the deposit may also have been changed by another process, which does not notify us, so compare it with the version the client has
+            var deposit = depositHandler.getDeposit(depositId, depositor);
+
+            if (entityTag != null && entityTag.equals(getEntityTag(deposit))) {
+                log.debug("Deposit {} has not changed while waiting", depositId);
+                asyncResponse.resume(setValidators(Response.status(Response.Status.NOT_MODIFIED), deposit).build());
+            }
+            else {
+                asyncResponse.resume(buildStatementResponse(deposit));
+            }
+        }
+        catch (InvalidDepositException e) {
+            log.error("Deposit with id {} is invalid", depositId, e);
+            asyncResponse.resume(buildInvalidResponse(depositId, e));
+        }
+        catch (DepositNotFoundException e) {
+            log.error("Deposit with id {} could not be found", depositId, e);
+            asyncResponse.resume(new WebApplicationException(404));
+        }
+        catch (RuntimeException e) {
+            log.error("Error getting statement for deposit with id {}", depositId, e);
+            asyncResponse.resume(e);
+        }
+    }
+
+    Duration getWait(int waitSeconds) {
+        if (waitSeconds <= 0) {
+            return Duration.ZERO;
+        }
+
+        var wait = Duration.ofSeconds(waitSeconds);
+        return wait.compareTo(maxWait) > 0 ? maxWait : wait;
+    }
+
+    private void cancel(CompletableFuture<?> change) {
+        if (change != null) {
+            change.cancel(false);
+        }
+    }
+
+    private Response buildStatementResponse(Deposit deposit) {
+        var feed = createFeed(deposit.getId());
+        feed.setUpdated(deposit.getCreated().toString());
+        feed.setCategory(new FeedCategory("State", "http://purl.org/net/sword/terms/state",
+            deposit.getState().toString(), deposit.getStateDescription()));
+
+        return setValidators(Response.status(Response.Status.OK), deposit)
+            .entity(feed)
+            .build();
+    }
+
+    private Response buildInvalidResponse(String depositId, InvalidDepositException e) {
+        var feed = createFeed(depositId);
+        feed.setCategory(new FeedCategory("State", "http://purl.org/net/sword/terms/state",
+            DepositState.INVALID.toString(), e.getMessage()));
+
+        return Response.status(Response.Status.OK)
+            .entity(feed)
+            .build();
+    }
+
+    Feed createFeed(String depositId) {
+        var url = baseUrl.resolve("/statement/" + depositId).toString();
+        var feed = new Feed();
+        feed.setId(url);
+        feed.setTitle(new TextElement(String.format("Deposit %s", depositId), "text"));
+        feed.addLink(new Link(URI.create(url), "self", null));
+        feed.getAuthors().add(new FeedAuthor("DANS-EASY"));
+
+        return feed;
+    }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepositFinalizationPipelineTest {
+
+    @Test
+    void run_should_run_stage_on_its_own_pool() throws Throwable {
+        var pipeline = new DepositFinalizationPipeline(Map.of(DepositFinalizationStage.VERIFY, 2), 10);
+
+        try {
+            var threadName = pipeline.run(DepositFinalizationStage.VERIFY, () -> Thread.currentThread().getName());
+
+            assertEquals("finalization-verify-0", threadName);
+        }
+        finally {
+            pipeline.stop();
+        }
+    }
+
+    @Test
+    void run_should_rethrow_exception_of_stage() throws Exception {
+        var pipeline = new DepositFinalizationPipeline(Map.of(), 10);
+
+        try {
+            var e = assertThrows(IOException.class, () -> pipeline.run(DepositFinalizationStage.EXTRACT, () -> {
+                throw new IOException("disk error");
+            }));
+
+            assertEquals("disk error", e.getMessage());
+        }
+        finally {
+            pipeline.stop();
+        }
+    }
+
+    @Test
+    void run_should_use_calling_thread_without_pools() throws Throwable {
+        var pipeline = new DepositFinalizationPipeline();
+        var caller = Thread.currentThread().getName();
+
+        assertEquals(caller, pipeline.run(DepositFinalizationStage.MERGE, () -> Thread.currentThread().getName()));
+    }
+
+    @Test
+    void runMetered_should_count_progress_of_running_task() throws Throwable {
+        var pipeline = new DepositFinalizationPipeline(Map.of(), 10);
+        var reported = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        try {
+            var worker = new Thread(() -> {
+                try {
+                    pipeline.runMetered(DepositFinalizationStage.EXTRACT, processed -> {
+                        processed.accept(100);
+                        reported.countDown();
+                        return release.await(5, TimeUnit.SECONDS);
+                    });
+                }
+                catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            worker.start();
+
+            assertTrue(reported.await(5, TimeUnit.SECONDS));
+            assertEquals(100, pipeline.getProcessedBytes(DepositFinalizationStage.EXTRACT));
+
+            var time = pipeline.getProcessingTime(DepositFinalizationStage.EXTRACT);
+            Thread.sleep(10);
+            assertTrue(pipeline.getProcessingTime(DepositFinalizationStage.EXTRACT) > time);
+
+            release.countDown();
+            worker.join();
+        }
+        finally {
+            pipeline.stop();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import nl.knaw.dans.sword2.core.config.FinalizerAdmissionConfig;
+import nl.knaw.dans.sword2.core.exceptions.FinalizerQueueFullException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepositFinalizerAdmissionTest {
+
+    FinalizerAdmissionConfig createConfig(boolean overflow) {
+        var config = new FinalizerAdmissionConfig();
+        config.setOfferTimeout(Duration.ofMillis(10));
+        config.setRejectThresholdPercentage(50);
+        config.setOverflow(overflow);
+        config.setMaxRetryAfter(Duration.ofMinutes(2));
+        return config;
+    }
+
+    @Test
+    void checkCapacity_should_reject_when_queue_is_above_threshold() throws Exception {
+        var queue = new DepositFinalizerQueue(4);
+        var admission = new DepositFinalizerAdmission(queue, new DepositFinalizerRescheduler(queue, Duration.ofSeconds(30)), new NoOpDepositWorkLog(),
+            createConfig(false));
+
+        queue.put(new DepositFinalizerEvent("id1"));
+        assertDoesNotThrow(admission::checkCapacity);
+
+        queue.put(new DepositFinalizerEvent("id2"));
+        var e = assertThrows(FinalizerQueueFullException.class, admission::checkCapacity);
+
+        // nothing has been taken from the queue yet, so there is no estimate
+        assertEquals(Duration.ofMinutes(2), e.getRetryAfter());
+        assertEquals(1, admission.getRejectedCount());
+    }
+
+    @Test
+    void checkCapacity_should_accept_when_overflow_is_enabled() throws Exception {
+        var queue = new DepositFinalizerQueue(1);
+        var admission = new DepositFinalizerAdmission(queue, new DepositFinalizerRescheduler(queue, Duration.ofSeconds(30)), new NoOpDepositWorkLog(),
+            createConfig(true));
+
+        queue.put(new DepositFinalizerEvent("id1"));
+        assertDoesNotThrow(admission::checkCapacity);
+    }
+
+    @Test
+    void submit_should_hand_deposit_to_rescheduler_if_queue_is_full() {
+        var queue = new DepositFinalizerQueue(1);
+        var rescheduler = new DepositFinalizerRescheduler(queue, Duration.ofSeconds(30));
+        var admission = new DepositFinalizerAdmission(queue, rescheduler, new NoOpDepositWorkLog(), createConfig(false));
+
+        admission.submit("id1");
+        admission.submit("id2");
+
+        assertEquals("id1", queue.peek().getDepositId());
+        assertEquals(1, rescheduler.getPendingCount());
+        assertEquals(1, admission.getOverflowCount());
+    }
+
+    @Test
+    void estimateDrainTime_should_be_based_on_the_speed_of_taking_events() throws Exception {
+        var queue = new DepositFinalizerQueue(10);
+
+        for (var i = 0; i < 5; ++i) {
+            queue.put(new DepositFinalizerEvent("id" + i));
+        }
+
+        assertNull(queue.estimateDrainTime());
+
+        queue.take();
+        Thread.sleep(20);
+        queue.take();
+
+        // three events are left, and taking one took at least 20 ms
+        var estimate = queue.estimateDrainTime();
+        assertNotNull(estimate);
+        assertTrue(estimate.toMillis() >= 60);
+    }
+}
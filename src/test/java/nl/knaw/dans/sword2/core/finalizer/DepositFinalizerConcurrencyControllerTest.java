@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import nl.knaw.dans.sword2.core.config.FinalizerConcurrencyConfig;
+import nl.knaw.dans.sword2.core.config.FinalizerSchedulingConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepositFinalizerConcurrencyControllerTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void afterEach() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    FinalizerConcurrencyConfig createConfig() {
+        var config = new FinalizerConcurrencyConfig();
+        config.setMinConcurrency(1);
+        config.setMaxConcurrency(3);
+        config.setLatencyTolerance(0.5);
+        config.setBackoffRatio(0.5);
+        return config;
+    }
+
+    DepositFinalizerScheduler createScheduler(int concurrency) {
+        return new DepositFinalizerScheduler(executor, id -> new DepositWorkload(null, 0), new FinalizerSchedulingConfig(), concurrency, List.of());
+    }
+
+    void occupyWorkers(DepositFinalizerScheduler scheduler, int count) throws InterruptedException {
+        var started = new CountDownLatch(count);
+
+        for (var i = 0; i < count; ++i) {
+            scheduler.submit("deposit" + i, () -> {
+                started.countDown();
+
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void adjust_should_raise_limit_by_one_while_all_workers_are_busy() throws Exception {
+        var scheduler = createScheduler(2);
+        var controller = new DepositFinalizerConcurrencyController(scheduler, new DepositFinalizationPipeline(), createConfig());
+        occupyWorkers(scheduler, 2);
+
+        controller.adjust(1000, 1000, 1);
+        assertEquals(3, scheduler.getSharedConcurrency());
+    }
+
+    @Test
+    void adjust_should_not_raise_limit_above_ceiling() throws Exception {
+        var scheduler = createScheduler(3);
+        var controller = new DepositFinalizerConcurrencyController(scheduler, new DepositFinalizationPipeline(), createConfig());
+        occupyWorkers(scheduler, 3);
+
+        controller.adjust(1000, 1000, 1);
+        assertEquals(3, scheduler.getSharedConcurrency());
+    }
+
+    @Test
+    void adjust_should_not_raise_limit_while_workers_are_idle() {
+        var scheduler = createScheduler(2);
+        var controller = new DepositFinalizerConcurrencyController(scheduler, new DepositFinalizationPipeline(), createConfig());
+
+        controller.adjust(1000, 1000, 1);
+        assertEquals(2, scheduler.getSharedConcurrency());
+    }
+
+    @Test
+    void adjust_should_back_off_when_latency_rises_without_more_throughput() throws Exception {
+        var scheduler = createScheduler(2);
+        var controller = new DepositFinalizerConcurrencyController(scheduler, new DepositFinalizationPipeline(), createConfig());
+        occupyWorkers(scheduler, 2);
+
+        controller.adjust(1000, 1000, 1);
+        assertEquals(3, scheduler.getSharedConcurrency());
+
+        // same throughput, but three times the time per byte
+        controller.adjust(1000, 3000, 1);
+        assertEquals(1, scheduler.getSharedConcurrency());
+    }
+
+    @Test
+    void adjust_should_keep_limit_when_latency_rises_with_more_throughput() throws Exception {
+        var scheduler = createScheduler(3);
+        var controller = new DepositFinalizerConcurrencyController(scheduler, new DepositFinalizationPipeline(), createConfig());
+
+        controller.adjust(1000, 1000, 1);
+        controller.adjust(2000, 4000, 1);
+
+        assertEquals(3, scheduler.getSharedConcurrency());
+    }
+
+    @Test
+    void adjust_should_ignore_intervals_without_work() throws Exception {
+        var scheduler = createScheduler(2);
+        var controller = new DepositFinalizerConcurrencyController(scheduler, new DepositFinalizationPipeline(), createConfig());
+        occupyWorkers(scheduler, 2);
+
+        controller.adjust(0, 0, 1);
+
+        assertEquals(2, scheduler.getSharedConcurrency());
+    }
+
+    @Test
+    void sample_should_measure_intervals_without_bytes_together_with_the_next_one() throws Throwable {
+        var scheduler = createScheduler(2);
+        var pipeline = new DepositFinalizationPipeline();
+        var controller = new DepositFinalizerConcurrencyController(scheduler, pipeline, createConfig());
+
+        // a large file is written, but its bytes are only counted after the first sample
+        pipeline.runMetered(DepositFinalizationStage.EXTRACT, processed -> {
+            Thread.sleep(50);
+            return null;
+        });
+        controller.sample();
+        assertEquals(0, controller.getLatency());
+
+        pipeline.runMetered(DepositFinalizationStage.EXTRACT, processed -> {
+            processed.accept(1000);
+            return null;
+        });
+        controller.sample();
+
+        // the 50 ms are not lost, so the time per byte is at least 50 ms / 1000 bytes
+        assertTrue(controller.getLatency() >= TimeUnit.MILLISECONDS.toNanos(50) / 1000.0);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import nl.knaw.dans.sword2.core.config.FinalizerSchedulingConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepositFinalizerDispatcherTest {
+
+    @Test
+    void dispatch_should_run_at_most_one_task_per_deposit_and_repeat_it_once() throws Exception {
+        var executor = Executors.newFixedThreadPool(4);
+        var dispatcher = new DepositFinalizerDispatcher(new DepositFinalizerScheduler(executor, id -> new DepositWorkload(null, 0), new FinalizerSchedulingConfig(), 4, List.of()));
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var runs = new AtomicInteger();
+
+        Runnable task = () -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            started.countDown();
+
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            runs.incrementAndGet();
+            running.decrementAndGet();
+        };
+
+        try {
+            dispatcher.dispatch("id1", task);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            dispatcher.dispatch("id1", task);
+            dispatcher.dispatch("id1", task);
+            release.countDown();
+
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+            assertEquals(2, runs.get());
+            assertEquals(1, maxRunning.get());
+            assertEquals(2, dispatcher.getCoalescedCount());
+            assertEquals(0, dispatcher.getActiveCount());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
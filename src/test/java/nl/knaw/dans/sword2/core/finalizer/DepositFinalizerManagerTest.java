@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import nl.knaw.dans.sword2.core.Deposit;
+import nl.knaw.dans.sword2.core.DepositState;
+import nl.knaw.dans.sword2.core.exceptions.DepositNotFoundException;
+import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
+import nl.knaw.dans.sword2.core.service.DepositHandler;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DepositFinalizerManagerTest {
+
+    Deposit createDeposit(String id, DepositState state) {
+        var deposit = new Deposit();
+        deposit.setId(id);
+        deposit.setState(state);
+        return deposit;
+    }
+
+    @Test
+    void replay_should_skip_deposits_that_are_not_waiting_for_finalization() throws Exception, DepositNotFoundException, InvalidDepositException {
+        var depositHandler = Mockito.mock(DepositHandler.class);
+        Mockito.when(depositHandler.getDeposit("id1")).thenReturn(createDeposit("id1", DepositState.UPLOADED));
+        Mockito.when(depositHandler.getDeposit("id2")).thenReturn(createDeposit("id2", DepositState.DRAFT));
+        Mockito.when(depositHandler.getDeposit("id3")).thenThrow(new DepositNotFoundException("Deposit with id id3 could not be found"));
+        Mockito.when(depositHandler.getDeposit("id4")).thenReturn(createDeposit("id4", DepositState.FINALIZING));
+
+        var queue = new DepositFinalizerQueue(10);
+        var workLog = Mockito.mock(DepositWorkLog.class);
+        var manager = new DepositFinalizerManager(Mockito.mock(DepositFinalizerScheduler.class), depositHandler, queue,
+            new DepositFinalizerRescheduler(queue, Duration.ofSeconds(30)), Mockito.mock(DepositRecovery.class), workLog);
+
+        manager.replay(List.of(
+            new DepositWorkLogEntry("id1", null, 0),
+            new DepositWorkLogEntry("id2", null, 0),
+            new DepositWorkLogEntry("id3", null, 0),
+            new DepositWorkLogEntry("id4", null, 0)));
+
+        assertEquals(List.of("id1", "id4"), queue.stream().map(DepositFinalizerEvent::getDepositId).collect(Collectors.toList()));
+        Mockito.verify(workLog).completed("id2");
+        Mockito.verify(workLog).completed("id3");
+        Mockito.verify(workLog, Mockito.never()).completed("id1");
+    }
+
+    @Test
+    void start_should_not_wait_for_the_replay() throws Exception, DepositNotFoundException, InvalidDepositException {
+        var reading = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var depositHandler = Mockito.mock(DepositHandler.class);
+        Mockito.when(depositHandler.getDeposit("id1")).thenAnswer(invocation -> {
+            reading.countDown();
+            release.await();
+            return createDeposit("id1", DepositState.DRAFT);
+        });
+
+        var queue = new DepositFinalizerQueue(10);
+        var workLog = Mockito.mock(DepositWorkLog.class);
+        Mockito.when(workLog.open()).thenReturn(Optional.of(List.of(new DepositWorkLogEntry("id1", null, 0))));
+        var manager = new DepositFinalizerManager(Mockito.mock(DepositFinalizerScheduler.class), depositHandler, queue,
+            new DepositFinalizerRescheduler(queue, Duration.ofSeconds(30)), Mockito.mock(DepositRecovery.class), workLog);
+
+        manager.start();
+
+        try {
+            // start has returned while the replay is still reading the deposit
+            reading.await();
+            Mockito.verify(workLog, Mockito.never()).completed("id1");
+
+            release.countDown();
+            Mockito.verify(workLog, Mockito.timeout(5000)).completed("id1");
+        }
+        finally {
+            release.countDown();
+            manager.stop();
+        }
+    }
+}
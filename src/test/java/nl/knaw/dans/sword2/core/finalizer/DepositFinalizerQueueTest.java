@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepositFinalizerQueueTest {
+
+    @Test
+    void put_should_merge_finalize_events_for_deposits_that_are_already_waiting() throws Exception {
+        var queue = new DepositFinalizerQueue(10);
+
+        queue.put(new DepositFinalizerEvent("id1"));
+        queue.put(new DepositFinalizerEvent("id2"));
+        queue.put(new DepositFinalizerEvent("id1"));
+        assertTrue(queue.offer(new DepositFinalizerEvent("id2"), 1, TimeUnit.SECONDS));
+
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.getMergedCount());
+    }
+
+    @Test
+    void put_should_not_merge_events_for_deposits_that_were_taken() throws Exception {
+        var queue = new DepositFinalizerQueue(10);
+
+        queue.put(new DepositFinalizerEvent("id1"));
+        assertEquals("id1", queue.take().getDepositId());
+
+        queue.put(new DepositFinalizerEvent("id1"));
+        assertEquals(1, queue.size());
+        assertEquals(0, queue.getMergedCount());
+    }
+
+    @Test
+    void put_should_not_merge_other_events() throws Exception {
+        var queue = new DepositFinalizerQueue(10);
+
+        queue.put(new DepositFinalizerRescheduleEvent("id1"));
+        queue.put(new DepositFinalizerRescheduleEvent("id1"));
+        queue.put(new DepositFinalizerStopEvent());
+
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    void offer_should_not_remember_events_that_did_not_fit() throws Exception {
+        var queue = new DepositFinalizerQueue(1);
+
+        queue.put(new DepositFinalizerEvent("id1"));
+        assertFalse(queue.offer(new DepositFinalizerEvent("id2")));
+        queue.take();
+
+        assertTrue(queue.offer(new DepositFinalizerEvent("id2")));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void put_should_not_merge_events_for_deposits_that_were_removed() throws Exception {
+        List<Consumer<DepositFinalizerQueue>> removals = List.of(
+            queue -> queue.drainTo(new ArrayList<>()),
+            queue -> queue.drainTo(new ArrayList<>(), 1),
+            queue -> queue.remove(queue.peek()),
+            DepositFinalizerQueue::clear,
+            queue -> queue.removeIf(event -> "id1".equals(event.getDepositId())),
+            queue -> queue.removeAll(List.of(queue.peek())),
+            queue -> queue.retainAll(List.of()),
+            queue -> {
+                var iterator = queue.iterator();
+                iterator.next();
+                iterator.remove();
+            });
+
+        for (var removal : removals) {
+            var queue = new DepositFinalizerQueue(10);
+            queue.put(new DepositFinalizerEvent("id1"));
+
+            removal.accept(queue);
+            assertEquals(0, queue.size());
+
+            queue.put(new DepositFinalizerEvent("id1"));
+            assertEquals(1, queue.size());
+            assertEquals(0, queue.getMergedCount());
+        }
+    }
+
+    @Test
+    void put_should_not_merge_events_for_deposits_that_were_taken_concurrently() throws Exception {
+        var queue = new DepositFinalizerQueue(4);
+        var executor = Executors.newFixedThreadPool(4);
+        var futures = new ArrayList<Future<?>>();
+
+        try {
+            for (var producer = 0; producer < 3; ++producer) {
+                futures.add(executor.submit(() -> {
+                    for (var i = 0; i < 1000; ++i) {
+                        queue.put(new DepositFinalizerEvent("id" + (i % 8)));
+                    }
+                    return null;
+                }));
+            }
+
+            var consumer = executor.submit(() -> {
+                while (true) {
+                    if (queue.take().getEventType() == DepositFinalizerEventType.STOP) {
+                        return null;
+                    }
+                }
+            });
+
+            for (var future : futures) {
+                future.get();
+            }
+
+            queue.put(new DepositFinalizerStopEvent());
+            consumer.get();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        // no id is left behind as waiting after its event was taken
+        var merged = queue.getMergedCount();
+        queue.put(new DepositFinalizerEvent("id1"));
+        queue.put(new DepositFinalizerEvent("id2"));
+
+        assertEquals(2, queue.size());
+        assertEquals(merged, queue.getMergedCount());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DepositFinalizerReschedulerTest {
+
+    @Test
+    void eventsAreEnqueuedInOrderOfDueTime() throws Exception {
+        var queue = new LinkedBlockingQueue<DepositFinalizerEvent>();
+        var rescheduler = new DepositFinalizerRescheduler(queue, Duration.ofSeconds(30));
+
+        rescheduler.schedule("late", Duration.ofMillis(300));
+        rescheduler.schedule("early", Duration.ofMillis(100));
+        assertEquals(2, rescheduler.getPendingCount());
+
+        rescheduler.start();
+
+        try {
+            var first = queue.poll(5, TimeUnit.SECONDS);
+            var second = queue.poll(5, TimeUnit.SECONDS);
+
+            assertEquals("early", first.getDepositId());
+            assertEquals(DepositFinalizerEventType.FINALIZE, first.getEventType());
+            assertEquals("late", second.getDepositId());
+            assertEquals(0, rescheduler.getPendingCount());
+        }
+        finally {
+            rescheduler.stop();
+        }
+    }
+
+    @Test
+    void eventsAreNotEnqueuedBeforeTheyAreDue() throws Exception {
+        var queue = new LinkedBlockingQueue<DepositFinalizerEvent>();
+        var rescheduler = new DepositFinalizerRescheduler(queue, Duration.ofHours(1));
+
+        rescheduler.start();
+
+        try {
+            rescheduler.schedule("id1");
+            assertNull(queue.poll(200, TimeUnit.MILLISECONDS));
+            assertEquals(1, rescheduler.getPendingCount());
+        }
+        finally {
+            rescheduler.stop();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import nl.knaw.dans.sword2.core.config.CollectionConfig;
+import nl.knaw.dans.sword2.core.config.FinalizerSchedulingConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepositFinalizerSchedulerTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final Map<String, Long> sizes = Map.of("blocker", 1L, "small", 10L, "medium", 1000L, "large", 1000000L, "large2", 1000000L,
+        "unknown", DepositWorkload.UNKNOWN_SIZE);
+    private final Map<String, String> collectionIds = new HashMap<>();
+    private final List<String> finished = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    DepositWorkload estimate(String depositId) {
+        return new DepositWorkload(collectionIds.getOrDefault(depositId, "collection1"), sizes.getOrDefault(depositId, 1L));
+    }
+
+    CollectionConfig createCollection(String name, Integer concurrency, int weight) {
+        var collection = new CollectionConfig();
+        collection.setName(name);
+        collection.setFinalizerConcurrency(concurrency);
+        collection.setFinalizerWeight(weight);
+        return collection;
+    }
+
+    Runnable record(String depositId) {
+        return () -> finished.add(depositId);
+    }
+
+    Runnable block(CountDownLatch started, CountDownLatch release) {
+        return () -> {
+            started.countDown();
+
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    FinalizerSchedulingConfig createConfig(DepositFinalizerSchedulingPolicy policy) {
+        var config = new FinalizerSchedulingConfig();
+        config.setPolicy(policy);
+        config.setAgingHalfLife(Duration.ofHours(1));
+        config.setHeavyThreshold(100000L);
+        config.setReservedLightWorkers(1);
+        return config;
+    }
+
+    void waitUntilFinished(DepositFinalizerScheduler scheduler) throws InterruptedException {
+        for (var i = 0; i < 500 && (scheduler.getRunningCount() > 0 || scheduler.getPendingCount() > 0); ++i) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void shortest_first_should_finalize_smallest_waiting_deposit_first() throws Exception {
+        var scheduler = new DepositFinalizerScheduler(executor, this::estimate, createConfig(DepositFinalizerSchedulingPolicy.SHORTEST_FIRST), 1, List.of());
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        scheduler.submit("blocker", block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        scheduler.submit("large", record("large"));
+        scheduler.submit("medium", record("medium"));
+        scheduler.submit("small", record("small"));
+        assertEquals(3, scheduler.getPendingCount());
+
+        release.countDown();
+        waitUntilFinished(scheduler);
+
+        assertEquals(List.of("small", "medium", "large"), finished);
+    }
+
+    @Test
+    void shortest_first_should_not_finalize_deposits_of_unknown_size_first() throws Exception {
+        var scheduler = new DepositFinalizerScheduler(executor, this::estimate, createConfig(DepositFinalizerSchedulingPolicy.SHORTEST_FIRST), 1, List.of());
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        scheduler.submit("blocker", block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        scheduler.submit("unknown", record("unknown"));
+        scheduler.submit("medium", record("medium"));
+        scheduler.submit("large", record("large"));
+
+        release.countDown();
+        waitUntilFinished(scheduler);
+
+        // an unknown size counts as the heavy threshold, which is less than the size of the large deposit
+        assertEquals(List.of("medium", "unknown", "large"), finished);
+    }
+
+    @Test
+    void fifo_should_finalize_in_order_of_arrival() throws Exception {
+        var scheduler = new DepositFinalizerScheduler(executor, this::estimate, createConfig(DepositFinalizerSchedulingPolicy.FIFO), 1, List.of());
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        scheduler.submit("blocker", block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        scheduler.submit("large", record("large"));
+        scheduler.submit("small", record("small"));
+
+        release.countDown();
+        waitUntilFinished(scheduler);
+
+        assertEquals(List.of("large", "small"), finished);
+    }
+
+    @Test
+    void submit_should_not_wait_for_the_estimate_and_keep_the_order_of_arrival() throws Exception {
+        var estimating = new CountDownLatch(1);
+        var estimated = new CountDownLatch(1);
+        DepositWorkloadEstimator estimator = depositId -> {
+            if ("slow".equals(depositId)) {
+                estimating.countDown();
+
+                try {
+                    estimated.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return estimate(depositId);
+        };
+
+        var estimationExecutor = Executors.newFixedThreadPool(2);
+        var scheduler = new DepositFinalizerScheduler(executor, estimationExecutor, estimator, createConfig(DepositFinalizerSchedulingPolicy.FIFO), 1,
+            List.of());
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        try {
+            scheduler.submit("blocker", block(started, release));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            scheduler.submit("slow", record("slow"));
+            assertTrue(estimating.await(5, TimeUnit.SECONDS));
+            scheduler.submit("fast", record("fast"));
+            assertEquals(2, scheduler.getPendingCount());
+
+            for (var i = 0; i < 500 && scheduler.getPendingCount("collection1") < 1; ++i) {
+                Thread.sleep(10);
+            }
+
+            estimated.countDown();
+
+            for (var i = 0; i < 500 && scheduler.getPendingCount("collection1") < 2; ++i) {
+                Thread.sleep(10);
+            }
+
+            release.countDown();
+            waitUntilFinished(scheduler);
+
+            assertEquals(List.of("slow", "fast"), finished);
+        }
+        finally {
+            estimationExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void aged_size_should_halve_with_every_half_life() {
+        var scheduler = new DepositFinalizerScheduler(executor, this::estimate, createConfig(DepositFinalizerSchedulingPolicy.SHORTEST_FIRST), 1, List.of());
+        var job = new DepositFinalizerScheduler.Job("large", "collection1", 1000, 0, () -> {
+        });
+
+        assertEquals(250.0, scheduler.getAgedSize(job, TimeUnit.HOURS.toNanos(2)), 0.001);
+    }
+
+    @Test
+    void lanes_should_keep_reserved_workers_for_light_deposits() throws Exception {
+        var scheduler = new DepositFinalizerScheduler(executor, this::estimate, createConfig(DepositFinalizerSchedulingPolicy.LANES), 2, List.of());
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        // the only worker heavy deposits may use is taken by the first one
+        scheduler.submit("large", block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        scheduler.submit("large2", record("large2"));
+        scheduler.submit("small", record("small"));
+
+        for (var i = 0; i < 500 && finished.isEmpty(); ++i) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of("small"), finished);
+        assertEquals(1, scheduler.getPendingCount());
+
+        release.countDown();
+        waitUntilFinished(scheduler);
+
+        assertEquals(List.of("small", "large2"), finished);
+    }
+
+    @Test
+    void shared_workers_should_be_divided_according_to_collection_weight() throws Exception {
+        var collections = List.of(createCollection("heavy", null, 3), createCollection("light", null, 1), createCollection("other", null, 1));
+        var scheduler = new DepositFinalizerScheduler(executor, this::estimate, createConfig(DepositFinalizerSchedulingPolicy.FIFO), 1, collections);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        collectionIds.put("blocker", "other");
+        scheduler.submit("blocker", block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        for (var i = 1; i <= 6; ++i) {
+            collectionIds.put("heavy" + i, "heavy");
+            scheduler.submit("heavy" + i, record("heavy"));
+        }
+
+        for (var i = 1; i <= 2; ++i) {
+            collectionIds.put("light" + i, "light");
+            scheduler.submit("light" + i, record("light"));
+        }
+
+        assertEquals(6, scheduler.getPendingCount("heavy"));
+        assertEquals(2, scheduler.getPendingCount("light"));
+
+        release.countDown();
+        waitUntilFinished(scheduler);
+
+        assertEquals(List.of("heavy", "light", "heavy", "heavy", "heavy", "light", "heavy", "heavy"), finished);
+    }
+
+    @Test
+    void collection_with_own_concurrency_should_not_wait_for_shared_workers() throws Exception {
+        var collections = List.of(createCollection("shared", null, 1), createCollection("isolated", 1, 1));
+        var scheduler = new DepositFinalizerScheduler(executor, this::estimate, createConfig(DepositFinalizerSchedulingPolicy.FIFO), 1, collections);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        collectionIds.put("blocker", "shared");
+        collectionIds.put("waiting", "shared");
+        collectionIds.put("isolated", "isolated");
+
+        scheduler.submit("blocker", block(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        scheduler.submit("waiting", record("waiting"));
+        scheduler.submit("isolated", record("isolated"));
+
+        for (var i = 0; i < 500 && finished.isEmpty(); ++i) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of("isolated"), finished);
+        assertEquals(1, scheduler.getPendingCount("shared"));
+        assertEquals(1, scheduler.getRunningCount("shared"));
+
+        release.countDown();
+        waitUntilFinished(scheduler);
+
+        assertEquals(List.of("isolated", "waiting"), finished);
+    }
+
+    @Test
+    void required_threads_should_include_dedicated_workers() {
+        var collections = List.of(createCollection("shared", null, 1), createCollection("isolated", 3, 1));
+        assertEquals(5, DepositFinalizerScheduler.getRequiredThreads(2, collections));
+    }
+
+    @Test
+    void deposit_rejected_by_executor_should_stay_pending() {
+        executor.shutdown();
+        var scheduler = new DepositFinalizerScheduler(executor, this::estimate, createConfig(DepositFinalizerSchedulingPolicy.FIFO), 1, List.of());
+
+        scheduler.submit("small", record("small"));
+        scheduler.submit("large", record("large"));
+
+        assertEquals(2, scheduler.getPendingCount());
+        assertEquals(0, scheduler.getRunningCount());
+        assertEquals(0, scheduler.getSharedRunningCount());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import nl.knaw.dans.sword2.core.Deposit;
+import nl.knaw.dans.sword2.core.exceptions.CollectionNotFoundException;
+import nl.knaw.dans.sword2.core.exceptions.DepositNotFoundException;
+import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
+import nl.knaw.dans.sword2.core.exceptions.InvalidPartialFileException;
+import nl.knaw.dans.sword2.core.exceptions.NotEnoughDiskSpaceException;
+import nl.knaw.dans.sword2.core.service.DepositHandler;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DepositFinalizerTest {
+
+    @Test
+    void run_should_complete_a_finalized_deposit_in_the_work_log() throws Exception, InvalidDepositException, InvalidPartialFileException, DepositNotFoundException, CollectionNotFoundException,
+        NotEnoughDiskSpaceException {
+        var depositHandler = Mockito.mock(DepositHandler.class);
+        Mockito.when(depositHandler.finalizeDeposit("id1")).thenReturn(new Deposit());
+        var workLog = Mockito.mock(DepositWorkLog.class);
+
+        new DepositFinalizer("id1", depositHandler, new LinkedBlockingQueue<>(), workLog).run();
+
+        Mockito.verify(workLog).started("id1");
+        Mockito.verify(workLog).completed("id1");
+    }
+
+    @Test
+    void run_should_complete_an_invalid_deposit_in_the_work_log() throws Exception, InvalidDepositException, InvalidPartialFileException, DepositNotFoundException, CollectionNotFoundException,
+        NotEnoughDiskSpaceException {
+        var depositHandler = Mockito.mock(DepositHandler.class);
+        Mockito.when(depositHandler.finalizeDeposit("id1")).thenThrow(new InvalidDepositException("invalid"));
+        var workLog = Mockito.mock(DepositWorkLog.class);
+
+        new DepositFinalizer("id1", depositHandler, new LinkedBlockingQueue<>(), workLog).run();
+
+        Mockito.verify(workLog).completed("id1");
+    }
+
+    @Test
+    void run_should_leave_a_rescheduled_deposit_outstanding() throws Exception, InvalidDepositException, InvalidPartialFileException, DepositNotFoundException, CollectionNotFoundException,
+        NotEnoughDiskSpaceException {
+        var depositHandler = Mockito.mock(DepositHandler.class);
+        Mockito.when(depositHandler.finalizeDeposit("id1")).thenThrow(new NotEnoughDiskSpaceException("full"));
+        var workLog = Mockito.mock(DepositWorkLog.class);
+        var queue = new LinkedBlockingQueue<DepositFinalizerEvent>();
+
+        new DepositFinalizer("id1", depositHandler, queue, workLog).run();
+
+        assertEquals(DepositFinalizerEventType.RESCHEDULE, queue.take().getEventType());
+        Mockito.verify(workLog, Mockito.never()).completed("id1");
+    }
+
+    @Test
+    void run_should_leave_a_deposit_outstanding_after_an_unexpected_error() throws Exception, InvalidDepositException, InvalidPartialFileException, DepositNotFoundException, CollectionNotFoundException,
+        NotEnoughDiskSpaceException {
+        var depositHandler = Mockito.mock(DepositHandler.class);
+        Mockito.when(depositHandler.finalizeDeposit("id1")).thenThrow(new IOException("disk error"));
+        var workLog = Mockito.mock(DepositWorkLog.class);
+
+        new DepositFinalizer("id1", depositHandler, new LinkedBlockingQueue<>(), workLog).run();
+
+        Mockito.verify(workLog).started("id1");
+        Mockito.verify(workLog, Mockito.never()).completed("id1");
+    }
+}
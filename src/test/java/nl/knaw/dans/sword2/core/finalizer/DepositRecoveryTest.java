@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import nl.knaw.dans.sword2.TestFixture;
+import nl.knaw.dans.sword2.core.Deposit;
+import nl.knaw.dans.sword2.core.DepositState;
+import nl.knaw.dans.sword2.core.config.CollectionConfig;
+import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
+import nl.knaw.dans.sword2.core.service.CollectionManagerImpl;
+import nl.knaw.dans.sword2.core.service.DepositPropertiesManagerImpl;
+import nl.knaw.dans.sword2.core.service.FileServiceImpl;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class DepositRecoveryTest extends TestFixture {
+    final DepositPropertiesManagerImpl depositPropertiesManager = new DepositPropertiesManagerImpl();
+    final LinkedBlockingQueue<DepositFinalizerEvent> queue = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        FileUtils.deleteDirectory(testDir.toFile());
+    }
+
+    CollectionConfig createCollection(String name) {
+        var collection = new CollectionConfig();
+        collection.setName(name);
+        collection.setPath(name);
+        collection.setUploads(testDir.resolve(name).resolve("uploads"));
+        collection.setDeposits(testDir.resolve(name).resolve("deposits"));
+        return collection;
+    }
+
+    void createDeposit(CollectionConfig collection, String id, DepositState state) throws InvalidDepositException, IOException {
+        var deposit = new Deposit();
+        deposit.setId(id);
+        deposit.setState(state);
+        deposit.setCreated(OffsetDateTime.now());
+
+        var path = collection.getUploads().resolve(id);
+        depositPropertiesManager.saveProperties(path, deposit);
+    }
+
+    @Test
+    void start_should_queue_uploaded_and_finalizing_deposits_of_all_collections() throws Exception, InvalidDepositException {
+        var collection1 = createCollection("1");
+        var collection2 = createCollection("2");
+        createDeposit(collection1, "id1", DepositState.UPLOADED);
+        createDeposit(collection1, "id2", DepositState.DRAFT);
+        createDeposit(collection2, "id3", DepositState.FINALIZING);
+        createDeposit(collection2, "id4", DepositState.INVALID);
+
+        var recovery = new DepositRecovery(new CollectionManagerImpl(List.of(collection1, collection2)), new FileServiceImpl(), depositPropertiesManager, queue, new NoOpDepositWorkLog(), 2);
+        recovery.start().get(10, TimeUnit.SECONDS);
+
+        var ids = queue.stream().map(DepositFinalizerEvent::getDepositId).collect(Collectors.toSet());
+        assertEquals(Set.of("id1", "id3"), ids);
+        assertEquals(4, recovery.getScannedCount());
+        assertEquals(2, recovery.getQueuedCount());
+        assertFalse(recovery.isRunning());
+    }
+
+    @Test
+    void start_should_queue_deposits_with_modification_time_in_the_future() throws Exception, InvalidDepositException {
+        var collection = createCollection("1");
+        createDeposit(collection, "id1", DepositState.UPLOADED);
+        // e.g. on a file server with a clock that is ahead
+        Files.setLastModifiedTime(collection.getUploads().resolve("id1"), FileTime.from(Instant.now().plusSeconds(60)));
+
+        var recovery = new DepositRecovery(new CollectionManagerImpl(List.of(collection)), new FileServiceImpl(), depositPropertiesManager, queue, new NoOpDepositWorkLog(), 1);
+        recovery.start().get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void start_should_count_unreadable_deposits() throws Exception {
+        var collection = createCollection("1");
+        Files.createDirectories(collection.getUploads().resolve("id1"));
+
+        var recovery = new DepositRecovery(new CollectionManagerImpl(List.of(collection)), new FileServiceImpl(), depositPropertiesManager, queue, new NoOpDepositWorkLog(), 1);
+        recovery.start().get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, recovery.getFailedCount());
+        assertEquals(0, queue.size());
+    }
+}
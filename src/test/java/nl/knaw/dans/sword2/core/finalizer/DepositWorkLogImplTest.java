@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.finalizer;
+
+import nl.knaw.dans.sword2.TestFixture;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepositWorkLogImplTest extends TestFixture {
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        FileUtils.deleteDirectory(testDir.toFile());
+    }
+
+    List<String> getIds(List<DepositWorkLogEntry> entries) {
+        return entries.stream().map(DepositWorkLogEntry::getDepositId).collect(Collectors.toList());
+    }
+
+    @Test
+    void open_should_return_empty_optional_if_there_is_no_log_yet() throws Exception {
+        var workLog = new DepositWorkLogImpl(testDir.resolve("worklog"), 1024 * 1024);
+
+        assertFalse(workLog.open().isPresent());
+        workLog.close();
+
+        var reopened = new DepositWorkLogImpl(testDir.resolve("worklog"), 1024 * 1024);
+        assertEquals(List.of(), reopened.open().orElseThrow());
+        reopened.close();
+    }
+
+    @Test
+    void open_should_replay_outstanding_work_in_order_of_enqueueing() throws Exception {
+        var dueTime = Instant.ofEpochMilli(Instant.now().plusSeconds(60).toEpochMilli());
+        var workLog = new DepositWorkLogImpl(testDir.resolve("worklog"), 1024 * 1024);
+        workLog.open();
+        workLog.enqueued("id1");
+        workLog.enqueued("id2");
+        workLog.enqueued("id3");
+        workLog.started("id1");
+        workLog.started("id2");
+        workLog.completed("id2");
+        workLog.started("id3");
+        workLog.rescheduled("id3", dueTime);
+        workLog.close();
+
+        var entries = new DepositWorkLogImpl(testDir.resolve("worklog"), 1024 * 1024).open().orElseThrow();
+
+        assertEquals(List.of("id1", "id3"), getIds(entries));
+        assertNull(entries.get(0).getDueTime());
+        assertEquals(dueTime, entries.get(1).getDueTime());
+        assertEquals(1, entries.get(1).getAttempts());
+    }
+
+    @Test
+    void open_should_ignore_incomplete_last_record() throws Exception {
+        var dir = testDir.resolve("worklog");
+        var workLog = new DepositWorkLogImpl(dir, 1024 * 1024);
+        workLog.open();
+        workLog.enqueued("id1");
+        workLog.enqueued("id2");
+        workLog.close();
+
+        try (var files = Files.list(dir)) {
+            var segment = files.findFirst().orElseThrow();
+            Files.writeString(segment, "COMPLETE id", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        }
+
+        var entries = new DepositWorkLogImpl(dir, 1024 * 1024).open().orElseThrow();
+        assertEquals(List.of("id1", "id2"), getIds(entries));
+    }
+
+    @Test
+    void segments_should_be_compacted_when_they_exceed_the_maximum_size() throws Exception {
+        var dir = testDir.resolve("worklog");
+        var workLog = new DepositWorkLogImpl(dir, 1024);
+        workLog.open();
+
+        for (var i = 0; i < 100; ++i) {
+            workLog.enqueued("id" + i);
+            workLog.started("id" + i);
+
+            if (i != 42) {
+                workLog.completed("id" + i);
+            }
+        }
+
+        workLog.close();
+
+        try (var files = Files.list(dir)) {
+            var segments = files.collect(Collectors.toList());
+            assertEquals(1, segments.size());
+            assertTrue(Files.size(segments.get(0)) < 1024);
+        }
+
+        var entries = new DepositWorkLogImpl(dir, 1024).open().orElseThrow();
+        assertEquals(List.of("id42"), getIds(entries));
+    }
+
+    @Test
+    void concurrent_changes_should_all_be_recorded() throws Exception {
+        var dir = testDir.resolve("worklog");
+        var workLog = new DepositWorkLogImpl(dir, 1024 * 1024);
+        workLog.open();
+
+        var executor = Executors.newFixedThreadPool(8);
+        var futures = new ArrayList<Future<?>>();
+
+        for (var i = 0; i < 200; ++i) {
+            var depositId = "id" + i;
+            futures.add(executor.submit(() -> {
+                workLog.enqueued(depositId);
+                workLog.started(depositId);
+            }));
+        }
+
+        for (var future : futures) {
+            future.get();
+        }
+
+        executor.shutdown();
+        workLog.close();
+
+        var entries = new DepositWorkLogImpl(dir, 1024 * 1024).open().orElseThrow();
+        assertEquals(200, entries.size());
+    }
+
+    @Test
+    void log_should_be_reopened_after_a_segment_could_not_be_started() throws Exception {
+        var dir = testDir.resolve("worklog");
+        var workLog = new DepositWorkLogImpl(dir, 64);
+        workLog.open();
+        workLog.enqueued("id1");
+        assertTrue(workLog.isHealthy());
+
+        // the next segment cannot be started while the directory is replaced by a file
+        FileUtils.deleteDirectory(dir.toFile());
+        Files.writeString(dir, "not a directory");
+
+        for (var i = 2; i < 10; ++i) {
+            workLog.enqueued("id" + i);
+        }
+
+        assertFalse(workLog.isHealthy());
+        assertEquals(9, workLog.getOutstandingCount());
+
+        Files.delete(dir);
+        Files.createDirectories(dir);
+        workLog.enqueued("id10");
+
+        assertTrue(workLog.isHealthy());
+        workLog.close();
+
+        var entries = new DepositWorkLogImpl(dir, 64).open().orElseThrow();
+        assertEquals(10, entries.size());
+        assertEquals("id1", entries.get(0).getDepositId());
+    }
+}
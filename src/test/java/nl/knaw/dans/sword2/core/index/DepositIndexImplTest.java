@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.index;
+
+import nl.knaw.dans.sword2.TestFixture;
+import nl.knaw.dans.sword2.core.DepositState;
+import nl.knaw.dans.sword2.core.config.CollectionConfig;
+import nl.knaw.dans.sword2.core.service.CollectionManagerImpl;
+import nl.knaw.dans.sword2.core.service.FileService;
+import nl.knaw.dans.sword2.core.service.FileServiceImpl;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepositIndexImplTest extends TestFixture {
+    final FileService fileService = new FileServiceImpl();
+    CollectionConfig collectionConfig;
+    DepositIndexImpl depositIndex;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        FileUtils.deleteDirectory(testDir.toFile());
+
+        collectionConfig = new CollectionConfig();
+        collectionConfig.setName("collection1");
+        collectionConfig.setPath("1");
+        collectionConfig.setUploads(testDir.resolve("uploads"));
+        collectionConfig.setDeposits(testDir.resolve("deposits"));
+        collectionConfig.setDepositTrackingPath(List.of(testDir.resolve("outbox")));
+
+        depositIndex = new DepositIndexImpl(new CollectionManagerImpl(List.of(collectionConfig)), fileService);
+    }
+
+    @Test
+    void rebuild_should_index_all_deposit_directories() throws IOException {
+        fileService.ensureDirectoriesExist(testDir.resolve("uploads/id1"));
+        fileService.ensureDirectoriesExist(testDir.resolve("deposits/id2"));
+        fileService.ensureDirectoriesExist(testDir.resolve("outbox/id3"));
+
+        depositIndex.rebuild();
+
+        assertEquals(3, depositIndex.size());
+        assertEquals(testDir.resolve("uploads/id1"), depositIndex.get("id1").orElseThrow().getPath());
+        assertEquals(testDir.resolve("deposits/id2"), depositIndex.get("id2").orElseThrow().getPath());
+        assertEquals(testDir.resolve("outbox/id3"), depositIndex.get("id3").orElseThrow().getPath());
+        assertEquals("collection1", depositIndex.get("id3").orElseThrow().getCollectionId());
+    }
+
+    @Test
+    void rebuild_should_prefer_uploads_over_deposits() throws IOException {
+        fileService.ensureDirectoriesExist(testDir.resolve("uploads/id1"));
+        fileService.ensureDirectoriesExist(testDir.resolve("deposits/id1"));
+
+        depositIndex.rebuild();
+
+        assertEquals(1, depositIndex.size());
+        assertEquals(testDir.resolve("uploads/id1"), depositIndex.get("id1").orElseThrow().getPath());
+    }
+
+    @Test
+    void rebuild_should_skip_missing_directories() {
+        depositIndex.rebuild();
+
+        assertEquals(0, depositIndex.size());
+    }
+
+    @Test
+    void put_should_replace_existing_entry() {
+        depositIndex.put(new DepositIndexEntry("id1", "collection1", testDir.resolve("uploads/id1")));
+        depositIndex.put(new DepositIndexEntry("id1", "collection1", testDir.resolve("deposits/id1"), DepositState.SUBMITTED, "user001"));
+
+        var entry = depositIndex.get("id1");
+        assertTrue(entry.isPresent());
+        assertEquals(testDir.resolve("deposits/id1"), entry.get().getPath());
+        assertEquals(DepositState.SUBMITTED, entry.get().getState());
+
+        depositIndex.remove("id1");
+        assertFalse(depositIndex.get("id1").isPresent());
+    }
+
+    @Test
+    void list_should_return_entries_of_collection_in_order_of_id() {
+        depositIndex.put(new DepositIndexEntry("id3", "collection1", testDir.resolve("uploads/id3")));
+        depositIndex.put(new DepositIndexEntry("id1", "collection1", testDir.resolve("deposits/id1")));
+        depositIndex.put(new DepositIndexEntry("id2", "collection2", testDir.resolve("deposits/id2")));
+        depositIndex.put(new DepositIndexEntry("id4", "collection1", testDir.resolve("outbox/id4")));
+
+        assertEquals(List.of("id1", "id3", "id4"), listIds(null));
+        assertEquals(List.of("id3", "id4"), listIds("id1"));
+        assertEquals(List.of("id4"), listIds("id35"));
+        assertEquals(List.of(), listIds("id4"));
+    }
+
+    List<String> listIds(String afterDepositId) {
+        return depositIndex.list("collection1", afterDepositId).map(DepositIndexEntry::getDepositId).collect(Collectors.toList());
+    }
+
+    @Test
+    void remove_with_path_should_keep_entry_at_other_location() {
+        depositIndex.put(new DepositIndexEntry("id1", "collection1", testDir.resolve("outbox/id1")));
+
+        depositIndex.remove("id1", testDir.resolve("deposits/id1"));
+        assertTrue(depositIndex.get("id1").isPresent());
+
+        depositIndex.remove("id1", testDir.resolve("outbox/id1"));
+        assertFalse(depositIndex.get("id1").isPresent());
+    }
+
+    @Test
+    void reconcile_should_replace_stale_entries() throws IOException {
+        fileService.ensureDirectoriesExist(testDir.resolve("outbox/id1"));
+        depositIndex.put(new DepositIndexEntry("id1", "collection1", testDir.resolve("deposits/id1")));
+        depositIndex.put(new DepositIndexEntry("id2", "collection1", testDir.resolve("deposits/id2")));
+
+        depositIndex.reconcile();
+
+        assertEquals(1, depositIndex.size());
+        assertEquals(testDir.resolve("outbox/id1"), depositIndex.get("id1").orElseThrow().getPath());
+    }
+
+    @Test
+    void isKnownToBeAbsent_should_only_answer_when_enabled_and_filled() throws IOException {
+        fileService.ensureDirectoriesExist(testDir.resolve("deposits/id1"));
+        var negativeIndex = new DepositIndexImpl(new CollectionManagerImpl(List.of(collectionConfig)), fileService, true);
+
+        // not filled yet
+        assertFalse(negativeIndex.isKnownToBeAbsent("unknown"));
+
+        negativeIndex.rebuild();
+        depositIndex.rebuild();
+
+        assertTrue(negativeIndex.isKnownToBeAbsent("unknown"));
+        assertFalse(negativeIndex.isKnownToBeAbsent("id1"));
+        assertFalse(depositIndex.isKnownToBeAbsent("unknown"));
+        assertEquals(1, negativeIndex.getNegativeLookupMeter().getCount());
+    }
+
+    @Test
+    void deposit_found_after_negative_lookup_should_be_counted() throws IOException {
+        var negativeIndex = new DepositIndexImpl(new CollectionManagerImpl(List.of(collectionConfig)), fileService, true);
+        negativeIndex.rebuild();
+
+        assertTrue(negativeIndex.isKnownToBeAbsent("id1"));
+        assertTrue(negativeIndex.isKnownToBeAbsent("id2"));
+
+        fileService.ensureDirectoriesExist(testDir.resolve("deposits/id1"));
+        negativeIndex.reconcile();
+        negativeIndex.relocate("id3", "collection1", testDir.resolve("deposits/id3"));
+
+        assertEquals(1, negativeIndex.getContradictedNegativeLookupMeter().getCount());
+    }
+
+    @Test
+    void isKnownToBeAbsent_should_not_answer_for_removed_deposit_until_reconciled() throws IOException {
+        var negativeIndex = new DepositIndexImpl(new CollectionManagerImpl(List.of(collectionConfig)), fileService, true);
+        fileService.ensureDirectoriesExist(testDir.resolve("deposits/id1"));
+        negativeIndex.rebuild();
+
+        // e.g. moved to a directory the watcher has not reported yet
+        negativeIndex.remove("id1", testDir.resolve("deposits/id1"));
+        assertFalse(negativeIndex.isKnownToBeAbsent("id1"));
+
+        fileService.deleteDirectory(testDir.resolve("deposits/id1"));
+        negativeIndex.reconcile();
+        assertTrue(negativeIndex.isKnownToBeAbsent("id1"));
+    }
+
+    @Test
+    void invalidate_should_remove_entry_and_count_it() {
+        var entry = new DepositIndexEntry("id1", "collection1", testDir.resolve("deposits/id1"));
+        depositIndex.put(entry);
+
+        depositIndex.invalidate(entry);
+
+        assertFalse(depositIndex.get("id1").isPresent());
+        assertEquals(1, depositIndex.getStaleEntryMeter().getCount());
+    }
+}
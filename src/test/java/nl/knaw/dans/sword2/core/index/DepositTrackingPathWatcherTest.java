@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.index;
+
+import nl.knaw.dans.sword2.TestFixture;
+import nl.knaw.dans.sword2.core.DepositState;
+import nl.knaw.dans.sword2.core.config.CollectionConfig;
+import nl.knaw.dans.sword2.core.service.CollectionManagerImpl;
+import nl.knaw.dans.sword2.core.service.FileService;
+import nl.knaw.dans.sword2.core.service.FileServiceImpl;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepositTrackingPathWatcherTest extends TestFixture {
+    final FileService fileService = new FileServiceImpl();
+    DepositIndexImpl depositIndex;
+    DepositTrackingPathWatcher watcher;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        FileUtils.deleteDirectory(testDir.toFile());
+        fileService.ensureDirectoriesExist(testDir.resolve("uploads"));
+        fileService.ensureDirectoriesExist(testDir.resolve("deposits"));
+        fileService.ensureDirectoriesExist(testDir.resolve("outbox"));
+
+        var collectionConfig = new CollectionConfig();
+        collectionConfig.setName("collection1");
+        collectionConfig.setPath("1");
+        collectionConfig.setUploads(testDir.resolve("uploads"));
+        collectionConfig.setDeposits(testDir.resolve("deposits"));
+        collectionConfig.setDepositTrackingPath(List.of(testDir.resolve("outbox")));
+
+        var collectionManager = new CollectionManagerImpl(List.of(collectionConfig));
+        depositIndex = new DepositIndexImpl(collectionManager, fileService);
+        watcher = new DepositTrackingPathWatcher(collectionManager, fileService, depositIndex, Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void afterEach() throws Exception {
+        watcher.stop();
+    }
+
+    @Test
+    void moved_deposit_should_be_indexed_at_new_location() throws Exception {
+        fileService.ensureDirectoriesExist(testDir.resolve("deposits/id1"));
+        depositIndex.rebuild();
+        watcher.start();
+
+        fileService.move(testDir.resolve("deposits/id1"), testDir.resolve("outbox/id1"));
+
+        var newPath = testDir.resolve("outbox/id1");
+        assertTrue(waitFor(entry -> newPath.equals(entry.getPath())), "Deposit was not indexed at its new location");
+    }
+
+    @Test
+    void moved_deposit_should_keep_its_state_and_depositor() throws Exception {
+        fileService.ensureDirectoriesExist(testDir.resolve("deposits/id1"));
+        depositIndex.put(new DepositIndexEntry("id1", "collection1", testDir.resolve("deposits/id1"), DepositState.SUBMITTED, "user001"));
+        watcher.start();
+
+        fileService.move(testDir.resolve("deposits/id1"), testDir.resolve("outbox/id1"));
+
+        var newPath = testDir.resolve("outbox/id1");
+        assertTrue(waitFor(entry -> newPath.equals(entry.getPath())), "Deposit was not indexed at its new location");
+
+        var entry = depositIndex.get("id1").orElseThrow();
+        assertEquals(DepositState.SUBMITTED, entry.getState());
+        assertEquals("user001", entry.getDepositor());
+    }
+
+    @Test
+    void removed_deposit_should_be_removed_from_index() throws Exception {
+        fileService.ensureDirectoriesExist(testDir.resolve("outbox/id1"));
+        depositIndex.rebuild();
+        watcher.start();
+
+        fileService.deleteDirectory(testDir.resolve("outbox/id1"));
+
+        assertTrue(waitFor(entry -> entry == null), "Deposit was not removed from the index");
+    }
+
+    private boolean waitFor(Predicate<DepositIndexEntry> condition) throws InterruptedException {
+        for (var i = 0; i < 100; ++i) {
+            if (condition.test(depositIndex.get("id1").orElse(null))) {
+                return true;
+            }
+
+            Thread.sleep(100);
+        }
+
+        return false;
+    }
+}
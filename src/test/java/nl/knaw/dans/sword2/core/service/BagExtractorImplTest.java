@@ -37,8 +37,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -189,7 +192,188 @@ class BagExtractorImplTest extends TestFixture {
         new BagExtractorImpl(zipService, fileService, bagItManager, filesystemSpaceVerifier)
             .extractOctetStream(testPath, 1, false);
 
-        assertEquals(1, fileService.listFiles(testPath).count());
+        // the parts are read in place, without merging them
+        assertEquals(List.of(part1, part2, part3), fileService.listFiles(testPath).sorted().collect(Collectors.toList()));
+        assertEquals(2775738, Files.size(testPath.resolve("double-image/data/random images/image03.jpeg")));
+    }
+
+    @Test
+    void testGetFilePathMappingShouldBeTheSameForPartsAsForMergedFile() throws Exception, InvalidPartialFileException {
+        var zipFile = getZipFile("double-image.zip");
+        // the mapping is derived from the name of the deposit directory
+        var parts = testPath.resolve("parts/deposit");
+        var merged = testPath.resolve("merged/deposit");
+        fileService.ensureDirectoriesExist(parts);
+        fileService.ensureDirectoriesExist(merged);
+
+        copyPartOfFile(zipFile, parts.resolve("part.1"), 0, 1000000);
+        copyPartOfFile(zipFile, parts.resolve("part.2"), 1000000, Files.size(zipFile));
+        Files.copy(zipFile, merged.resolve("merged.zip"));
+
+        var extractor = new BagExtractorImpl(zipService, fileService, bagItManager, filesystemSpaceVerifier);
+        var partsMapping = extractor.getFilePathMapping(parts, "application/octet-stream", true);
+        var mergedMapping = extractor.getFilePathMapping(merged, "application/octet-stream", true);
+
+        assertTrue(partsMapping.containsKey("double-image/data/random images/image03.jpeg"));
+        assertEquals(mergedMapping, partsMapping);
+    }
+
+    @Test
+    void testAppendPartsShouldAppendPartsThatArriveInSequence() throws Exception, InvalidPartialFileException {
+        var zipFile = getZipFile("double-image.zip");
+        var extractor = new BagExtractorImpl(zipService, fileService, bagItManager, filesystemSpaceVerifier, true);
+
+        copyPartOfFile(zipFile, testPath.resolve("part.2"), 1000000, 2000000);
+        extractor.appendParts(testPath, "application/octet-stream");
+        assertFalse(Files.exists(testPath.resolve("merged.zip")));
+
+        copyPartOfFile(zipFile, testPath.resolve("part.1"), 0, 1000000);
+        extractor.appendParts(testPath, "application/octet-stream");
+        assertFalse(Files.exists(testPath.resolve("part.1")));
+        assertFalse(Files.exists(testPath.resolve("part.2")));
+
+        copyPartOfFile(zipFile, testPath.resolve("part.3"), 2000000, Files.size(zipFile));
+        extractor.appendParts(testPath, "application/octet-stream");
+        extractor.checkOctetStreamParts(testPath);
+
+        assertEquals(List.of(testPath.resolve("merged.zip")), fileService.listFiles(testPath).collect(Collectors.toList()));
+        assertArrayEquals(Files.readAllBytes(zipFile), Files.readAllBytes(testPath.resolve("merged.zip")));
+    }
+
+    @Test
+    void testCheckOctetStreamPartsShouldAppendPartsThatDidNotArriveInSequence() throws Exception, InvalidPartialFileException {
+        var zipFile = getZipFile("double-image.zip");
+        var extractor = new BagExtractorImpl(zipService, fileService, bagItManager, filesystemSpaceVerifier, true);
+
+        copyPartOfFile(zipFile, testPath.resolve("part.1"), 0, 1000000);
+        extractor.appendParts(testPath, "application/octet-stream");
+
+        // part 2 is skipped
+        copyPartOfFile(zipFile, testPath.resolve("part.3"), 1000000, 2000000);
+        extractor.appendParts(testPath, "application/octet-stream");
+        copyPartOfFile(zipFile, testPath.resolve("part.4"), 2000000, Files.size(zipFile));
+        extractor.appendParts(testPath, "application/octet-stream");
+        assertTrue(Files.exists(testPath.resolve("part.3")));
+
+        extractor.checkOctetStreamParts(testPath);
+
+        assertEquals(List.of(testPath.resolve("merged.zip")), fileService.listFiles(testPath).collect(Collectors.toList()));
+        assertArrayEquals(Files.readAllBytes(zipFile), Files.readAllBytes(testPath.resolve("merged.zip")));
+    }
+
+    @Test
+    void testCheckOctetStreamPartsShouldRecoverFromAnEmptyAssemblyFile() throws Exception, InvalidPartialFileException {
+        var zipFile = getZipFile("double-image.zip");
+        var extractor = new BagExtractorImpl(zipService, fileService, bagItManager, filesystemSpaceVerifier, true);
+
+        // parts 1 and 2 were appended, but the assembly file was lost in a crash before part 2 was deleted
+        copyPartOfFile(zipFile, testPath.resolve("merged.zip"), 0, 2000000);
+        copyPartOfFile(zipFile, testPath.resolve("part.2"), 1000000, 2000000);
+        Files.writeString(testPath.resolve("merged.zip.parts"), "");
+
+        // the last sequence number is not known, so part 3 is appended when the deposit is finalized
+        copyPartOfFile(zipFile, testPath.resolve("part.3"), 2000000, Files.size(zipFile));
+        extractor.appendParts(testPath, "application/octet-stream");
+        assertFalse(Files.exists(testPath.resolve("part.2")));
+        assertTrue(Files.exists(testPath.resolve("part.3")));
+
+        extractor.checkOctetStreamParts(testPath);
+
+        assertEquals(List.of(testPath.resolve("merged.zip")), fileService.listFiles(testPath).collect(Collectors.toList()));
+        assertArrayEquals(Files.readAllBytes(zipFile), Files.readAllBytes(testPath.resolve("merged.zip")));
+    }
+
+    @Test
+    void testAppendPartsShouldDoNothingIfNotEnabled() throws Exception {
+        copyPartOfFile(getZipFile("one-entry.zip"), testPath.resolve("part.1"), 0, 10);
+
+        new BagExtractorImpl(zipService, fileService, bagItManager, filesystemSpaceVerifier).appendParts(testPath, "application/octet-stream");
+
+        assertEquals(List.of(testPath.resolve("part.1")), fileService.listFiles(testPath).collect(Collectors.toList()));
+    }
+
+    @Test
+    void testCheckOctetStreamPartsShouldRejectPartWithoutSequenceNumber() throws Exception {
+        var zipFile = getZipFile("one-entry.zip");
+        copyPartOfFile(zipFile, testPath.resolve("part.1"), 0, 10);
+        copyPartOfFile(zipFile, testPath.resolve("part"), 10, Files.size(zipFile));
+
+        assertThrows(InvalidPartialFileException.class,
+            () -> new BagExtractorImpl(zipService, fileService, bagItManager, filesystemSpaceVerifier).checkOctetStreamParts(testPath));
+    }
+
+    @Test
+    void testCheckOctetStreamPartsShouldKeepMergedFileOfEarlierVersion() throws Exception, InvalidPartialFileException {
+        var zipFile = getZipFile("one-entry.zip");
+        Files.copy(zipFile, testPath.resolve("merged.zip"));
+        copyPartOfFile(zipFile, testPath.resolve("part.2"), 0, 10);
+
+        new BagExtractorImpl(zipService, fileService, bagItManager, filesystemSpaceVerifier).checkOctetStreamParts(testPath);
+
+        assertEquals(List.of(testPath.resolve("merged.zip")), fileService.listFiles(testPath).collect(Collectors.toList()));
+        assertEquals(Files.size(zipFile), Files.size(testPath.resolve("merged.zip")));
+    }
+
+    @Test
+    void testExtractPayloadShouldSkipFilesExtractedBefore() throws Exception {
+        var deposit = testPath.resolve("deposit");
+        fileService.ensureDirectoriesExist(deposit);
+        Files.copy(getZipFile("mix.zip"), deposit.resolve("mix.zip"));
+
+        var reported = new ArrayList<Long>();
+        var progress = new ExtractionProgress() {
+
+            @Override
+            public long getExtractedEntries() {
+                return 2;
+            }
+
+            @Override
+            public void extracted(long extractedEntries, long size) {
+                reported.add(extractedEntries);
+            }
+        };
+
+        new BagExtractorImpl(zipService, fileService, bagItManager, filesystemSpaceVerifier).extractPayload(deposit, "application/zip", 1, false, progress, new ExtractedChecksums());
+
+        try (var files = Files.walk(deposit)) {
+            assertEquals(2, files.filter(Files::isRegularFile).count());
+        }
+
+        assertEquals(List.of(3L), reported);
+    }
+
+    @Test
+    void testVerifyBagShouldUseTheChecksumsComputedDuringExtraction() throws Exception {
+        var deposit = testPath.resolve("deposit");
+        fileService.ensureDirectoriesExist(deposit);
+        Files.copy(getZipFile("audiences.zip"), deposit.resolve("audiences.zip"));
+
+        var extractor = new BagExtractorImpl(zipService, fileService, new BagItManagerImpl(fileService, checksumCalculator), filesystemSpaceVerifier);
+        var checksums = new ExtractedChecksums();
+        extractor.extractPayload(deposit, "application/zip", 1, false, ExtractionProgress.NONE, checksums);
+
+        var payloadFile = deposit.resolve("audiences/data/a/deeper/path/With some file.txt");
+        assertTrue(checksums.get(payloadFile, "SHA-1").isPresent());
+
+        // changed after the extraction, which only a verification that reads the payload notices
+        var content = Files.readAllBytes(payloadFile);
+        content[0]++;
+        Files.write(payloadFile, content);
+
+        var bytesRead = new ArrayList<Long>();
+        extractor.verifyBag(deposit, checksums, bytesRead::add);
+        // only the five files in the tag manifest are read
+        assertEquals(5, bytesRead.size());
+        assertThrows(InvalidDepositException.class, () -> extractor.verifyBag(deposit));
+    }
+
+    @Test
+    void testGenerateFilePathMappingShouldBeTheSameForEveryAttempt() throws IOException {
+        var file = getZipFile("mix.zip");
+        var extractor = new BagExtractorImpl(zipService, fileService, bagItManager, filesystemSpaceVerifier);
+
+        assertEquals(extractor.generateFilePathMapping(file, Pattern.compile("subfolder/")), extractor.generateFilePathMapping(file, Pattern.compile("subfolder/")));
     }
 
     Path copyPartOfFile(Path zipFile, Path name, int start, long size) throws IOException {
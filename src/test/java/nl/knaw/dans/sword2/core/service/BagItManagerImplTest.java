@@ -77,4 +77,19 @@ class BagItManagerImplTest {
             Pair.of("z", "data/3")
         );
     }
+
+    @Test
+    void getPayloadManifestAlgorithms() {
+        var bagItManager = new BagItManagerImpl(Mockito.mock(FileService.class), Mockito.mock(ChecksumCalculator.class));
+
+        var result = bagItManager.getPayloadManifestAlgorithms(List.of(
+            "bag/manifest-md5.txt",
+            "bag/manifest-sha1.txt",
+            "bag/manifest-unknown.txt",
+            "bag/tagmanifest-sha256.txt",
+            "bag/data/manifest-sha512.txt",
+            "bag/data/file.txt"));
+
+        Assertions.assertThat(result).containsOnly("MD5", "SHA-1");
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import nl.knaw.dans.sword2.TestFixture;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConcatenatedFileChannelTest extends TestFixture {
+
+    @BeforeEach
+    void startUp() throws IOException {
+        FileUtils.deleteDirectory(testDir.toFile());
+        Files.createDirectories(testDir);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileUtils.deleteDirectory(testDir.toFile());
+    }
+
+    Path getZipFile(String name) {
+        var p = getClass().getResource("/zips/" + name);
+        assert p != null;
+        return Path.of(p.getPath());
+    }
+
+    List<Path> split(byte[] content, int... ends) throws IOException {
+        var parts = new ArrayList<Path>();
+        var start = 0;
+
+        for (var end : ends) {
+            parts.add(Files.write(testDir.resolve("part." + (parts.size() + 1)), Arrays.copyOfRange(content, start, end)));
+            start = end;
+        }
+
+        return parts;
+    }
+
+    @Test
+    void read_should_return_the_files_one_after_the_other() throws IOException {
+        var content = "0123456789".getBytes();
+
+        // including empty files
+        try (var channel = ConcatenatedFileChannel.open(split(content, 0, 3, 3, 7, 10, 10))) {
+            assertEquals(10, channel.size());
+
+            var buffer = ByteBuffer.allocate(20);
+
+            while (channel.read(buffer) >= 0) {
+                assertEquals(buffer.position(), channel.position());
+            }
+
+            assertArrayEquals(content, Arrays.copyOf(buffer.array(), buffer.position()));
+        }
+    }
+
+    @Test
+    void read_with_position_should_not_change_the_position_of_the_channel() throws IOException {
+        try (var channel = ConcatenatedFileChannel.open(split("0123456789".getBytes(), 3, 7, 10))) {
+            channel.position(2);
+
+            var buffer = ByteBuffer.allocate(3);
+            assertEquals(3, channel.read(buffer, 4));
+            assertEquals("456", new String(buffer.array()));
+            assertEquals(2, channel.position());
+
+            // only one file is read at a time
+            buffer.clear();
+            assertEquals(1, channel.read(buffer, 6));
+            assertEquals(-1, channel.read(buffer, 10));
+        }
+    }
+
+    @Test
+    void write_should_not_be_allowed() throws IOException {
+        try (var channel = ConcatenatedFileChannel.open(split("0123".getBytes(), 4))) {
+            assertThrows(NonWritableChannelException.class, () -> channel.write(ByteBuffer.allocate(1)));
+            assertThrows(NonWritableChannelException.class, () -> channel.truncate(0));
+        }
+    }
+
+    @Test
+    void read_should_fail_after_close() throws IOException {
+        var channel = ConcatenatedFileChannel.open(split("0123".getBytes(), 4));
+        channel.close();
+
+        assertThrows(ClosedChannelException.class, () -> channel.read(ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    void zip_file_in_parts_should_have_the_same_entries_and_content_as_the_zip_file() throws IOException {
+        var zipFile = getZipFile("double-image.zip");
+        var content = Files.readAllBytes(zipFile);
+
+        try (var expected = ZipArchive.open(zipFile);
+            var actual = new ZipArchive("parts", ConcatenatedFileChannel.open(split(content, 1000000, 2000000, content.length - 10, content.length)))) {
+            assertEquals(expected.getFileNames(), actual.getFileNames());
+
+            for (var i = 0; i < expected.getFiles().size(); ++i) {
+                try (var expectedStream = expected.getInputStream(expected.getFiles().get(i));
+                    var actualStream = actual.getInputStream(actual.getFiles().get(i))) {
+                    assertArrayEquals(expectedStream.readAllBytes(), actualStream.readAllBytes());
+                }
+            }
+        }
+    }
+}
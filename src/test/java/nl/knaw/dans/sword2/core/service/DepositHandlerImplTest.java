@@ -20,15 +20,21 @@ import nl.knaw.dans.sword2.core.Deposit;
 import nl.knaw.dans.sword2.core.DepositState;
 import nl.knaw.dans.sword2.core.auth.Depositor;
 import nl.knaw.dans.sword2.core.config.CollectionConfig;
+import nl.knaw.dans.sword2.core.config.FinalizerAdmissionConfig;
 import nl.knaw.dans.sword2.core.config.Sword2Config;
 import nl.knaw.dans.sword2.core.exceptions.CollectionNotFoundException;
 import nl.knaw.dans.sword2.core.exceptions.DepositNotFoundException;
 import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
 import nl.knaw.dans.sword2.core.exceptions.InvalidPartialFileException;
 import nl.knaw.dans.sword2.core.exceptions.NotEnoughDiskSpaceException;
-import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerEvent;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizationPipeline;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerAdmission;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerQueue;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizerRescheduler;
+import nl.knaw.dans.sword2.core.finalizer.NoOpDepositWorkLog;
+import nl.knaw.dans.sword2.core.index.DepositIndex;
+import nl.knaw.dans.sword2.core.index.DepositIndexImpl;
 import org.apache.commons.io.FileUtils;
-import org.eclipse.jetty.util.BlockingArrayQueue;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -37,10 +43,16 @@ import org.mockito.Mockito;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 class DepositHandlerImplTest extends TestFixture {
     final FileService fileService = new FileServiceImpl();
@@ -52,7 +64,10 @@ class DepositHandlerImplTest extends TestFixture {
     final DepositPropertiesManager depositPropertiesManager = new DepositPropertiesManagerImpl();
     final CollectionManager collectionManager = Mockito.mock(CollectionManager.class);
     final UserManager userManager = Mockito.mock(UserManager.class);
-    final BlockingQueue<DepositFinalizerEvent> queue = new BlockingArrayQueue<>();
+    final DepositIndex depositIndex = new DepositIndexImpl(collectionManager, fileService);
+    final DepositFinalizerQueue queue = new DepositFinalizerQueue(10);
+    final DepositFinalizerAdmission admission = new DepositFinalizerAdmission(queue, new DepositFinalizerRescheduler(queue, Duration.ofSeconds(30)),
+        new NoOpDepositWorkLog(), new FinalizerAdmissionConfig());
 
     @BeforeEach
     void beforeEach() throws IOException {
@@ -111,7 +126,8 @@ class DepositHandlerImplTest extends TestFixture {
         var depositHandler = new DepositHandlerImpl(
             bagExtractor,
             fileService,
-            depositPropertiesManager, collectionManager, userManager, queue, bagItManager, filesystemSpaceVerifier, "test@test.com");
+            depositPropertiesManager, depositIndex, collectionManager, userManager, admission, bagItManager, filesystemSpaceVerifier, "test@test.com",
+            Set.of(), new DepositStateNotifierImpl(), new DepositFinalizationPipeline());
 
         depositHandler.finalizeDeposit("testid");
 
@@ -121,4 +137,144 @@ class DepositHandlerImplTest extends TestFixture {
         Assertions.assertEquals("sword:testid", deposit.getSwordToken());
         Assertions.assertEquals(DepositState.SUBMITTED, deposit.getState());
     }
+
+    @Test
+    void getDeposits_should_list_deposits_of_depositor_in_order_of_id() throws Exception, InvalidDepositException, CollectionNotFoundException {
+        var collectionConfig = new CollectionConfig();
+        collectionConfig.setName("collection1");
+        collectionConfig.setPath("1");
+        collectionConfig.setUploads(testDir.resolve("uploads"));
+        collectionConfig.setDeposits(testDir.resolve("deposits"));
+
+        var depositor = new Depositor();
+        depositor.setName("user001");
+
+        Mockito.when(collectionManager.getCollections()).thenReturn(List.of(collectionConfig));
+        Mockito.when(collectionManager.getCollectionByPath("1", depositor)).thenReturn(collectionConfig);
+
+        for (var id : List.of("id3", "id1", "id2")) {
+            var deposit = new Deposit();
+            deposit.setId(id);
+            deposit.setState(DepositState.SUBMITTED);
+            deposit.setCreated(OffsetDateTime.now());
+            deposit.setDepositor("id2".equals(id) ? "user002" : "user001");
+            depositPropertiesManager.saveProperties(testDir.resolve("deposits").resolve(id), deposit);
+        }
+
+        depositIndex.rebuild();
+
+        var depositHandler = new DepositHandlerImpl(bagExtractor, fileService, depositPropertiesManager, depositIndex, collectionManager, userManager, admission,
+            bagItManager, filesystemSpaceVerifier, "test@test.com", Set.of(), new DepositStateNotifierImpl(), new DepositFinalizationPipeline());
+
+        var ids = depositHandler.getDeposits("1", depositor, null, Set.of(), null).map(Deposit::getId).collect(Collectors.toList());
+        Assertions.assertEquals(List.of("id1", "id3"), ids);
+
+        var next = depositHandler.getDeposits("1", depositor, "id1", Set.of(), null).map(Deposit::getId).collect(Collectors.toList());
+        Assertions.assertEquals(List.of("id3"), next);
+    }
+
+    CollectionConfig createListedCollection(Depositor depositor, Map<String, DepositState> states) throws InvalidDepositException {
+        var collectionConfig = new CollectionConfig();
+        collectionConfig.setName("collection1");
+        collectionConfig.setPath("1");
+        collectionConfig.setUploads(testDir.resolve("uploads"));
+        collectionConfig.setDeposits(testDir.resolve("deposits"));
+
+        Mockito.when(collectionManager.getCollections()).thenReturn(List.of(collectionConfig));
+        Mockito.when(collectionManager.getCollectionByPath("1", depositor)).thenReturn(collectionConfig);
+
+        for (var entry : states.entrySet()) {
+            var deposit = new Deposit();
+            deposit.setId(entry.getKey());
+            deposit.setState(entry.getValue());
+            deposit.setCreated(OffsetDateTime.now());
+            deposit.setDepositor(depositor.getName());
+            depositPropertiesManager.saveProperties(testDir.resolve("deposits").resolve(entry.getKey()), deposit);
+        }
+
+        depositIndex.rebuild();
+        return collectionConfig;
+    }
+
+    List<String> listIds(DepositHandler depositHandler, Depositor depositor, Set<DepositState> states, Instant updatedSince) throws CollectionNotFoundException {
+        return depositHandler.getDeposits("1", depositor, null, states, updatedSince).map(Deposit::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    void getDeposits_should_filter_on_the_index_without_reading_deposits_that_do_not_match() throws Exception, InvalidDepositException, CollectionNotFoundException {
+        var depositor = new Depositor();
+        depositor.setName("user001");
+        createListedCollection(depositor, Map.of("id1", DepositState.SUBMITTED, "id2", DepositState.INVALID, "id3", DepositState.SUBMITTED));
+
+        var propertiesManager = Mockito.spy(new DepositPropertiesManagerImpl());
+        var depositHandler = new DepositHandlerImpl(bagExtractor, fileService, propertiesManager, depositIndex, collectionManager, userManager, admission,
+            bagItManager, filesystemSpaceVerifier, "test@test.com", Set.of(), new DepositStateNotifierImpl(), new DepositFinalizationPipeline());
+
+        // the deposits found on disk at startup are read once, which records their state in the index
+        Assertions.assertEquals(List.of("id1", "id2", "id3"), listIds(depositHandler, depositor, Set.of(), null));
+        Mockito.clearInvocations(propertiesManager);
+
+        Assertions.assertEquals(List.of("id2"), listIds(depositHandler, depositor, Set.of(DepositState.INVALID), null));
+        Mockito.verify(propertiesManager, Mockito.times(1)).getProperties(Mockito.any());
+    }
+
+    @Test
+    void getDeposits_should_read_deposits_changed_by_other_processes() throws Exception, InvalidDepositException, CollectionNotFoundException {
+        var depositor = new Depositor();
+        depositor.setName("user001");
+        createListedCollection(depositor, Map.of("id1", DepositState.SUBMITTED, "id2", DepositState.SUBMITTED));
+
+        var depositHandler = new DepositHandlerImpl(bagExtractor, fileService, depositPropertiesManager, depositIndex, collectionManager, userManager, admission,
+            bagItManager, filesystemSpaceVerifier, "test@test.com", Set.of(), new DepositStateNotifierImpl(), new DepositFinalizationPipeline());
+        Assertions.assertEquals(List.of("id1", "id2"), listIds(depositHandler, depositor, Set.of(), null));
+
+        // e.g. rejected by the post-submission processing
+        var path = testDir.resolve("deposits/id2");
+        var deposit = depositPropertiesManager.getProperties(path);
+        deposit.setState(DepositState.REJECTED);
+        new DepositPropertiesManagerImpl().saveProperties(path, deposit);
+        Files.setLastModifiedTime(path.resolve("deposit.properties"), FileTime.from(Instant.now().plusSeconds(60)));
+
+        Assertions.assertEquals(List.of("id2"), listIds(depositHandler, depositor, Set.of(DepositState.REJECTED), null));
+        Assertions.assertEquals(List.of("id1"), listIds(depositHandler, depositor, Set.of(DepositState.SUBMITTED), null));
+    }
+
+    @Test
+    void getDeposits_should_filter_on_the_modification_time() throws Exception, InvalidDepositException, CollectionNotFoundException {
+        var depositor = new Depositor();
+        depositor.setName("user001");
+        createListedCollection(depositor, Map.of("id1", DepositState.SUBMITTED, "id2", DepositState.SUBMITTED));
+        Files.setLastModifiedTime(testDir.resolve("deposits/id1/deposit.properties"), FileTime.from(Instant.parse("2000-01-01T00:00:00Z")));
+
+        var depositHandler = new DepositHandlerImpl(bagExtractor, fileService, depositPropertiesManager, depositIndex, collectionManager, userManager, admission,
+            bagItManager, filesystemSpaceVerifier, "test@test.com", Set.of(), new DepositStateNotifierImpl(), new DepositFinalizationPipeline());
+
+        Assertions.assertEquals(List.of("id2"), listIds(depositHandler, depositor, Set.of(), Instant.parse("2020-01-01T00:00:00Z")));
+        Assertions.assertEquals(List.of("id1", "id2"), listIds(depositHandler, depositor, Set.of(), Instant.parse("1999-01-01T00:00:00Z")));
+    }
+
+    @Test
+    void getDeposit_should_not_find_deposit_outside_deposit_directories() throws Exception, InvalidDepositException {
+        var collectionConfig = new CollectionConfig();
+        collectionConfig.setName("collection1");
+        collectionConfig.setPath("1");
+        collectionConfig.setUploads(testDir.resolve("uploads"));
+        collectionConfig.setDeposits(testDir.resolve("deposits"));
+
+        Mockito.when(collectionManager.getCollections()).thenReturn(List.of(collectionConfig));
+
+        var deposit = new Deposit();
+        deposit.setId("id1");
+        deposit.setState(DepositState.SUBMITTED);
+        deposit.setCreated(OffsetDateTime.now());
+        depositPropertiesManager.saveProperties(testDir.resolve("elsewhere/id1"), deposit);
+        fileService.ensureDirectoriesExist(testDir.resolve("uploads"));
+
+        var depositHandler = new DepositHandlerImpl(bagExtractor, fileService, depositPropertiesManager, depositIndex, collectionManager, userManager, admission,
+            bagItManager, filesystemSpaceVerifier, "test@test.com", Set.of(), new DepositStateNotifierImpl(), new DepositFinalizationPipeline());
+
+        for (var id : List.of("../elsewhere/id1", "..", ".", "", "..\\elsewhere\\id1")) {
+            Assertions.assertThrows(DepositNotFoundException.class, () -> depositHandler.getDeposit(id));
+        }
+    }
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import nl.knaw.dans.sword2.TestFixture;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DepositPropertiesFileTest extends TestFixture {
+    private static final String NL = System.lineSeparator();
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        FileUtils.deleteDirectory(testDir.toFile());
+        Files.createDirectories(testDir);
+    }
+
+    @Test
+    void format_should_write_new_properties_in_insertion_order() {
+        var properties = new DepositPropertiesFile();
+        properties.setProperty("bag-store.bag-id", "a");
+        properties.setProperty("state.label", "DRAFT");
+        properties.setProperty("bag-store.bag-name", null);
+        properties.setProperty("state.description", "Deposit is open for additional data");
+
+        assertEquals("bag-store.bag-id = a" + NL
+            + "state.label = DRAFT" + NL
+            + "state.description = Deposit is open for additional data" + NL, properties.format());
+    }
+
+    @Test
+    void format_should_escape_like_commons_configuration() {
+        var properties = new DepositPropertiesFile();
+        properties.setProperty("state.description", "C:\\data\ttab\nnewline caf\u00e9 \u20ac = #");
+        properties.setProperty("key with=separators", "x");
+
+        assertEquals("state.description = C:\\\\data\\ttab\\nnewline caf\\u00E9 \\u20AC = #" + NL
+            + "key\\ with\\=separators = x" + NL, properties.format());
+    }
+
+    @Test
+    void parse_should_unescape_values() {
+        var properties = DepositPropertiesFile.parse("state.description = C:\\\\data\\ttab\\nnewline caf\\u00E9 \\u20AC = #" + NL
+            + "key\\ with\\=separators = x" + NL);
+
+        assertEquals("C:\\data\ttab\nnewline caf\u00e9 \u20ac = #", properties.getString("state.description"));
+        assertEquals("x", properties.getString("key with=separators"));
+    }
+
+    @Test
+    void parse_should_support_other_separators_and_continuation_lines() {
+        var properties = DepositPropertiesFile.parse("a=1\nb: 2\nc 3\nd = first \\\n    second\n");
+
+        assertEquals("1", properties.getString("a"));
+        assertEquals("2", properties.getString("b"));
+        assertEquals("3", properties.getString("c"));
+        assertEquals("first second", properties.getString("d"));
+    }
+
+    @Test
+    void format_should_preserve_comments_and_unchanged_lines() {
+        var content = "# written by another tool\n"
+            + "\n"
+            + "state.label=SUBMITTED\n"
+            + "! unknown key\n"
+            + "custom.key : keep  me\n"
+            + "state.description = old\n"
+            + "# the end\n";
+        var properties = DepositPropertiesFile.parse(content);
+
+        properties.setProperty("state.label", "SUBMITTED");
+        properties.setProperty("state.description", "new");
+        properties.setProperty("bag-store.bag-name", "bag");
+
+        assertEquals("# written by another tool\n"
+            + "\n"
+            + "state.label=SUBMITTED\n"
+            + "! unknown key\n"
+            + "custom.key : keep  me\n"
+            + "state.description = new" + NL
+            + "bag-store.bag-name = bag" + NL
+            + "# the end\n", properties.format());
+    }
+
+    @Test
+    void setProperty_with_null_should_remove_property() {
+        var properties = DepositPropertiesFile.parse("a = 1\nb = 2\n");
+
+        properties.setProperty("a", null);
+
+        assertFalse(properties.containsKey("a"));
+        assertNull(properties.getString("a"));
+        assertEquals("b = 2\n", properties.format());
+    }
+
+    @Test
+    void copy_should_not_share_changes() {
+        var properties = DepositPropertiesFile.parse("a = 1\n");
+        var copy = properties.copy();
+
+        copy.setProperty("a", "2");
+
+        assertEquals("1", properties.getString("a"));
+        assertEquals("2", copy.getString("a"));
+    }
+
+    @Test
+    void write_should_replace_file_and_leave_no_temporary_files() throws IOException {
+        var file = testDir.resolve("deposit.properties");
+        Files.writeString(file, "a = 1\n", StandardCharsets.ISO_8859_1);
+
+        var properties = DepositPropertiesFile.read(file);
+        properties.setProperty("a", "caf\u00e9");
+        properties.write(file);
+
+        assertEquals("a = caf\\u00E9" + NL, Files.readString(file, StandardCharsets.ISO_8859_1));
+        assertEquals("caf\u00e9", DepositPropertiesFile.read(file).getString("a"));
+
+        try (var files = Files.list(testDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void write_should_create_missing_directories() throws IOException {
+        var file = testDir.resolve("deposits/id1/deposit.properties");
+        var properties = new DepositPropertiesFile();
+        properties.setProperty("a", "1");
+
+        properties.write(file);
+
+        assertEquals("1", DepositPropertiesFile.read(file).getString("a"));
+    }
+
+    @Test
+    void readValue_should_return_first_value_of_key() throws IOException {
+        var file = testDir.resolve("deposit.properties");
+        Files.writeString(file, "# comment" + NL + "bag-store.bag-id = a" + NL + "state.description = first \\" + NL + "    second" + NL
+            + "state.label = SUBMITTED" + NL + "state.label = DRAFT" + NL, StandardCharsets.ISO_8859_1);
+
+        assertEquals("SUBMITTED", DepositPropertiesFile.readValue(file, "state.label"));
+        assertEquals("first second", DepositPropertiesFile.readValue(file, "state.description"));
+        assertNull(DepositPropertiesFile.readValue(file, "missing"));
+    }
+}
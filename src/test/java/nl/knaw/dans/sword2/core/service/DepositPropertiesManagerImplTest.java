@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import nl.knaw.dans.sword2.TestFixture;
+import nl.knaw.dans.sword2.core.Deposit;
+import nl.knaw.dans.sword2.core.DepositState;
+import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
+import nl.knaw.dans.sword2.core.finalizer.DepositFinalizationStage;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.OffsetDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepositPropertiesManagerImplTest extends TestFixture {
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        FileUtils.deleteDirectory(testDir.toFile());
+    }
+
+    Deposit createDeposit(String id) {
+        var deposit = new Deposit();
+        deposit.setId(id);
+        deposit.setDepositor("user001");
+        deposit.setState(DepositState.DRAFT);
+        deposit.setStateDescription("Deposit is open for additional data");
+        deposit.setCreated(OffsetDateTime.now());
+
+        return deposit;
+    }
+
+    Path createDepositDir(String id) throws IOException {
+        var path = testDir.resolve(id);
+        Files.createDirectories(path);
+        return path;
+    }
+
+    @Test
+    void getProperties_should_return_saved_state() throws IOException, InvalidDepositException {
+        var manager = new DepositPropertiesManagerImpl(10);
+        var path = createDepositDir("id1");
+
+        manager.saveProperties(path, createDeposit("id1"));
+
+        assertEquals(1, manager.getCacheSize());
+        assertEquals(DepositState.DRAFT, manager.getProperties(path).getState());
+        assertEquals("user001", manager.getProperties(path).getDepositor());
+    }
+
+    @Test
+    void findProperties_should_return_empty_result_for_moved_deposit() throws IOException, InvalidDepositException {
+        var manager = new DepositPropertiesManagerImpl(10);
+        var path = createDepositDir("id1");
+        manager.saveProperties(path, createDeposit("id1"));
+        assertEquals(DepositState.DRAFT, manager.findProperties(path).orElseThrow().getState());
+
+        Files.move(path, path.resolveSibling("id2"));
+
+        assertTrue(manager.findProperties(path).isEmpty());
+    }
+
+    @Test
+    void getProperties_should_not_be_affected_by_changes_to_returned_deposit() throws IOException, InvalidDepositException {
+        var manager = new DepositPropertiesManagerImpl(10);
+        var path = createDepositDir("id1");
+        manager.saveProperties(path, createDeposit("id1"));
+
+        manager.getProperties(path).setState(DepositState.FAILED);
+
+        assertEquals(DepositState.DRAFT, manager.getProperties(path).getState());
+    }
+
+    @Test
+    void getProperties_should_reread_file_modified_by_other_process() throws IOException, InvalidDepositException {
+        var manager = new DepositPropertiesManagerImpl(10);
+        var path = createDepositDir("id1");
+        manager.saveProperties(path, createDeposit("id1"));
+        assertEquals(DepositState.DRAFT, manager.getProperties(path).getState());
+
+        var propertiesFile = path.resolve("deposit.properties");
+        var lastModified = Files.getLastModifiedTime(propertiesFile);
+        Files.writeString(propertiesFile, Files.readString(propertiesFile).replace("DRAFT", "SUBMITTED"));
+        Files.setLastModifiedTime(propertiesFile, FileTime.fromMillis(lastModified.toMillis() + 1000));
+
+        assertEquals(DepositState.SUBMITTED, manager.getProperties(path).getState());
+    }
+
+    @Test
+    void saveProperties_should_keep_finalization_progress_only_while_unfinished() throws IOException, InvalidDepositException {
+        var manager = new DepositPropertiesManagerImpl(0);
+        var path = createDepositDir("id1");
+        var deposit = createDeposit("id1");
+        deposit.setCompletedStage(DepositFinalizationStage.MERGE);
+        deposit.setExtractedEntries(2000);
+        manager.saveProperties(path, deposit);
+
+        var read = manager.getProperties(path);
+        assertEquals(DepositFinalizationStage.MERGE, read.getCompletedStage());
+        assertEquals(2000, read.getExtractedEntries());
+
+        deposit.setCompletedStage(null);
+        deposit.setExtractedEntries(0);
+        manager.saveProperties(path, deposit);
+
+        assertFalse(Files.readString(path.resolve("deposit.properties")).contains("easy-sword2.finalization"));
+        assertNull(manager.getProperties(path).getCompletedStage());
+    }
+
+    @Test
+    void getState_should_read_state_from_cache_or_file() throws IOException, InvalidDepositException {
+        var manager = new DepositPropertiesManagerImpl(10);
+        var path = createDepositDir("id1");
+        manager.saveProperties(path, createDeposit("id1"));
+
+        assertEquals(DepositState.DRAFT, manager.getState(path));
+        assertEquals(DepositState.DRAFT, new DepositPropertiesManagerImpl(0).getState(path));
+    }
+
+    @Test
+    void getState_should_fail_for_missing_state() throws IOException {
+        var manager = new DepositPropertiesManagerImpl(10);
+        var path = createDepositDir("id1");
+        Files.writeString(path.resolve("deposit.properties"), "bag-store.bag-id = id1\n");
+
+        assertThrows(InvalidDepositException.class, () -> manager.getState(path));
+    }
+
+    @Test
+    void cache_should_be_bounded() throws IOException, InvalidDepositException {
+        var manager = new DepositPropertiesManagerImpl(2);
+
+        for (var id : new String[] { "id1", "id2", "id3" }) {
+            manager.saveProperties(createDepositDir(id), createDeposit(id));
+        }
+
+        assertEquals(2, manager.getCacheSize());
+        assertEquals(DepositState.DRAFT, manager.getProperties(testDir.resolve("id1")).getState());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import nl.knaw.dans.sword2.core.Deposit;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepositStateNotifierImplTest {
+
+    Deposit createDeposit(String id) {
+        var deposit = new Deposit();
+        deposit.setId(id);
+        return deposit;
+    }
+
+    @Test
+    void notifyChanged_should_complete_all_waiters_of_the_deposit() {
+        var notifier = new DepositStateNotifierImpl();
+        var first = notifier.awaitChange("id1");
+        var second = notifier.awaitChange("id1");
+        var other = notifier.awaitChange("id2");
+
+        var deposit = createDeposit("id1");
+        notifier.notifyChanged(deposit);
+
+        assertSame(deposit, first.join());
+        assertSame(deposit, second.join());
+        assertFalse(other.isDone());
+        assertEquals(1, notifier.getWaitingCount());
+    }
+
+    @Test
+    void notifyChanged_should_only_complete_waiters_registered_before_the_change() {
+        var notifier = new DepositStateNotifierImpl();
+        notifier.notifyChanged(createDeposit("id1"));
+
+        var change = notifier.awaitChange("id1");
+        assertFalse(change.isDone());
+    }
+
+    @Test
+    void cancelled_and_timed_out_waiters_should_be_removed() throws Exception {
+        var notifier = new DepositStateNotifierImpl();
+        var cancelled = notifier.awaitChange("id1");
+        var timedOut = notifier.awaitChange("id1").orTimeout(10, TimeUnit.MILLISECONDS);
+
+        cancelled.cancel(false);
+        var e = assertThrows(ExecutionException.class, () -> timedOut.get(5, TimeUnit.SECONDS));
+
+        assertTrue(e.getCause() instanceof TimeoutException);
+        assertThrows(CancellationException.class, cancelled::join);
+        assertEquals(0, notifier.getWaitingCount());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import nl.knaw.dans.sword2.core.Deposit;
+import nl.knaw.dans.sword2.core.DepositState;
+import nl.knaw.dans.sword2.core.exceptions.InvalidDepositException;
+import nl.knaw.dans.sword2.core.index.DepositIndexImpl;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DepositUnitOfWorkTest {
+
+    static class RecordingDepositPropertiesManager implements DepositPropertiesManager {
+        final List<DepositState> savedStates = new ArrayList<>();
+        final List<Boolean> synced = new ArrayList<>();
+
+        @Override
+        public Deposit getProperties(Path path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Optional<Deposit> findProperties(Path path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DepositState getState(Path path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Optional<Instant> getLastModified(Path path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void saveProperties(Path path, Deposit deposit) {
+            saveProperties(path, deposit, false);
+        }
+
+        @Override
+        public void saveProperties(Path path, Deposit deposit, boolean sync) {
+            savedStates.add(deposit.getState());
+            synced.add(sync);
+        }
+    }
+
+    final RecordingDepositPropertiesManager depositPropertiesManager = new RecordingDepositPropertiesManager();
+    final DepositIndexImpl depositIndex = new DepositIndexImpl(new CollectionManagerImpl(List.of()), new FileServiceImpl());
+    final DepositStateNotifierImpl depositStateNotifier = new DepositStateNotifierImpl();
+
+    Deposit createDeposit() {
+        var deposit = new Deposit();
+        deposit.setId("id1");
+        deposit.setPath(Path.of("uploads/id1"));
+        deposit.setState(DepositState.UPLOADED);
+
+        return deposit;
+    }
+
+    @Test
+    void transition_to_deferred_state_should_be_written_with_next_checkpoint() throws InvalidDepositException {
+        var unitOfWork = new DepositUnitOfWork(depositPropertiesManager, depositIndex, depositStateNotifier, Set.of(DepositState.FINALIZING), createDeposit());
+        var change = depositStateNotifier.awaitChange("id1");
+
+        unitOfWork.transition(DepositState.FINALIZING, "Finalizing deposit");
+        assertEquals(List.of(), depositPropertiesManager.savedStates);
+        assertFalse(change.isDone());
+
+        unitOfWork.transition(DepositState.SUBMITTED, "Deposit is valid");
+        assertEquals(List.of(DepositState.SUBMITTED), depositPropertiesManager.savedStates);
+        assertEquals(DepositState.SUBMITTED, depositIndex.get("id1").orElseThrow().getState());
+        assertEquals(DepositState.SUBMITTED, change.join().getState());
+    }
+
+    @Test
+    void transition_to_other_state_should_be_written_immediately() throws InvalidDepositException {
+        var unitOfWork = new DepositUnitOfWork(depositPropertiesManager, depositIndex, depositStateNotifier, Set.of(), createDeposit());
+
+        unitOfWork.transition(DepositState.FINALIZING, "Finalizing deposit");
+        unitOfWork.transition(DepositState.SUBMITTED, "Deposit is valid");
+
+        assertEquals(List.of(DepositState.FINALIZING, DepositState.SUBMITTED), depositPropertiesManager.savedStates);
+    }
+
+    @Test
+    void checkpoint_should_only_write_changes() throws InvalidDepositException {
+        var unitOfWork = new DepositUnitOfWork(depositPropertiesManager, depositIndex, depositStateNotifier, Set.of(), createDeposit());
+
+        unitOfWork.checkpoint();
+        assertEquals(List.of(), depositPropertiesManager.savedStates);
+
+        unitOfWork.markChanged();
+        unitOfWork.checkpoint();
+        unitOfWork.checkpoint();
+
+        assertEquals(List.of(DepositState.UPLOADED), depositPropertiesManager.savedStates);
+        assertFalse(unitOfWork.isDirty());
+    }
+
+    @Test
+    void progress_should_be_written_without_deferred_state() throws InvalidDepositException {
+        var unitOfWork = new DepositUnitOfWork(depositPropertiesManager, depositIndex, depositStateNotifier, Set.of(DepositState.FINALIZING), createDeposit());
+        var change = depositStateNotifier.awaitChange("id1");
+
+        unitOfWork.transition(DepositState.FINALIZING, "Finalizing deposit");
+        unitOfWork.saveProgress();
+
+        assertEquals(List.of(DepositState.UPLOADED), depositPropertiesManager.savedStates);
+        assertEquals(DepositState.FINALIZING, unitOfWork.getDeposit().getState());
+        assertTrue(unitOfWork.isDirty());
+        assertFalse(change.isDone());
+
+        unitOfWork.checkpoint();
+        assertEquals(List.of(DepositState.UPLOADED, DepositState.FINALIZING), depositPropertiesManager.savedStates);
+    }
+
+    @Test
+    void only_checkpoints_should_be_flushed_to_disk() throws InvalidDepositException {
+        var unitOfWork = new DepositUnitOfWork(depositPropertiesManager, depositIndex, depositStateNotifier, Set.of(), createDeposit());
+
+        unitOfWork.transition(DepositState.FINALIZING, "Finalizing deposit");
+        unitOfWork.saveProgress();
+        unitOfWork.transition(DepositState.SUBMITTED, "Deposit is valid");
+
+        assertEquals(List.of(DepositState.FINALIZING, DepositState.FINALIZING, DepositState.SUBMITTED), depositPropertiesManager.savedStates);
+        assertEquals(List.of(true, false, true), depositPropertiesManager.synced);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.core.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import java.util.zip.ZipFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ZipArchiveTest {
+
+    Path getZipFile(String name) {
+        var p = getClass().getResource("/zips/" + name);
+        assert p != null;
+        return Path.of(p.getPath());
+    }
+
+    void assertSameAsZipFile(Path path) throws IOException {
+        try (var archive = ZipArchive.open(path); var zipFile = new ZipFile(path.toFile())) {
+            var expected = zipFile.stream().collect(Collectors.toList());
+
+            assertEquals(expected.size(), archive.getEntries().size());
+
+            for (var i = 0; i < expected.size(); ++i) {
+                var expectedEntry = expected.get(i);
+                var entry = archive.getEntries().get(i);
+
+                assertEquals(expectedEntry.getName(), entry.getName());
+                assertEquals(expectedEntry.getSize(), entry.getSize());
+                assertEquals(expectedEntry.getCompressedSize(), entry.getCompressedSize());
+                assertEquals(expectedEntry.getCrc(), entry.getCrc());
+                assertEquals(expectedEntry.getMethod(), entry.getMethod());
+                assertEquals(expectedEntry.isDirectory(), entry.isDirectory());
+
+                if (!entry.isDirectory()) {
+                    try (var actualStream = archive.getInputStream(entry); var expectedStream = zipFile.getInputStream(expectedEntry)) {
+                        assertArrayEquals(expectedStream.readAllBytes(), actualStream.readAllBytes());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void open_should_read_the_same_entries_and_content_as_ZipFile() throws IOException {
+        // stored and deflated entries
+        assertSameAsZipFile(getZipFile("mix.zip"));
+        assertSameAsZipFile(getZipFile("double-image.zip"));
+        assertSameAsZipFile(getZipFile("audiences.zip"));
+        assertSameAsZipFile(getZipFile("empty.zip"));
+    }
+
+    @Test
+    void getFiles_should_leave_out_directories() throws IOException {
+        try (var archive = ZipArchive.open(getZipFile("mix.zip"))) {
+            assertEquals(6, archive.getEntries().size());
+            assertThat(archive.getFileNames()).containsExactly("subfolder/test.txt", "subfolder2/subsubfolder/leaf.txt", "root.txt");
+        }
+    }
+
+    @Test
+    void getExtractedSize_should_skip_the_first_files() throws IOException {
+        try (var archive = ZipArchive.open(getZipFile("mix.zip"))) {
+            assertEquals(21, archive.getExtractedSize());
+            assertEquals(16, archive.getExtractedSize(1));
+            assertEquals(0, archive.getExtractedSize(3));
+        }
+    }
+
+    @Test
+    void open_should_read_from_any_seekable_channel() throws IOException {
+        var path = getZipFile("mix.zip");
+
+        var channel = new SeekableInMemoryChannel(Files.readAllBytes(path));
+
+        try (var archive = new ZipArchive("mix.zip", channel); var stream = archive.getInputStream(archive.getFiles().get(2))) {
+            assertEquals("root.txt", archive.getFiles().get(2).getName());
+            assertEquals(8, stream.readAllBytes().length);
+        }
+    }
+
+    @Test
+    void open_should_throw_if_the_file_is_not_a_zip_file() throws IOException {
+        var channel = new SeekableInMemoryChannel("this is not a zip file".getBytes());
+
+        assertThrows(IOException.class, () -> new ZipArchive("text", channel));
+    }
+
+    private static class SeekableInMemoryChannel implements SeekableByteChannel {
+        private final byte[] data;
+        private long position;
+
+        SeekableInMemoryChannel(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position >= data.length) {
+                return -1;
+            }
+
+            var n = (int) Math.min(dst.remaining(), data.length - position);
+            dst.put(data, (int) position, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return data.length;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
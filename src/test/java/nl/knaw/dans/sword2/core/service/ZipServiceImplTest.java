@@ -20,52 +20,59 @@ import org.mockito.Mockito;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.zip.ZipException;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ZipServiceImplTest {
 
-    @Test
-    void getFilesInZip() {
-        var file = Mockito.mock(ZipFile.class);
-        var fileService = Mockito.mock(FileService.class);
+    ZipArchiveEntry entry(String name) {
+        return new ZipArchiveEntry(name, ZipArchiveEntry.STORED, 0, 1, 1, 0, false);
+    }
 
-        Mockito.when(file.stream()).thenAnswer(i -> Stream.of(
-            new ZipEntry("file1"),
-            new ZipEntry("file2.txt"),
-            new ZipEntry("path/to/file3.tt"),
-            new ZipEntry("folder/"),
-            new ZipEntry("folder with spaces/file with spaces.txt")));
+    @Test
+    void getFilesInZip() throws IOException {
+        var file = getClass().getResource("/zips/mix.zip");
+        assert file != null;
 
-        var result = new ZipServiceImpl(fileService).getFilesInZip(file);
+        var result = new ZipServiceImpl(Mockito.mock(FileService.class)).getFilesInZip(Path.of(file.getPath()));
 
-        assertEquals(4, result.size());
+        assertEquals(3, result.size());
 
-        assertThat(result).containsOnly("file1", "file2.txt", "path/to/file3.tt", "folder with spaces/file with spaces.txt");
+        assertThat(result).containsOnly("subfolder/test.txt", "subfolder2/subsubfolder/leaf.txt", "root.txt");
     }
 
     @Test
     void testAllFilesAreExtractedWithoutFileMapping() throws IOException {
-        var file = Mockito.mock(ZipFile.class);
+        var file = Mockito.mock(ZipArchive.class);
         var fileService = Mockito.mock(FileService.class);
 
-        Mockito.when(file.stream()).thenAnswer(i -> Stream.of(
-            new ZipEntry("file1"),
-            new ZipEntry("file2.txt"),
-            new ZipEntry("path/to/file3.tt"),
-            new ZipEntry("folder/"),
-            new ZipEntry("folder with spaces/file with spaces.txt")));
+        Mockito.when(file.getFiles()).thenReturn(List.of(
+            entry("file1"),
+            entry("file2.txt"),
+            entry("path/to/file3.tt"),
+            entry("folder with spaces/file with spaces.txt")));
 
         var is = new ByteArrayInputStream(new byte[1]);
         Mockito.when(file.getInputStream(Mockito.any())).thenReturn(is);
 
-        new ZipServiceImpl(fileService).extractZipFileWithFileMapping(file, Path.of("target/path"), Map.of());
+        new ZipServiceImpl(fileService).extractZipFileWithFileMapping(file, Path.of("target/path"), Map.of(), 0, size -> {
+        });
 
         Mockito.verify(fileService)
             .copyFile(Mockito.eq(is), Mockito.eq(Path.of("target/path/file1")));
@@ -79,19 +86,20 @@ class ZipServiceImplTest {
 
     @Test
     void testAllFilesAreExtractedWithFileMapping() throws IOException {
-        var file = Mockito.mock(ZipFile.class);
+        var file = Mockito.mock(ZipArchive.class);
         var fileService = Mockito.mock(FileService.class);
 
-        Mockito.when(file.stream()).thenAnswer(i -> Stream.of(
-            new ZipEntry("file1"),
-            new ZipEntry("path/to/file3.tt"),
-            new ZipEntry("folder with spaces/file with spaces.txt")));
+        Mockito.when(file.getFiles()).thenReturn(List.of(
+            entry("file1"),
+            entry("path/to/file3.tt"),
+            entry("folder with spaces/file with spaces.txt")));
 
         var is = new ByteArrayInputStream(new byte[1]);
         Mockito.when(file.getInputStream(Mockito.any())).thenReturn(is);
 
         var fileMapping = Map.of("file1", "some-other-value", "path/to/file3.tt", "secret-file");
-        new ZipServiceImpl(fileService).extractZipFileWithFileMapping(file, Path.of("target/path"), fileMapping);
+        new ZipServiceImpl(fileService).extractZipFileWithFileMapping(file, Path.of("target/path"), fileMapping, 0, size -> {
+        });
 
 
         Mockito.verify(fileService)
@@ -101,4 +109,155 @@ class ZipServiceImplTest {
         Mockito.verify(fileService)
             .copyFile(Mockito.eq(is), Mockito.eq(Path.of("target/path/folder with spaces/file with spaces.txt")));
     }
+
+    ZipArchive archiveWithFiles(int count) throws IOException {
+        var file = Mockito.mock(ZipArchive.class);
+        // the size of every file is its index, so that the reported sizes show the order
+        var entries = IntStream.range(0, count)
+            .mapToObj(i -> new ZipArchiveEntry("dir" + (i % 10) + "/file" + i, ZipArchiveEntry.STORED, 0, i, i, 0, false))
+            .collect(Collectors.toList());
+
+        Mockito.when(file.getFiles()).thenReturn(entries);
+        Mockito.when(file.getInputStream(Mockito.any())).thenAnswer(i -> new ByteArrayInputStream(new byte[1]));
+        return file;
+    }
+
+    @Test
+    void extractZipFileWithFileMapping_should_report_the_files_in_order_when_extracting_in_parallel() throws IOException {
+        var file = archiveWithFiles(200);
+        var fileService = Mockito.mock(FileService.class);
+        var executor = Executors.newFixedThreadPool(4);
+
+        try {
+            var sizes = new ArrayList<Long>();
+            new ZipServiceImpl(fileService, executor, 4).extractZipFileWithFileMapping(file, Path.of("target/path"), Map.of(), 50, size -> sizes.add(size));
+
+            assertThat(sizes).containsExactlyElementsOf(LongStream.range(50, 200).boxed().collect(Collectors.toList()));
+            Mockito.verify(fileService, Mockito.times(150)).copyFile(Mockito.any(InputStream.class), Mockito.any(Path.class));
+            Mockito.verify(fileService).copyFile(Mockito.any(InputStream.class), Mockito.eq(Path.of("target/path/dir3/file123")));
+
+            // the directories are created before the files are extracted
+            Mockito.verify(fileService, Mockito.times(10)).ensureDirectoriesExist(Mockito.any());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void extractZipFileWithFileMapping_should_throw_the_first_failure_and_report_only_the_files_before_it() throws IOException {
+        var file = archiveWithFiles(200);
+        var fileService = Mockito.mock(FileService.class);
+        var executor = Executors.newFixedThreadPool(4);
+        Mockito.when(fileService.copyFile(Mockito.any(InputStream.class), Mockito.eq(Path.of("target/path/dir5/file5"))))
+            .thenThrow(new IOException("No space left on device"));
+
+        try {
+            var sizes = new ArrayList<Long>();
+            var zipService = new ZipServiceImpl(fileService, executor, 4);
+
+            var e = assertThrows(IOException.class,
+                () -> zipService.extractZipFileWithFileMapping(file, Path.of("target/path"), Map.of(), 0, size -> sizes.add(size)));
+
+            assertEquals("No space left on device", e.getMessage());
+            // the files before the failed one were taken by workers before it, and these finish them
+            assertThat(sizes).containsExactly(0L, 1L, 2L, 3L, 4L);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void extractZipFileWithFileMapping_should_wait_for_the_workers_when_interrupted() throws Exception {
+        var file = archiveWithFiles(4);
+        var fileService = Mockito.mock(FileService.class);
+        var executor = Executors.newFixedThreadPool(2);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var copying = new AtomicInteger();
+        Mockito.when(fileService.copyFile(Mockito.any(InputStream.class), Mockito.any(Path.class))).thenAnswer(i -> {
+            copying.incrementAndGet();
+            started.countDown();
+            release.await();
+            copying.decrementAndGet();
+            return i.getArgument(1);
+        });
+
+        var caller = Thread.currentThread();
+        var interrupter = new Thread(() -> {
+            try {
+                started.await();
+                caller.interrupt();
+                // the worker is still copying when the caller is interrupted
+                Thread.sleep(100);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                release.countDown();
+            }
+        });
+
+        try {
+            interrupter.start();
+            var zipService = new ZipServiceImpl(fileService, executor, 2);
+
+            assertThrows(InterruptedIOException.class,
+                () -> zipService.extractZipFileWithFileMapping(file, Path.of("target/path"), Map.of(), 0, size -> {
+                }));
+
+            assertTrue(Thread.interrupted());
+            assertEquals(0, copying.get());
+        }
+        finally {
+            interrupter.join();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void extractZipFileWithFileMapping_should_throw_the_failure_when_extracting_sequentially() throws IOException {
+        var file = archiveWithFiles(10);
+        var fileService = Mockito.mock(FileService.class);
+        Mockito.when(fileService.copyFile(Mockito.any(InputStream.class), Mockito.eq(Path.of("target/path/dir5/file5"))))
+            .thenThrow(new IOException("No space left on device"));
+
+        var sizes = new ArrayList<Long>();
+
+        assertThrows(IOException.class,
+            () -> new ZipServiceImpl(fileService).extractZipFileWithFileMapping(file, Path.of("target/path"), Map.of(), 0, size -> sizes.add(size)));
+
+        assertThat(sizes).containsExactly(0L, 1L, 2L, 3L, 4L);
+        Mockito.verify(fileService, Mockito.times(6)).copyFile(Mockito.any(InputStream.class), Mockito.any(Path.class));
+    }
+
+    @Test
+    void extractZipFileWithFileMapping_should_reject_entries_outside_the_target_directory() throws IOException {
+        for (var name : List.of("../evil.txt", "dir/../../evil.txt", "/tmp/evil.txt", "dir/..")) {
+            var file = Mockito.mock(ZipArchive.class);
+            var fileService = Mockito.mock(FileService.class);
+            Mockito.when(file.getFiles()).thenReturn(List.of(entry("file1"), entry(name)));
+
+            assertThrows(ZipException.class,
+                () -> new ZipServiceImpl(fileService).extractZipFileWithFileMapping(file, Path.of("target/path"), Map.of(), 0, size -> {
+                }), name);
+
+            Mockito.verifyNoInteractions(fileService);
+        }
+    }
+
+    @Test
+    void extractZipFileWithFileMapping_should_extract_entries_with_dot_segments_inside_the_target_directory() throws IOException {
+        var file = Mockito.mock(ZipArchive.class);
+        var fileService = Mockito.mock(FileService.class);
+        Mockito.when(file.getFiles()).thenReturn(List.of(entry("dir/./sub/../file1")));
+        Mockito.when(file.getInputStream(Mockito.any())).thenReturn(new ByteArrayInputStream(new byte[1]));
+
+        new ZipServiceImpl(fileService).extractZipFileWithFileMapping(file, Path.of("target/path"), Map.of(), 0, size -> {
+        });
+
+        Mockito.verify(fileService).copyFile(Mockito.any(InputStream.class), Mockito.eq(Path.of("target/path/dir/file1")));
+    }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.health;
+
+import nl.knaw.dans.sword2.core.finalizer.DepositWorkLog;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkLogHealthCheckTest {
+
+    @Test
+    void checkHealthy() throws Exception {
+        var workLog = Mockito.mock(DepositWorkLog.class);
+        Mockito.when(workLog.isHealthy()).thenReturn(true);
+
+        var result = new WorkLogHealthCheck(workLog).check();
+
+        assertTrue(result.isHealthy());
+    }
+
+    @Test
+    void checkUnhealthyIfTheWorkLogCannotBeWritten() throws Exception {
+        var workLog = Mockito.mock(DepositWorkLog.class);
+        Mockito.when(workLog.isHealthy()).thenReturn(false);
+
+        var result = new WorkLogHealthCheck(workLog).check();
+
+        assertFalse(result.isHealthy());
+    }
+}
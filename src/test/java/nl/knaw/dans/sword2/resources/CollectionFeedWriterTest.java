@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.sword2.resources;
+
+import nl.knaw.dans.sword2.api.entry.Link;
+import nl.knaw.dans.sword2.api.statement.Feed;
+import nl.knaw.dans.sword2.api.statement.FeedEntry;
+import nl.knaw.dans.sword2.api.statement.TextElement;
+import nl.knaw.dans.sword2.core.Deposit;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CollectionFeedWriterTest {
+    private static final URI FEED_URL = URI.create("http://localhost:20320/collection/1");
+
+    Deposit deposit(String id) {
+        var deposit = new Deposit();
+        deposit.setId(id);
+        return deposit;
+    }
+
+    Feed write(List<String> ids, int pageSize) throws IOException, JAXBException {
+        var deposits = ids.stream().map(this::deposit).iterator();
+        var writer = new CollectionFeedWriter(FEED_URL, "Collection 1", deposits, pageSize,
+            deposit -> new FeedEntry(deposit.getId(), new TextElement(deposit.getId(), "text"), null, null),
+            last -> URI.create(FEED_URL + "?cursor=" + last.getId()));
+
+        var output = new ByteArrayOutputStream();
+        writer.write(output);
+
+        return (Feed) JAXBContext.newInstance(Feed.class).createUnmarshaller().unmarshal(new ByteArrayInputStream(output.toByteArray()));
+    }
+
+    List<String> getEntryIds(Feed feed) {
+        return feed.getEntries().stream().map(FeedEntry::getId).collect(Collectors.toList());
+    }
+
+    List<String> getLinks(Feed feed, String rel) {
+        return feed.getLinks().stream().filter(link -> rel.equals(link.getRel())).map(Link::getHref).map(URI::toString).collect(Collectors.toList());
+    }
+
+    @Test
+    void write_should_link_to_the_next_page_after_the_last_deposit_on_this_page() throws IOException, JAXBException {
+        var feed = write(List.of("id1", "id2", "id3"), 2);
+
+        assertEquals(FEED_URL.toString(), feed.getId());
+        assertEquals(List.of("id1", "id2"), getEntryIds(feed));
+        assertEquals(List.of(FEED_URL.toString()), getLinks(feed, "self"));
+        assertEquals(List.of(FEED_URL + "?cursor=id2"), getLinks(feed, "next"));
+    }
+
+    @Test
+    void write_should_not_link_to_a_next_page_if_all_deposits_fit() throws IOException, JAXBException {
+        var feed = write(List.of("id1", "id2"), 2);
+
+        assertEquals(List.of("id1", "id2"), getEntryIds(feed));
+        assertEquals(List.of(), getLinks(feed, "next"));
+    }
+
+    @Test
+    void write_should_write_an_empty_feed_without_deposits() throws IOException, JAXBException {
+        var feed = write(List.of(), 2);
+
+        assertEquals(List.of(), getEntryIds(feed));
+        assertEquals(List.of(), getLinks(feed, "next"));
+    }
+}
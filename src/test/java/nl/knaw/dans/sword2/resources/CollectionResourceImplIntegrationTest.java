@@ -19,6 +19,7 @@ import ch.qos.logback.classic.LoggerContext;
 import io.dropwizard.testing.junit5.DropwizardExtensionsSupport;
 import nl.knaw.dans.sword2.TestFixtureExt;
 import nl.knaw.dans.sword2.api.entry.Entry;
+import nl.knaw.dans.sword2.api.entry.Link;
 import nl.knaw.dans.sword2.api.error.Error;
 import nl.knaw.dans.sword2.api.statement.Feed;
 import nl.knaw.dans.sword2.core.service.FileServiceImpl;
@@ -42,12 +43,18 @@ import javax.ws.rs.core.MediaType;
 import javax.xml.bind.DatatypeConverter;
 import javax.xml.bind.JAXBException;
 import java.io.IOException;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -416,6 +423,80 @@ class CollectionResourceImplIntegrationTest extends TestFixtureExt {
         assertFalse(Files.exists(firstPath.resolve("invalid-sha1")));
     }
 
+    String createDraftDeposit() throws IOException {
+        var path = getClass().getResource("/zips/audiences.zip");
+        assert path != null;
+
+        var result = buildRequest("/collection/1")
+            .header("content-type", "application/zip")
+            .header("content-md5", "bc27e20467a773501a4ae37fb85a9c3f")
+            .header("content-disposition", "attachment; filename=bag.zip")
+            .header("in-progress", "true")
+            .post(Entity.entity(path.openStream(), MediaType.valueOf("application/zip")));
+
+        assertEquals(201, result.getStatus());
+
+        var parts = result.readEntity(Entry.class).getId().split("/");
+        return parts[parts.length - 1];
+    }
+
+    List<String> getDepositIds(Feed feed) {
+        return feed.getEntries() == null ? List.of() : feed.getEntries().stream()
+            .map(entry -> entry.getId().substring(entry.getId().lastIndexOf('/') + 1))
+            .collect(Collectors.toList());
+    }
+
+    Optional<URI> getNextPage(Feed feed) {
+        return feed.getLinks().stream()
+            .filter(link -> "next".equals(link.getRel()))
+            .map(Link::getHref)
+            .findFirst();
+    }
+
+    @Test
+    void testCollectionFeedInPages() throws IOException {
+        var ids = new ArrayList<String>();
+
+        for (var i = 0; i < 3; ++i) {
+            ids.add(createDraftDeposit());
+        }
+
+        Collections.sort(ids);
+
+        var firstPage = buildRequest("/collection/1?pageSize=2").get(Feed.class);
+        assertEquals(ids.subList(0, 2), getDepositIds(firstPage));
+
+        var next = getNextPage(firstPage).orElseThrow();
+        assertEquals(ids.get(1), next.getQuery().replaceAll(".*cursor=", ""));
+
+        var secondPage = buildRequest(next.getPath() + "?" + next.getQuery()).get(Feed.class);
+        assertEquals(ids.subList(2, 3), getDepositIds(secondPage));
+        assertTrue(getNextPage(secondPage).isEmpty());
+    }
+
+    @Test
+    void testCollectionFeedFilters() throws IOException {
+        var id = createDraftDeposit();
+
+        var drafts = buildRequest("/collection/1?state=DRAFT").get(Feed.class);
+        assertEquals(List.of(id), getDepositIds(drafts));
+
+        var submitted = buildRequest("/collection/1?state=SUBMITTED&state=INVALID").get(Feed.class);
+        assertEquals(List.of(), getDepositIds(submitted));
+
+        var updatedLongAgo = buildRequest("/collection/1?updatedSince=2000-01-01T00:00:00Z").get(Feed.class);
+        assertEquals(List.of(id), getDepositIds(updatedLongAgo));
+
+        var updatedLater = buildRequest("/collection/1?updatedSince=2999-01-01T00:00:00Z").get(Feed.class);
+        assertEquals(List.of(), getDepositIds(updatedLater));
+    }
+
+    @Test
+    void testCollectionFeedWithInvalidFilter() {
+        assertEquals(400, buildRequest("/collection/1?state=UNKNOWN").get().getStatus());
+        assertEquals(400, buildRequest("/collection/1?updatedSince=yesterday").get().getStatus());
+    }
+
     @Test
     void testInvalidHash() throws IOException {
         var path = getClass().getResource("/zips/audiences.zip");